@@ -0,0 +1,199 @@
+package org.multibit.hd.brit.dto;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Sets;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+
+import java.util.Set;
+
+/**
+ * <p>DTO to provide the following to FeeService:</p>
+ * <ul>
+ * <li>A running total of the sends and fee payments made by a wallet</li>
+ * <li>The hashes of the transactions already accounted for so only new transactions need examining</li>
+ * </ul>
+ * <p>The ledger is only valid for the fee address set it was built against (see <code>getFeeAddressesFingerprint</code>).</p>
+ * <p>Spends from this wallet that were not recognised as sent by self are kept as "other sends" so they can be
+ * reclassified as sends if that information arrives later (e.g. the transaction info is written after the transaction).</p>
+ *
+ * @since 0.0.1
+ */
+public class FeeLedger {
+
+  private final int feeAddressesFingerprint;
+
+  private final Set<Sha256Hash> processedTransactionHashes = Sets.newHashSet();
+
+  /**
+   * The processed transactions that may still be reclassified as sends
+   */
+  private final Set<Sha256Hash> otherSendTransactionHashes = Sets.newHashSet();
+
+  private int sendCount = 0;
+
+  private Coin feePaid = Coin.ZERO;
+
+  /**
+   * The send count (counting from zero) of the last send that paid a fee
+   */
+  private Optional<Integer> lastFeePayingSendCount = Optional.absent();
+
+  private Optional<Address> lastFeePayingSendAddress = Optional.absent();
+
+  /**
+   * @param feeAddressesFingerprint The hash code of the set of fee addresses used to recognise fee payments
+   */
+  public FeeLedger(int feeAddressesFingerprint) {
+    this.feeAddressesFingerprint = feeAddressesFingerprint;
+  }
+
+  /**
+   * @return The hash code of the set of fee addresses used to recognise fee payments
+   */
+  public int getFeeAddressesFingerprint() {
+    return feeAddressesFingerprint;
+  }
+
+  /**
+   * @param transactionHash The transaction hash
+   *
+   * @return True if the transaction has already been accounted for
+   */
+  public synchronized boolean isProcessed(Sha256Hash transactionHash) {
+    return processedTransactionHashes.contains(transactionHash);
+  }
+
+  /**
+   * <p>Account for a transaction that can never be a send by this wallet (e.g. a receipt)</p>
+   *
+   * @param transactionHash The transaction hash
+   */
+  public synchronized void recordOther(Sha256Hash transactionHash) {
+    processedTransactionHashes.add(transactionHash);
+  }
+
+  /**
+   * <p>Account for a spend from this wallet that is not (yet) known to be a send by this copy</p>
+   *
+   * @param transactionHash The transaction hash
+   */
+  public synchronized void recordOtherSend(Sha256Hash transactionHash) {
+    if (processedTransactionHashes.add(transactionHash)) {
+      otherSendTransactionHashes.add(transactionHash);
+    }
+  }
+
+  /**
+   * <p>Account for a send by this wallet (including one previously recorded as an other send)</p>
+   *
+   * @param transactionHash The transaction hash
+   * @param feeAmount       The total value of outputs paying a fee address (zero if none)
+   * @param feeAddress      The fee address paid (absent if the send paid no fee)
+   */
+  public synchronized void recordSend(Sha256Hash transactionHash, Coin feeAmount, Optional<Address> feeAddress) {
+
+    Preconditions.checkNotNull(feeAmount, "'feeAmount' must be present");
+    Preconditions.checkNotNull(feeAddress, "'feeAddress' must be present");
+
+    if (!processedTransactionHashes.add(transactionHash) && !otherSendTransactionHashes.remove(transactionHash)) {
+      return;
+    }
+
+    if (feeAddress.isPresent()) {
+      feePaid = feePaid.add(feeAmount);
+      lastFeePayingSendCount = Optional.of(sendCount);
+      lastFeePayingSendAddress = feeAddress;
+    }
+
+    sendCount++;
+
+  }
+
+  /**
+   * <p>Restore the totals from persisted state</p>
+   *
+   * @param sendCount                The number of sends
+   * @param feePaid                  The total fee paid
+   * @param lastFeePayingSendCount   The send count of the last send that paid a fee
+   * @param lastFeePayingSendAddress The fee address paid by that send
+   * @param transactionHashes        The transactions accounted for
+   * @param otherSendHashes          The transactions accounted for that may still be reclassified as sends
+   */
+  public synchronized void restore(
+    int sendCount,
+    Coin feePaid,
+    Optional<Integer> lastFeePayingSendCount,
+    Optional<Address> lastFeePayingSendAddress,
+    Set<Sha256Hash> transactionHashes,
+    Set<Sha256Hash> otherSendHashes) {
+
+    this.sendCount = sendCount;
+    this.feePaid = feePaid;
+    this.lastFeePayingSendCount = lastFeePayingSendCount;
+    this.lastFeePayingSendAddress = lastFeePayingSendAddress;
+    this.processedTransactionHashes.clear();
+    this.processedTransactionHashes.addAll(transactionHashes);
+    this.processedTransactionHashes.addAll(otherSendHashes);
+    this.otherSendTransactionHashes.clear();
+    this.otherSendTransactionHashes.addAll(otherSendHashes);
+
+  }
+
+  /**
+   * @return The number of sends made by this wallet
+   */
+  public synchronized int getSendCount() {
+    return sendCount;
+  }
+
+  /**
+   * @return The total value paid to fee addresses
+   */
+  public synchronized Coin getFeePaid() {
+    return feePaid;
+  }
+
+  /**
+   * @return The send count (counting from zero) of the last send that paid a fee
+   */
+  public synchronized Optional<Integer> getLastFeePayingSendCount() {
+    return lastFeePayingSendCount;
+  }
+
+  /**
+   * @return The fee address paid by the last send that paid a fee
+   */
+  public synchronized Optional<Address> getLastFeePayingSendAddress() {
+    return lastFeePayingSendAddress;
+  }
+
+  /**
+   * @return A copy of the hashes of the transactions accounted for
+   */
+  public synchronized Set<Sha256Hash> getProcessedTransactionHashes() {
+    return Sets.newHashSet(processedTransactionHashes);
+  }
+
+  /**
+   * @return A copy of the hashes of the transactions accounted for that may still be reclassified as sends
+   */
+  public synchronized Set<Sha256Hash> getOtherSendTransactionHashes() {
+    return Sets.newHashSet(otherSendTransactionHashes);
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "FeeLedger{" +
+      "feeAddressesFingerprint=" + feeAddressesFingerprint +
+      ", processedTransactions=" + processedTransactionHashes.size() +
+      ", otherSendTransactions=" + otherSendTransactionHashes.size() +
+      ", sendCount=" + sendCount +
+      ", feePaid=" + feePaid +
+      ", lastFeePayingSendCount=" + lastFeePayingSendCount +
+      ", lastFeePayingSendAddress=" + lastFeePayingSendAddress +
+      '}';
+  }
+}
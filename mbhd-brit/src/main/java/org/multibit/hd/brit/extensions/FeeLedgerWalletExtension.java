@@ -0,0 +1,160 @@
+package org.multibit.hd.brit.extensions;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.Sets;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.core.WalletExtension;
+import org.bitcoinj.params.MainNetParams;
+import org.multibit.hd.brit.dto.FeeLedger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.util.Strings;
+
+import java.util.Set;
+
+/**
+ * <p>Wallet Extension to provide the following to Wallet:</p>
+ * <ul>
+ * <li>Persistence of a FeeLedger</li>
+ * </ul>
+ * <p>The format is a space separated list of: send count, fee paid (satoshi), last fee paying send count,
+ * last fee paying address, fee addresses fingerprint and then the processed transaction hashes. The hash of a
+ * transaction that may still be reclassified as a send is prefixed with <code>OTHER_SEND_MARKER</code>.</p>
+ *
+ * @since 0.0.1
+ */
+public class FeeLedgerWalletExtension implements WalletExtension {
+
+  private static final Logger log = LoggerFactory.getLogger(FeeLedgerWalletExtension.class);
+
+  public static final String FEE_LEDGER_WALLET_EXTENSION_ID = "org.multibit.hd.brit.FeeLedger";
+
+  public static final String NOT_PRESENT_MARKER = SendFeeDtoWalletExtension.NOT_PRESENT_MARKER;
+  public static final char SEPARATOR = SendFeeDtoWalletExtension.SEPARATOR;
+  public static final String OTHER_SEND_MARKER = "?";
+
+  private static final int HEADER_TOKENS = 5;
+
+  private FeeLedger feeLedger;
+
+  public FeeLedgerWalletExtension() {
+    this.feeLedger = null;
+  }
+
+  public FeeLedgerWalletExtension(FeeLedger feeLedger) {
+    this.feeLedger = feeLedger;
+  }
+
+  @Override
+  public String getWalletExtensionID() {
+    return FEE_LEDGER_WALLET_EXTENSION_ID;
+  }
+
+  @Override
+  public boolean isWalletExtensionMandatory() {
+    return false;
+  }
+
+  @Override
+  public byte[] serializeWalletExtension() {
+
+    if (feeLedger == null) {
+      return new byte[0];
+    }
+
+    // Take a consistent copy since the ledger is updated from wallet events
+    final int sendCount;
+    final Coin feePaid;
+    final Optional<Integer> lastFeePayingSendCount;
+    final Optional<Address> lastFeePayingSendAddress;
+    final Set<Sha256Hash> transactionHashes;
+    final Set<Sha256Hash> otherSendHashes;
+    synchronized (feeLedger) {
+      sendCount = feeLedger.getSendCount();
+      feePaid = feeLedger.getFeePaid();
+      lastFeePayingSendCount = feeLedger.getLastFeePayingSendCount();
+      lastFeePayingSendAddress = feeLedger.getLastFeePayingSendAddress();
+      transactionHashes = feeLedger.getProcessedTransactionHashes();
+      otherSendHashes = feeLedger.getOtherSendTransactionHashes();
+    }
+
+    StringBuilder builder = new StringBuilder(80 + 65 * transactionHashes.size());
+
+    builder.append(sendCount).append(SEPARATOR);
+    builder.append(feePaid.getValue()).append(SEPARATOR);
+    builder.append(lastFeePayingSendCount.isPresent() ? lastFeePayingSendCount.get().toString() : NOT_PRESENT_MARKER).append(SEPARATOR);
+    builder.append(lastFeePayingSendAddress.isPresent() ? lastFeePayingSendAddress.get().toString() : NOT_PRESENT_MARKER).append(SEPARATOR);
+    builder.append(feeLedger.getFeeAddressesFingerprint());
+
+    for (Sha256Hash transactionHash : transactionHashes) {
+      builder.append(SEPARATOR);
+      if (otherSendHashes.contains(transactionHash)) {
+        builder.append(OTHER_SEND_MARKER);
+      }
+      builder.append(transactionHash.toString());
+    }
+
+    return builder.toString().getBytes(Charsets.UTF_8);
+  }
+
+  @Override
+  public void deserializeWalletExtension(Wallet containingWallet, byte[] data) throws Exception {
+
+    String[] tokens = Strings.split(new String(data, Charsets.UTF_8), SEPARATOR);
+    if (tokens == null || tokens.length < HEADER_TOKENS) {
+      // Leave the ledger absent so that it is rebuilt from the wallet transactions
+      log.error("Parse failed");
+      return;
+    }
+
+    try {
+      int sendCount = Integer.parseInt(tokens[0]);
+      Coin feePaid = Coin.valueOf(Long.parseLong(tokens[1]));
+
+      Optional<Integer> lastFeePayingSendCount = Optional.absent();
+      if (!NOT_PRESENT_MARKER.equals(tokens[2])) {
+        lastFeePayingSendCount = Optional.of(Integer.parseInt(tokens[2]));
+      }
+
+      Optional<Address> lastFeePayingSendAddress = Optional.absent();
+      if (!NOT_PRESENT_MARKER.equals(tokens[3])) {
+        lastFeePayingSendAddress = Optional.of(new Address(MainNetParams.get(), tokens[3]));
+      }
+
+      int feeAddressesFingerprint = Integer.parseInt(tokens[4]);
+
+      Set<Sha256Hash> transactionHashes = Sets.newHashSetWithExpectedSize(tokens.length - HEADER_TOKENS);
+      Set<Sha256Hash> otherSendHashes = Sets.newHashSet();
+      for (int i = HEADER_TOKENS; i < tokens.length; i++) {
+        if (tokens[i].startsWith(OTHER_SEND_MARKER)) {
+          otherSendHashes.add(new Sha256Hash(tokens[i].substring(OTHER_SEND_MARKER.length())));
+        } else if (!tokens[i].isEmpty()) {
+          transactionHashes.add(new Sha256Hash(tokens[i]));
+        }
+      }
+
+      FeeLedger restoredFeeLedger = new FeeLedger(feeAddressesFingerprint);
+      restoredFeeLedger.restore(sendCount, feePaid, lastFeePayingSendCount, lastFeePayingSendAddress, transactionHashes, otherSendHashes);
+      feeLedger = restoredFeeLedger;
+
+    } catch (NumberFormatException nfe) {
+      log.warn("Number format exception", nfe);
+    }
+
+  }
+
+  public FeeLedger getFeeLedger() {
+    return feeLedger;
+  }
+
+  @Override
+  public String toString() {
+    return "FeeLedgerWalletExtension{" +
+      "feeLedger=" + feeLedger +
+      '}';
+  }
+}
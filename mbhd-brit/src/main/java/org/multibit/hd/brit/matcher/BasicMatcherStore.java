@@ -265,6 +265,20 @@ public class BasicMatcherStore implements MatcherStore {
     return allBitcoinAddresses;
   }
 
+  /**
+   * @return The wallet to encounter date links indexed by BRITWalletId (used when importing into another store)
+   */
+  Map<BRITWalletId, WalletToEncounterDateLink> getWalletToEncounterDateLinks() {
+    return previousEncounterMap;
+  }
+
+  /**
+   * @return The Bitcoin addresses indexed by encounter date at midnight (used when importing into another store)
+   */
+  Map<Date, Set<Address>> getBitcoinAddressesByDate() {
+    return encounterDateToBitcoinAddressesMap;
+  }
+
   /**
    * Convert a compete date into a Date at midnight
    */
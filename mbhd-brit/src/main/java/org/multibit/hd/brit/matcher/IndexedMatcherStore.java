@@ -0,0 +1,502 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.AddressFormatException;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.MainNetParams;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.WalletToEncounterDateLink;
+import org.multibit.hd.brit.exceptions.MatcherStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Store to provide the following to Matcher classes:</p>
+ * <ul>
+ * <li>Memory resident lookup of all Bitcoin addresses, wallet to encounter date links and Bitcoin addresses by day</li>
+ * <li>Binary backing files that are read into memory in a single pass for loading</li>
+ * <li>Append-only persistence of wallet to encounter date links with batched synchronisation to disk</li>
+ * </ul>
+ * <p>The backing files in the backingStoreDirectory are:</p>
+ * <ul>
+ * <li>all.dat: Bitcoin addresses as 21 byte records (version followed by hash160)</li>
+ * <li>links.dat: 36 byte records of BRITWalletId, encounter date and first transaction date (-1 if absent)</li>
+ * <li>by-date.dat: records of UTC midnight, address count and that many Bitcoin address records</li>
+ * </ul>
+ * <p>If the links file is absent the text files of a BasicMatcherStore in the same directory are imported.</p>
+ *
+ * @since 0.0.1
+ */
+public class IndexedMatcherStore implements MatcherStore, Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(IndexedMatcherStore.class);
+
+  public static final String NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES = "all.dat";
+
+  public static final String NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS = "links.dat";
+
+  public static final String NAME_OF_FILE_CONTAINING_BITCOIN_ADDRESSES_BY_DATE = "by-date.dat";
+
+  /**
+   * The number of appended links that triggers a synchronisation to disk
+   */
+  public static final int LINK_SYNC_BATCH_SIZE = 64;
+
+  /**
+   * The longest time appended links are left unsynchronised (checked on each append)
+   */
+  public static final long LINK_SYNC_INTERVAL_MILLIS = 1000;
+
+  private static final int BRIT_WALLET_ID_LENGTH = 20;
+
+  private static final int ADDRESS_RECORD_LENGTH = 1 + 20;
+
+  private static final int LINK_RECORD_LENGTH = BRIT_WALLET_ID_LENGTH + 8 + 8;
+
+  private static final int DATE_HEADER_LENGTH = 8 + 4;
+
+  private static final long ABSENT_DATE = -1;
+
+  private final File allBitcoinAddressesFile;
+
+  private final File byDateFile;
+
+  /**
+   * A map containing the link from a BRITWalletId to the previous encounter of this wallet (if available)
+   */
+  private final Map<BRITWalletId, WalletToEncounterDateLink> previousEncounterMap = Maps.newConcurrentMap();
+
+  /**
+   * A map from the UTC midnight of the encounter date (in millis) to the Bitcoin addresses used that day
+   */
+  private final Map<Long, Set<Address>> encounterDateToBitcoinAddressesMap = Maps.newConcurrentMap();
+
+  /**
+   * The set of all the Bitcoin addresses in the MatcherStore
+   */
+  private volatile Set<Address> allBitcoinAddresses = Collections.emptySet();
+
+  /**
+   * Guards the links channel and its append state
+   */
+  private final Object linksLock = new Object();
+
+  private final FileChannel linksChannel;
+
+  private long linksAppendPosition;
+
+  private int unsyncedLinkCount = 0;
+
+  private long lastLinkSyncMillis = System.currentTimeMillis();
+
+  private long byDateAppendPosition;
+
+  /**
+   * @param backingStoreDirectory The Matcher backing store directory
+   *
+   * @throws IOException If the backing files cannot be read or created
+   */
+  public IndexedMatcherStore(File backingStoreDirectory) throws IOException {
+
+    Preconditions.checkNotNull(backingStoreDirectory, "'backingStoreDirectory' must be present");
+
+    allBitcoinAddressesFile = new File(backingStoreDirectory, NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES);
+    byDateFile = new File(backingStoreDirectory, NAME_OF_FILE_CONTAINING_BITCOIN_ADDRESSES_BY_DATE);
+    File linksFile = new File(backingStoreDirectory, NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS);
+
+    // The links file is always created on opening and is the last file moved into place by an import
+    // so its absence means that any other binary files are left over from an interrupted import
+    boolean importRequired = !linksFile.exists()
+      && (new File(backingStoreDirectory, BasicMatcherStore.NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES).exists()
+      || new File(backingStoreDirectory, BasicMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS).exists());
+
+    if (importRequired) {
+      importBasicMatcherStore(backingStoreDirectory, linksFile);
+    }
+
+    readAllBitcoinAddresses();
+    byDateAppendPosition = readBitcoinAddressesByDate();
+
+    linksChannel = new RandomAccessFile(linksFile, "rw").getChannel();
+    linksAppendPosition = readWalletToEncounterDateLinks();
+
+    log.debug("Loaded {} addresses, {} dates and {} links", allBitcoinAddresses.size(), encounterDateToBitcoinAddressesMap.size(), previousEncounterMap.size());
+
+  }
+
+  @Override
+  public void storeWalletToEncounterDateLink(WalletToEncounterDateLink walletToEncounterDateLink) {
+
+    // Update the in memory data representation
+    previousEncounterMap.put(walletToEncounterDateLink.getBritWalletId(), walletToEncounterDateLink);
+
+    ByteBuffer record = ByteBuffer.allocate(LINK_RECORD_LENGTH);
+    writeLink(record, walletToEncounterDateLink);
+    record.flip();
+
+    synchronized (linksLock) {
+      try {
+        while (record.hasRemaining()) {
+          linksAppendPosition += linksChannel.write(record, linksAppendPosition);
+        }
+        unsyncedLinkCount++;
+
+        // Batch the expensive synchronisation to disk
+        long now = System.currentTimeMillis();
+        if (unsyncedLinkCount >= LINK_SYNC_BATCH_SIZE || now - lastLinkSyncMillis >= LINK_SYNC_INTERVAL_MILLIS) {
+          syncLinks(now);
+        }
+      } catch (IOException e) {
+        log.error(e.getMessage(), e);
+      }
+    }
+
+  }
+
+  @Override
+  public WalletToEncounterDateLink lookupWalletToEncounterDateLink(BRITWalletId britWalletId) {
+    return previousEncounterMap.get(britWalletId);
+  }
+
+  @Override
+  public Set<Address> lookupBitcoinAddressListForDate(Date encounterDate) {
+    return encounterDateToBitcoinAddressesMap.get(convertToMidnight(encounterDate));
+  }
+
+  @Override
+  public synchronized void storeBitcoinAddressesForDate(Set<Address> bitcoinAddresses, Date encounterDate) {
+
+    long midnight = convertToMidnight(encounterDate);
+
+    if (encounterDateToBitcoinAddressesMap.containsKey(midnight)) {
+      // Cannot overwrite a per day list of bitcoin addresses - it may have been sent back to Payers
+      throw new IllegalArgumentException("Cannot write Bitcoin address list for date '" + encounterDate.toString() + "'. It already exists");
+    }
+
+    // Update the in memory data representation
+    encounterDateToBitcoinAddressesMap.put(midnight, Collections.unmodifiableSet(Sets.newHashSet(bitcoinAddresses)));
+
+    ByteBuffer record = ByteBuffer.allocate(DATE_HEADER_LENGTH + ADDRESS_RECORD_LENGTH * bitcoinAddresses.size());
+    record.putLong(midnight);
+    record.putInt(bitcoinAddresses.size());
+    for (Address address : bitcoinAddresses) {
+      writeAddress(record, address);
+    }
+    record.flip();
+
+    // Payers may receive these addresses so always synchronise immediately
+    try (FileChannel channel = new RandomAccessFile(byDateFile, "rw").getChannel()) {
+      while (record.hasRemaining()) {
+        byDateAppendPosition += channel.write(record, byDateAppendPosition);
+      }
+      channel.force(false);
+    } catch (IOException e) {
+      log.error("Failed to store Bitcoin addresses for date", e);
+    }
+
+  }
+
+  @Override
+  public synchronized void storeAllBitcoinAddresses(Set<Address> allBitcoinAddresses) {
+
+    // Update the in memory data representation
+    this.allBitcoinAddresses = Collections.unmodifiableSet(Sets.newHashSet(allBitcoinAddresses));
+
+    ByteBuffer records = ByteBuffer.allocate(ADDRESS_RECORD_LENGTH * allBitcoinAddresses.size());
+    for (Address address : allBitcoinAddresses) {
+      writeAddress(records, address);
+    }
+    records.flip();
+
+    // Replace the file atomically so that a failure leaves the previous addresses intact
+    try {
+      moveIntoPlace(writeTemporaryFile(allBitcoinAddressesFile, records), allBitcoinAddressesFile);
+    } catch (IOException e) {
+      log.error("Failed to store all Bitcoin addresses", e);
+    }
+
+  }
+
+  @Override
+  public Set<Address> getAllBitcoinAddresses() {
+    return allBitcoinAddresses;
+  }
+
+  /**
+   * <p>Synchronise any appended wallet to encounter date links to disk</p>
+   *
+   * @throws IOException If the synchronisation fails
+   */
+  public void flush() throws IOException {
+
+    synchronized (linksLock) {
+      if (unsyncedLinkCount > 0) {
+        syncLinks(System.currentTimeMillis());
+      }
+    }
+
+  }
+
+  /**
+   * <p>Synchronise outstanding links and release the backing files</p>
+   *
+   * @throws IOException If the synchronisation fails
+   */
+  @Override
+  public void close() throws IOException {
+
+    synchronized (linksLock) {
+      if (linksChannel.isOpen()) {
+        flush();
+        linksChannel.close();
+      }
+    }
+
+  }
+
+  /**
+   * Must hold linksLock
+   */
+  private void syncLinks(long now) throws IOException {
+
+    linksChannel.force(false);
+    unsyncedLinkCount = 0;
+    lastLinkSyncMillis = now;
+
+  }
+
+  private void readAllBitcoinAddresses() throws IOException {
+
+    if (!allBitcoinAddressesFile.exists()) {
+      return;
+    }
+
+    ByteBuffer buffer = readFully(allBitcoinAddressesFile);
+    Set<Address> addresses = Sets.newHashSetWithExpectedSize(buffer.remaining() / ADDRESS_RECORD_LENGTH);
+    while (buffer.remaining() >= ADDRESS_RECORD_LENGTH) {
+      Optional<Address> address = readAddress(buffer);
+      if (address.isPresent()) {
+        addresses.add(address.get());
+      }
+    }
+    allBitcoinAddresses = Collections.unmodifiableSet(addresses);
+
+  }
+
+  /**
+   * @return The length of the complete records (any torn record is overwritten by the next append)
+   */
+  private long readBitcoinAddressesByDate() throws IOException {
+
+    if (!byDateFile.exists()) {
+      return 0;
+    }
+
+    ByteBuffer buffer = readFully(byDateFile);
+    while (buffer.remaining() >= DATE_HEADER_LENGTH) {
+
+      int start = buffer.position();
+      long midnight = buffer.getLong();
+      int count = buffer.getInt();
+      if (count < 0 || buffer.remaining() < (long) count * ADDRESS_RECORD_LENGTH) {
+        log.warn("Ignoring incomplete record at {} in '{}'", start, byDateFile.getAbsolutePath());
+        buffer.position(start);
+        break;
+      }
+
+      Set<Address> addresses = Sets.newHashSetWithExpectedSize(count);
+      for (int i = 0; i < count; i++) {
+        Optional<Address> address = readAddress(buffer);
+        if (address.isPresent()) {
+          addresses.add(address.get());
+        }
+      }
+      encounterDateToBitcoinAddressesMap.put(midnight, Collections.unmodifiableSet(addresses));
+    }
+
+    return buffer.position();
+  }
+
+  /**
+   * @return The length of the complete records (any torn record is overwritten by the next append)
+   */
+  private long readWalletToEncounterDateLinks() throws IOException {
+
+    long size = linksChannel.size();
+    long completeLength = size - size % LINK_RECORD_LENGTH;
+    if (completeLength != size) {
+      log.warn("Ignoring incomplete link record at {}", completeLength);
+    }
+
+    if (completeLength > 0) {
+      ByteBuffer buffer = ByteBuffer.allocate((int) completeLength);
+      while (buffer.hasRemaining()) {
+        if (linksChannel.read(buffer, buffer.position()) < 0) {
+          throw new IOException("Unexpected end of links file at " + buffer.position());
+        }
+      }
+      buffer.flip();
+      byte[] britWalletIdBytes = new byte[BRIT_WALLET_ID_LENGTH];
+      while (buffer.hasRemaining()) {
+        buffer.get(britWalletIdBytes);
+        BRITWalletId britWalletId = new BRITWalletId(Utils.HEX.encode(britWalletIdBytes));
+        Optional<Date> encounterDate = readDate(buffer);
+        Optional<Date> firstTransactionDate = readDate(buffer);
+
+        // Later records replace earlier ones
+        previousEncounterMap.put(britWalletId, new WalletToEncounterDateLink(britWalletId, encounterDate, firstTransactionDate));
+      }
+    }
+
+    return completeLength;
+  }
+
+  /**
+   * <p>Copy the contents of a text based BasicMatcherStore into the binary files</p>
+   * <p>Each file is written in full to a temporary file before any is moved into place and the links file is moved
+   * last, so an interrupted import is repeated in full on the next opening.</p>
+   */
+  private void importBasicMatcherStore(File backingStoreDirectory, File linksFile) throws IOException {
+
+    log.info("Importing text matcher store from '{}'", backingStoreDirectory.getAbsolutePath());
+
+    BasicMatcherStore basicMatcherStore = new BasicMatcherStore(backingStoreDirectory);
+
+    Set<Address> addresses = basicMatcherStore.getAllBitcoinAddresses();
+    ByteBuffer addressRecords = ByteBuffer.allocate(ADDRESS_RECORD_LENGTH * addresses.size());
+    for (Address address : addresses) {
+      writeAddress(addressRecords, address);
+    }
+    addressRecords.flip();
+
+    Map<Date, Set<Address>> addressesByDate = basicMatcherStore.getBitcoinAddressesByDate();
+    int byDateLength = 0;
+    for (Set<Address> dateAddresses : addressesByDate.values()) {
+      byDateLength += DATE_HEADER_LENGTH + ADDRESS_RECORD_LENGTH * dateAddresses.size();
+    }
+    ByteBuffer byDateRecords = ByteBuffer.allocate(byDateLength);
+    for (Map.Entry<Date, Set<Address>> entry : addressesByDate.entrySet()) {
+      byDateRecords.putLong(convertToMidnight(entry.getKey()));
+      byDateRecords.putInt(entry.getValue().size());
+      for (Address address : entry.getValue()) {
+        writeAddress(byDateRecords, address);
+      }
+    }
+    byDateRecords.flip();
+
+    Map<BRITWalletId, WalletToEncounterDateLink> links = basicMatcherStore.getWalletToEncounterDateLinks();
+    ByteBuffer linkRecords = ByteBuffer.allocate(LINK_RECORD_LENGTH * links.size());
+    for (WalletToEncounterDateLink link : links.values()) {
+      writeLink(linkRecords, link);
+    }
+    linkRecords.flip();
+
+    File temporaryAllBitcoinAddressesFile = writeTemporaryFile(allBitcoinAddressesFile, addressRecords);
+    File temporaryByDateFile = writeTemporaryFile(byDateFile, byDateRecords);
+    File temporaryLinksFile = writeTemporaryFile(linksFile, linkRecords);
+
+    moveIntoPlace(temporaryAllBitcoinAddressesFile, allBitcoinAddressesFile);
+    moveIntoPlace(temporaryByDateFile, byDateFile);
+    moveIntoPlace(temporaryLinksFile, linksFile);
+
+  }
+
+  /**
+   * @param file    The file that the records are destined for
+   * @param records The records to write
+   *
+   * @return The temporary file holding the records, synchronised to disk
+   */
+  private File writeTemporaryFile(File file, ByteBuffer records) throws IOException {
+
+    File temporaryFile = new File(file.getAbsolutePath() + ".tmp");
+    try (FileChannel channel = new RandomAccessFile(temporaryFile, "rw").getChannel()) {
+      channel.truncate(0);
+      while (records.hasRemaining()) {
+        channel.write(records);
+      }
+      channel.force(false);
+    }
+
+    return temporaryFile;
+  }
+
+  private void moveIntoPlace(File temporaryFile, File file) throws IOException {
+    java.nio.file.Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * <p>Read rather than memory map the file since a live mapping prevents the atomic replace on Windows</p>
+   */
+  private ByteBuffer readFully(File file) throws IOException {
+    return ByteBuffer.wrap(Files.toByteArray(file));
+  }
+
+  private void writeLink(ByteBuffer buffer, WalletToEncounterDateLink link) {
+
+    byte[] britWalletIdBytes = link.getBritWalletId().getBytes();
+    if (britWalletIdBytes.length != BRIT_WALLET_ID_LENGTH) {
+      throw new MatcherStoreException("Unexpected BRITWalletId length: " + britWalletIdBytes.length);
+    }
+
+    buffer.put(britWalletIdBytes);
+    buffer.putLong(link.getEncounterDateOptional().isPresent() ? link.getEncounterDateOptional().get().getTime() : ABSENT_DATE);
+    buffer.putLong(link.getFirstTransactionDate().isPresent() ? link.getFirstTransactionDate().get().getTime() : ABSENT_DATE);
+
+  }
+
+  private Optional<Date> readDate(ByteBuffer buffer) {
+
+    long time = buffer.getLong();
+
+    return time == ABSENT_DATE ? Optional.<Date>absent() : Optional.of(new Date(time));
+  }
+
+  private void writeAddress(ByteBuffer buffer, Address address) {
+
+    buffer.put((byte) address.getVersion());
+    buffer.put(address.getHash160());
+
+  }
+
+  private Optional<Address> readAddress(ByteBuffer buffer) {
+
+    int version = buffer.get() & 0xFF;
+    byte[] hash160 = new byte[20];
+    buffer.get(hash160);
+
+    try {
+      return Optional.of(new Address(MainNetParams.get(), version, hash160));
+    } catch (AddressFormatException e) {
+      log.error("Malformed BRIT address record. Ignoring.", e);
+      return Optional.absent();
+    }
+  }
+
+  /**
+   * Convert a complete date into the UTC midnight at the start of that day
+   */
+  private long convertToMidnight(Date inputDate) {
+    return new DateTime(inputDate, DateTimeZone.UTC).withTimeAtStartOfDay().getMillis();
+  }
+
+}
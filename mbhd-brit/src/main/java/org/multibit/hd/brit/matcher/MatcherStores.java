@@ -27,4 +27,14 @@ public class MatcherStores {
   public static MatcherStore newBasicMatcherStore(File matcherStoreDirectory) throws IOException {
     return new BasicMatcherStore(matcherStoreDirectory);
   }
+
+  /**
+   * @param matcherStoreDirectory The directory the matcher store backing files are stored in
+   *
+   * @return The memory resident, indexed Matcher store (imports an existing basic store on first use)
+   * @throws java.io.IOException If the matcher backing store cannot be read or created
+   */
+  public static IndexedMatcherStore newIndexedMatcherStore(File matcherStoreDirectory) throws IOException {
+    return new IndexedMatcherStore(matcherStoreDirectory);
+  }
 }
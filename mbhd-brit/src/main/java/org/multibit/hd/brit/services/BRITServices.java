@@ -33,4 +33,15 @@ public class BRITServices {
     log.debug("Creating new fee service");
     return new FeeService(matcherPublicKey, matcherURL);
   }
+
+  /**
+   * @param matcherPublicKey The PGP public key of the Matcher
+   * @param matcherClient    The configured Matcher client (timeouts, retries)
+   *
+   * @return A new FeeService
+   */
+  public static FeeService newFeeService(PGPPublicKey matcherPublicKey, MatcherClient matcherClient) {
+    log.debug("Creating new fee service");
+    return new FeeService(matcherPublicKey, matcherClient);
+  }
 }
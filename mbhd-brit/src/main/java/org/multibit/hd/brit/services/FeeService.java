@@ -5,26 +5,32 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import org.bitcoinj.core.Address;
+import org.bitcoinj.core.AbstractWalletEventListener;
 import org.bitcoinj.core.AddressFormatException;
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.ScriptException;
+import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
 import org.bitcoinj.core.TransactionOutput;
 import org.bitcoinj.core.Wallet;
 import org.bitcoinj.core.WalletExtension;
 import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.utils.Threading;
 import org.bouncycastle.openpgp.PGPPublicKey;
 import org.multibit.hd.brit.crypto.AESUtils;
 import org.multibit.hd.brit.dto.BRITWalletId;
 import org.multibit.hd.brit.dto.EncryptedMatcherResponse;
 import org.multibit.hd.brit.dto.EncryptedPayerRequest;
+import org.multibit.hd.brit.dto.FeeLedger;
 import org.multibit.hd.brit.dto.FeeState;
 import org.multibit.hd.brit.dto.MatcherResponse;
 import org.multibit.hd.brit.dto.PayerRequest;
 import org.multibit.hd.brit.dto.SendFeeDto;
 import org.multibit.hd.brit.exceptions.MatcherResponseException;
 import org.multibit.hd.brit.exceptions.PayerRequestException;
+import org.multibit.hd.brit.extensions.FeeLedgerWalletExtension;
 import org.multibit.hd.brit.extensions.MatcherResponseWalletExtension;
 import org.multibit.hd.brit.extensions.SendFeeDtoWalletExtension;
 import org.multibit.hd.brit.payer.Payer;
@@ -33,13 +39,9 @@ import org.multibit.hd.brit.payer.Payers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.URL;
-import java.net.URLConnection;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -47,7 +49,10 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * <p>Service to provide the following to Payers:</p>
@@ -68,7 +73,7 @@ public class FeeService {
   private static final NetworkParameters networkParameters = MainNetParams.get();
 
   private final PGPPublicKey matcherPublicKey;
-  private final URL matcherURL;
+  private final MatcherClient matcherClient;
 
   /**
    * BRIT fee charged per send.
@@ -88,22 +93,38 @@ public class FeeService {
 
   private TransactionSentBySelfProvider transactionSentBySelfProvider;
 
+  /**
+   * The wallets with event listeners feeding their fee ledgers (weakly held so closed wallets are released)
+   */
+  private final Map<Wallet, WatchedWallet> watchedWallets = new WeakHashMap<>();
 
   private SecureRandom secureRandom;
 
   /**
-   * Construct a fee service
+   * Construct a fee service using a Matcher client with default timeouts and retries
    *
    * @param matcherPublicKey The PGP public key of the matcher service to perform exchanges with
    * @param matcherURL       the HTTP URL to send PayerRequests to
    */
   public FeeService(PGPPublicKey matcherPublicKey, URL matcherURL) {
 
+    this(matcherPublicKey, new MatcherClient(Preconditions.checkNotNull(matcherURL)));
+
+  }
+
+  /**
+   * Construct a fee service
+   *
+   * @param matcherPublicKey The PGP public key of the matcher service to perform exchanges with
+   * @param matcherClient    The client to send PayerRequests with
+   */
+  public FeeService(PGPPublicKey matcherPublicKey, MatcherClient matcherClient) {
+
     Preconditions.checkNotNull(matcherPublicKey);
-    Preconditions.checkNotNull(matcherURL);
+    Preconditions.checkNotNull(matcherClient);
 
     this.matcherPublicKey = matcherPublicKey;
-    this.matcherURL = matcherURL;
+    this.matcherClient = matcherClient;
     this.secureRandom = new SecureRandom();
 
     // Use a default provider which uses the transaction confidence.
@@ -111,6 +132,13 @@ public class FeeService {
     transactionSentBySelfProvider = new TransactionConfidenceSentBySelfProvider();
   }
 
+  /**
+   * @return The client used for exchanges with the Matcher
+   */
+  public MatcherClient getMatcherClient() {
+    return matcherClient;
+  }
+
   public void setTransactionSentBySelfProvider(TransactionSentBySelfProvider transactionSentBySelfProvider) {
     this.transactionSentBySelfProvider = transactionSentBySelfProvider;
   }
@@ -145,7 +173,7 @@ public class FeeService {
       EncryptedPayerRequest encryptedPayerRequest = payer.encryptPayerRequest(payerRequest);
 
       // Do the HTTP(S) post which, if successful, returns an EncryptedMatcherResponse as a byte array
-      EncryptedMatcherResponse encryptedMatcherResponse = new EncryptedMatcherResponse(doPost(matcherURL, encryptedPayerRequest.getPayload()));
+      EncryptedMatcherResponse encryptedMatcherResponse = new EncryptedMatcherResponse(matcherClient.post(encryptedPayerRequest.getPayload()));
 
       // Decrypt the MatcherResponse - the payer does this as it knows how it was AES encrypted (by construction)
       matcherResponse = payer.decryptMatcherResponse(encryptedMatcherResponse);
@@ -173,14 +201,6 @@ public class FeeService {
 
     //log.debug("Wallet at beginning of calculateFeeState = {}", wallet.toString(false, true, true, null));
 
-    // Get all the send transactions sent by me, ordered by date
-    List<Transaction> sendTransactions = getSentBySelfTransactionList(wallet);
-    int currentNumberOfSends = sendTransactions.size();
-    log.debug("The wallet send count is {}", currentNumberOfSends);
-
-    // Work out the total amount that should be paid by the Payer for this wallet
-    Coin grossFeeToBePaid = FEE_PER_SEND.multiply(currentNumberOfSends);
-
     // Get the previous persisted MatcherResponse from the wallet, if available
     MatcherResponse matcherResponseFromWallet = getMatcherResponseFromWallet(wallet);
 
@@ -190,32 +210,19 @@ public class FeeService {
       feeAddressesUniverse.addAll(matcherResponseFromWallet.getBitcoinAddresses());
     }
 
-    // Work out which of the sends actually send money to a fee address.
+    // Bring the ledger of sends and fee payments up to date (only new transactions are examined)
+    FeeLedger feeLedger = updateFeeLedger(wallet, feeAddressesUniverse);
+
+    int currentNumberOfSends = feeLedger.getSendCount();
+    log.debug("The wallet send count is {}", currentNumberOfSends);
+
+    // Work out the total amount that should be paid by the Payer for this wallet
+    Coin grossFeeToBePaid = FEE_PER_SEND.multiply(currentNumberOfSends);
+
     // Keep track of the amount sent as fees and the count of the last send to fees made
-    int lastFeePayingSendCount = 0;
-    Optional<String> lastFeePayingSendAddressOptional = Optional.absent();
-    Optional<Integer> lastFeePayingSendingCountOptional = Optional.absent();
-    Coin feePaid = Coin.ZERO;
-
-    for (Transaction sendTransaction : sendTransactions) {
-      List<TransactionOutput> sendTransactionOutputList = sendTransaction.getOutputs();
-      if (sendTransactionOutputList != null) {
-        for (TransactionOutput sendTransactionOutput : sendTransactionOutputList) {
-          try {
-            Address toAddress = sendTransactionOutput.getScriptPubKey().getToAddress(networkParameters);
-            if (feeAddressesUniverse.contains(toAddress)) {
-              // It pays some fee
-              feePaid = feePaid.add(sendTransactionOutput.getValue());
-              lastFeePayingSendAddressOptional = Optional.of(toAddress.toString());
-              lastFeePayingSendingCountOptional = Optional.of(lastFeePayingSendCount);
-            }
-          } catch (ScriptException se) {
-            log.debug("Cannot cast script to Address for transaction: {}", sendTransaction.getHash().toString());
-          }
-        }
-      }
-      lastFeePayingSendCount++;
-    }
+    Coin feePaid = feeLedger.getFeePaid();
+    Optional<Address> lastFeePayingSendAddressOptional = feeLedger.getLastFeePayingSendAddress();
+    Optional<Integer> lastFeePayingSendingCountOptional = feeLedger.getLastFeePayingSendCount();
 
     // The net amount fee still to be paid is the gross amount minus the amount paid so far
     // This could be negative if the user has overpaid
@@ -232,7 +239,7 @@ public class FeeService {
     // If the persisted next fee send count is in the future and the last send is NOT a fee payment then reuse the persisted info
     boolean usePersistedData = false;
     if (sendFeeDto != null && sendFeeDto.getSendFeeCount().isPresent()) {
-      if ((sendFeeDto.getSendFeeCount().get() >= lastFeePayingSendCount) &&
+      if ((sendFeeDto.getSendFeeCount().get() >= currentNumberOfSends) &&
         !((lastFeePayingSendingCountOptional.isPresent()) && (lastFeePayingSendingCountOptional.get().equals(sendFeeDto.getSendFeeCount().get())))) {
         usePersistedData = true;
       }
@@ -331,32 +338,203 @@ public class FeeService {
   }
 
   /**
-   * Get all the send transactions in the wallet that are sent by self
-   * (Sends that originate from another copy of this HD have no client fee attached)
+   * <p>Keep the fee ledger of the wallet up to date from wallet events so that
+   * <code>calculateFeeState</code> only examines transactions that have arrived since the last call.</p>
    *
-   * @param wallet the wallet to look for sends for
+   * <p>Wallets that are not watched are reconciled against all their transactions on each call
+   * (which still avoids re-examining transactions already in the ledger).</p>
    *
-   * @return List of the transactions in this wallet sent by self
+   * @param wallet The wallet to watch
    */
-  private List<Transaction> getSentBySelfTransactionList(Wallet wallet) {
+  public void watchWallet(final Wallet wallet) {
 
-    // Get all the wallets transactions and sort by date
-    ArrayList<Transaction> transactions = new ArrayList<>(wallet.getTransactions(false));
-    Collections.sort(transactions, new TransactionUpdateTimeComparator());
+    Preconditions.checkNotNull(wallet, "'wallet' must be present");
+
+    final WatchedWallet watchedWallet;
+    synchronized (watchedWallets) {
+      if (watchedWallets.containsKey(wallet)) {
+        return;
+      }
+      watchedWallet = new WatchedWallet();
+      watchedWallets.put(wallet, watchedWallet);
+    }
+
+    // Run on the wallet thread so that a send is queued before commitTx returns
+    // The listener only queues - all examination happens in calculateFeeState
+    wallet.addEventListener(new AbstractWalletEventListener() {
+
+      @Override
+      public void onCoinsReceived(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+        watchedWallet.pendingTransactions.add(tx);
+      }
+
+      @Override
+      public void onCoinsSent(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+        watchedWallet.pendingTransactions.add(tx);
+      }
+
+      @Override
+      public void onReorganize(Wallet wallet) {
+        // Transactions may have been added without individual events
+        watchedWallet.reconcileRequired = true;
+      }
+
+      @Override
+      public void onTransactionConfidenceChanged(Wallet wallet, Transaction tx) {
+        if (tx.getConfidence() != null && TransactionConfidence.ConfidenceType.DEAD.equals(tx.getConfidence().getConfidenceType())) {
+          // Dead transactions no longer count so the totals must be rebuilt
+          watchedWallet.rebuildRequired = true;
+        }
+      }
+
+    }, Threading.SAME_THREAD);
+
+    log.debug("Watching wallet for fee ledger updates");
+
+  }
+
+  /**
+   * <p>Bring the wallet fee ledger up to date, rebuilding it if the fee addresses have changed</p>
+   *
+   * @param wallet               The wallet
+   * @param feeAddressesUniverse All addresses that count as fee payments
+   *
+   * @return The up to date fee ledger (also persisted to the wallet as an extension)
+   */
+  private synchronized FeeLedger updateFeeLedger(Wallet wallet, Set<Address> feeAddressesUniverse) {
+
+    final WatchedWallet watchedWallet;
+    synchronized (watchedWallets) {
+      watchedWallet = watchedWallets.get(wallet);
+    }
+
+    int feeAddressesFingerprint = feeAddressesUniverse.hashCode();
+
+    FeeLedger feeLedger = getFeeLedgerFromWallet(wallet);
+    boolean rebuildRequired = feeLedger == null
+      || feeLedger.getFeeAddressesFingerprint() != feeAddressesFingerprint
+      || (watchedWallet != null && watchedWallet.rebuildRequired);
+
+    if (rebuildRequired) {
+      log.debug("Rebuilding the fee ledger");
+      feeLedger = new FeeLedger(feeAddressesFingerprint);
+      if (watchedWallet != null) {
+        watchedWallet.rebuildRequired = false;
+        watchedWallet.pendingTransactions.clear();
+      }
+    }
+
+    int examined = 0;
+    if (rebuildRequired || watchedWallet == null || watchedWallet.reconcileRequired) {
+
+      // Find the transactions not yet in the ledger and examine them in date order
+      List<Transaction> newTransactions = Lists.newArrayList();
+      for (Transaction transaction : wallet.getTransactions(false)) {
+        if (!feeLedger.isProcessed(transaction.getHash())) {
+          newTransactions.add(transaction);
+        }
+      }
+      Collections.sort(newTransactions, new TransactionUpdateTimeComparator());
+
+      for (Transaction transaction : newTransactions) {
+        recordTransaction(wallet, transaction, feeLedger, feeAddressesUniverse);
+      }
+      examined = newTransactions.size();
+
+      if (watchedWallet != null) {
+        // Anything queued before now has been covered
+        watchedWallet.pendingTransactions.clear();
+        watchedWallet.reconcileRequired = false;
+      }
+
+    } else {
+
+      // Only the transactions announced by wallet events since the last call
+      Transaction transaction;
+      while ((transaction = watchedWallet.pendingTransactions.poll()) != null) {
+        if (!feeLedger.isProcessed(transaction.getHash())) {
+          recordTransaction(wallet, transaction, feeLedger, feeAddressesUniverse);
+          examined++;
+        }
+      }
+
+    }
+
+    // Transaction info (and so the sent by self flag) can arrive after the transaction
+    for (Sha256Hash otherSendHash : feeLedger.getOtherSendTransactionHashes()) {
+      Transaction otherSend = wallet.getTransaction(otherSendHash);
+      if (otherSend != null && transactionSentBySelfProvider.isSentBySelf(wallet, otherSend)) {
+        log.debug("Reclassifying transaction {} as sent by self", otherSendHash);
+        recordTransaction(wallet, otherSend, feeLedger, feeAddressesUniverse);
+        examined++;
+      }
+    }
 
-    // Iterate over all transactions sorted by date, looking for transaction outputs that are sends
-    List<Transaction> sendTransactions = Lists.newArrayList();
+    log.debug("Examined {} new transaction(s) for the fee ledger: {}", examined, feeLedger);
 
-    for (Transaction transaction : transactions) {
-      boolean sentBySelf = transactionSentBySelfProvider.isSentBySelf(wallet, transaction);
+    if (rebuildRequired || examined > 0) {
+      // Persist back to wallet
+      wallet.addOrUpdateExtension(new FeeLedgerWalletExtension(feeLedger));
+    }
+
+    return feeLedger;
+  }
+
+  /**
+   * <p>Account for a single transaction in the fee ledger</p>
+   *
+   * @param wallet               The wallet
+   * @param transaction          The transaction not yet in the ledger (or recorded as an other send)
+   * @param feeLedger            The fee ledger
+   * @param feeAddressesUniverse All addresses that count as fee payments
+   */
+  private void recordTransaction(Wallet wallet, Transaction transaction, FeeLedger feeLedger, Set<Address> feeAddressesUniverse) {
 
-      if (sentBySelf) {
-        // This transaction sends from self - this will exclude unconfirmed tx
-        sendTransactions.add(transaction);
+    // Sends that originate from another copy of this HD have no client fee attached
+    if (!transactionSentBySelfProvider.isSentBySelf(wallet, transaction)) {
+      if (transaction.getValueSentFromMe(wallet).signum() > 0) {
+        // Not known to be sent by self yet so keep it eligible for reclassification
+        feeLedger.recordOtherSend(transaction.getHash());
+      } else {
+        feeLedger.recordOther(transaction.getHash());
+      }
+      return;
+    }
+
+    // Work out whether the send actually sends money to a fee address
+    Coin feeAmount = Coin.ZERO;
+    Optional<Address> feeAddress = Optional.absent();
+
+    List<TransactionOutput> sendTransactionOutputList = transaction.getOutputs();
+    if (sendTransactionOutputList != null) {
+      for (TransactionOutput sendTransactionOutput : sendTransactionOutputList) {
+        try {
+          Address toAddress = sendTransactionOutput.getScriptPubKey().getToAddress(networkParameters);
+          if (feeAddressesUniverse.contains(toAddress)) {
+            // It pays some fee
+            feeAmount = feeAmount.add(sendTransactionOutput.getValue());
+            feeAddress = Optional.of(toAddress);
+          }
+        } catch (ScriptException se) {
+          log.debug("Cannot cast script to Address for transaction: {}", transaction.getHash().toString());
+        }
       }
     }
 
-    return sendTransactions;
+    feeLedger.recordSend(transaction.getHash(), feeAmount, feeAddress);
+
+  }
+
+  public static FeeLedger getFeeLedgerFromWallet(Wallet wallet) {
+
+    Map<String, WalletExtension> walletExtensionsMap = wallet.getExtensions();
+
+    if (walletExtensionsMap != null && walletExtensionsMap.get(FeeLedgerWalletExtension.FEE_LEDGER_WALLET_EXTENSION_ID) != null) {
+      return ((FeeLedgerWalletExtension) walletExtensionsMap.get(FeeLedgerWalletExtension.FEE_LEDGER_WALLET_EXTENSION_ID)).getFeeLedger();
+    } else {
+      return null;
+    }
+
   }
 
   public static MatcherResponse getMatcherResponseFromWallet(Wallet wallet) {
@@ -417,56 +595,6 @@ public class FeeService {
     return hardwiredFeeAddresses;
   }
 
-  /**
-   * Perform a post of the specified bytes to the specified URL
-   *
-   * @param url     The URL to post to
-   * @param payload the bytes to post
-   */
-  private byte[] doPost(URL url, byte[] payload) throws IOException {
-
-    URLConnection connection;
-
-    // URL connection channel
-    connection = url.openConnection();
-
-    connection.setRequestProperty("Content-Length", String.valueOf(payload.length));
-    // Let the server know that we want input
-    connection.setDoInput(true);
-    // Let the server know that we want to do output
-    connection.setDoOutput(true);
-    // No caching, we want the real thing
-    connection.setUseCaches(false);
-    // Specify the content type
-    connection.setRequestProperty("Content-Type", "application/octet-stream");
-
-    // Try to send the POST output
-    try (DataOutputStream postOutputStream = new DataOutputStream(connection.getOutputStream())) {
-      postOutputStream.write(payload);
-      postOutputStream.flush();
-    }
-
-    // Try to GET the response data
-    try (DataInputStream responseInputStream = new DataInputStream(connection.getInputStream());
-         ByteArrayOutputStream responseOutputStream = new ByteArrayOutputStream(1024)) {
-
-      byte readByte;
-
-      boolean keepGoing = true;
-      while (keepGoing) {
-        try {
-          readByte = responseInputStream.readByte();
-          responseOutputStream.write(readByte);
-        } catch (IOException ioe) {
-          // response is all read (EOFException) or has fallen over
-          keepGoing = false;
-        }
-      }
-      return responseOutputStream.toByteArray();
-    }
-
-  }
-
   /**
    * Calculate the date of the first transaction in the Wallet
    *
@@ -487,6 +615,28 @@ public class FeeService {
     return Optional.of(transactions.get(0).getUpdateTime());
   }
 
+  /**
+   * <p>Fee ledger state for a wallet with an event listener</p>
+   */
+  private static class WatchedWallet {
+
+    /**
+     * Transactions announced by wallet events but not yet examined
+     */
+    private final Queue<Transaction> pendingTransactions = new ConcurrentLinkedQueue<>();
+
+    /**
+     * True if all wallet transactions must be checked against the ledger (initially and after a reorganisation)
+     */
+    private volatile boolean reconcileRequired = true;
+
+    /**
+     * True if a transaction in the ledger may no longer count (e.g. it has died)
+     */
+    private volatile boolean rebuildRequired = false;
+
+  }
+
   private static class TransactionUpdateTimeComparator implements Comparator<Transaction>, Serializable {
 
     private static final long serialVersionUID = 1251024601073024138L;
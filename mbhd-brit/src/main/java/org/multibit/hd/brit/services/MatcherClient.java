@@ -0,0 +1,307 @@
+package org.multibit.hd.brit.services;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Client to provide the following to FeeService:</p>
+ * <ul>
+ * <li>HTTP(S) POST of encrypted payer requests to the BRIT Matcher</li>
+ * <li>Bulk reads of the response honouring <code>Content-Length</code></li>
+ * <li>Connect and read timeouts</li>
+ * <li>Retry with exponential backoff on failures before the request is sent and on HTTP 503 (Service Unavailable)</li>
+ * <li>Round trip latency metrics</li>
+ * </ul>
+ * <p>Responses (including error responses) are always fully consumed and closed so that
+ * the JDK keep-alive cache can reuse the underlying connection for the next exchange.</p>
+ * <p>Posting a payer request is not idempotent so once the request body has been written the exchange is only
+ * repeated if the Matcher explicitly reports that it did not process it (HTTP 503).</p>
+ *
+ * @since 0.0.1
+ */
+public class MatcherClient {
+
+  private static final Logger log = LoggerFactory.getLogger(MatcherClient.class);
+
+  public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5_000;
+
+  public static final int DEFAULT_READ_TIMEOUT_MILLIS = 15_000;
+
+  public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+  public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 250;
+
+  /**
+   * Matcher responses are a few KB so anything larger indicates a misbehaving server
+   */
+  public static final int MAX_RESPONSE_LENGTH = 1024 * 1024;
+
+  private final URL matcherURL;
+
+  private final int connectTimeoutMillis;
+
+  private final int readTimeoutMillis;
+
+  private final int maxAttempts;
+
+  private final long initialBackoffMillis;
+
+  private final AtomicLong exchangeCount = new AtomicLong();
+
+  private final AtomicLong retryCount = new AtomicLong();
+
+  private final AtomicLong totalRoundTripMillis = new AtomicLong();
+
+  private final AtomicLong lastRoundTripMillis = new AtomicLong();
+
+  /**
+   * @param matcherURL The HTTP(S) URL to post payer requests to (using default timeouts and retries)
+   */
+  public MatcherClient(URL matcherURL) {
+    this(matcherURL, DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS, DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_BACKOFF_MILLIS);
+  }
+
+  /**
+   * @param matcherURL           The HTTP(S) URL to post payer requests to
+   * @param connectTimeoutMillis The connect timeout
+   * @param readTimeoutMillis    The read timeout (applies to each blocking read)
+   * @param maxAttempts          The maximum number of attempts per exchange (at least 1)
+   * @param initialBackoffMillis The delay before the first retry (doubled for each subsequent retry)
+   */
+  public MatcherClient(URL matcherURL, int connectTimeoutMillis, int readTimeoutMillis, int maxAttempts, long initialBackoffMillis) {
+
+    Preconditions.checkNotNull(matcherURL, "'matcherURL' must be present");
+    Preconditions.checkArgument(connectTimeoutMillis >= 0, "'connectTimeoutMillis' must not be negative");
+    Preconditions.checkArgument(readTimeoutMillis >= 0, "'readTimeoutMillis' must not be negative");
+    Preconditions.checkArgument(maxAttempts >= 1, "'maxAttempts' must be at least 1");
+    Preconditions.checkArgument(initialBackoffMillis >= 0, "'initialBackoffMillis' must not be negative");
+
+    this.matcherURL = matcherURL;
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    this.readTimeoutMillis = readTimeoutMillis;
+    this.maxAttempts = maxAttempts;
+    this.initialBackoffMillis = initialBackoffMillis;
+
+  }
+
+  /**
+   * @return The Matcher URL
+   */
+  public URL getMatcherURL() {
+    return matcherURL;
+  }
+
+  /**
+   * <p>Post the payload to the Matcher and return the response body</p>
+   *
+   * @param payload The bytes to post
+   *
+   * @return The response body
+   *
+   * @throws IOException If every attempt failed, the exchange failed after the request was sent or the thread was interrupted
+   */
+  public byte[] post(byte[] payload) throws IOException {
+
+    Preconditions.checkNotNull(payload, "'payload' must be present");
+
+    long start = System.currentTimeMillis();
+    long backoffMillis = initialBackoffMillis;
+
+    for (int attempt = 1; ; attempt++) {
+
+      try {
+        byte[] response = postOnce(payload);
+
+        long roundTripMillis = System.currentTimeMillis() - start;
+        exchangeCount.incrementAndGet();
+        totalRoundTripMillis.addAndGet(roundTripMillis);
+        lastRoundTripMillis.set(roundTripMillis);
+
+        log.debug("Matcher exchange completed in {}ms after {} attempt(s)", roundTripMillis, attempt);
+
+        return response;
+
+      } catch (RejectedRequestException e) {
+        // Retrying will not change the outcome or could repeat a processed request
+        throw e;
+      } catch (IOException e) {
+
+        if (attempt >= maxAttempts) {
+          throw e;
+        }
+
+        log.debug("Matcher exchange attempt {} failed ({}). Retrying in {}ms", attempt, e.getMessage(), backoffMillis);
+        retryCount.incrementAndGet();
+
+        try {
+          Thread.sleep(backoffMillis);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting to retry the Matcher exchange");
+        }
+        backoffMillis *= 2;
+      }
+    }
+
+  }
+
+  /**
+   * @return The number of successful exchanges
+   */
+  public long getExchangeCount() {
+    return exchangeCount.get();
+  }
+
+  /**
+   * @return The number of retries across all exchanges
+   */
+  public long getRetryCount() {
+    return retryCount.get();
+  }
+
+  /**
+   * @return The round trip time of the most recent successful exchange (including retries) in milliseconds
+   */
+  public long getLastRoundTripMillis() {
+    return lastRoundTripMillis.get();
+  }
+
+  /**
+   * @return The mean round trip time of successful exchanges in milliseconds
+   */
+  public double getMeanRoundTripMillis() {
+    long count = exchangeCount.get();
+    return count == 0 ? 0 : (double) totalRoundTripMillis.get() / count;
+  }
+
+  /**
+   * @param payload The bytes to post
+   *
+   * @return The response body
+   *
+   * @throws IOException If the exchange failed
+   */
+  private byte[] postOnce(byte[] payload) throws IOException {
+
+    URLConnection urlConnection = matcherURL.openConnection();
+    if (!(urlConnection instanceof HttpURLConnection)) {
+      throw new RejectedRequestException("Matcher URL must use HTTP(S): " + matcherURL);
+    }
+
+    HttpURLConnection connection = (HttpURLConnection) urlConnection;
+    connection.setConnectTimeout(connectTimeoutMillis);
+    connection.setReadTimeout(readTimeoutMillis);
+    connection.setRequestMethod("POST");
+    connection.setDoInput(true);
+    connection.setDoOutput(true);
+    // No caching, we want the real thing
+    connection.setUseCaches(false);
+    connection.setRequestProperty("Content-Type", "application/octet-stream");
+    // Sets the Content-Length and avoids buffering the request body
+    connection.setFixedLengthStreamingMode(payload.length);
+
+    try (OutputStream outputStream = connection.getOutputStream()) {
+      outputStream.write(payload);
+    }
+
+    // From here on the Matcher may have processed the request
+    final int responseCode;
+    try {
+      responseCode = connection.getResponseCode();
+    } catch (IOException e) {
+      throw new RejectedRequestException("No response from the Matcher after the request was sent", e);
+    }
+
+    if (responseCode != HttpURLConnection.HTTP_OK) {
+
+      // Drain the error body so the connection can be reused
+      discard(connection.getErrorStream());
+
+      String message = "Matcher responded with HTTP " + responseCode;
+      if (responseCode == HttpURLConnection.HTTP_UNAVAILABLE) {
+        // The request was not processed so it is safe to repeat
+        throw new IOException(message);
+      }
+      throw new RejectedRequestException(message);
+    }
+
+    try (InputStream inputStream = connection.getInputStream()) {
+      return readResponse(inputStream, connection.getContentLength());
+    } catch (IOException e) {
+      throw new RejectedRequestException("Could not read the Matcher response", e);
+    }
+
+  }
+
+  /**
+   * @param inputStream   The response stream
+   * @param contentLength The declared content length (-1 if not declared)
+   *
+   * @return The response body
+   *
+   * @throws IOException If the body is truncated, too large or could not be read
+   */
+  private byte[] readResponse(InputStream inputStream, int contentLength) throws IOException {
+
+    if (contentLength > MAX_RESPONSE_LENGTH) {
+      throw new IOException("Matcher response too large: " + contentLength + " bytes");
+    }
+
+    if (contentLength >= 0) {
+      // Read exactly the declared length (EOFException if truncated)
+      byte[] response = new byte[contentLength];
+      ByteStreams.readFully(inputStream, response);
+      return response;
+    }
+
+    // Chunked or unspecified length so read to end of stream in bulk
+    byte[] response = ByteStreams.toByteArray(ByteStreams.limit(inputStream, MAX_RESPONSE_LENGTH + 1L));
+    if (response.length > MAX_RESPONSE_LENGTH) {
+      throw new IOException("Matcher response too large");
+    }
+    return response;
+  }
+
+  /**
+   * @param inputStream The stream to read to the end and close (may be null)
+   */
+  private void discard(InputStream inputStream) {
+
+    if (inputStream == null) {
+      return;
+    }
+    try (InputStream closeable = inputStream) {
+      ByteStreams.copy(ByteStreams.limit(closeable, MAX_RESPONSE_LENGTH), ByteStreams.nullOutputStream());
+    } catch (IOException e) {
+      log.debug("Could not drain Matcher error response: {}", e.getMessage());
+    }
+
+  }
+
+  /**
+   * <p>Indicates a failure that must not be retried (the Matcher rejected or may have processed the request)</p>
+   */
+  private static class RejectedRequestException extends IOException {
+
+    private RejectedRequestException(String message) {
+      super(message);
+    }
+
+    private RejectedRequestException(String message, Throwable cause) {
+      super(message, cause);
+    }
+
+  }
+
+}
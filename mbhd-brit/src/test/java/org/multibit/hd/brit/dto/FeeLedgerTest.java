@@ -0,0 +1,49 @@
+package org.multibit.hd.brit.dto;
+
+import com.google.common.base.Optional;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.junit.Test;
+import org.multibit.hd.brit.extensions.FeeLedgerWalletExtension;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class FeeLedgerTest {
+
+  private static final Sha256Hash RECEIPT_HASH = Sha256Hash.create(new byte[]{1});
+  private static final Sha256Hash OTHER_SEND_HASH = Sha256Hash.create(new byte[]{2});
+
+  @Test
+  public void testRecordOtherSend_Reclassified() throws Exception {
+
+    FeeLedger feeLedger = new FeeLedger(1);
+
+    feeLedger.recordOther(RECEIPT_HASH);
+    feeLedger.recordOtherSend(OTHER_SEND_HASH);
+
+    assertThat(feeLedger.isProcessed(OTHER_SEND_HASH)).isTrue();
+    assertThat(feeLedger.getSendCount()).isEqualTo(0);
+
+    // A receipt is never counted as a send
+    feeLedger.recordSend(RECEIPT_HASH, Coin.ZERO, Optional.<Address>absent());
+    assertThat(feeLedger.getSendCount()).isEqualTo(0);
+
+    // The other send survives a round trip through the wallet extension
+    FeeLedgerWalletExtension restoredExtension = new FeeLedgerWalletExtension();
+    restoredExtension.deserializeWalletExtension(null, new FeeLedgerWalletExtension(feeLedger).serializeWalletExtension());
+    FeeLedger restoredFeeLedger = restoredExtension.getFeeLedger();
+
+    assertThat(restoredFeeLedger.getProcessedTransactionHashes()).isEqualTo(feeLedger.getProcessedTransactionHashes());
+    assertThat(restoredFeeLedger.getOtherSendTransactionHashes()).containsOnly(OTHER_SEND_HASH);
+
+    // Learning later that it was sent by self counts it once
+    restoredFeeLedger.recordSend(OTHER_SEND_HASH, Coin.ZERO, Optional.<Address>absent());
+    restoredFeeLedger.recordSend(OTHER_SEND_HASH, Coin.ZERO, Optional.<Address>absent());
+
+    assertThat(restoredFeeLedger.getSendCount()).isEqualTo(1);
+    assertThat(restoredFeeLedger.getOtherSendTransactionHashes()).isEmpty();
+
+  }
+
+}
@@ -0,0 +1,115 @@
+package org.multibit.hd.brit.matcher;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.multibit.hd.brit.crypto.PGPUtilsTest;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.PayerRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Benchmark of BasicMatcher.process against the basic and indexed stores. Enable this test to compare them.
+ */
+@Ignore
+public class IndexedMatcherStoreFunctionalTest {
+
+  private static final Logger log = LoggerFactory.getLogger(IndexedMatcherStoreFunctionalTest.class);
+
+  private static final int BENCHMARK_REQUEST_COUNT = 2000;
+
+  private static final String[] RAW_TEST_ADDRESSES = new String[]{
+
+    "1AhN6rPdrMuKBGFDKR1k9A8SCLYaNgXhty",
+    "14Ru32Lb4kdLGfAMz1VAtxh3UFku62HaNH",
+    "1KesQEF2yC2FzkJYLLozZJdbBF7zRhrdSC",
+    "1CuWW5fDxuFN6CcrRi51ADWHXAMJPYxY5y",
+    "1NfNX36S8aocBomvWgySaK9fn93pbpEhmY",
+    "1J1nTRJJT3ghsnAEvwd8dMmoTuaAMSLf4V"
+  };
+
+  private final SecureRandom secureRandom = new SecureRandom();
+
+  @Test
+  public void testProcessThroughput() throws Exception {
+
+    MatcherStore basicMatcherStore = MatcherStores.newBasicMatcherStore(Files.createTempDir());
+    IndexedMatcherStore indexedMatcherStore = MatcherStores.newIndexedMatcherStore(Files.createTempDir());
+
+    double basicRequestsPerSecond = measureProcessThroughput(basicMatcherStore);
+    double indexedRequestsPerSecond = measureProcessThroughput(indexedMatcherStore);
+
+    log.info("BasicMatcher.process: basic store {} requests/sec, indexed store {} requests/sec",
+      String.format("%.0f", basicRequestsPerSecond), String.format("%.0f", indexedRequestsPerSecond));
+
+    assertThat(indexedMatcherStore.lookupBitcoinAddressListForDate(new Date()).size()).isEqualTo(4);
+
+    indexedMatcherStore.close();
+
+  }
+
+  private double measureProcessThroughput(MatcherStore store) throws Exception {
+
+    List<Address> testAddresses = Lists.newArrayList();
+    for (String rawTestAddress : RAW_TEST_ADDRESSES) {
+      testAddresses.add(new Address(MainNetParams.get(), rawTestAddress));
+    }
+    store.storeAllBitcoinAddresses(Sets.newHashSet(testAddresses));
+
+    File matcherSecretKeyFile = PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_SECRET_KEYRING_FILE);
+    Matcher matcher = Matchers.newBasicMatcher(new MatcherConfig(matcherSecretKeyFile, PGPUtilsTest.TEST_DATA_PASSWORD), store);
+
+    // Build the requests in advance so only processing is timed
+    List<PayerRequest> payerRequests = Lists.newArrayList();
+    for (int i = 0; i < BENCHMARK_REQUEST_COUNT; i++) {
+      payerRequests.add(new PayerRequest(newBRITWalletId(), new byte[16], Optional.of(new Date())));
+    }
+
+    long start = System.nanoTime();
+    for (PayerRequest payerRequest : payerRequests) {
+      matcher.process(payerRequest);
+    }
+    long elapsedNanos = System.nanoTime() - start;
+
+    return BENCHMARK_REQUEST_COUNT * 1e9 / elapsedNanos;
+  }
+
+  private BRITWalletId newBRITWalletId() {
+
+    byte[] britWalletIdBytes = new byte[20];
+    secureRandom.nextBytes(britWalletIdBytes);
+
+    return new BRITWalletId(Utils.HEX.encode(britWalletIdBytes));
+  }
+
+}
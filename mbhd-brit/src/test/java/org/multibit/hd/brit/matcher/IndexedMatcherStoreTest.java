@@ -0,0 +1,179 @@
+package org.multibit.hd.brit.matcher;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.MainNetParams;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.WalletToEncounterDateLink;
+
+import java.io.File;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class IndexedMatcherStoreTest {
+
+  private static List<Address> testAddresses = Lists.newArrayList();
+
+  private final SecureRandom secureRandom = new SecureRandom();
+
+  private File matcherStoreDirectory;
+
+  private IndexedMatcherStore matcherStore;
+
+  @BeforeClass
+  public static void setUpOnce() throws Exception {
+
+    String[] rawTestAddresses = new String[]{
+
+      "1AhN6rPdrMuKBGFDKR1k9A8SCLYaNgXhty",
+      "14Ru32Lb4kdLGfAMz1VAtxh3UFku62HaNH",
+      "1KesQEF2yC2FzkJYLLozZJdbBF7zRhrdSC",
+      "1CuWW5fDxuFN6CcrRi51ADWHXAMJPYxY5y",
+      "1NfNX36S8aocBomvWgySaK9fn93pbpEhmY",
+      "1J1nTRJJT3ghsnAEvwd8dMmoTuaAMSLf4V"
+    };
+
+    for (String rawTestAddress : rawTestAddresses) {
+      testAddresses.add(new Address(MainNetParams.get(), rawTestAddress));
+    }
+
+  }
+
+  @Before
+  public void setUp() throws Exception {
+
+    matcherStoreDirectory = Files.createTempDir();
+    matcherStore = MatcherStores.newIndexedMatcherStore(matcherStoreDirectory);
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    matcherStore.close();
+
+  }
+
+  @Test
+  public void testStoreAndReload() throws Exception {
+
+    Set<Address> allBitcoinAddresses = Sets.newHashSet(testAddresses);
+    matcherStore.storeAllBitcoinAddresses(allBitcoinAddresses);
+
+    Date today = DateTime.now().toDate();
+    Set<Address> todaysAddresses = Sets.newHashSet(testAddresses.subList(0, 4));
+    matcherStore.storeBitcoinAddressesForDate(todaysAddresses, today);
+
+    WalletToEncounterDateLink link1 = new WalletToEncounterDateLink(newBRITWalletId(), Optional.of(today), Optional.of(DateTime.now().minusDays(1).toDate()));
+    WalletToEncounterDateLink link2 = new WalletToEncounterDateLink(newBRITWalletId(), Optional.of(today), Optional.<Date>absent());
+    matcherStore.storeWalletToEncounterDateLink(link1);
+    matcherStore.storeWalletToEncounterDateLink(link2);
+
+    // Bounce the MatcherStore to check everything is being persisted
+    matcherStore.close();
+    IndexedMatcherStore rebornMatcherStore = MatcherStores.newIndexedMatcherStore(matcherStoreDirectory);
+
+    assertThat(rebornMatcherStore.getAllBitcoinAddresses()).isEqualTo(allBitcoinAddresses);
+    assertThat(rebornMatcherStore.lookupBitcoinAddressListForDate(DateTime.now().toDate())).isEqualTo(todaysAddresses);
+    assertThat(rebornMatcherStore.lookupBitcoinAddressListForDate(DateTime.now().plusDays(1).toDate())).isNull();
+    assertThat(rebornMatcherStore.lookupWalletToEncounterDateLink(link1.getBritWalletId())).isEqualTo(link1);
+    assertThat(rebornMatcherStore.lookupWalletToEncounterDateLink(link2.getBritWalletId())).isEqualTo(link2);
+
+    rebornMatcherStore.close();
+
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testStoreBitcoinAddressesForDate_Existing() throws Exception {
+
+    Date today = DateTime.now().toDate();
+    matcherStore.storeBitcoinAddressesForDate(Sets.newHashSet(testAddresses.get(0)), today);
+    matcherStore.storeBitcoinAddressesForDate(Sets.newHashSet(testAddresses.get(1)), today);
+
+  }
+
+  @Test
+  public void testImportBasicMatcherStore() throws Exception {
+
+    File basicStoreDirectory = Files.createTempDir();
+    MatcherStore basicMatcherStore = MatcherStores.newBasicMatcherStore(basicStoreDirectory);
+
+    Set<Address> allBitcoinAddresses = Sets.newHashSet(testAddresses);
+    basicMatcherStore.storeAllBitcoinAddresses(allBitcoinAddresses);
+
+    Date yesterday = DateTime.now().minusDays(1).toDate();
+    Set<Address> yesterdaysAddresses = Sets.newHashSet(testAddresses.subList(2, 6));
+    basicMatcherStore.storeBitcoinAddressesForDate(yesterdaysAddresses, yesterday);
+
+    WalletToEncounterDateLink link = new WalletToEncounterDateLink(newBRITWalletId(), Optional.of(yesterday), Optional.<Date>absent());
+    basicMatcherStore.storeWalletToEncounterDateLink(link);
+
+    IndexedMatcherStore importedMatcherStore = MatcherStores.newIndexedMatcherStore(basicStoreDirectory);
+
+    assertThat(importedMatcherStore.getAllBitcoinAddresses()).isEqualTo(allBitcoinAddresses);
+    assertThat(importedMatcherStore.lookupBitcoinAddressListForDate(yesterday)).isEqualTo(yesterdaysAddresses);
+    assertThat(importedMatcherStore.lookupWalletToEncounterDateLink(link.getBritWalletId())).isEqualTo(link);
+    assertThat(new File(basicStoreDirectory, IndexedMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS).exists()).isTrue();
+
+    importedMatcherStore.close();
+
+  }
+
+  @Test
+  public void testImportBasicMatcherStore_Interrupted() throws Exception {
+
+    File basicStoreDirectory = Files.createTempDir();
+    MatcherStore basicMatcherStore = MatcherStores.newBasicMatcherStore(basicStoreDirectory);
+
+    Set<Address> allBitcoinAddresses = Sets.newHashSet(testAddresses);
+    basicMatcherStore.storeAllBitcoinAddresses(allBitcoinAddresses);
+
+    // An earlier import stopped after moving a truncated address file into place but before the links file
+    Files.write(new byte[7], new File(basicStoreDirectory, IndexedMatcherStore.NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES));
+
+    IndexedMatcherStore importedMatcherStore = MatcherStores.newIndexedMatcherStore(basicStoreDirectory);
+
+    assertThat(importedMatcherStore.getAllBitcoinAddresses()).isEqualTo(allBitcoinAddresses);
+
+    importedMatcherStore.close();
+
+  }
+
+  private BRITWalletId newBRITWalletId() {
+
+    byte[] britWalletIdBytes = new byte[20];
+    secureRandom.nextBytes(britWalletIdBytes);
+
+    return new BRITWalletId(Utils.HEX.encode(britWalletIdBytes));
+  }
+
+}
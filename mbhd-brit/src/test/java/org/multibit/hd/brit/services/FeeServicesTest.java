@@ -33,7 +33,9 @@ import org.junit.Test;
 import org.multibit.hd.brit.crypto.PGPUtils;
 import org.multibit.hd.brit.crypto.PGPUtilsTest;
 import org.multibit.hd.brit.dto.BRITWalletIdTest;
+import org.multibit.hd.brit.dto.FeeLedger;
 import org.multibit.hd.brit.dto.FeeState;
+import org.multibit.hd.brit.extensions.FeeLedgerWalletExtension;
 import org.multibit.hd.brit.extensions.MatcherResponseWalletExtension;
 import org.multibit.hd.brit.seed_phrase.Bip39SeedPhraseGenerator;
 import org.multibit.hd.brit.seed_phrase.SeedPhraseGenerator;
@@ -159,6 +161,51 @@ public class FeeServicesTest {
     checkFeeState(feeState, true, NUMBER_OF_NON_FEE_SENDS + 1, Coin.ZERO, FeeService.FEE_PER_SEND, possibleNextFeeAddresses);
   }
 
+  @Test
+  public void testCalculateFeeState_WatchedWallet() throws Exception {
+
+    FeeService feeService = BRITServices.newFeeService(encryptionKey, new URL(DUMMY_MATCHER_URL));
+    feeService.performExchangeWithMatcher(seed, wallet1);
+    Set<Address> possibleNextFeeAddresses = feeService.getHardwiredFeeAddresses();
+
+    // Receive before watching so that the first calculation has to reconcile
+    receiveATransaction(wallet1, toAddress1);
+    feeService.watchWallet(wallet1);
+
+    FeeState feeState = feeService.calculateFeeState(wallet1, false);
+    checkFeeState(feeState, true, 0, Coin.ZERO, FeeService.FEE_PER_SEND, possibleNextFeeAddresses);
+
+    final int NUMBER_OF_NON_FEE_SENDS = 5;
+    for (int i = 0; i < NUMBER_OF_NON_FEE_SENDS; i++) {
+      sendBitcoin(parseCoin("0.01"), nonFeeDestinationAddress, null);
+
+      // The send is picked up from the wallet event
+      feeState = feeService.calculateFeeState(wallet1, false);
+      checkFeeState(feeState, true, 1 + i, FeeService.FEE_PER_SEND.multiply(i + 1), FeeService.FEE_PER_SEND, possibleNextFeeAddresses);
+    }
+
+    sendBitcoin(feeState.getFeeOwed().add(FeeService.FEE_PER_SEND), feeState.getNextFeeAddress(), null);
+
+    feeState = feeService.calculateFeeState(wallet1, false);
+    checkFeeState(feeState, true, NUMBER_OF_NON_FEE_SENDS + 1, Coin.ZERO, FeeService.FEE_PER_SEND, possibleNextFeeAddresses);
+
+    // The ledger survives a round trip through its wallet extension
+    FeeLedger feeLedger = FeeService.getFeeLedgerFromWallet(wallet1);
+    assertThat(feeLedger).isNotNull();
+
+    FeeLedgerWalletExtension restoredExtension = new FeeLedgerWalletExtension();
+    restoredExtension.deserializeWalletExtension(wallet1, new FeeLedgerWalletExtension(feeLedger).serializeWalletExtension());
+    FeeLedger restoredFeeLedger = restoredExtension.getFeeLedger();
+
+    assertThat(restoredFeeLedger.getSendCount()).isEqualTo(NUMBER_OF_NON_FEE_SENDS + 1);
+    assertThat(restoredFeeLedger.getFeePaid()).isEqualTo(feeLedger.getFeePaid());
+    assertThat(restoredFeeLedger.getLastFeePayingSendCount().get()).isEqualTo(NUMBER_OF_NON_FEE_SENDS);
+    assertThat(restoredFeeLedger.getLastFeePayingSendAddress()).isEqualTo(feeLedger.getLastFeePayingSendAddress());
+    assertThat(restoredFeeLedger.getFeeAddressesFingerprint()).isEqualTo(feeLedger.getFeeAddressesFingerprint());
+    assertThat(restoredFeeLedger.getProcessedTransactionHashes()).isEqualTo(feeLedger.getProcessedTransactionHashes());
+
+  }
+
   private void checkFeeState(
     FeeState feeState,
     boolean expectedIsUsingHardwiredBRITAddress,
@@ -0,0 +1,131 @@
+package org.multibit.hd.brit.services;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.multibit.hd.brit.dto.EncryptedMatcherResponse;
+import org.multibit.hd.brit.dto.EncryptedPayerRequest;
+import org.multibit.hd.brit.dto.MatcherResponse;
+import org.multibit.hd.brit.dto.PayerRequest;
+import org.multibit.hd.brit.matcher.Matcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Test fixture to provide the following to load tests:</p>
+ * <ul>
+ * <li>An embedded HTTP stand-in for the BRIT Matcher server backed by a real Matcher</li>
+ * <li>Injection of server errors to exercise client retries</li>
+ * </ul>
+ */
+public class LocalMatcherServer {
+
+  private static final Logger log = LoggerFactory.getLogger(LocalMatcherServer.class);
+
+  private final HttpServer httpServer;
+
+  private final ExecutorService executorService;
+
+  private final AtomicInteger failuresRemaining = new AtomicInteger();
+
+  private final AtomicInteger requestCount = new AtomicInteger();
+
+  /**
+   * @param matcher The Matcher handling decrypted payer requests
+   * @param threads The number of request handling threads
+   *
+   * @throws IOException If the server could not bind to a local port
+   */
+  public LocalMatcherServer(final Matcher matcher, int threads) throws IOException {
+
+    httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    executorService = Executors.newFixedThreadPool(threads);
+    httpServer.setExecutor(executorService);
+
+    httpServer.createContext("/brit", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+
+        requestCount.incrementAndGet();
+
+        try (InputStream requestBody = exchange.getRequestBody()) {
+
+          byte[] payload = ByteStreams.toByteArray(requestBody);
+
+          if (failuresRemaining.getAndDecrement() > 0) {
+            respond(exchange, 503, new byte[0]);
+            return;
+          }
+
+          PayerRequest payerRequest = matcher.decryptPayerRequest(new EncryptedPayerRequest(payload));
+          MatcherResponse matcherResponse = matcher.process(payerRequest);
+          EncryptedMatcherResponse encryptedMatcherResponse = matcher.encryptMatcherResponse(matcherResponse);
+
+          respond(exchange, 200, encryptedMatcherResponse.getPayload());
+
+        } catch (Exception e) {
+          log.error("Stand-in matcher failed", e);
+          respond(exchange, 500, new byte[0]);
+        }
+
+      }
+    });
+
+  }
+
+  public void start() {
+    httpServer.start();
+  }
+
+  public void stop() {
+    httpServer.stop(0);
+    executorService.shutdownNow();
+  }
+
+  /**
+   * @return The URL that payer requests should be posted to
+   */
+  public URL getURL() throws IOException {
+    return new URL("http", "127.0.0.1", httpServer.getAddress().getPort(), "/brit");
+  }
+
+  /**
+   * @param failures The number of upcoming requests to answer with HTTP 503
+   */
+  public void failNextRequests(int failures) {
+    failuresRemaining.set(failures);
+  }
+
+  /**
+   * @return The number of requests received (including failed ones)
+   */
+  public int getRequestCount() {
+    return requestCount.get();
+  }
+
+  private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+
+    exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+    // A zero body length must be sent as -1 (no body) to keep the connection reusable
+    exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+    if (body.length > 0) {
+      try (OutputStream responseBody = exchange.getResponseBody()) {
+        responseBody.write(body);
+      }
+    }
+    exchange.close();
+
+  }
+
+}
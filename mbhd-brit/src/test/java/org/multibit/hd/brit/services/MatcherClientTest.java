@@ -0,0 +1,167 @@
+package org.multibit.hd.brit.services;
+
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.params.MainNetParams;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.brit.crypto.PGPUtils;
+import org.multibit.hd.brit.crypto.PGPUtilsTest;
+import org.multibit.hd.brit.dto.BRITWalletIdTest;
+import org.multibit.hd.brit.dto.MatcherResponse;
+import org.multibit.hd.brit.matcher.Matcher;
+import org.multibit.hd.brit.matcher.MatcherConfig;
+import org.multibit.hd.brit.matcher.MatcherStore;
+import org.multibit.hd.brit.matcher.MatcherStores;
+import org.multibit.hd.brit.matcher.Matchers;
+import org.multibit.hd.brit.seed_phrase.Bip39SeedPhraseGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.Date;
+import java.util.Set;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class MatcherClientTest {
+
+  private static final Logger log = LoggerFactory.getLogger(MatcherClientTest.class);
+
+  private static final int EXCHANGES = 50;
+
+  private LocalMatcherServer localMatcherServer;
+
+  private PGPPublicKey matcherPublicKey;
+
+  private Set<Address> matcherAddresses;
+
+  @Before
+  public void setUp() throws Exception {
+
+    try (FileInputStream publicKeyRingInputStream = new FileInputStream(PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_PUBLIC_KEYRING_FILE))) {
+      matcherPublicKey = PGPUtils.readPublicKey(publicKeyRingInputStream);
+    }
+
+    MatcherConfig matcherConfig = new MatcherConfig(PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_SECRET_KEYRING_FILE), PGPUtilsTest.TEST_DATA_PASSWORD);
+    MatcherStore matcherStore = MatcherStores.newBasicMatcherStore(Files.createTempDir());
+
+    matcherAddresses = Sets.newHashSet(
+      new Address(MainNetParams.get(), "1CQH7Hp9nNQVDcKtFVwbA8tqPMNWDBvqE3"),
+      new Address(MainNetParams.get(), "1LrsPGpBhzMtTM5f9sfGj3LEfCSZRcGXmd")
+    );
+    matcherStore.storeBitcoinAddressesForDate(matcherAddresses, new Date());
+
+    Matcher matcher = Matchers.newBasicMatcher(matcherConfig, matcherStore);
+
+    localMatcherServer = new LocalMatcherServer(matcher, 4);
+    localMatcherServer.start();
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    localMatcherServer.stop();
+
+  }
+
+  @Test
+  public void testPerformExchangeWithMatcher_Latency() throws Exception {
+
+    MatcherClient matcherClient = new MatcherClient(localMatcherServer.getURL());
+    FeeService feeService = BRITServices.newFeeService(matcherPublicKey, matcherClient);
+
+    byte[] seed = new Bip39SeedPhraseGenerator().convertToSeed(Bip39SeedPhraseGenerator.split(BRITWalletIdTest.SEED_PHRASE_1));
+    Wallet wallet = new Wallet(MainNetParams.get());
+
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < EXCHANGES; i++) {
+      feeService.performExchangeWithMatcher(seed, wallet);
+    }
+    long elapsed = System.currentTimeMillis() - start;
+
+    log.info("{} matcher exchanges in {}ms (mean client round trip {}ms)", EXCHANGES, elapsed, matcherClient.getMeanRoundTripMillis());
+
+    // Every exchange reached the stand-in rather than falling back to the hardwired addresses
+    assertThat(matcherClient.getExchangeCount()).isEqualTo(EXCHANGES);
+    assertThat(matcherClient.getRetryCount()).isEqualTo(0);
+
+    MatcherResponse matcherResponse = FeeService.getMatcherResponseFromWallet(wallet);
+    assertThat(matcherResponse).isNotNull();
+    assertThat(matcherResponse.getBitcoinAddresses()).isEqualTo(matcherAddresses);
+
+  }
+
+  @Test
+  public void testPost_RetriesServerErrors() throws Exception {
+
+    MatcherClient matcherClient = new MatcherClient(localMatcherServer.getURL(), 1_000, 5_000, 3, 10);
+
+    localMatcherServer.failNextRequests(2);
+
+    // An unreadable payload is still answered (with a server error) after the injected failures
+    try {
+      matcherClient.post(new byte[]{1, 2, 3});
+      fail("Expected the server error to be reported");
+    } catch (IOException e) {
+      assertThat(e.getMessage()).contains("500");
+    }
+
+    // Only the 503 responses are retried
+    assertThat(matcherClient.getRetryCount()).isEqualTo(2);
+    assertThat(localMatcherServer.getRequestCount()).isEqualTo(3);
+
+  }
+
+  @Test
+  public void testPost_NoRetryAfterRequestSent() throws Exception {
+
+    MatcherClient matcherClient = new MatcherClient(localMatcherServer.getURL(), 1_000, 5_000, 3, 10);
+
+    // The Matcher may have acted on a request that failed with anything other than 503
+    try {
+      matcherClient.post(new byte[]{1, 2, 3});
+      fail("Expected the server error to be reported");
+    } catch (IOException e) {
+      assertThat(e.getMessage()).contains("500");
+    }
+
+    assertThat(matcherClient.getRetryCount()).isEqualTo(0);
+    assertThat(localMatcherServer.getRequestCount()).isEqualTo(1);
+
+  }
+
+  @Test
+  public void testPost_RetriesConnectFailures() throws Exception {
+
+    // Find a port with nothing listening
+    int port;
+    try (ServerSocket serverSocket = new ServerSocket(0, 0, InetAddress.getLoopbackAddress())) {
+      port = serverSocket.getLocalPort();
+    }
+
+    MatcherClient matcherClient = new MatcherClient(new URL("http", "127.0.0.1", port, "/brit"), 1_000, 5_000, 3, 10);
+
+    try {
+      matcherClient.post(new byte[]{1, 2, 3});
+      fail("Expected the connection to be refused");
+    } catch (IOException e) {
+      // Expected
+    }
+
+    // Nothing was sent so every attempt is made
+    assertThat(matcherClient.getRetryCount()).isEqualTo(2);
+
+  }
+
+}
@@ -23,6 +23,15 @@ public class WalletConfiguration {
    */
   private String recentWalletLabel;
 
+  /**
+   * The time without edits before payments, contacts and history are written (milliseconds)
+   */
+  private long persistenceQuietPeriodMillis = 2000;
+
+  /**
+   * The longest time an edit to payments, contacts or history may wait to be written (milliseconds)
+   */
+  private long persistenceMaxLatencyMillis = 10000;
 
   /**
    * @return The last/current soft wallet root (e.g. "mbhd-11111111-22222222-33333333-44444444-55555555")
@@ -56,6 +65,22 @@ public class WalletConfiguration {
     this.recentWalletLabel = recentWalletLabel;
   }
 
+  public long getPersistenceQuietPeriodMillis() {
+    return persistenceQuietPeriodMillis;
+  }
+
+  public void setPersistenceQuietPeriodMillis(long persistenceQuietPeriodMillis) {
+    this.persistenceQuietPeriodMillis = persistenceQuietPeriodMillis;
+  }
+
+  public long getPersistenceMaxLatencyMillis() {
+    return persistenceMaxLatencyMillis;
+  }
+
+  public void setPersistenceMaxLatencyMillis(long persistenceMaxLatencyMillis) {
+    this.persistenceMaxLatencyMillis = persistenceMaxLatencyMillis;
+  }
+
   /**
    * @return A deep copy of this object
    */
@@ -66,6 +91,8 @@ public class WalletConfiguration {
     configuration.setLastSoftWalletRoot(getLastSoftWalletRoot());
     configuration.setRecentWalletDataValidity(getRecentWalletDataValidity());
     configuration.setRecentWalletLabel(getRecentWalletLabel());
+    configuration.setPersistenceQuietPeriodMillis(getPersistenceQuietPeriodMillis());
+    configuration.setPersistenceMaxLatencyMillis(getPersistenceMaxLatencyMillis());
 
     return configuration;
   }
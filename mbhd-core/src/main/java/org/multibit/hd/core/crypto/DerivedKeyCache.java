@@ -0,0 +1,281 @@
+package org.multibit.hd.core.crypto;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import org.bitcoinj.crypto.KeyCrypterScrypt;
+import org.bitcoinj.wallet.Protos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Cache to provide the following to EncryptedFileReaderWriter:</p>
+ * <ul>
+ * <li>Session scoped storage of scrypt derived AES keys so that repeated saves do not re-run scrypt</li>
+ * <li>Zeroisation of all derived keys on close</li>
+ * <li>Hit rate metrics</li>
+ * </ul>
+ * <p>Entries are keyed by an HMAC-SHA256 of the password, salt and scrypt parameters under a random key created
+ * for the cache. Neither the password nor a plain digest of it (which would be a fast unsalted password
+ * verifier) is held, and the HMAC key and entry keys are zeroised with the derived keys on close. A cache is
+ * owned by an unlocked wallet summary.</p>
+ *
+ * @since 0.0.1
+ */
+public class DerivedKeyCache {
+
+  private static final Logger log = LoggerFactory.getLogger(DerivedKeyCache.class);
+
+  /**
+   * The maximum number of derived keys held (a session normally only needs one)
+   */
+  private static final int MAXIMUM_ENTRIES = 4;
+
+  private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+  /**
+   * The entries in most recently used order
+   */
+  private final LinkedList<Entry> derivedKeys = Lists.newLinkedList();
+
+  /**
+   * The random HMAC key for the entry keys (zeroised on close)
+   */
+  private final byte[] sessionKey = new byte[32];
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private boolean closed = false;
+
+  public DerivedKeyCache() {
+    new SecureRandom().nextBytes(sessionKey);
+  }
+
+  /**
+   * <p>Derive an AES key using scrypt, reusing a previous derivation for the same inputs if present</p>
+   *
+   * @param password         The password
+   * @param scryptParameters The scrypt parameters (including the salt)
+   *
+   * @return The derived key (a copy that the caller may wipe)
+   */
+  public KeyParameter deriveKey(CharSequence password, Protos.ScryptParameters scryptParameters) {
+
+    Preconditions.checkNotNull(password, "'password' must be present");
+    Preconditions.checkNotNull(scryptParameters, "'scryptParameters' must be present");
+
+    byte[] cacheKey = null;
+    synchronized (derivedKeys) {
+      // Once closed the session key has been zeroised so keys are only derived
+      if (!closed) {
+        cacheKey = createCacheKey(sessionKey, password, scryptParameters);
+        Entry entry = removeEntry(cacheKey);
+        if (entry != null) {
+          Arrays.fill(cacheKey, (byte) 0);
+          derivedKeys.addFirst(entry);
+          hits.incrementAndGet();
+          return new KeyParameter(Arrays.copyOf(entry.derivedKey, entry.derivedKey.length));
+        }
+      }
+    }
+
+    // Derive outside the lock since scrypt is slow
+    misses.incrementAndGet();
+    KeyParameter keyParameter = new KeyCrypterScrypt(scryptParameters).deriveKey(password);
+    byte[] derivedKey = keyParameter.getKey();
+
+    if (cacheKey != null) {
+      synchronized (derivedKeys) {
+        if (!closed) {
+          // Replace any entry added by a concurrent derivation
+          Entry entry = removeEntry(cacheKey);
+          if (entry != null) {
+            entry.wipe();
+          }
+          derivedKeys.addFirst(new Entry(cacheKey, Arrays.copyOf(derivedKey, derivedKey.length)));
+          evictEldestEntries();
+        } else {
+          Arrays.fill(cacheKey, (byte) 0);
+        }
+      }
+    }
+
+    log.debug("Derived key cache miss. Hit rate is now {}%", Math.round(getHitRate() * 100));
+
+    return keyParameter;
+  }
+
+  /**
+   * <p>Zeroise and remove all derived keys and the session key. The cache can no longer store keys after this call.</p>
+   */
+  public void close() {
+
+    synchronized (derivedKeys) {
+      clearInternal();
+      Arrays.fill(sessionKey, (byte) 0);
+      closed = true;
+    }
+
+    log.debug("Derived key cache closed after {} hits and {} misses", hits.get(), misses.get());
+
+  }
+
+  /**
+   * <p>Zeroise and remove all derived keys (e.g. after a password change) while keeping the cache open</p>
+   */
+  public void clear() {
+
+    synchronized (derivedKeys) {
+      clearInternal();
+    }
+
+  }
+
+  /**
+   * @return The number of lookups that avoided a key derivation
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return The number of lookups that required a key derivation
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return The proportion of lookups that avoided a key derivation (0.0 to 1.0)
+   */
+  public double getHitRate() {
+
+    long hitCount = hits.get();
+    long total = hitCount + misses.get();
+
+    return total == 0 ? 0.0 : (double) hitCount / total;
+  }
+
+  /**
+   * @return The number of derived keys currently held
+   */
+  public int size() {
+    synchronized (derivedKeys) {
+      return derivedKeys.size();
+    }
+  }
+
+  private void clearInternal() {
+
+    for (Entry entry : derivedKeys) {
+      entry.wipe();
+    }
+    derivedKeys.clear();
+
+  }
+
+  /**
+   * @param cacheKey The entry key
+   *
+   * @return The removed entry with that key, or null if not present
+   */
+  private Entry removeEntry(byte[] cacheKey) {
+
+    Iterator<Entry> iterator = derivedKeys.iterator();
+    while (iterator.hasNext()) {
+      Entry entry = iterator.next();
+      if (MessageDigest.isEqual(entry.cacheKey, cacheKey)) {
+        iterator.remove();
+        return entry;
+      }
+    }
+
+    return null;
+  }
+
+  private void evictEldestEntries() {
+
+    while (derivedKeys.size() > MAXIMUM_ENTRIES) {
+      derivedKeys.removeLast().wipe();
+    }
+
+  }
+
+  /**
+   * @param sessionKey       The HMAC key
+   * @param password         The password
+   * @param scryptParameters The scrypt parameters
+   *
+   * @return An HMAC identifying the inputs to the key derivation
+   */
+  private static byte[] createCacheKey(byte[] sessionKey, CharSequence password, Protos.ScryptParameters scryptParameters) {
+
+    ByteBuffer passwordBuffer = Charsets.UTF_8.encode(CharBuffer.wrap(password));
+    byte[] passwordBytes = new byte[passwordBuffer.remaining()];
+    passwordBuffer.get(passwordBytes);
+
+    try {
+      Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+      mac.init(new SecretKeySpec(sessionKey, HMAC_ALGORITHM));
+      mac.update(scryptParameters.getSalt().toByteArray());
+      mac.update(Longs.toByteArray(scryptParameters.getN()));
+      mac.update(Ints.toByteArray(scryptParameters.getR()));
+      mac.update(Ints.toByteArray(scryptParameters.getP()));
+      mac.update(passwordBytes);
+
+      return mac.doFinal();
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("HMAC-SHA256 is not available", e);
+    } finally {
+      Arrays.fill(passwordBytes, (byte) 0);
+      if (passwordBuffer.hasArray()) {
+        Arrays.fill(passwordBuffer.array(), (byte) 0);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "DerivedKeyCache{" +
+      "size=" + size() +
+      ", hits=" + hits.get() +
+      ", misses=" + misses.get() +
+      '}';
+  }
+
+  /**
+   * <p>A derived key and the HMAC of its inputs</p>
+   */
+  private static class Entry {
+
+    private final byte[] cacheKey;
+    private final byte[] derivedKey;
+
+    private Entry(byte[] cacheKey, byte[] derivedKey) {
+      this.cacheKey = cacheKey;
+      this.derivedKey = derivedKey;
+    }
+
+    private void wipe() {
+      Arrays.fill(cacheKey, (byte) 0);
+      Arrays.fill(derivedKey, (byte) 0);
+    }
+  }
+}
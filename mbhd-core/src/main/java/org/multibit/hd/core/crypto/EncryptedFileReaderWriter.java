@@ -1,25 +1,53 @@
 package org.multibit.hd.core.crypto;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import com.google.protobuf.ByteString;
+import org.bitcoinj.core.Wallet;
 import org.bitcoinj.crypto.KeyCrypterScrypt;
 import org.bitcoinj.wallet.Protos;
 import org.multibit.hd.brit.crypto.AESUtils;
+import org.multibit.hd.core.dto.WalletSummary;
 import org.multibit.hd.core.exceptions.EncryptedFileReaderWriterException;
 import org.multibit.hd.core.files.SecureFiles;
 import org.multibit.hd.core.managers.WalletManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.BufferedBlockCipher;
+import org.spongycastle.crypto.engines.AESFastEngine;
+import org.spongycastle.crypto.io.CipherInputStream;
+import org.spongycastle.crypto.io.CipherOutputStream;
+import org.spongycastle.crypto.modes.CBCBlockCipher;
+import org.spongycastle.crypto.paddings.PaddedBufferedBlockCipher;
 import org.spongycastle.crypto.params.KeyParameter;
+import org.spongycastle.crypto.params.ParametersWithIV;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * <p>Reader / Writer to provide the following to Services:<br>
@@ -38,6 +66,16 @@ public class EncryptedFileReaderWriter {
 
   private static final String TEMPORARY_FILE_EXTENSION = ".tmp";
 
+  /**
+   * The buffer size used when streaming encrypted output to disk
+   */
+  private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Each journal record has its own random initialisation vector
+   */
+  private static final SecureRandom secureRandom = new SecureRandom();
+
   /**
    * Decrypt an AES encrypted file and return it as an inputStream
    */
@@ -49,8 +87,7 @@ public class EncryptedFileReaderWriter {
       byte[] encryptedWalletBytes = Files.toByteArray(encryptedProtobufFile);
       //log.debug("Encrypted wallet bytes after load:\n" + Utils.HEX.encode(encryptedWalletBytes));
 
-      KeyCrypterScrypt keyCrypterScrypt = new KeyCrypterScrypt(makeScryptParameters(salt));
-      KeyParameter keyParameter = keyCrypterScrypt.deriveKey(password);
+      KeyParameter keyParameter = deriveKey(password, salt);
 
       // Decrypt the wallet bytes
       byte[] decryptedBytes = AESUtils.decrypt(encryptedWalletBytes, keyParameter, initialisationVector);
@@ -66,8 +103,7 @@ public class EncryptedFileReaderWriter {
    */
   public static void encryptAndWrite(byte[] unencryptedBytes, CharSequence password, File outputFile) throws EncryptedFileReaderWriterException {
     try {
-      KeyCrypterScrypt keyCrypterScrypt = new KeyCrypterScrypt(makeScryptParameters(WalletManager.scryptSalt()));
-      KeyParameter keyParameter = keyCrypterScrypt.deriveKey(password);
+      KeyParameter keyParameter = deriveKey(password, WalletManager.scryptSalt());
 
       // Create an AES encoded version of the unencryptedBytes, using the credentials
       byte[] encryptedBytes = AESUtils.encrypt(unencryptedBytes, keyParameter, WalletManager.aesInitialisationVector());
@@ -91,6 +127,273 @@ public class EncryptedFileReaderWriter {
     }
   }
 
+  /**
+   * <p>Serialize a wallet straight through an AES cipher stream into an encrypted file</p>
+   * <p>No plaintext copy of the wallet is written to disk and the heap cost is a fixed buffer. The output is
+   * identical to <code>makeAESEncryptedCopyAndDeleteOriginal</code> so it can be read by <code>loadWalletFromFile</code>.
+   * The ciphertext is written to a temporary file and stream-decrypted with the same key. The SHA-256 digest of the
+   * decrypted bytes must match a digest of the plaintext taken as the wallet was serialized. The temporary file is then
+   * synced to the device and renamed over the destination.</p>
+   *
+   * @param wallet        The wallet to save
+   * @param encryptedFile The destination of the encrypted wallet (e.g. "mbhd.wallet.aes")
+   * @param password      The credentials to use to do the encryption
+   *
+   * @return The encrypted file
+   *
+   * @throws EncryptedFileReaderWriterException If the wallet could not be written
+   */
+  public static File encryptAndWriteWallet(Wallet wallet, File encryptedFile, CharSequence password) throws EncryptedFileReaderWriterException {
+
+    Preconditions.checkNotNull(wallet);
+    Preconditions.checkNotNull(encryptedFile);
+    Preconditions.checkNotNull(password);
+
+    File temporaryFile = new File(encryptedFile.getAbsolutePath() + TEMPORARY_FILE_EXTENSION);
+
+    try {
+      KeyParameter keyParameter = deriveKey(password, WalletManager.scryptSalt());
+
+      // Digest the plaintext on its way into the cipher
+      MessageDigest writtenDigest = MessageDigest.getInstance("SHA-256");
+
+      try (OutputStream plaintextStream = new DigestOutputStream(
+        newEncryptingOutputStream(
+          new BufferedOutputStream(new FileOutputStream(temporaryFile), STREAM_BUFFER_SIZE),
+          keyParameter,
+          WalletManager.aesInitialisationVector()),
+        writtenDigest)) {
+
+        wallet.saveToFileStream(plaintextStream);
+
+        // Closing the cipher stream writes the final padded block
+      }
+
+      // Check that the file decrypts with this password back to what was written
+      byte[] decryptedDigest = digestDecryptedFile(temporaryFile, keyParameter, WalletManager.aesInitialisationVector());
+      if (!Arrays.equals(writtenDigest.digest(), decryptedDigest)) {
+        throw new EncryptedFileReaderWriterException("The encryption of '" + temporaryFile.getAbsolutePath() + "' was not reversible. Aborting.");
+      }
+
+      moveIntoPlace(temporaryFile, encryptedFile);
+
+      return encryptedFile;
+
+    } catch (Exception e) {
+      if (temporaryFile.exists() && !temporaryFile.delete()) {
+        log.warn("Could not delete temporary file '{}'", temporaryFile.getAbsolutePath());
+      }
+      throw new EncryptedFileReaderWriterException("Cannot encrypt and write wallet to '" + encryptedFile.getAbsolutePath() + "'", e);
+    }
+  }
+
+  /**
+   * <p>Append a single encrypted record to a journal file</p>
+   * <p>A record is a 4 byte big-endian length followed by a random initialisation vector and the AES ciphertext.
+   * The file is synced before returning so that a completed append survives a crash.</p>
+   *
+   * @param unencryptedBytes The plaintext record
+   * @param password         The credentials to use to do the encryption
+   * @param journalFile      The journal file (created if absent)
+   *
+   * @return The number of bytes appended
+   *
+   * @throws EncryptedFileReaderWriterException If the record could not be appended
+   */
+  public static int appendEncryptedRecord(byte[] unencryptedBytes, CharSequence password, File journalFile) throws EncryptedFileReaderWriterException {
+
+    Preconditions.checkNotNull(unencryptedBytes);
+    Preconditions.checkNotNull(password);
+    Preconditions.checkNotNull(journalFile);
+
+    try {
+      KeyParameter keyParameter = deriveKey(password, WalletManager.scryptSalt());
+
+      byte[] initialisationVector = new byte[AESUtils.BLOCK_LENGTH];
+      secureRandom.nextBytes(initialisationVector);
+
+      byte[] encryptedBytes = AESUtils.encrypt(unencryptedBytes, keyParameter, initialisationVector);
+
+      int recordLength = initialisationVector.length + encryptedBytes.length;
+
+      try (FileOutputStream journalOutputStream = new FileOutputStream(journalFile, true)) {
+        DataOutputStream recordOutputStream = new DataOutputStream(new BufferedOutputStream(journalOutputStream));
+        recordOutputStream.writeInt(recordLength);
+        recordOutputStream.write(initialisationVector);
+        recordOutputStream.write(encryptedBytes);
+        recordOutputStream.flush();
+
+        journalOutputStream.getFD().sync();
+      }
+
+      return 4 + recordLength;
+
+    } catch (Exception e) {
+      throw new EncryptedFileReaderWriterException("Cannot append record to '" + journalFile.getAbsolutePath() + "'", e);
+    }
+  }
+
+  /**
+   * <p>Read and decrypt all the records in a journal file written by <code>appendEncryptedRecord</code></p>
+   * <p>A partially written final record (e.g. from a crash during an append) is truncated from the file so that
+   * later appends follow the last complete record.</p>
+   *
+   * @param journalFile The journal file
+   * @param password    The credentials to use to do the decryption
+   *
+   * @return The plaintext records in the order they were appended (empty if the journal does not exist)
+   *
+   * @throws EncryptedFileReaderWriterException If a complete record could not be decrypted
+   */
+  public static List<byte[]> readEncryptedRecords(File journalFile, CharSequence password) throws EncryptedFileReaderWriterException {
+
+    Preconditions.checkNotNull(journalFile);
+    Preconditions.checkNotNull(password);
+
+    List<byte[]> records = Lists.newArrayList();
+
+    if (!journalFile.exists()) {
+      return records;
+    }
+
+    long validLength = 0;
+    long fileLength = journalFile.length();
+
+    try {
+      KeyParameter keyParameter = deriveKey(password, WalletManager.scryptSalt());
+
+      try (DataInputStream journalInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile), STREAM_BUFFER_SIZE))) {
+
+        while (validLength + 4 <= fileLength) {
+
+          int recordLength = journalInputStream.readInt();
+          if (recordLength <= AESUtils.BLOCK_LENGTH || validLength + 4 + recordLength > fileLength) {
+            // Torn or corrupt tail
+            break;
+          }
+
+          byte[] initialisationVector = new byte[AESUtils.BLOCK_LENGTH];
+          journalInputStream.readFully(initialisationVector);
+          byte[] encryptedBytes = new byte[recordLength - AESUtils.BLOCK_LENGTH];
+          journalInputStream.readFully(encryptedBytes);
+
+          records.add(AESUtils.decrypt(encryptedBytes, keyParameter, initialisationVector));
+
+          validLength += 4 + recordLength;
+        }
+      }
+
+    } catch (Exception e) {
+      throw new EncryptedFileReaderWriterException("Cannot read records from '" + journalFile.getAbsolutePath() + "'", e);
+    }
+
+    if (validLength < fileLength) {
+      log.warn("Truncating {} bytes of incomplete record from '{}'", fileLength - validLength, journalFile.getAbsolutePath());
+      try (RandomAccessFile randomAccessFile = new RandomAccessFile(journalFile, "rw")) {
+        randomAccessFile.setLength(validLength);
+      } catch (IOException e) {
+        throw new EncryptedFileReaderWriterException("Cannot truncate '" + journalFile.getAbsolutePath() + "'", e);
+      }
+    }
+
+    return records;
+  }
+
+  /**
+   * <p>Wrap an output stream so that everything written to it is AES encrypted</p>
+   * <p>The ciphertext is identical to <code>AESUtils.encrypt</code> over the same bytes. Closing the returned stream
+   * writes the final padded block and closes the underlying stream.</p>
+   *
+   * @param outputStream         The destination of the ciphertext
+   * @param keyParameter         The AES key
+   * @param initialisationVector The initialisation vector
+   *
+   * @return The encrypting output stream
+   */
+  public static OutputStream newEncryptingOutputStream(OutputStream outputStream, KeyParameter keyParameter, byte[] initialisationVector) {
+
+    Preconditions.checkNotNull(outputStream);
+    Preconditions.checkNotNull(keyParameter);
+    Preconditions.checkNotNull(initialisationVector);
+
+    // Same cipher as AESUtils.encrypt
+    BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
+    cipher.init(true, new ParametersWithIV(keyParameter, initialisationVector));
+
+    return new CipherOutputStream(outputStream, cipher);
+  }
+
+  /**
+   * <p>Decrypt the backup AES key held by a wallet summary</p>
+   *
+   * @param password              The wallet password
+   * @param encryptedBackupAESKey The encrypted backup AES key from the wallet summary
+   *
+   * @return The backup AES key
+   *
+   * @throws EncryptedFileReaderWriterException If the key could not be decrypted
+   */
+  public static KeyParameter decryptBackupAESKey(String password, byte[] encryptedBackupAESKey) throws EncryptedFileReaderWriterException {
+
+    Preconditions.checkNotNull(password);
+    Preconditions.checkNotNull(encryptedBackupAESKey);
+
+    try {
+      KeyParameter walletPasswordDerivedAESKey = org.multibit.hd.core.crypto.AESUtils.createAESKey(password.getBytes(Charsets.UTF_8), WalletManager.scryptSalt());
+      byte[] backupAESKeyBytes = org.multibit.hd.brit.crypto.AESUtils.decrypt(encryptedBackupAESKey, walletPasswordDerivedAESKey, WalletManager.aesInitialisationVector());
+
+      return new KeyParameter(backupAESKeyBytes);
+    } catch (Exception e) {
+      throw new EncryptedFileReaderWriterException("Could not decrypt backup AES key", e);
+    }
+  }
+
+  /**
+   * <p>Decrypt a file through a fixed buffer, digesting the plaintext</p>
+   *
+   * @return The SHA-256 digest of the decrypted file
+   *
+   * @throws IOException If the file cannot be read or does not decrypt (e.g. corrupt padding)
+   */
+  private static byte[] digestDecryptedFile(File encryptedFile, KeyParameter keyParameter, byte[] initialisationVector) throws IOException, NoSuchAlgorithmException {
+
+    // Same cipher as AESUtils.decrypt
+    BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
+    cipher.init(false, new ParametersWithIV(keyParameter, initialisationVector));
+
+    MessageDigest decryptedDigest = MessageDigest.getInstance("SHA-256");
+
+    try (InputStream decryptingStream = new CipherInputStream(
+      new BufferedInputStream(new FileInputStream(encryptedFile), STREAM_BUFFER_SIZE),
+      cipher)) {
+
+      byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+      int read;
+      while ((read = decryptingStream.read(buffer)) != -1) {
+        decryptedDigest.update(buffer, 0, read);
+      }
+    }
+
+    return decryptedDigest.digest();
+  }
+
+  /**
+   * <p>Sync the temporary file to the device and rename it over the destination, atomically if the file system supports it</p>
+   * <p>Without the sync a crash shortly after the rename could leave the destination empty or truncated.</p>
+   */
+  private static void moveIntoPlace(File temporaryFile, File destinationFile) throws IOException {
+
+    try (FileChannel temporaryChannel = FileChannel.open(temporaryFile.toPath(), StandardOpenOption.WRITE)) {
+      temporaryChannel.force(true);
+    }
+
+    try {
+      java.nio.file.Files.move(temporaryFile.toPath(), destinationFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      java.nio.file.Files.move(temporaryFile.toPath(), destinationFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
   /**
     * Encrypt the file specified using the backup AES key derived from the supplied credentials
     * @param fileToEncrypt file to encrypt
@@ -104,9 +407,7 @@ public class EncryptedFileReaderWriter {
      Preconditions.checkNotNull(encryptedBackupAESKey);
      try {
        // Decrypt the backup AES key stored in the wallet summary
-       KeyParameter walletPasswordDerivedAESKey = org.multibit.hd.core.crypto.AESUtils.createAESKey(password.getBytes(Charsets.UTF_8), WalletManager.scryptSalt());
-       byte[] backupAESKeyBytes = org.multibit.hd.brit.crypto.AESUtils.decrypt(encryptedBackupAESKey, walletPasswordDerivedAESKey, WalletManager.aesInitialisationVector());
-       KeyParameter backupAESKey = new KeyParameter(backupAESKeyBytes);
+       KeyParameter backupAESKey = decryptBackupAESKey(password, encryptedBackupAESKey);
        File destinationFile =  new File(fileToEncrypt.getAbsoluteFile() + WalletManager.MBHD_AES_SUFFIX);
 
        return encryptAndDeleteOriginal(fileToEncrypt, destinationFile, backupAESKey, WalletManager.aesInitialisationVector());
@@ -143,8 +444,7 @@ public class EncryptedFileReaderWriter {
     Preconditions.checkNotNull(destinationFile);
     Preconditions.checkNotNull(password);
 
-    KeyCrypterScrypt keyCrypterScrypt = new KeyCrypterScrypt(makeScryptParameters(WalletManager.scryptSalt()));
-    KeyParameter keyParameter = keyCrypterScrypt.deriveKey(password);
+    KeyParameter keyParameter = deriveKey(password, WalletManager.scryptSalt());
     return encryptAndDeleteOriginal(fileToEncrypt, destinationFile, keyParameter, WalletManager.aesInitialisationVector());
   }
 
@@ -194,6 +494,29 @@ public class EncryptedFileReaderWriter {
     }
   }
 
+  /**
+   * <p>Derive the AES key for the password using scrypt</p>
+   * <p>If a wallet is unlocked then its derived key cache is used so that repeated reads and writes
+   * only pay for the key derivation once per session</p>
+   *
+   * @param password The password
+   * @param salt     The scrypt salt
+   *
+   * @return The derived key
+   */
+  private static KeyParameter deriveKey(CharSequence password, byte[] salt) {
+
+    Protos.ScryptParameters scryptParameters = makeScryptParameters(salt);
+
+    Optional<WalletSummary> currentWalletSummary = WalletManager.INSTANCE.getCurrentWalletSummary();
+    if (currentWalletSummary.isPresent()) {
+      return currentWalletSummary.get().getDerivedKeyCache().deriveKey(password, scryptParameters);
+    }
+
+    // No session so derive directly
+    return new KeyCrypterScrypt(scryptParameters).deriveKey(password);
+  }
+
   public static Protos.ScryptParameters makeScryptParameters(byte[] salt) {
     Protos.ScryptParameters.Builder scryptParametersBuilder = Protos.ScryptParameters.newBuilder().setSalt(ByteString.copyFrom(salt));
     return scryptParametersBuilder.build();
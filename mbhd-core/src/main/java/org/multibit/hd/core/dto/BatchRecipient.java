@@ -0,0 +1,72 @@
+package org.multibit.hd.core.dto;
+
+import com.google.common.base.Preconditions;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+
+/**
+ * <p>Value object to provide the following to batch sends:</p>
+ * <ul>
+ * <li>A single output of a multi-recipient transaction</li>
+ * </ul>
+ *
+ * @since 0.0.1
+ */
+public class BatchRecipient {
+
+  private final Address bitcoinAddress;
+
+  private final Coin amount;
+
+  /**
+   * @param bitcoinAddress The address to pay
+   * @param amount         The amount to pay (must be positive)
+   */
+  public BatchRecipient(Address bitcoinAddress, Coin amount) {
+
+    Preconditions.checkNotNull(bitcoinAddress, "'bitcoinAddress' must be present");
+    Preconditions.checkNotNull(amount, "'amount' must be present");
+    Preconditions.checkArgument(amount.signum() > 0, "'amount' must be positive");
+
+    this.bitcoinAddress = bitcoinAddress;
+    this.amount = amount;
+  }
+
+  /**
+   * @return The address to pay
+   */
+  public Address getBitcoinAddress() {
+    return bitcoinAddress;
+  }
+
+  /**
+   * @return The amount to pay
+   */
+  public Coin getAmount() {
+    return amount;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    BatchRecipient that = (BatchRecipient) o;
+
+    return bitcoinAddress.equals(that.bitcoinAddress) && amount.equals(that.amount);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * bitcoinAddress.hashCode() + amount.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "BatchRecipient{" +
+      "bitcoinAddress=" + bitcoinAddress +
+      ", amount=" + amount +
+      '}';
+  }
+}
@@ -3,6 +3,9 @@ package org.multibit.hd.core.dto;
 import com.google.common.base.Optional;
 import org.multibit.hd.core.services.CoreServices;
 
+import java.util.Collections;
+import java.util.Map;
+
 /**
  * <p>Value object to provide the following to Core API:</p>
  * <ul>
@@ -25,6 +28,10 @@ public class BitcoinNetworkSummary {
   private final Optional<CoreMessageKey> messageKey;
   private final Optional<Object[]> messageData;
 
+  private final Map<String, Long> peerRoundTripMillis;
+
+  private final Optional<Long> timeToFirstPeerMillis;
+
   /**
    * <p>The network has not initialised yet so hide the progress bar</p>
    *
@@ -108,6 +115,39 @@ public class BitcoinNetworkSummary {
    * @return A new "network ready with peer count" summary
    */
   public static BitcoinNetworkSummary newNetworkPeerCount(int peerCount) {
+    return newNetworkPeerCount(peerCount, Collections.<String, Long>emptyMap());
+  }
+
+  /**
+   * <p>The network peer count and ping round trip times are known</p>
+   *
+   * @param peerCount           The peer count
+   * @param peerRoundTripMillis The most recent ping round trip time in milliseconds keyed by peer address
+   *
+   * @return A new "network ready with peer count" summary
+   */
+  public static BitcoinNetworkSummary newNetworkPeerCount(int peerCount, Map<String, Long> peerRoundTripMillis) {
+    return new BitcoinNetworkSummary(
+      BitcoinNetworkStatus.CONNECTED,
+      RAGStatus.EMPTY,  // Not specified - peer count can change whilst syncing or after
+      Optional.of(CoreMessageKey.PEER_COUNT),
+      Optional.of(new Object[]{peerCount}),
+      Optional.of(peerCount),
+      -1, // Do not show the progress bar when the peer count changes - confusing
+      -1, // No block information
+      peerRoundTripMillis
+    );
+  }
+
+  /**
+   * <p>The first peer of a new network session has connected</p>
+   *
+   * @param peerCount             The peer count
+   * @param timeToFirstPeerMillis The time from the start of the session to the first completed handshake
+   *
+   * @return A new "network ready with peer count" summary
+   */
+  public static BitcoinNetworkSummary newFirstPeerConnected(int peerCount, long timeToFirstPeerMillis) {
     return new BitcoinNetworkSummary(
       BitcoinNetworkStatus.CONNECTED,
       RAGStatus.EMPTY,  // Not specified - peer count can change whilst syncing or after
@@ -115,7 +155,9 @@ public class BitcoinNetworkSummary {
       Optional.of(new Object[]{peerCount}),
       Optional.of(peerCount),
       -1, // Do not show the progress bar when the peer count changes - confusing
-      -1  // No block information
+      -1, // No block information
+      Collections.<String, Long>emptyMap(),
+      Optional.of(timeToFirstPeerMillis)
     );
   }
 
@@ -155,6 +197,37 @@ public class BitcoinNetworkSummary {
     Optional<Integer> peerCount,
     int percent,
     int blocksLeft) {
+    this(status, severity, messageKey, messageData, peerCount, percent, blocksLeft, Collections.<String, Long>emptyMap());
+  }
+
+  /**
+   * @param peerRoundTripMillis The most recent ping round trip time in milliseconds keyed by peer address
+   */
+  private BitcoinNetworkSummary(
+    BitcoinNetworkStatus status,
+    RAGStatus severity,
+    Optional<CoreMessageKey> messageKey,
+    Optional<Object[]> messageData,
+    Optional<Integer> peerCount,
+    int percent,
+    int blocksLeft,
+    Map<String, Long> peerRoundTripMillis) {
+    this(status, severity, messageKey, messageData, peerCount, percent, blocksLeft, peerRoundTripMillis, Optional.<Long>absent());
+  }
+
+  /**
+   * @param timeToFirstPeerMillis The time from the start of the network session to the first connected peer (if this is that event)
+   */
+  private BitcoinNetworkSummary(
+    BitcoinNetworkStatus status,
+    RAGStatus severity,
+    Optional<CoreMessageKey> messageKey,
+    Optional<Object[]> messageData,
+    Optional<Integer> peerCount,
+    int percent,
+    int blocksLeft,
+    Map<String, Long> peerRoundTripMillis,
+    Optional<Long> timeToFirstPeerMillis) {
 
     this.status = status;
     this.severity = severity;
@@ -165,6 +238,8 @@ public class BitcoinNetworkSummary {
     this.peerCount = peerCount;
     this.percent = percent;
     this.blocksLeft = blocksLeft;
+    this.peerRoundTripMillis = peerRoundTripMillis;
+    this.timeToFirstPeerMillis = timeToFirstPeerMillis;
   }
 
   /**
@@ -206,6 +281,20 @@ public class BitcoinNetworkSummary {
     return messageKey;
   }
 
+  /**
+   * @return The most recent ping round trip time in milliseconds keyed by peer address (empty if not known)
+   */
+  public Map<String, Long> getPeerRoundTripMillis() {
+    return peerRoundTripMillis;
+  }
+
+  /**
+   * @return The time from the start of the network session to the first connected peer (only present for that event)
+   */
+  public Optional<Long> getTimeToFirstPeerMillis() {
+    return timeToFirstPeerMillis;
+  }
+
   @Override
   public String toString() {
     return "BitcoinNetworkSummary{" +
@@ -216,6 +305,8 @@ public class BitcoinNetworkSummary {
       ", blocksLeft=" + blocksLeft +
       ", severity=" + severity +
       ", errorKey=" + messageKey +
+      ", peerRoundTripMillis=" + peerRoundTripMillis +
+      ", timeToFirstPeerMillis=" + timeToFirstPeerMillis +
       '}';
   }
 }
@@ -4,9 +4,17 @@ import org.bitcoinj.core.Address;
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.Wallet;
 import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import org.multibit.hd.brit.dto.FeeState;
 import org.spongycastle.crypto.params.KeyParameter;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * <p>Data object to provide the following to Bitcoin network service:</p>
  * <ul>
@@ -23,11 +31,13 @@ public class SendRequestSummary {
   private final Address changeAddress;
   private final Coin feePerKB;
   private final Optional<FeeState> feeState;
+  private final Optional<List<BatchRecipient>> batchRecipients;
 
   // Mutable values
   private boolean emptyWallet;
   private Optional<Address> feeAddress = Optional.absent();
   private Optional<KeyParameter> keyParameter = Optional.absent();
+  private final Map<SendStage, Long> stageLatencyMillis = Collections.synchronizedMap(new EnumMap<SendStage, Long>(SendStage.class));
   private Optional<Wallet.SendRequest> sendRequest = Optional.absent();
   private Optional<String> notes = Optional.absent();
   private String password;
@@ -68,6 +78,46 @@ public class SendRequestSummary {
     this.password = password;
     this.feeState = feeState;
     this.emptyWallet = emptyWallet;
+    this.batchRecipients = Optional.absent();
+
+  }
+
+  /**
+   * <p>Create a batched send paying all recipients from a single transaction</p>
+   *
+   * @param batchRecipients The recipients in output order (at least one)
+   * @param fiatPayment     The fiat payment equivalent of the total bitcoin amount
+   * @param changeAddress   The change address
+   * @param feePerKB        The fee per Kb (in coins)
+   * @param password        The wallet credentials
+   * @param feeState        The BRIT fee state
+   */
+  public SendRequestSummary(
+    List<BatchRecipient> batchRecipients,
+    Optional<FiatPayment> fiatPayment,
+    Address changeAddress,
+    Coin feePerKB,
+    String password,
+    Optional<FeeState> feeState) {
+
+    Preconditions.checkNotNull(batchRecipients, "'batchRecipients' must be present");
+    Preconditions.checkArgument(!batchRecipients.isEmpty(), "'batchRecipients' must not be empty");
+
+    Coin total = Coin.ZERO;
+    for (BatchRecipient batchRecipient : batchRecipients) {
+      total = total.add(batchRecipient.getAmount());
+    }
+
+    // The first recipient stands in as the destination for single address consumers (e.g. transaction notes)
+    this.destinationAddress = batchRecipients.get(0).getBitcoinAddress();
+    this.amount = total;
+    this.fiatPayment = fiatPayment;
+    this.changeAddress = changeAddress;
+    this.feePerKB = feePerKB;
+    this.password = password;
+    this.feeState = feeState;
+    this.emptyWallet = false;
+    this.batchRecipients = Optional.<List<BatchRecipient>>of(ImmutableList.copyOf(batchRecipients));
 
   }
 
@@ -78,6 +128,23 @@ public class SendRequestSummary {
     return destinationAddress;
   }
 
+  /**
+   * @return True if this summary pays several recipients from a single transaction
+   */
+  public boolean isBatch() {
+    return batchRecipients.isPresent();
+  }
+
+  /**
+   * @return The recipients in output order (a single entry for a standard send)
+   */
+  public List<BatchRecipient> getRecipients() {
+    if (batchRecipients.isPresent()) {
+      return batchRecipients.get();
+    }
+    return Collections.singletonList(new BatchRecipient(destinationAddress, amount));
+  }
+
   /**
    * @return The amount sent by the user in coins
    * This does NOT include any client fee
@@ -169,6 +236,36 @@ public class SendRequestSummary {
     this.keyParameter = Optional.fromNullable(keyParameter);
   }
 
+  /**
+   * <p>Overwrite the wallet AES key and remove it from this summary once signing is complete</p>
+   */
+  public void wipeKeyParameter() {
+
+    if (keyParameter.isPresent()) {
+      // The key parameter exposes its internal array
+      Arrays.fill(keyParameter.get().getKey(), (byte) 0);
+    }
+    keyParameter = Optional.absent();
+
+  }
+
+  /**
+   * @param sendStage     The send stage
+   * @param latencyMillis The time taken by the stage in milliseconds
+   */
+  public void recordStageLatency(SendStage sendStage, long latencyMillis) {
+    stageLatencyMillis.put(sendStage, latencyMillis);
+  }
+
+  /**
+   * @return A copy of the time taken by each completed send stage in milliseconds
+   */
+  public Map<SendStage, Long> getStageLatencyMillis() {
+    synchronized (stageLatencyMillis) {
+      return stageLatencyMillis.isEmpty() ? Collections.<SendStage, Long>emptyMap() : new EnumMap<>(stageLatencyMillis);
+    }
+  }
+
   /**
    * @return The Bitcoinj send request providing detailed information about the transaction
    */
@@ -207,6 +304,7 @@ public class SendRequestSummary {
       ", feePerKB=" + feePerKB +
       ", credentials=***" +
       ", feeStateOptional=" + feeState +
+      ", batchRecipients=" + batchRecipients +
       ", clientFeeAdded=" + clientFeeAdded +
       ", notes = " + notes +
       '}';
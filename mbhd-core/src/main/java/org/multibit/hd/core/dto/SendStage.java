@@ -0,0 +1,36 @@
+package org.multibit.hd.core.dto;
+
+/**
+ * <p>Enum to provide the following to Core API:</p>
+ * <ul>
+ * <li>Identification of the stages of a send for latency reporting</li>
+ * </ul>
+ *
+ * @since 0.0.1
+ */
+public enum SendStage {
+
+  /**
+   * Derivation of the wallet AES key from the password
+   */
+  DERIVE,
+
+  /**
+   * Signing of the transaction inputs
+   */
+  SIGN,
+
+  /**
+   * Commit of the signed transaction to the wallet
+   */
+  COMMIT,
+
+  /**
+   * Broadcast of the transaction to the Bitcoin network (including the peer ping)
+   */
+  BROADCAST,
+
+  // End of enum
+  ;
+
+}
@@ -2,13 +2,19 @@ package org.multibit.hd.core.dto;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ScriptException;
+import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.Utils;
 import org.joda.time.DateTime;
 
 import javax.annotation.Nullable;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * <p>Data object to provide the following to Payments display:</p>
@@ -45,15 +51,25 @@ public class TransactionData implements PaymentData {
   private String note;
 
   /**
-   * The transaction in its raw form (toStringed)
+   * The underlying transaction (absent for a mock)
    */
-  private final String rawTransaction;
+  private final Transaction transaction;
 
   /**
-   * The size (in bytes)of the transaction
+   * The transaction in its raw form (toStringed), built on first use
+   */
+  private String rawTransaction;
+
+  /**
+   * The size (in bytes) of the transaction, built on first use
    */
   private int size;
 
+  /**
+   * True once the raw form and size have been built from the transaction
+   */
+  private boolean serialized = false;
+
   /**
    * The bitcoin addresses in this wallet that the transaction sends bitcoin to
    */
@@ -72,8 +88,7 @@ public class TransactionData implements PaymentData {
    * @param description       The description
    * @param isCoinbase        True if coinbase
    * @param outputAddresses   The output addresses
-   * @param rawTransaction    The raw transaction
-   * @param size              The size in bytes
+   * @param transaction       The underlying transaction providing the raw form and size on demand
    * @param isMock            True if this is a mock (CSV export header)
    */
   public TransactionData(
@@ -89,8 +104,7 @@ public class TransactionData implements PaymentData {
     String description,
     boolean isCoinbase,
     Collection<Address> outputAddresses,
-    String rawTransaction,
-    int size,
+    @Nullable Transaction transaction,
     boolean isMock
   ) {
 
@@ -106,7 +120,7 @@ public class TransactionData implements PaymentData {
       Preconditions.checkNotNull(paymentType, "'paymentType' must be present");
       Preconditions.checkNotNull(description, "'description' must be present");
       Preconditions.checkNotNull(outputAddresses, "'outputAddress' must be present");
-      Preconditions.checkNotNull(rawTransaction, "'rawTransaction' must be present");
+      Preconditions.checkNotNull(transaction, "'transaction' must be present");
     }
 
     this.transactionId = transactionId;
@@ -121,8 +135,7 @@ public class TransactionData implements PaymentData {
     this.description = description;
     this.coinBase = isCoinbase;
     this.outputAddresses = outputAddresses;
-    this.rawTransaction = rawTransaction;
-    this.size = size;
+    this.transaction = transaction;
   }
 
   @Override
@@ -284,11 +297,64 @@ public class TransactionData implements PaymentData {
     return outputAddresses;
   }
 
+  /**
+   * @return The addresses the transaction spends from (read from the input scripts without serializing)
+   */
+  public List<Address> getInputAddresses() {
+
+    List<Address> inputAddresses = Lists.newArrayList();
+
+    if (transaction == null || transaction.isCoinBase()) {
+      // Mock or newly mined coins
+      return inputAddresses;
+    }
+
+    for (TransactionInput input : transaction.getInputs()) {
+      try {
+        inputAddresses.add(input.getFromAddress());
+      } catch (ScriptException se) {
+        // Not a pay to address input so there is nothing to search on
+      }
+    }
+
+    return inputAddresses;
+  }
+
+  /**
+   * @return The transaction in its raw form (toStringed followed by the serialized hex)
+   */
   public String getRawTransaction() {
+    serialize();
     return rawTransaction;
   }
 
+  /**
+   * @return The size (in bytes) of the serialized transaction
+   */
   public int getSize() {
+    serialize();
     return size;
   }
+
+  /**
+   * <p>Build the raw form and size from a single serialization of the transaction</p>
+   * <p>This is only required by the payment details so it is deferred until first use</p>
+   */
+  private synchronized void serialize() {
+
+    if (serialized) {
+      return;
+    }
+    serialized = true;
+
+    if (transaction == null) {
+      // Mock
+      return;
+    }
+
+    byte[] serializedTransaction = transaction.bitcoinSerialize();
+    size = serializedTransaction.length;
+    rawTransaction = transaction.toString() + "\n" + Utils.HEX.encode(serializedTransaction) + "\n";
+
+  }
 }
@@ -3,6 +3,7 @@ package org.multibit.hd.core.dto;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.common.base.Preconditions;
 import org.bitcoinj.core.Wallet;
+import org.multibit.hd.core.crypto.DerivedKeyCache;
 import org.multibit.hd.core.managers.WalletManager;
 
 import javax.annotation.Nullable;
@@ -34,6 +35,12 @@ public class WalletSummary {
   @JsonIgnore
   private WalletPassword walletPassword;
 
+  /**
+   * The scrypt derived AES keys for this unlocked wallet (zeroised when the wallet is closed)
+   */
+  @JsonIgnore
+  private final DerivedKeyCache derivedKeyCache = new DerivedKeyCache();
+
   /**
    * This field is dominated by WalletTypeExtension stored in the Wallet itself.
    * Used mainly so that you do not have to decrypt the wallet to see the walletType
@@ -110,9 +117,20 @@ public class WalletSummary {
    */
   public void setWalletPassword(WalletPassword walletPassword) {
     Preconditions.checkArgument(walletPassword.getWalletId().equals(walletId), "The walletPassword is not the password for this wallet");
+    if (this.walletPassword != null && !this.walletPassword.equals(walletPassword)) {
+      // Keys derived from the old password are no longer required
+      derivedKeyCache.clear();
+    }
     this.walletPassword = walletPassword;
   }
 
+  /**
+   * @return The cache of scrypt derived AES keys used when reading and writing the encrypted files for this wallet
+   */
+  public DerivedKeyCache getDerivedKeyCache() {
+    return derivedKeyCache;
+  }
+
   /**
    * @return The short wallet name (e.g. "ACME Ltd")
    */
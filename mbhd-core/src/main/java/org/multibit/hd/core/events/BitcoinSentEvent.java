@@ -1,11 +1,14 @@
 package org.multibit.hd.core.events;
 
 import com.google.common.base.Optional;
+import org.multibit.hd.core.dto.SendStage;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.Coin;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
 
 /**
  * <p>Event to provide the following to UIEventbus subscribers:</p>
@@ -40,6 +43,11 @@ public class BitcoinSentEvent implements CoreEvent {
    */
   private final String[] sendFailureReasonData;
 
+  /**
+   * The time taken by each completed send stage (empty if not recorded)
+   */
+  private final Map<SendStage, Long> stageLatencyMillis;
+
   // The fix for this is more complex than leaving it in place
   @SuppressFBWarnings({"EI_EXPOSE_REP2"})
   public BitcoinSentEvent(
@@ -52,6 +60,35 @@ public class BitcoinSentEvent implements CoreEvent {
     String sendFailureReasonKey,
     String[] sendFailureReasonData
   ) {
+    this(
+      destinationAddress,
+      amount,
+      changeAddress,
+      miningFeePaid,
+      clientFeePaid,
+      sendWasSuccessful,
+      sendFailureReasonKey,
+      sendFailureReasonData,
+      Collections.<SendStage, Long>emptyMap()
+    );
+  }
+
+  /**
+   * @param stageLatencyMillis The time taken by each completed send stage in milliseconds
+   */
+  // The fix for this is more complex than leaving it in place
+  @SuppressFBWarnings({"EI_EXPOSE_REP2"})
+  public BitcoinSentEvent(
+    Address destinationAddress,
+    Coin amount,
+    Address changeAddress,
+    Optional<Coin> miningFeePaid,
+    Optional<Coin> clientFeePaid,
+    boolean sendWasSuccessful,
+    String sendFailureReasonKey,
+    String[] sendFailureReasonData,
+    Map<SendStage, Long> stageLatencyMillis
+  ) {
 
     this.amount = amount;
     this.miningFeePaid = miningFeePaid;
@@ -61,7 +98,7 @@ public class BitcoinSentEvent implements CoreEvent {
     this.sendWasSuccessful = sendWasSuccessful;
     this.sendFailureReasonKey = sendFailureReasonKey;
     this.sendFailureReasonData = sendFailureReasonData;
-
+    this.stageLatencyMillis = stageLatencyMillis;
   }
 
   public Coin getAmount() {
@@ -94,6 +131,13 @@ public class BitcoinSentEvent implements CoreEvent {
     return sendFailureReasonData;
   }
 
+  /**
+   * @return The time taken by each completed send stage in milliseconds
+   */
+  public Map<SendStage, Long> getStageLatencyMillis() {
+    return stageLatencyMillis;
+  }
+
   @Override
   public String toString() {
     return "BitcoinSentEvent{" +
@@ -105,6 +149,7 @@ public class BitcoinSentEvent implements CoreEvent {
       ", sendWasSuccessful=" + sendWasSuccessful +
       ", sendFailureReasonKey='" + sendFailureReasonKey + '\'' +
       ", sendFailureReasonData=" + Arrays.toString(sendFailureReasonData) +
+      ", stageLatencyMillis=" + stageLatencyMillis +
       '}';
   }
 }
@@ -0,0 +1,475 @@
+package org.multibit.hd.core.events;
+
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.eventbus.EventBus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Dispatcher to provide the following to CoreEvents:</p>
+ * <ul>
+ * <li>Asynchronous posting of events to an event bus through a queue per event type</li>
+ * <li>In-order delivery within an event type with batched draining on a shared executor</li>
+ * <li>Coalescing of superseding events (e.g. progress updates) so only the latest is delivered</li>
+ * <li>Queue depth, dispatch latency and subscriber time metrics per event type</li>
+ * </ul>
+ * <p>A slow subscriber to one event type only delays further events of that type. Producers (such as the
+ * peer threads) never run subscribers themselves and never block. Only the queues of coalescing event types
+ * (status updates where a later event replaces an earlier one) are bounded: when such a queue is full an event
+ * supersedes the latest undelivered event with the same key, otherwise it is dropped and counted. Other
+ * events (e.g. shutdown, sent or security events) happen once and are never dropped so their queues are
+ * unbounded.</p>
+ *
+ * @since 0.0.1
+ */
+public class CoreEventDispatcher {
+
+  private static final Logger log = LoggerFactory.getLogger(CoreEventDispatcher.class);
+
+  /**
+   * The default maximum number of undelivered events of a single coalescing type
+   */
+  public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+  /**
+   * The maximum number of events delivered before a queue yields its thread to other event types
+   */
+  public static final int BATCH_SIZE = 32;
+
+  private final EventBus eventBus;
+
+  private final Executor executor;
+
+  private final int queueCapacity;
+
+  private final ConcurrentMap<Class<?>, EventQueue> eventQueues = Maps.newConcurrentMap();
+
+  private final ConcurrentMap<Class<?>, Function<Object, ?>> coalescingKeyFunctions = Maps.newConcurrentMap();
+
+  /**
+   * @param eventBus      The event bus to post to
+   * @param executor      The executor providing the delivery threads
+   * @param queueCapacity The maximum number of undelivered events of a single coalescing type (other types
+   *                      only log when it is exceeded)
+   */
+  public CoreEventDispatcher(EventBus eventBus, Executor executor, int queueCapacity) {
+
+    Preconditions.checkNotNull(eventBus, "'eventBus' must be present");
+    Preconditions.checkNotNull(executor, "'executor' must be present");
+    Preconditions.checkArgument(queueCapacity > 0, "'queueCapacity' must be positive");
+
+    this.eventBus = eventBus;
+    this.executor = executor;
+    this.queueCapacity = queueCapacity;
+
+  }
+
+  /**
+   * <p>Coalesce consecutive undelivered events of the given type that share a key so that only the latest is
+   * delivered. Events with different keys (or separated by an event with a different key) are all delivered
+   * in order.</p>
+   *
+   * @param eventType   The event type (must be configured before the first dispatch of that type)
+   * @param keyFunction Provides the coalescing key for an event
+   */
+  @SuppressWarnings("unchecked")
+  public <T> void coalesce(Class<T> eventType, Function<? super T, ?> keyFunction) {
+
+    Preconditions.checkNotNull(eventType, "'eventType' must be present");
+    Preconditions.checkNotNull(keyFunction, "'keyFunction' must be present");
+    Preconditions.checkState(!eventQueues.containsKey(eventType), "'eventType' has already been dispatched");
+
+    coalescingKeyFunctions.put(eventType, (Function<Object, ?>) keyFunction);
+
+  }
+
+  /**
+   * <p>Queue an event for delivery on the executor</p>
+   *
+   * @param event The event
+   */
+  public void dispatch(Object event) {
+
+    Preconditions.checkNotNull(event, "'event' must be present");
+
+    getOrCreateEventQueue(event.getClass()).offer(event);
+
+  }
+
+  /**
+   * @return A snapshot of the metrics for each event type dispatched so far
+   */
+  public Map<Class<?>, EventTypeMetrics> getMetrics() {
+
+    Map<Class<?>, EventTypeMetrics> metrics = Maps.newHashMap();
+    for (Map.Entry<Class<?>, EventQueue> entry : eventQueues.entrySet()) {
+      metrics.put(entry.getKey(), entry.getValue().newMetrics());
+    }
+
+    return metrics;
+  }
+
+  private EventQueue getOrCreateEventQueue(Class<?> eventType) {
+
+    EventQueue eventQueue = eventQueues.get(eventType);
+    if (eventQueue == null) {
+      EventQueue newEventQueue = new EventQueue(eventType, Optional.<Function<Object, ?>>fromNullable(coalescingKeyFunctions.get(eventType)));
+      eventQueue = eventQueues.putIfAbsent(eventType, newEventQueue);
+      if (eventQueue == null) {
+        eventQueue = newEventQueue;
+      }
+    }
+
+    return eventQueue;
+  }
+
+  /**
+   * <p>An undelivered event</p>
+   */
+  private static class PendingEvent {
+
+    private Object event;
+
+    private final long enqueueNanos;
+
+    private PendingEvent(Object event, long enqueueNanos) {
+      this.event = event;
+      this.enqueueNanos = enqueueNanos;
+    }
+  }
+
+  /**
+   * <p>The undelivered events of a single type, drained in batches by at most one executor thread at a time</p>
+   */
+  private class EventQueue implements Runnable {
+
+    private final Class<?> eventType;
+
+    private final Optional<Function<Object, ?>> keyFunction;
+
+    /**
+     * Guarded by itself
+     */
+    private final Deque<PendingEvent> pendingEvents = new ArrayDeque<>();
+
+    /**
+     * True if a drain is submitted or running (guarded by pendingEvents)
+     */
+    private boolean draining = false;
+
+    /**
+     * True if the queue has been at capacity since it last had space (guarded by pendingEvents)
+     */
+    private boolean overflowing = false;
+
+    private final AtomicLong enqueuedCount = new AtomicLong();
+    private final AtomicLong dispatchedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong totalSubscriberNanos = new AtomicLong();
+    private final AtomicLong maxSubscriberNanos = new AtomicLong();
+
+    private EventQueue(Class<?> eventType, Optional<Function<Object, ?>> keyFunction) {
+      this.eventType = eventType;
+      this.keyFunction = keyFunction;
+    }
+
+    private void offer(Object event) {
+
+      boolean submitDrain = false;
+
+      synchronized (pendingEvents) {
+
+        // Only the most recent undelivered event can be superseded to preserve ordering
+        if (keyFunction.isPresent() && !pendingEvents.isEmpty()) {
+          PendingEvent tail = pendingEvents.peekLast();
+          if (Objects.equal(keyFunction.get().apply(tail.event), keyFunction.get().apply(event))) {
+            tail.event = event;
+            coalescedCount.incrementAndGet();
+            return;
+          }
+        }
+
+        if (pendingEvents.size() >= queueCapacity) {
+          if (!overflowing) {
+            // Log once per overflow rather than once per event
+            overflowing = true;
+            log.error("'{}' event queue is full with {} undelivered events", eventType.getSimpleName(), pendingEvents.size());
+          }
+          if (keyFunction.isPresent()) {
+            // A status update can be superseded or lost since a later one replaces it
+            if (supersedeLatest(event)) {
+              coalescedCount.incrementAndGet();
+            } else {
+              droppedCount.incrementAndGet();
+            }
+            return;
+          }
+          // A one-shot event is always delivered so the queue grows
+        } else {
+          overflowing = false;
+        }
+
+        pendingEvents.addLast(new PendingEvent(event, System.nanoTime()));
+        enqueuedCount.incrementAndGet();
+        if (pendingEvents.size() > maxQueueDepth.get()) {
+          maxQueueDepth.set(pendingEvents.size());
+        }
+
+        if (!draining) {
+          draining = true;
+          submitDrain = true;
+        }
+      }
+
+      if (submitDrain) {
+        submitDrain();
+      }
+
+    }
+
+    /**
+     * <p>Replace the latest undelivered event sharing the coalescing key of the given event by queueing the event
+     * in its place at the tail (must hold pendingEvents)</p>
+     *
+     * @param event The event
+     *
+     * @return True if an undelivered event was superseded
+     */
+    private boolean supersedeLatest(Object event) {
+
+      if (!keyFunction.isPresent()) {
+        return false;
+      }
+
+      Object key = keyFunction.get().apply(event);
+      Iterator<PendingEvent> iterator = pendingEvents.descendingIterator();
+      while (iterator.hasNext()) {
+        PendingEvent pendingEvent = iterator.next();
+        if (Objects.equal(keyFunction.get().apply(pendingEvent.event), key)) {
+          iterator.remove();
+          pendingEvents.addLast(new PendingEvent(event, pendingEvent.enqueueNanos));
+          return true;
+        }
+      }
+
+      return false;
+    }
+
+    private void submitDrain() {
+
+      try {
+        executor.execute(this);
+      } catch (RejectedExecutionException e) {
+        // Executor has been shut down so nothing further can be delivered
+        synchronized (pendingEvents) {
+          draining = false;
+        }
+        log.warn("Could not deliver '{}' events: {}", eventType.getSimpleName(), e.getMessage());
+      }
+
+    }
+
+    @Override
+    public void run() {
+
+      for (int i = 0; i < BATCH_SIZE; i++) {
+
+        final PendingEvent pendingEvent;
+        final Object event;
+        synchronized (pendingEvents) {
+          pendingEvent = pendingEvents.pollFirst();
+          if (pendingEvent == null) {
+            draining = false;
+            return;
+          }
+          event = pendingEvent.event;
+        }
+
+        long start = System.nanoTime();
+        totalLatencyNanos.addAndGet(start - pendingEvent.enqueueNanos);
+
+        try {
+          eventBus.post(event);
+        } catch (RuntimeException e) {
+          // Subscriber exceptions are handled by the event bus so this is unexpected
+          log.error("Unexpected failure posting '{}' event", eventType.getSimpleName(), e);
+        }
+
+        long subscriberNanos = System.nanoTime() - start;
+        totalSubscriberNanos.addAndGet(subscriberNanos);
+        if (subscriberNanos > maxSubscriberNanos.get()) {
+          maxSubscriberNanos.set(subscriberNanos);
+        }
+        dispatchedCount.incrementAndGet();
+      }
+
+      // Batch complete so yield the thread to other event types
+      synchronized (pendingEvents) {
+        if (pendingEvents.isEmpty()) {
+          draining = false;
+          return;
+        }
+      }
+      submitDrain();
+
+    }
+
+    private EventTypeMetrics newMetrics() {
+
+      int queueDepth;
+      synchronized (pendingEvents) {
+        queueDepth = pendingEvents.size();
+      }
+
+      return new EventTypeMetrics(
+        queueDepth,
+        maxQueueDepth.get(),
+        enqueuedCount.get(),
+        dispatchedCount.get(),
+        coalescedCount.get(),
+        droppedCount.get(),
+        totalLatencyNanos.get(),
+        totalSubscriberNanos.get(),
+        maxSubscriberNanos.get()
+      );
+    }
+  }
+
+  /**
+   * <p>Value object to provide the following to monitoring:</p>
+   * <ul>
+   * <li>A snapshot of the dispatch metrics for a single event type</li>
+   * </ul>
+   * <p>Subscriber time covers all subscribers to the event type since the event bus delivers to them in turn.</p>
+   */
+  public static class EventTypeMetrics {
+
+    private final int queueDepth;
+    private final long maxQueueDepth;
+    private final long enqueuedCount;
+    private final long dispatchedCount;
+    private final long coalescedCount;
+    private final long droppedCount;
+    private final long totalLatencyNanos;
+    private final long totalSubscriberNanos;
+    private final long maxSubscriberNanos;
+
+    private EventTypeMetrics(
+      int queueDepth,
+      long maxQueueDepth,
+      long enqueuedCount,
+      long dispatchedCount,
+      long coalescedCount,
+      long droppedCount,
+      long totalLatencyNanos,
+      long totalSubscriberNanos,
+      long maxSubscriberNanos
+    ) {
+      this.queueDepth = queueDepth;
+      this.maxQueueDepth = maxQueueDepth;
+      this.enqueuedCount = enqueuedCount;
+      this.dispatchedCount = dispatchedCount;
+      this.coalescedCount = coalescedCount;
+      this.droppedCount = droppedCount;
+      this.totalLatencyNanos = totalLatencyNanos;
+      this.totalSubscriberNanos = totalSubscriberNanos;
+      this.maxSubscriberNanos = maxSubscriberNanos;
+    }
+
+    /**
+     * @return The number of undelivered events
+     */
+    public int getQueueDepth() {
+      return queueDepth;
+    }
+
+    /**
+     * @return The largest number of undelivered events seen
+     */
+    public long getMaxQueueDepth() {
+      return maxQueueDepth;
+    }
+
+    /**
+     * @return The number of events queued (excluding coalesced and dropped events)
+     */
+    public long getEnqueuedCount() {
+      return enqueuedCount;
+    }
+
+    /**
+     * @return The number of events posted to subscribers
+     */
+    public long getDispatchedCount() {
+      return dispatchedCount;
+    }
+
+    /**
+     * @return The number of events superseded by a later event before delivery (including when the queue was full)
+     */
+    public long getCoalescedCount() {
+      return coalescedCount;
+    }
+
+    /**
+     * @return The number of coalescing events discarded because the queue was full
+     */
+    public long getDroppedCount() {
+      return droppedCount;
+    }
+
+    /**
+     * @return The mean time between queueing and delivery in milliseconds
+     */
+    public double getMeanDispatchLatencyMillis() {
+      return dispatchedCount == 0 ? 0.0 : totalLatencyNanos / 1e6 / dispatchedCount;
+    }
+
+    /**
+     * @return The mean time spent in subscribers per event in milliseconds
+     */
+    public double getMeanSubscriberMillis() {
+      return dispatchedCount == 0 ? 0.0 : totalSubscriberNanos / 1e6 / dispatchedCount;
+    }
+
+    /**
+     * @return The longest time spent in subscribers for a single event in milliseconds
+     */
+    public long getMaxSubscriberMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(maxSubscriberNanos);
+    }
+
+    @Override
+    public String toString() {
+      return "EventTypeMetrics{" +
+        "queueDepth=" + queueDepth +
+        ", maxQueueDepth=" + maxQueueDepth +
+        ", enqueuedCount=" + enqueuedCount +
+        ", dispatchedCount=" + dispatchedCount +
+        ", coalescedCount=" + coalescedCount +
+        ", droppedCount=" + droppedCount +
+        ", meanDispatchLatencyMillis=" + getMeanDispatchLatencyMillis() +
+        ", meanSubscriberMillis=" + getMeanSubscriberMillis() +
+        ", maxSubscriberMillis=" + getMaxSubscriberMillis() +
+        '}';
+    }
+  }
+
+}
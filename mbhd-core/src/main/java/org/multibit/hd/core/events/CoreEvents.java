@@ -1,5 +1,6 @@
 package org.multibit.hd.core.events;
 
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
@@ -17,7 +18,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.Currency;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
@@ -26,6 +29,7 @@ import java.util.concurrent.TimeUnit;
  * <p>Factory to provide the following to application API:</p>
  * <ul>
  * <li>Entry point to broadcast core events</li>
+ * <li>Dispatch metrics for each event type</li>
  * </ul>
  *
  * @since 0.0.1
@@ -53,6 +57,36 @@ public class CoreEvents {
    */
   private static final Set<Object> coreEventBusSubscribers = Sets.newHashSet();
 
+  /**
+   * Deliver events through a queue per event type so that a slow subscriber only delays its own event type
+   */
+  private static final CoreEventDispatcher coreEventDispatcher = new CoreEventDispatcher(
+    coreEventBus,
+    eventExecutor,
+    CoreEventDispatcher.DEFAULT_QUEUE_CAPACITY
+  );
+
+  static {
+
+    // Progress and peer count updates supersede earlier undelivered updates of the same kind
+    coreEventDispatcher.coalesce(BitcoinNetworkChangedEvent.class, new Function<BitcoinNetworkChangedEvent, Object>() {
+      @Override
+      public Object apply(BitcoinNetworkChangedEvent event) {
+        BitcoinNetworkSummary summary = event.getSummary();
+        return Arrays.asList(summary.getStatus(), summary.getSeverity(), summary.getMessageKey());
+      }
+    });
+
+    // Only the latest rate for a currency is of interest
+    coreEventDispatcher.coalesce(ExchangeRateChangedEvent.class, new Function<ExchangeRateChangedEvent, Object>() {
+      @Override
+      public Object apply(ExchangeRateChangedEvent event) {
+        return event.getCurrency();
+      }
+    });
+
+  }
+
   /**
    * Utilities have a private constructor
    */
@@ -123,6 +157,13 @@ public class CoreEvents {
 
   }
 
+  /**
+   * @return A snapshot of the dispatch metrics (queue depth, latency, subscriber time etc) for each event type
+   */
+  public static Map<Class<?>, CoreEventDispatcher.EventTypeMetrics> getDispatchMetrics() {
+    return coreEventDispatcher.getMetrics();
+  }
+
   /**
    * <p>Broadcast a new "exchange rate changed" event</p>
    *
@@ -138,15 +179,9 @@ public class CoreEvents {
     final DateTime expires
   ) {
 
-    eventExecutor.submit(
-      new Runnable() {
-        @Override
-        public void run() {
-          ExchangeRateChangedEvent event = new ExchangeRateChangedEvent(rate, currency, rateProvider, expires);
-          coreEventBus.post(event);
-          log.debug("Firing 'exchange rate changed' event: {}", event);
-        }
-      });
+    ExchangeRateChangedEvent event = new ExchangeRateChangedEvent(rate, currency, rateProvider, expires);
+    log.debug("Firing 'exchange rate changed' event: {}", event);
+    coreEventDispatcher.dispatch(event);
 
   }
 
@@ -157,14 +192,8 @@ public class CoreEvents {
    */
   public static void fireExchangeStatusChangedEvent(final ExchangeSummary exchangeSummary) {
 
-    eventExecutor.submit(
-      new Runnable() {
-        @Override
-        public void run() {
-          log.trace("Firing 'exchange status changed' event");
-          coreEventBus.post(new ExchangeStatusChangedEvent(exchangeSummary));
-        }
-      });
+    log.trace("Firing 'exchange status changed' event");
+    coreEventDispatcher.dispatch(new ExchangeStatusChangedEvent(exchangeSummary));
 
   }
 
@@ -175,14 +204,8 @@ public class CoreEvents {
    */
   public static void fireTransactionCreationEvent(final TransactionCreationEvent transactionCreationEvent) {
 
-    eventExecutor.submit(
-      new Runnable() {
-        @Override
-        public void run() {
-          log.trace("Firing 'transactionCreation' event");
-          coreEventBus.post(transactionCreationEvent);
-        }
-      });
+    log.trace("Firing 'transactionCreation' event");
+    coreEventDispatcher.dispatch(transactionCreationEvent);
 
   }
 
@@ -193,14 +216,8 @@ public class CoreEvents {
    */
   public static void fireBitcoinSentEvent(final BitcoinSentEvent bitcoinSentEvent) {
 
-    eventExecutor.submit(
-      new Runnable() {
-        @Override
-        public void run() {
-          log.trace("Firing 'bitcoin sent' event");
-          coreEventBus.post(bitcoinSentEvent);
-        }
-      });
+    log.trace("Firing 'bitcoin sent' event");
+    coreEventDispatcher.dispatch(bitcoinSentEvent);
   }
 
   /**
@@ -210,14 +227,8 @@ public class CoreEvents {
    */
   public static void fireWalletLoadEvent(final WalletLoadEvent walletLoadEvent) {
 
-    eventExecutor.submit(
-      new Runnable() {
-        @Override
-        public void run() {
-          log.trace("Firing 'walletLoadEvent' event");
-          coreEventBus.post(walletLoadEvent);
-        }
-      });
+    log.trace("Firing 'walletLoadEvent' event");
+    coreEventDispatcher.dispatch(walletLoadEvent);
   }
 
   /**
@@ -225,14 +236,8 @@ public class CoreEvents {
    */
   public static void fireChangePasswordResultEvent(final ChangePasswordResultEvent changePasswordResultEvent) {
 
-    eventExecutor.submit(
-      new Runnable() {
-        @Override
-        public void run() {
-          log.trace("Firing 'change password result' event");
-          coreEventBus.post(changePasswordResultEvent);
-        }
-      });
+    log.trace("Firing 'change password result' event");
+    coreEventDispatcher.dispatch(changePasswordResultEvent);
   }
 
   /**
@@ -293,7 +298,8 @@ public class CoreEvents {
       }
     }
 
-    coreEventBus.post(new BitcoinNetworkChangedEvent(bitcoinNetworkSummary));
+    // Never run subscribers on the calling (typically peer) thread
+    coreEventDispatcher.dispatch(new BitcoinNetworkChangedEvent(bitcoinNetworkSummary));
 
   }
 
@@ -303,14 +309,8 @@ public class CoreEvents {
    * @param securitySummary The security summary
    */
   public static void fireSecurityEvent(final SecuritySummary securitySummary) {
-    eventExecutor.submit(
-      new Runnable() {
-        @Override
-        public void run() {
-          log.trace("Firing 'security' event");
-          coreEventBus.post(new SecurityEvent(securitySummary));
-        }
-      });
+    log.trace("Firing 'security' event");
+    coreEventDispatcher.dispatch(new SecurityEvent(securitySummary));
   }
 
   /**
@@ -319,14 +319,8 @@ public class CoreEvents {
    * @param historyEntry The history entry from the History service
    */
   public static void fireHistoryChangedEvent(final HistoryEntry historyEntry) {
-    eventExecutor.submit(
-      new Runnable() {
-        @Override
-        public void run() {
-          log.trace("Firing 'history changed' event");
-          coreEventBus.post(new HistoryChangedEvent(historyEntry));
-        }
-      });
+    log.trace("Firing 'history changed' event");
+    coreEventDispatcher.dispatch(new HistoryChangedEvent(historyEntry));
   }
 
   /**
@@ -337,28 +331,16 @@ public class CoreEvents {
    * @param shutdownType The shutdown type
    */
   public static void fireShutdownEvent(final ShutdownEvent.ShutdownType shutdownType) {
-    eventExecutor.submit(
-      new Runnable() {
-        @Override
-        public void run() {
-          log.info("Firing 'shutdown' event: {}", shutdownType);
-          coreEventBus.post(new ShutdownEvent(shutdownType));
-        }
-      });
+    log.info("Firing 'shutdown' event: {}", shutdownType);
+    coreEventDispatcher.dispatch(new ShutdownEvent(shutdownType));
   }
 
   /**
    * <p>Broadcast a new "configuration changed" event</p>
    */
   public static void fireConfigurationChangedEvent() {
-    eventExecutor.submit(
-      new Runnable() {
-        @Override
-        public void run() {
-          log.trace("Firing 'configuration changed' event");
-          coreEventBus.post(new ConfigurationChangedEvent());
-        }
-      });
+    log.trace("Firing 'configuration changed' event");
+    coreEventDispatcher.dispatch(new ConfigurationChangedEvent());
   }
 
   /**
@@ -367,14 +349,8 @@ public class CoreEvents {
    * @param exportPerformedEvent The export performed event
    */
   public static void fireExportPerformedEvent(final ExportPerformedEvent exportPerformedEvent) {
-    eventExecutor.submit(
-      new Runnable() {
-        @Override
-        public void run() {
-          log.trace("Firing 'export performed' event");
-          coreEventBus.post(exportPerformedEvent);
-        }
-      });
+    log.trace("Firing 'export performed' event");
+    coreEventDispatcher.dispatch(exportPerformedEvent);
   }
 
 }
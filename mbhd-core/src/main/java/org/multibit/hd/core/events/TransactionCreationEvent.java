@@ -5,8 +5,11 @@ import org.bitcoinj.core.Address;
 import org.bitcoinj.core.Coin;
 import com.google.common.base.Optional;
 import org.multibit.hd.core.dto.FiatPayment;
+import org.multibit.hd.core.dto.SendStage;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
 
 /**
  * <p>Event to provide the following to UI event subscribers:</p>
@@ -57,6 +60,11 @@ public class TransactionCreationEvent implements CoreEvent {
    */
   private final String[] transactionCreationFailureReasonData;
 
+  /**
+   * The time taken by each completed send stage (empty if not recorded)
+   */
+  private final Map<SendStage, Long> stageLatencyMillis;
+
   // The fix for this is more complex than leaving it in place
   @SuppressFBWarnings({"EI_EXPOSE_REP2"})
   public TransactionCreationEvent(
@@ -73,6 +81,43 @@ public class TransactionCreationEvent implements CoreEvent {
     Optional<String> notes,
     Boolean sentByMe
   ) {
+    this(
+      transactionId,
+      amount,
+      fiatPayment,
+      miningFeePaid,
+      clientFeePaid,
+      destinationAddress,
+      changeAddress,
+      transactionCreationWasSuccessful,
+      transactionCreationFailureReasonKey,
+      transactionCreationFailureReasonData,
+      notes,
+      sentByMe,
+      Collections.<SendStage, Long>emptyMap()
+    );
+  }
+
+  /**
+   * @param stageLatencyMillis The time taken by each completed send stage in milliseconds
+   */
+  // The fix for this is more complex than leaving it in place
+  @SuppressFBWarnings({"EI_EXPOSE_REP2"})
+  public TransactionCreationEvent(
+    String transactionId,
+    Coin amount,
+    Optional<FiatPayment> fiatPayment,
+    Optional<Coin> miningFeePaid,
+    Optional<Coin> clientFeePaid,
+    Address destinationAddress,
+    Address changeAddress,
+    boolean transactionCreationWasSuccessful,
+    String transactionCreationFailureReasonKey,
+    String[] transactionCreationFailureReasonData,
+    Optional<String> notes,
+    Boolean sentByMe,
+    Map<SendStage, Long> stageLatencyMillis
+  ) {
 
     this.transactionId = transactionId;
     this.amount = amount;
@@ -86,6 +131,7 @@ public class TransactionCreationEvent implements CoreEvent {
     this.transactionCreationFailureReasonData = transactionCreationFailureReasonData;
     this.notes = notes;
     this.sentByMe = sentByMe;
+    this.stageLatencyMillis = stageLatencyMillis;
   }
 
   public Coin getAmount() {
@@ -130,6 +176,13 @@ public class TransactionCreationEvent implements CoreEvent {
     return sentByMe;
   }
 
+  /**
+   * @return The time taken by each completed send stage in milliseconds
+   */
+  public Map<SendStage, Long> getStageLatencyMillis() {
+    return stageLatencyMillis;
+  }
+
   @Override
   public String toString() {
     return "TransactionCreationEvent{" +
@@ -145,6 +198,7 @@ public class TransactionCreationEvent implements CoreEvent {
       ", transactionCreationFailureReasonData=" + Arrays.toString(transactionCreationFailureReasonData) +
       ", notes=" + notes +
       ", sentByMe=" +sentByMe +
+      ", stageLatencyMillis=" + stageLatencyMillis +
       '}';
   }
 }
@@ -3,15 +3,22 @@ package org.multibit.hd.core.files;
 import com.google.common.base.Preconditions;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import org.multibit.hd.core.concurrent.SafeExecutors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.nio.MappedByteBuffer;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <p>Utilties to provide the following to applications:</p>
@@ -28,6 +35,67 @@ public class SecureFiles {
 
   private static SecureRandom secureRandom = new SecureRandom();
 
+  /**
+   * The patterns available for overwriting a file before deletion
+   */
+  public enum OverwritePass {
+
+    /**
+     * Overwrite with zero bits
+     */
+    ZEROS((byte) 0x00),
+    /**
+     * Overwrite with one bits
+     */
+    ONES((byte) 0xFF),
+    /**
+     * Overwrite with random data
+     */
+    RANDOM((byte) 0x00),
+
+    // End of enum
+    ;
+
+    private final byte pattern;
+
+    OverwritePass(byte pattern) {
+      this.pattern = pattern;
+    }
+  }
+
+  /**
+   * The size of each overwrite write (the whole file is never mapped or buffered)
+   */
+  private static final int OVERWRITE_CHUNK_SIZE = 64 * 1024;
+
+  /**
+   * The maximum number of concurrent background secure deletes
+   */
+  private static final int SECURE_DELETE_THREADS = 2;
+
+  /**
+   * A reusable overwrite buffer for each thread performing secure deletes
+   */
+  private static final ThreadLocal<byte[]> overwriteBuffer = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[OVERWRITE_CHUNK_SIZE];
+    }
+  };
+
+  /**
+   * The overwrite passes applied to each file (a single random pass by default)
+   */
+  private static volatile OverwritePass[] overwritePasses = new OverwritePass[]{OverwritePass.RANDOM};
+
+  private static ListeningExecutorService secureDeleteExecutorService = null;
+
+  private static final AtomicLong secureDeleteCount = new AtomicLong();
+
+  private static final AtomicLong secureDeleteBytes = new AtomicLong();
+
+  private static final AtomicLong secureDeleteNanos = new AtomicLong();
+
   /**
    * Utilities have private constructor
    */
@@ -35,67 +103,161 @@ public class SecureFiles {
   }
 
   /**
-   * Delete a file with an overwrite of all of the data.
-   * <p/>
-   * Set bit patterns are used rather than random numbers to avoid a
-   * futex_wait_queue_me error on Linux systems (related to /dev/random usage)
+   * <p>Overwrite and delete a file on the calling thread</p>
+   * <p>The file is overwritten in place according to the current overwrite passes (see
+   * <code>setOverwritePasses</code>) using large chunked writes, so files of any size are handled without
+   * memory mapping. Deletes of different files may run concurrently.</p>
    *
    * @param file The file to secure delete
    *
+   * @return The number of bytes written across all overwrite passes
+   *
    * @throws java.io.IOException if the operation fails for any reason
    */
-  public static synchronized void secureDelete(File file) throws IOException {
+  public static long secureDelete(File file) throws IOException {
 
-    long start = System.currentTimeMillis();
+    long start = System.nanoTime();
     log.trace("Start of secureDelete");
 
-    fastSecureDelete(file);
+    long bytesOverwritten = overwriteAndDelete(file);
+
+    long elapsedNanos = System.nanoTime() - start;
+    secureDeleteCount.incrementAndGet();
+    secureDeleteBytes.addAndGet(bytesOverwritten);
+    secureDeleteNanos.addAndGet(elapsedNanos);
+
     log.trace("End of secureDelete");
-    log.debug("Secure delete took {} milliseconds", System.currentTimeMillis() - start);
+    log.debug("Secure delete writing {} bytes took {} milliseconds", bytesOverwritten, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
 
+    return bytesOverwritten;
   }
 
   /**
-   * An alternative secure delete algorithm from http://www.cafeaulait.org/books/javaio2/ioexamples/14/SecureDelete.java
+   * <p>Overwrite and delete a file on the secure delete thread pool</p>
+   * <p>Use this when nothing depends on the file being gone when the call returns (e.g. a temporary file).
+   * Failures are logged as well as being reported through the future.</p>
+   *
+   * @param file The file to secure delete
    *
-   * @param file the file to secure delete
+   * @return A future providing the number of bytes written across all overwrite passes once the file has been deleted
    */
-  private static void fastSecureDelete(File file) throws IOException {
-    if (file.exists()) {
-      RandomAccessFile raf = null;
-      FileChannel channel = null;
-      try {
-        SecureRandom random = new SecureRandom();
-        raf = new RandomAccessFile(file, "rw");
-        channel = raf.getChannel();
-
-        MappedByteBuffer buffer = channel.map(
-                FileChannel.MapMode.READ_WRITE,
-                0,
-                raf.length()
-        );
-
-        // Overwrite with random data; one byte at a time
-        byte[] data = new byte[1];
-        while (buffer.hasRemaining()) {
-          random.nextBytes(data);
-          buffer.put(data[0]);
+  public static ListenableFuture<Long> secureDeleteAsync(final File file) {
+
+    Preconditions.checkNotNull(file, "'file' must be present");
+
+    return getSecureDeleteExecutorService().submit(new Callable<Long>() {
+      @Override
+      public Long call() throws Exception {
+        try {
+          return secureDelete(file);
+        } catch (IOException e) {
+          log.error("Secure delete of '{}' failed", file.getAbsolutePath(), e);
+          throw e;
         }
-        buffer.force();
-
-        boolean deleteSuccess = file.delete();
-        log.trace("Result of delete was {} for:\n'{}'", deleteSuccess, file.getAbsolutePath());
-      } finally {
-        if (channel != null) {
-          channel.close();
-          channel = null;
+      }
+    });
+  }
+
+  /**
+   * @param overwritePasses The patterns to overwrite a file with before deleting it (at least one)
+   */
+  public static void setOverwritePasses(OverwritePass... overwritePasses) {
+
+    Preconditions.checkNotNull(overwritePasses, "'overwritePasses' must be present");
+    Preconditions.checkArgument(overwritePasses.length > 0, "'overwritePasses' must contain at least one pass");
+
+    SecureFiles.overwritePasses = overwritePasses.clone();
+
+  }
+
+  /**
+   * @return The number of files securely deleted since startup
+   */
+  public static long getSecureDeleteCount() {
+    return secureDeleteCount.get();
+  }
+
+  /**
+   * @return The number of bytes written by secure deletes since startup (across all passes)
+   */
+  public static long getSecureDeleteBytes() {
+    return secureDeleteBytes.get();
+  }
+
+  /**
+   * @return The secure delete throughput in bytes per second since startup
+   */
+  public static double getSecureDeleteThroughput() {
+
+    long nanos = secureDeleteNanos.get();
+
+    return nanos == 0 ? 0.0 : secureDeleteBytes.get() * 1e9 / nanos;
+  }
+
+  /**
+   * @param file the file to overwrite and delete
+   *
+   * @return The number of bytes written across all passes
+   */
+  private static long overwriteAndDelete(File file) throws IOException {
+
+    if (!file.exists()) {
+      return 0;
+    }
+
+    // Take a copy in case the policy changes during the delete
+    OverwritePass[] passes = overwritePasses;
+    byte[] chunk = overwriteBuffer.get();
+
+    long length;
+    long bytesWritten = 0;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+         FileChannel channel = raf.getChannel()) {
+
+      length = channel.size();
+
+      for (OverwritePass pass : passes) {
+
+        // Fixed patterns only need filling once per pass
+        if (pass != OverwritePass.RANDOM) {
+          Arrays.fill(chunk, pass.pattern);
         }
-        if (raf != null) {
-          raf.close();
-          raf = null;
+
+        long position = 0;
+        while (position < length) {
+          int chunkLength = (int) Math.min(chunk.length, length - position);
+          if (pass == OverwritePass.RANDOM) {
+            secureRandom.nextBytes(chunk);
+          }
+          ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, chunkLength);
+          while (buffer.hasRemaining()) {
+            int written = channel.write(buffer, position);
+            position += written;
+            bytesWritten += written;
+          }
         }
+
+        // Ensure each pass reaches the disk before the next
+        channel.force(true);
       }
     }
+
+    // Avoid leaving the last pattern in memory
+    Arrays.fill(chunk, (byte) 0);
+
+    boolean deleteSuccess = file.delete();
+    log.trace("Result of delete was {} for:\n'{}'", deleteSuccess, file.getAbsolutePath());
+
+    return bytesWritten;
+  }
+
+  private static synchronized ListeningExecutorService getSecureDeleteExecutorService() {
+
+    if (secureDeleteExecutorService == null) {
+      secureDeleteExecutorService = SafeExecutors.newFixedThreadPool(SECURE_DELETE_THREADS, "secure-delete");
+    }
+
+    return secureDeleteExecutorService;
   }
 
   /**
@@ -6,6 +6,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Enumeration;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -33,6 +37,11 @@ public class ZipFiles {
   private ZipFiles() {
   }
 
+  /**
+   * The buffer size used when copying file contents into and out of a zip
+   */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
   /**
    * Copy the files in the specified srcFolder to the destZipFile
    * The zip-backups are not stored in the backup (as they are zip-backups themselves) but the rolling backups
@@ -45,27 +54,68 @@ public class ZipFiles {
    * @throws java.io.IOException
    */
   public static void zipFolder(String srcFolder, String destZipFile, boolean includeBlockStore) throws IOException {
-    ZipOutputStream zip;
-    FileOutputStream fileWriter;
 
-    fileWriter = new FileOutputStream(destZipFile);
-    zip = new ZipOutputStream(fileWriter);
+    try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(destZipFile), BUFFER_SIZE)) {
+      zipFolder(new File(srcFolder), outputStream, includeBlockStore);
+    }
+  }
 
-    try {
-      // Add the contents of the srcFolder to the zip - note the top folder (with the wallet id) is not added as it is coded in the name of the zip
-      if (new File(srcFolder).list() != null) {
-        for (String fileName : new File(srcFolder).list()) {
-          if (!includeBlockStore && fileName.endsWith(InstallationManager.MBHD_PREFIX + InstallationManager.SPV_BLOCKCHAIN_SUFFIX)) {
+  /**
+   * <p>Zip the files in the specified srcFolder straight into an output stream in a single pass</p>
+   * <p>Entries are named relative to srcFolder (the top folder is coded in the name of the zip). The output stream is
+   * finished but not closed so that callers can continue to wrap it (e.g. with a cipher).</p>
+   *
+   * @param srcFolder         The directory holding the files to zip
+   * @param outputStream      The destination of the zip
+   * @param includeBlockStore if true then include the blockstore, if false then don't
+   *
+   * @throws java.io.IOException
+   */
+  public static void zipFolder(File srcFolder, OutputStream outputStream, boolean includeBlockStore) throws IOException {
+
+    final Path srcPath = srcFolder.toPath();
+    final boolean excludeBlockStore = !includeBlockStore;
+    final ZipOutputStream zip = new ZipOutputStream(outputStream);
+    final byte[] buffer = new byte[BUFFER_SIZE];
+
+    if (java.nio.file.Files.isDirectory(srcPath)) {
+      java.nio.file.Files.walkFileTree(srcPath, new SimpleFileVisitor<Path>() {
+
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+
+          // Don't include the zip-backups folder in the backups
+          if (!dir.equals(srcPath) && dir.getFileName().toString().contains(BackupManager.LOCAL_ZIP_BACKUP_DIRECTORY_NAME)) {
+            return FileVisitResult.SKIP_SUBTREE;
+          }
+
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+
+          if (excludeBlockStore && file.getFileName().toString().endsWith(InstallationManager.MBHD_PREFIX + InstallationManager.SPV_BLOCKCHAIN_SUFFIX)) {
             // Do not include the block chain (to save space)
-            continue;
+            return FileVisitResult.CONTINUE;
           }
-          addFileToZip(srcFolder, fileName, zip, includeBlockStore);
+
+          zip.putNextEntry(new ZipEntry(srcPath.relativize(file).toString()));
+          try (InputStream in = java.nio.file.Files.newInputStream(file)) {
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+              zip.write(buffer, 0, len);
+            }
+          }
+          zip.closeEntry();
+
+          return FileVisitResult.CONTINUE;
         }
-      }
-    } finally {
-      zip.flush();
-      zip.close();
+      });
     }
+
+    zip.finish();
+    zip.flush();
   }
 
   public static void unzip(String zipFileName, String directoryToExtractTo) throws IOException {
@@ -108,7 +158,7 @@ public class ZipFiles {
 
           writeFile(zipFile.getInputStream(entry),
             new BufferedOutputStream(new FileOutputStream(
-              directoryToExtractTo + File.separator + name))
+              directoryToExtractTo + File.separator + name), BUFFER_SIZE)
           );
         }
       }
@@ -119,47 +169,6 @@ public class ZipFiles {
     }
   }
 
-  private static void addFileToZip(String path, String srcFile, ZipOutputStream zip, Boolean includeBlockStore)
-    throws IOException {
-
-    File srcFileOnDisk = new File(path + File.separator + srcFile);
-    if (srcFileOnDisk.isDirectory()) {
-      addFolderToZip(path, srcFile, zip, includeBlockStore);
-    } else {
-      byte[] buf = new byte[1024];
-      int len;
-      try (FileInputStream in = new FileInputStream(srcFileOnDisk)) {
-        zip.putNextEntry(new ZipEntry(srcFile));
-
-        while ((len = in.read(buf)) > 0) {
-          zip.write(buf, 0, len);
-        }
-      }
-    }
-  }
-
-  private static void addFolderToZip(String path, String srcFolder, ZipOutputStream zip, Boolean includeBlockStore)
-    throws IOException {
-
-    File folder = new File(srcFolder);
-    File folderOnDisk = new File(path + File.separator + srcFolder);
-
-    // Don't include the zip-backups folder in the backups
-    if (folder.getAbsolutePath().contains(BackupManager.LOCAL_ZIP_BACKUP_DIRECTORY_NAME)) {
-      return;
-    }
-
-    if (folderOnDisk.list() != null) {
-      for (String fileName : folderOnDisk.list()) {
-        if (!includeBlockStore && fileName.endsWith(InstallationManager.MBHD_PREFIX + InstallationManager.SPV_BLOCKCHAIN_SUFFIX)) {
-          // Do not include the block writeContacts (to save space)
-          continue;
-        }
-        addFileToZip(path, srcFolder + File.separator + fileName, zip, includeBlockStore);
-      }
-    }
-  }
-
   /**
    * Work out the directory part of a filename
    *
@@ -179,7 +188,7 @@ public class ZipFiles {
    */
   private static void writeFile(InputStream in, OutputStream out)
     throws IOException {
-    byte[] buffer = new byte[1024];
+    byte[] buffer = new byte[BUFFER_SIZE];
     int len;
 
     while ((len = in.read(buffer)) >= 0)
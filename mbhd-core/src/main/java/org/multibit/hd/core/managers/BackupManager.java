@@ -28,10 +28,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.crypto.params.KeyParameter;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.StandardCopyOption;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -66,6 +69,13 @@ public enum BackupManager {
   public static final int NUMBER_OF_LAST_WALLET_ZIP_BACKUPS_TO_ALWAYS_KEEP = 8; // Must be at least 1.
 
   public static final String BACKUP_TIMESTAMP_SUFFIX_FORMAT = "yyyyMMddHHmmss";
+
+  private static final String TEMPORARY_FILE_EXTENSION = ".tmp";
+
+  /**
+   * The buffer size used for each backup destination
+   */
+  private static final int BACKUP_BUFFER_SIZE = 64 * 1024;
   private DateFormat dateFormat;
 
   private static final Logger log = LoggerFactory.getLogger(BackupManager.class);
@@ -278,11 +288,14 @@ public enum BackupManager {
 
     File walletBackupFile = new File(walletBackupFilename);
     log.debug("Creating rolling-backup '" + walletBackupFilename + "'");
-    walletSummary.getWallet().saveToFile(walletBackupFile);
-    log.debug("Created rolling-backup successfully. Size = " + walletBackupFile.length() + " bytes");
 
-    File encryptedAESCopy = EncryptedFileReaderWriter.makeAESEncryptedCopyAndDeleteOriginal(walletBackupFile, password);
-    log.debug("Created rolling-backup AES copy successfully as file:\n'{}'", encryptedAESCopy.getAbsolutePath());
+    // Stream the wallet through AES so that no plaintext copy reaches the disk
+    File encryptedAESCopy = EncryptedFileReaderWriter.encryptAndWriteWallet(
+      walletSummary.getWallet(),
+      new File(walletBackupFilename + WalletManager.MBHD_AES_SUFFIX),
+      password
+    );
+    log.debug("Created rolling-backup AES copy successfully as file:\n'{}'\nSize: {} bytes", encryptedAESCopy.getAbsolutePath(), encryptedAESCopy.length());
 
     List<File> rollingBackups = getRollingBackups(walletSummary.getWalletId());
 
@@ -309,38 +322,8 @@ public enum BackupManager {
    * @return The created local backup as a file
    */
   public File createLocalBackup(WalletId walletId, CharSequence password) throws IOException {
-    Preconditions.checkNotNull(walletId);
-    createApplicationDataDirectoryIfNotSet();
-
-    // Find the wallet root directory for this wallet id
-    File walletRootDirectory = WalletManager.getOrCreateWalletDirectory(applicationDataDirectory, WalletManager.createWalletRoot(walletId));
-
-    if (!walletRootDirectory.exists()) {
-      throw new IOException("Directory " + walletRootDirectory + " does not exist. Cannot backup.");
-    }
-
-    WalletSummary walletSummary = WalletManager.getOrCreateWalletSummary(walletRootDirectory, walletId);
-
-    File localBackupDirectory = new File(walletRootDirectory.getAbsoluteFile() + File.separator + LOCAL_ZIP_BACKUP_DIRECTORY_NAME);
-    SecureFiles.verifyOrCreateDirectory(localBackupDirectory);
-
-    String backupFilename = WalletManager.WALLET_DIRECTORY_PREFIX
-            + WALLET_ID_SEPARATOR
-            + walletId.toFormattedString()
-            + WALLET_ID_SEPARATOR
-            + Dates.formatBackupDate(Dates.nowUtc())
-            + BACKUP_ZIP_FILE_EXTENSION;
-    String localBackupFilename = localBackupDirectory.getAbsolutePath() + File.separator + backupFilename;
 
-    log.debug("Creating local zip-backup '" + localBackupFilename + "'");
-    ZipFiles.zipFolder(walletRootDirectory.getAbsolutePath(), localBackupFilename, false);
-    File localBackupEncryptedFilename = EncryptedFileReaderWriter.makeBackupAESEncryptedCopyAndDeleteOriginal(new File(localBackupFilename), (String) password, walletSummary.getEncryptedBackupKey());
-    log.debug("Created encrypted local zip-backup successfully. Size = " + (localBackupEncryptedFilename).length() + " bytes");
-
-    // Thin the local backup directory
-    thinBackupDirectory(walletId, localBackupDirectory);
-
-    return localBackupEncryptedFilename;
+    return createZipBackups(walletId, password, true, false).get(0);
   }
 
   /**
@@ -352,6 +335,34 @@ public enum BackupManager {
    * @return The created cloud backup as a file or null if nothing was generated
    */
   public File createCloudBackup(WalletId walletId, CharSequence password) throws IOException {
+
+    List<File> backupFiles = createZipBackups(walletId, password, false, true);
+
+    return backupFiles.isEmpty() ? null : backupFiles.get(0);
+  }
+
+  /**
+   * Create a local and (if configured) a cloud backup of the specified wallet id from a single pass over the wallet directory.
+   *
+   * @return The created backups (local first, then cloud if present)
+   */
+  public List<File> createLocalAndCloudBackup(WalletId walletId, CharSequence password) throws IOException {
+
+    return createZipBackups(walletId, password, true, true);
+  }
+
+  /**
+   * <p>Zip the wallet root directory once, encrypting the zip as it is produced and writing the same ciphertext to
+   * each of the requested backup directories. No plaintext zip is written to disk.</p>
+   *
+   * @param walletId      The wallet id
+   * @param password      The wallet password (used to decrypt the backup AES key)
+   * @param includeLocal  True if a backup should be written to the local zip-backup directory
+   * @param includeCloud  True if a backup should be written to the cloud backup directory (if present)
+   *
+   * @return The created backups
+   */
+  private List<File> createZipBackups(WalletId walletId, CharSequence password, boolean includeLocal, boolean includeCloud) throws IOException {
     Preconditions.checkNotNull(walletId);
     createApplicationDataDirectoryIfNotSet();
 
@@ -362,32 +373,83 @@ public enum BackupManager {
       throw new IOException("Directory " + walletRootDirectory + " does not exist. Cannot backup.");
     }
 
-    WalletSummary walletSummary = WalletManager.getOrCreateWalletSummary(walletRootDirectory, walletId);
+    List<File> backupDirectories = Lists.newArrayList();
 
+    if (includeLocal) {
+      File localBackupDirectory = new File(walletRootDirectory.getAbsoluteFile() + File.separator + LOCAL_ZIP_BACKUP_DIRECTORY_NAME);
+      SecureFiles.verifyOrCreateDirectory(localBackupDirectory);
+      backupDirectories.add(localBackupDirectory);
+    }
+
+    if (includeCloud) {
+      if (cloudBackupDirectory.isPresent() && cloudBackupDirectory.get().exists()) {
+        backupDirectories.add(cloudBackupDirectory.get());
+      } else {
+        log.debug("No cloud backup made for wallet '" + walletId + "' as no cloudBackupDirectory is set.");
+      }
+    }
+
+    if (backupDirectories.isEmpty()) {
+      return Lists.newArrayList();
+    }
+
+    WalletSummary walletSummary = WalletManager.getOrCreateWalletSummary(walletRootDirectory, walletId);
+    KeyParameter backupAESKey = EncryptedFileReaderWriter.decryptBackupAESKey(password.toString(), walletSummary.getEncryptedBackupKey());
 
     String backupFilename = WalletManager.WALLET_DIRECTORY_PREFIX
             + WALLET_ID_SEPARATOR
             + walletId.toFormattedString()
             + WALLET_ID_SEPARATOR
             + Dates.formatBackupDate(Dates.nowUtc())
-            + BACKUP_ZIP_FILE_EXTENSION;
+            + ENCRYPTED_BACKUP_FILE_EXTENSION;
 
-    if (cloudBackupDirectory.isPresent() && cloudBackupDirectory.get().exists()) {
-      String cloudBackupFilename = cloudBackupDirectory.get().getAbsolutePath() + File.separator + backupFilename;
-      log.debug("Creating cloud zip-backup '" + cloudBackupFilename + "'");
-      ZipFiles.zipFolder(walletRootDirectory.getAbsolutePath(), cloudBackupFilename, false);
-      File cloudBackupEncryptedFilename = EncryptedFileReaderWriter.makeBackupAESEncryptedCopyAndDeleteOriginal(new File(cloudBackupFilename), (String) password, walletSummary.getEncryptedBackupKey());
+    List<File> backupFiles = Lists.newArrayList();
+    List<File> temporaryFiles = Lists.newArrayList();
+    List<OutputStream> outputStreams = Lists.newArrayList();
 
-      log.debug("Created encrypted cloud zip-backup successfully. Size = " + (cloudBackupEncryptedFilename).length() + " bytes");
+    try {
+      for (File backupDirectory : backupDirectories) {
+        File backupFile = new File(backupDirectory.getAbsolutePath() + File.separator + backupFilename);
+        File temporaryFile = new File(backupFile.getAbsolutePath() + TEMPORARY_FILE_EXTENSION);
+        log.debug("Creating zip-backup '" + backupFile.getAbsolutePath() + "'");
+
+        backupFiles.add(backupFile);
+        temporaryFiles.add(temporaryFile);
+        outputStreams.add(new BufferedOutputStream(new FileOutputStream(temporaryFile), BACKUP_BUFFER_SIZE));
+      }
 
-      // Thin the local backup directory
-      thinBackupDirectory(walletId, cloudBackupDirectory.get());
+      // Zip -> AES -> every destination
+      try (OutputStream encryptingStream = EncryptedFileReaderWriter.newEncryptingOutputStream(
+        new FanOutOutputStream(outputStreams),
+        backupAESKey,
+        WalletManager.aesInitialisationVector())) {
+        ZipFiles.zipFolder(walletRootDirectory, encryptingStream, false);
+      }
 
-      return cloudBackupEncryptedFilename;
-    } else {
-      log.debug("No cloud backup made for wallet '" + walletId + "' as no cloudBackupDirectory is set.");
-      return null;
+      for (int i = 0; i < backupFiles.size(); i++) {
+        java.nio.file.Files.move(temporaryFiles.get(i).toPath(), backupFiles.get(i).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        log.debug("Created encrypted zip-backup successfully. Size = " + backupFiles.get(i).length() + " bytes");
+      }
+
+    } catch (IOException | RuntimeException e) {
+      for (OutputStream outputStream : outputStreams) {
+        closeQuietly(outputStream);
+      }
+      // Only ciphertext was written so a plain delete is sufficient
+      for (File temporaryFile : temporaryFiles) {
+        if (temporaryFile.exists() && !temporaryFile.delete()) {
+          log.warn("Could not delete temporary backup file '{}'", temporaryFile.getAbsolutePath());
+        }
+      }
+      throw e;
     }
+
+    // Thin the backup directories
+    for (File backupDirectory : backupDirectories) {
+      thinBackupDirectory(walletId, backupDirectory);
+    }
+
+    return backupFiles;
   }
 
   /**
@@ -501,6 +563,7 @@ public enum BackupManager {
       throw new EncryptedFileReaderWriterException("Cannot read and decrypt the backup file '" + backupFileToLoad.getAbsolutePath() + "'", e);
     } finally {
       if (temporaryFile != null) {
+        // The plaintext zip must not outlive the restore
         SecureFiles.secureDelete(temporaryFile);
       }
     }
@@ -602,4 +665,62 @@ public enum BackupManager {
       log.debug("Setting the application data directory to {}", applicationDataDirectory);
     }
   }
+
+  private static void closeQuietly(OutputStream outputStream) {
+    try {
+      outputStream.close();
+    } catch (IOException e) {
+      log.warn("Could not close backup output stream", e);
+    }
+  }
+
+  /**
+   * <p>Output stream to write the same bytes to several output streams</p>
+   */
+  private static class FanOutOutputStream extends OutputStream {
+
+    private final List<OutputStream> outputStreams;
+
+    private FanOutOutputStream(List<OutputStream> outputStreams) {
+      this.outputStreams = outputStreams;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      for (OutputStream outputStream : outputStreams) {
+        outputStream.write(b);
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      for (OutputStream outputStream : outputStreams) {
+        outputStream.write(b, off, len);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      for (OutputStream outputStream : outputStreams) {
+        outputStream.flush();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      IOException firstException = null;
+      for (OutputStream outputStream : outputStreams) {
+        try {
+          outputStream.close();
+        } catch (IOException e) {
+          if (firstException == null) {
+            firstException = e;
+          }
+        }
+      }
+      if (firstException != null) {
+        throw firstException;
+      }
+    }
+  }
 }
@@ -3,10 +3,17 @@ package org.multibit.hd.core.managers;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.bitcoinj.core.CheckpointManager;
 import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Wallet;
 import org.bitcoinj.store.BlockStore;
 import org.bitcoinj.store.BlockStoreException;
 import org.bitcoinj.store.SPVBlockStore;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import org.multibit.hd.core.files.SecureFiles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,17 +21,39 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Date;
+import java.util.Map;
 
 /**
  * <p>Manager to provide the following to BitcoinNetworkService:</p>
  * <ul>
  * <li>Create a blockstore</li>
+ * <li>Share a reference counted header store per network across all wallets</li>
  * </ul>
+ * <p>The shared store lives under the application data directory so that headers verified for one wallet are
+ * reused by the next. Each wallet only keeps its own last seen block (height and hash) and the chain head is
+ * moved to that block when the wallet is opened. A replay rolls the chain head back within the ring of recent
+ * headers and only recreates the store from a checkpoint when the ring does not reach back far enough.</p>
  */
 public class BlockStoreManager {
 
   private static final Logger log = LoggerFactory.getLogger(BlockStoreManager.class);
 
+  /**
+   * The furthest a shared block store is rolled back before it is recreated from a checkpoint instead
+   * (the headers older than this have been overwritten in the SPV ring)
+   */
+  public static final int MAX_REWIND_BLOCKS = SPVBlockStore.DEFAULT_NUM_HEADERS;
+
+  /**
+   * Block timestamps may run ahead of the true time by up to two hours
+   */
+  private static final long REWIND_DRIFT_SECONDS = 7200;
+
+  /**
+   * The open shared block stores keyed by network ID
+   */
+  private static final Map<String, SharedBlockStore> sharedBlockStores = Maps.newHashMap();
+
   private final NetworkParameters networkParameters;
 
   /**
@@ -126,4 +155,332 @@ public class BlockStoreManager {
     return blockStore;
 
   }
+
+  /**
+   * <p>Acquire a lease on the block store shared by all wallets on this network</p>
+   * <p>The underlying store is opened by the first lease and closed when the last lease is closed.</p>
+   *
+   * @param applicationDataDirectory The application data directory
+   * @param checkpointDate           Date to recreate and checkpoint the shared store from, null to open it as is
+   *
+   * @return A lease on the shared block store (close it to release the lease)
+   *
+   * @throws BlockStoreException If the block store cannot be opened
+   * @throws IOException         If the checkpoints cannot be copied
+   */
+  public BlockStore acquireSharedBlockStore(File applicationDataDirectory, Date checkpointDate) throws BlockStoreException, IOException {
+
+    Preconditions.checkNotNull(applicationDataDirectory, "'applicationDataDirectory' must be present");
+
+    String networkId = networkParameters.getId();
+
+    synchronized (sharedBlockStores) {
+
+      SharedBlockStore sharedBlockStore = sharedBlockStores.get(networkId);
+
+      if (sharedBlockStore == null || checkpointDate != null) {
+
+        if (sharedBlockStore != null) {
+          if (sharedBlockStore.references > 0) {
+            log.warn("Recreating shared block store with {} open lease(s)", sharedBlockStore.references);
+          }
+          sharedBlockStore.closeDelegate();
+          // Only reinstated if the recreation succeeds
+          sharedBlockStores.remove(networkId);
+        } else {
+          sharedBlockStore = new SharedBlockStore();
+        }
+
+        File networkDirectory = InstallationManager.getOrCreateNetworkDirectory(applicationDataDirectory, networkParameters);
+        if (sharedBlockStore.delegate == null) {
+          // Not yet open so adopt or remove any block stores that earlier versions left in the wallet directories
+          migrateWalletBlockStores(applicationDataDirectory, new File(networkDirectory, InstallationManager.MBHD_PREFIX + InstallationManager.SPV_BLOCKCHAIN_SUFFIX));
+        }
+        File blockStoreFile = SecureFiles.verifyOrCreateFile(networkDirectory, InstallationManager.MBHD_PREFIX + InstallationManager.SPV_BLOCKCHAIN_SUFFIX);
+        File checkpointsFile = new File(networkDirectory, InstallationManager.MBHD_PREFIX + InstallationManager.CHECKPOINTS_SUFFIX);
+        InstallationManager.copyCheckpointsTo(checkpointsFile);
+
+        // Leases refer to the shared entry so they follow a recreated delegate
+        sharedBlockStore.delegate = createOrOpenBlockStore(blockStoreFile, checkpointsFile, checkpointDate, checkpointDate != null);
+        sharedBlockStores.put(networkId, sharedBlockStore);
+
+      }
+
+      sharedBlockStore.references++;
+
+      return new BlockStoreLease(sharedBlockStore);
+    }
+
+  }
+
+  /**
+   * <p>Remove the block stores and checkpoints that earlier versions kept in each wallet directory</p>
+   * <p>If the shared block store does not exist yet the most recently written wallet block store becomes the
+   * shared store so that its headers are not downloaded again.</p>
+   *
+   * @param applicationDataDirectory The application data directory
+   * @param sharedBlockStoreFile     The shared block store file
+   */
+  static void migrateWalletBlockStores(File applicationDataDirectory, File sharedBlockStoreFile) {
+
+    File newestBlockStoreFile = null;
+    for (File walletDirectory : WalletManager.findWalletDirectories(applicationDataDirectory)) {
+
+      File checkpointsFile = new File(walletDirectory, InstallationManager.MBHD_PREFIX + InstallationManager.CHECKPOINTS_SUFFIX);
+      if (checkpointsFile.exists() && !checkpointsFile.delete()) {
+        log.warn("Could not delete wallet checkpoints:\n'{}'", checkpointsFile.getAbsolutePath());
+      }
+
+      File blockStoreFile = new File(walletDirectory, InstallationManager.MBHD_PREFIX + InstallationManager.SPV_BLOCKCHAIN_SUFFIX);
+      if (!blockStoreFile.exists()) {
+        continue;
+      }
+      if (sharedBlockStoreFile.length() == 0
+        && blockStoreFile.length() > 0
+        && (newestBlockStoreFile == null || blockStoreFile.lastModified() > newestBlockStoreFile.lastModified())) {
+        // Keep the newest candidate until all wallet directories have been seen
+        if (newestBlockStoreFile != null) {
+          deleteWalletBlockStore(newestBlockStoreFile);
+        }
+        newestBlockStoreFile = blockStoreFile;
+      } else {
+        deleteWalletBlockStore(blockStoreFile);
+      }
+
+    }
+
+    if (newestBlockStoreFile != null) {
+      try {
+        log.info("Adopting wallet block store as the shared block store:\n'{}'", newestBlockStoreFile.getAbsolutePath());
+        if (sharedBlockStoreFile.exists() && !sharedBlockStoreFile.delete()) {
+          throw new IOException("Could not replace the empty shared block store");
+        }
+        Files.move(newestBlockStoreFile, sharedBlockStoreFile);
+      } catch (IOException e) {
+        // The shared store is then created from the checkpoints
+        log.warn("Could not adopt wallet block store", e);
+        deleteWalletBlockStore(newestBlockStoreFile);
+      }
+    }
+
+  }
+
+  private static void deleteWalletBlockStore(File blockStoreFile) {
+
+    if (!blockStoreFile.delete()) {
+      log.warn("Could not delete wallet block store:\n'{}'", blockStoreFile.getAbsolutePath());
+    }
+
+  }
+
+  /**
+   * <p>Move the chain head of a block store to the last block seen by a wallet</p>
+   * <p>Headers up to that block are reused and only filtered blocks past it need to be downloaded. This must
+   * not be called while a block chain is attached to the store.</p>
+   *
+   * @param blockStore The block store
+   * @param wallet     The wallet
+   *
+   * @return True if the store contains the last block seen by the wallet (the chain head is then at that block)
+   *
+   * @throws BlockStoreException If the block store fails
+   */
+  public static boolean rewindToLastBlockSeen(BlockStore blockStore, Wallet wallet) throws BlockStoreException {
+
+    Preconditions.checkNotNull(blockStore, "'blockStore' must be present");
+    Preconditions.checkNotNull(wallet, "'wallet' must be present");
+
+    Optional<StoredBlock> lastBlockSeen = findLastBlockSeen(blockStore, wallet);
+    if (!lastBlockSeen.isPresent()) {
+      return false;
+    }
+
+    StoredBlock chainHead = blockStore.getChainHead();
+    if (chainHead == null || !chainHead.equals(lastBlockSeen.get())) {
+      log.debug("Moving shared chain head from {} to wallet height {}", chainHead == null ? "unknown" : chainHead.getHeight(), lastBlockSeen.get().getHeight());
+      blockStore.setChainHead(lastBlockSeen.get());
+    }
+
+    return true;
+  }
+
+  /**
+   * @param blockStore The block store
+   * @param wallet     The wallet
+   *
+   * @return The last block seen by the wallet, absent if it has never synchronized or the store does not hold it
+   *
+   * @throws BlockStoreException If the block store fails
+   */
+  public static Optional<StoredBlock> findLastBlockSeen(BlockStore blockStore, Wallet wallet) throws BlockStoreException {
+
+    Preconditions.checkNotNull(blockStore, "'blockStore' must be present");
+    Preconditions.checkNotNull(wallet, "'wallet' must be present");
+
+    Sha256Hash lastBlockSeenHash = wallet.getLastBlockSeenHash();
+    if (lastBlockSeenHash == null) {
+      // Never synchronized so must be checkpointed
+      return Optional.absent();
+    }
+
+    // Absent if not within the shared store (e.g. older than its capacity)
+    return Optional.fromNullable(blockStore.get(lastBlockSeenHash));
+  }
+
+  /**
+   * <p>Roll the chain head of a block store back to the last block mined before a date</p>
+   * <p>The SPV store is a ring of recent headers each linked to its predecessor so a rewind only moves the
+   * chain head. Blocks from the new head onwards are downloaded again and the wallets see them as usual.
+   * This must not be called while a block chain is attached to the store.</p>
+   *
+   * @param blockStore The block store
+   * @param replayDate The date from which blocks are required
+   * @param maxBlocks  The maximum number of blocks to roll back
+   *
+   * @return The new chain head, absent if the store does not reach back far enough (it is then unchanged)
+   *
+   * @throws BlockStoreException If the block store fails
+   */
+  public static Optional<StoredBlock> rewindToDate(BlockStore blockStore, Date replayDate, int maxBlocks) throws BlockStoreException {
+
+    Optional<StoredBlock> replayBlock = findBlockBefore(blockStore, replayDate, maxBlocks);
+    if (replayBlock.isPresent()) {
+      StoredBlock chainHead = blockStore.getChainHead();
+      if (!replayBlock.get().equals(chainHead)) {
+        log.debug("Rewinding chain head from {} to {}", chainHead.getHeight(), replayBlock.get().getHeight());
+        blockStore.setChainHead(replayBlock.get());
+      }
+    }
+
+    return replayBlock;
+  }
+
+  /**
+   * @param blockStore The block store
+   * @param replayDate The date from which blocks are required
+   * @param maxBlocks  The maximum number of blocks to look back from the chain head
+   *
+   * @return The last block mined before the date (allowing for drift), absent if the store does not reach back far enough
+   *
+   * @throws BlockStoreException If the block store fails
+   */
+  public static Optional<StoredBlock> findBlockBefore(BlockStore blockStore, Date replayDate, int maxBlocks) throws BlockStoreException {
+
+    Preconditions.checkNotNull(blockStore, "'blockStore' must be present");
+    Preconditions.checkNotNull(replayDate, "'replayDate' must be present");
+
+    long replaySeconds = replayDate.getTime() / 1000 - REWIND_DRIFT_SECONDS;
+
+    StoredBlock cursor = blockStore.getChainHead();
+    for (int depth = 0; cursor != null && depth <= maxBlocks; depth++) {
+
+      if (cursor.getHeader().getTimeSeconds() <= replaySeconds) {
+        return Optional.of(cursor);
+      }
+
+      // Absent once the ring no longer holds the previous header
+      cursor = cursor.getPrev(blockStore);
+    }
+
+    log.debug("Block store does not reach back to {} within {} blocks", replayDate, maxBlocks);
+
+    return Optional.absent();
+  }
+
+  /**
+   * <p>An open shared block store and its lease count</p>
+   */
+  private static class SharedBlockStore {
+
+    private BlockStore delegate;
+    private int references = 0;
+
+    private void closeDelegate() {
+
+      try {
+        delegate.close();
+      } catch (BlockStoreException e) {
+        log.error("Shared block store not closed cleanly", e);
+      } catch (NullPointerException e) {
+        // Internal bug in Bitcoinj
+      }
+
+    }
+  }
+
+  /**
+   * <p>A lease on a shared block store</p>
+   */
+  private static class BlockStoreLease implements BlockStore {
+
+    private final SharedBlockStore sharedBlockStore;
+    private boolean released = false;
+
+    private BlockStoreLease(SharedBlockStore sharedBlockStore) {
+      this.sharedBlockStore = sharedBlockStore;
+    }
+
+    @Override
+    public void put(StoredBlock block) throws BlockStoreException {
+      delegate().put(block);
+    }
+
+    @Override
+    public StoredBlock get(Sha256Hash hash) throws BlockStoreException {
+      return delegate().get(hash);
+    }
+
+    @Override
+    public StoredBlock getChainHead() throws BlockStoreException {
+      return delegate().getChainHead();
+    }
+
+    @Override
+    public void setChainHead(StoredBlock chainHead) throws BlockStoreException {
+      delegate().setChainHead(chainHead);
+    }
+
+    @Override
+    public NetworkParameters getParams() {
+      return sharedBlockStore.delegate.getParams();
+    }
+
+    /**
+     * <p>Release the lease, closing the shared store if this is the last one</p>
+     */
+    @Override
+    public void close() throws BlockStoreException {
+
+      synchronized (sharedBlockStores) {
+        if (released) {
+          return;
+        }
+        released = true;
+        sharedBlockStore.references--;
+        if (sharedBlockStore.references == 0) {
+          sharedBlockStore.closeDelegate();
+          sharedBlockStores.values().remove(sharedBlockStore);
+        }
+      }
+
+    }
+
+    private BlockStore delegate() throws BlockStoreException {
+
+      if (released) {
+        throw new BlockStoreException("Shared block store lease has been released");
+      }
+
+      return sharedBlockStore.delegate;
+    }
+
+    @Override
+    public String toString() {
+      return "BlockStoreLease{" +
+        "delegate=" + sharedBlockStore.delegate +
+        ", released=" + released +
+        '}';
+    }
+  }
+
 }
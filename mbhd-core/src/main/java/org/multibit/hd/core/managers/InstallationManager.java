@@ -3,6 +3,7 @@ package org.multibit.hd.core.managers;
 import com.google.common.base.Preconditions;
 import com.google.common.io.ByteStreams;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import org.bitcoinj.core.NetworkParameters;
 import org.multibit.hd.core.events.ShutdownEvent;
 import org.multibit.hd.core.files.SecureFiles;
 import org.multibit.hd.core.utils.OSUtils;
@@ -49,6 +50,8 @@ public class InstallationManager {
 
   public static final String SPV_BLOCKCHAIN_SUFFIX = ".spvchain";
   public static final String CHECKPOINTS_SUFFIX = ".checkpoints";
+  public static final String SPV_DIRECTORY = "spv";
+  public static final String PEERS_SUFFIX = ".peers";
   public static final String CA_CERTS_NAME = MBHD_PREFIX + "-cacerts";
 
   /**
@@ -176,6 +179,21 @@ public class InstallationManager {
     return applicationDataDirectory;
   }
 
+  /**
+   * @param applicationDataDirectory The application data directory
+   * @param networkParameters        The network parameters
+   *
+   * @return The directory holding the state shared by all wallets on the network (block store, checkpoints, peers)
+   */
+  public static File getOrCreateNetworkDirectory(File applicationDataDirectory, NetworkParameters networkParameters) {
+
+    File spvDirectory = SecureFiles.verifyOrCreateDirectory(applicationDataDirectory, SPV_DIRECTORY);
+
+    // Network IDs are reverse domain names but guard against unexpected characters
+    return SecureFiles.verifyOrCreateDirectory(spvDirectory, networkParameters.getId().replaceAll("[^A-Za-z0-9.-]", "_"));
+
+  }
+
   /**
    * Copy the checkpoints file from the MultiBitHD installation to the specified filename
    *
@@ -25,6 +25,7 @@ import org.joda.time.DateTime;
 import org.multibit.hd.brit.crypto.AESUtils;
 import org.multibit.hd.brit.dto.FeeState;
 import org.multibit.hd.brit.extensions.MatcherResponseWalletExtension;
+import org.multibit.hd.brit.extensions.FeeLedgerWalletExtension;
 import org.multibit.hd.brit.extensions.SendFeeDtoWalletExtension;
 import org.multibit.hd.brit.seed_phrase.Bip39SeedPhraseGenerator;
 import org.multibit.hd.brit.seed_phrase.SeedPhraseGenerator;
@@ -39,6 +40,7 @@ import org.multibit.hd.core.events.CoreEvents;
 import org.multibit.hd.core.events.ShutdownEvent;
 import org.multibit.hd.core.events.TransactionSeenEvent;
 import org.multibit.hd.core.events.WalletLoadEvent;
+import org.multibit.hd.core.exceptions.EncryptedFileReaderWriterException;
 import org.multibit.hd.core.exceptions.ExceptionHandler;
 import org.multibit.hd.core.exceptions.WalletLoadException;
 import org.multibit.hd.core.exceptions.WalletSaveException;
@@ -48,6 +50,7 @@ import org.multibit.hd.core.files.SecureFiles;
 import org.multibit.hd.core.services.BackupService;
 import org.multibit.hd.core.services.BitcoinNetworkService;
 import org.multibit.hd.core.services.CoreServices;
+import org.multibit.hd.core.services.WalletService;
 import org.multibit.hd.core.utils.BitcoinNetwork;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -80,6 +83,9 @@ public enum WalletManager implements WalletEventListener {
   INSTANCE {
     @Override
     public void onCoinsReceived(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+      // Keep the payment data up to date
+      notifyWalletServiceOfTransaction(tx);
+
       // Emit an event so that GUI elements can update as required
       Coin value = tx.getValue(wallet);
       CoreEvents.fireTransactionSeenEvent(new TransactionSeenEvent(tx, value));
@@ -87,6 +93,9 @@ public enum WalletManager implements WalletEventListener {
 
     @Override
     public void onCoinsSent(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+      // Keep the payment data up to date
+      notifyWalletServiceOfTransaction(tx);
+
       // Emit an event so that GUI elements can update as required
       Coin value = tx.getValue(wallet);
       CoreEvents.fireTransactionSeenEvent(new TransactionSeenEvent(tx, value));
@@ -94,11 +103,18 @@ public enum WalletManager implements WalletEventListener {
 
     @Override
     public void onReorganize(Wallet wallet) {
-
+      // Depths may have changed for any transaction so rebuild all the payment data
+      Optional<WalletService> walletService = CoreServices.getCurrentWalletService();
+      if (walletService.isPresent()) {
+        walletService.get().invalidatePaymentDataList();
+      }
     }
 
     @Override
     public void onTransactionConfidenceChanged(Wallet wallet, Transaction tx) {
+      // Keep the payment data up to date
+      notifyWalletServiceOfTransaction(tx);
+
       // Emit an event so that GUI elements can update as required
       Coin value = tx.getValue(wallet);
       CoreEvents.fireTransactionSeenEvent(new TransactionSeenEvent(tx, value));
@@ -187,6 +203,20 @@ public enum WalletManager implements WalletEventListener {
 
   private ListeningExecutorService walletExecutorService = null;
 
+  /**
+   * <p>Inform the current wallet service that a wallet transaction has been added or has changed confidence</p>
+   *
+   * @param tx The transaction from the wallet event listener
+   */
+  private static void notifyWalletServiceOfTransaction(Transaction tx) {
+
+    Optional<WalletService> walletService = CoreServices.getCurrentWalletService();
+    if (walletService.isPresent()) {
+      walletService.get().onWalletTransactionChanged(tx);
+    }
+
+  }
+
   /**
    * @return A copy of the AES initialisation vector
    */
@@ -639,10 +669,6 @@ public enum WalletManager implements WalletEventListener {
       }
     }
 
-    // See if there is a checkpoints file - if not then get the InstallationManager to copy one in
-    File checkpointsFile = new File(walletDirectory.getAbsolutePath() + File.separator + InstallationManager.MBHD_PREFIX + InstallationManager.CHECKPOINTS_SUFFIX);
-    InstallationManager.copyCheckpointsTo(checkpointsFile);
-
     // Set up auto-save on the wallet.
     addAutoSaveListener(walletSummary.getWallet(), walletSummary.getWalletFile());
 
@@ -673,6 +699,7 @@ public enum WalletManager implements WalletEventListener {
 
         boolean performRegularSync = false;
         BlockStore blockStore = null;
+        boolean isBlockStoreLeased = false;
         try {
           // Get the bitcoin network service
           BitcoinNetworkService bitcoinNetworkService = CoreServices.getOrCreateBitcoinNetworkService();
@@ -691,8 +718,9 @@ public enum WalletManager implements WalletEventListener {
           blockStore = bitcoinNetworkService.getBlockStore();
 
           if (blockStore == null) {
-            // Open the blockstore with no checkpointing (this is to get the chain height)
+            // Lease the shared blockstore with no checkpointing (this moves the chain head to the wallet if possible)
             blockStore = bitcoinNetworkService.openBlockStore(InstallationManager.getOrCreateApplicationDataDirectory(), Optional.<Date>absent());
+            isBlockStoreLeased = true;
           }
           log.debug("blockStore = {}", blockStore);
 
@@ -718,8 +746,8 @@ public enum WalletManager implements WalletEventListener {
           // Carry on - it's just logging
           log.warn("Block store exception", bse);
         } finally {
-          // Close the blockstore - it will get opened again later but may or may not be checkpointed
-          if (blockStore != null) {
+          // Release our lease on the shared blockstore - it will get opened again later but may or may not be checkpointed
+          if (blockStore != null && isBlockStoreLeased) {
             try {
               blockStore.close();
             } catch (BlockStoreException bse) {
@@ -795,7 +823,7 @@ public enum WalletManager implements WalletEventListener {
 
     Protos.Wallet walletProto = WalletProtobufSerializer.parseToProto(inputStream);
 
-    WalletExtension[] walletExtensions = new WalletExtension[]{new SendFeeDtoWalletExtension(), new MatcherResponseWalletExtension(), new WalletTypeExtension()};
+    WalletExtension[] walletExtensions = new WalletExtension[]{new SendFeeDtoWalletExtension(), new FeeLedgerWalletExtension(), new MatcherResponseWalletExtension(), new WalletTypeExtension()};
     Wallet wallet = new WalletProtobufSerializer().readWallet(BitcoinNetwork.current().get(), walletExtensions, walletProto);
     wallet.setKeychainLookaheadSize(LOOK_AHEAD_SIZE);
 
@@ -970,7 +998,7 @@ public enum WalletManager implements WalletEventListener {
         public Boolean call() throws Exception {
           log.debug("synchroniseWallet  called with replay date {}", syncDateOptional);
 
-          // Replay wallet - this also bounces the Bitcoin network connection
+          // Replay wallet - this reuses a running Bitcoin network connection where possible
           CoreServices.getOrCreateBitcoinNetworkService().replayWallet(InstallationManager.getOrCreateApplicationDataDirectory(), syncDateOptional);
           return true;
 
@@ -1191,6 +1219,9 @@ public enum WalletManager implements WalletEventListener {
       TransactionSentBySelfProvider transactionSentBySelfProvider = new TransactionInfoSentBySelfProvider(getCurrentWalletSummary().get().getWalletId());
       feeService.setTransactionSentBySelfProvider(transactionSentBySelfProvider);
 
+      // Keep the fee ledger up to date from wallet events (has no effect if already watched)
+      feeService.watchWallet(wallet);
+
       File applicationDataDirectory = InstallationManager.getOrCreateApplicationDataDirectory();
       Optional<File> walletFileOptional = getCurrentWalletFile(applicationDataDirectory);
       if (walletFileOptional.isPresent()) {
@@ -1223,6 +1254,11 @@ public enum WalletManager implements WalletEventListener {
    */
   public void setCurrentWalletSummary(WalletSummary walletSummary) {
 
+    if (currentWalletSummary.isPresent() && currentWalletSummary.get() != walletSummary) {
+      // The previous wallet session is over so zeroise its derived keys
+      currentWalletSummary.get().getDerivedKeyCache().close();
+    }
+
     if (walletSummary != null && walletSummary.getWallet() != null) {
 
       // Remove the previous WalletEventListener
@@ -1633,6 +1669,9 @@ public enum WalletManager implements WalletEventListener {
   public void shutdownNow(ShutdownEvent.ShutdownType shutdownType) {
 
     log.debug("Received shutdown: {}", shutdownType.name());
+    if (currentWalletSummary.isPresent()) {
+      currentWalletSummary.get().getDerivedKeyCache().close();
+    }
     currentWalletSummary = Optional.absent();
 
   }
@@ -1658,9 +1697,12 @@ public enum WalletManager implements WalletEventListener {
         File applicationDataDirectory = InstallationManager.getOrCreateApplicationDataDirectory();
         File currentWalletFile = WalletManager.INSTANCE.getCurrentWalletFile(applicationDataDirectory).get();
 
-        walletSummary.getWallet().saveToFile(currentWalletFile);
-
-        File encryptedAESCopy = EncryptedFileReaderWriter.makeAESEncryptedCopyAndDeleteOriginal(currentWalletFile, walletSummary.getWalletPassword().getPassword());
+        // Stream the wallet through AES so that no plaintext copy reaches the disk
+        File encryptedAESCopy = EncryptedFileReaderWriter.encryptAndWriteWallet(
+          walletSummary.getWallet(),
+          new File(currentWalletFile.getAbsolutePath() + MBHD_AES_SUFFIX),
+          walletSummary.getWalletPassword().getPassword()
+        );
         log.debug("Created AES encrypted wallet as file:\n'{}'\nSize: {} bytes", encryptedAESCopy.getAbsolutePath(), encryptedAESCopy.length());
 
         BackupService backupService = CoreServices.getOrCreateBackupService();
@@ -1668,8 +1710,8 @@ public enum WalletManager implements WalletEventListener {
         backupService.rememberWalletIdAndPasswordForLocalZipBackup(walletSummary.getWalletId(), walletSummary.getWalletPassword().getPassword());
         backupService.rememberWalletIdAndPasswordForCloudZipBackup(walletSummary.getWalletId(), walletSummary.getWalletPassword().getPassword());
 
-      } catch (IOException ioe) {
-        log.error("Could not write wallet and backups for wallet with id '" + walletId + "' successfully. The error was '" + ioe.getMessage() + "'");
+      } catch (EncryptedFileReaderWriterException efrwe) {
+        log.error("Could not write wallet and backups for wallet with id '" + walletId + "' successfully. The error was '" + efrwe.getMessage() + "'");
       }
     }
 
@@ -0,0 +1,72 @@
+package org.multibit.hd.core.network;
+
+import com.google.common.base.Preconditions;
+import org.bitcoinj.core.BlockChain;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Block chain to provide the following to BitcoinNetworkService:</p>
+ * <ul>
+ * <li>Rewind of the chain head while the peer group is running</li>
+ * </ul>
+ * <p>A wallet joining a running peer group only needs the blocks after its own last seen block. Moving the
+ * chain head back to that block causes the download peer to deliver just that gap on the next chain download
+ * so the connected peers and the headers verified for other wallets are kept.</p>
+ *
+ * @since 0.0.1
+ */
+public class MultiBitBlockChain extends BlockChain {
+
+  private static final Logger log = LoggerFactory.getLogger(MultiBitBlockChain.class);
+
+  /**
+   * @param params     The network parameters
+   * @param blockStore The block store providing the chain head
+   *
+   * @throws BlockStoreException If the block store fails
+   */
+  public MultiBitBlockChain(NetworkParameters params, BlockStore blockStore) throws BlockStoreException {
+    super(params, blockStore);
+  }
+
+  /**
+   * <p>Move the chain head back to an earlier block in the store</p>
+   * <p>Only wallets attached at the time see the blocks downloaded again so they should be removed first. A block
+   * above the chain head (a wallet that synchronized further before another wallet rewound the chain) cannot be
+   * reached this way so the chain head is left in place.</p>
+   *
+   * @param storedBlock The new chain head (must be held by the block store)
+   *
+   * @return True if the chain head is now the given block, false if the block is above the chain head
+   *
+   * @throws BlockStoreException If the block store fails
+   */
+  public boolean rewind(StoredBlock storedBlock) throws BlockStoreException {
+
+    Preconditions.checkNotNull(storedBlock, "'storedBlock' must be present");
+
+    // Block until any block being connected by a peer thread is complete
+    lock.lock();
+    try {
+      StoredBlock chainHead = getChainHead();
+      if (chainHead != null && storedBlock.getHeight() > chainHead.getHeight()) {
+        log.debug("Cannot rewind block chain from {} forward to {}", chainHead.getHeight(), storedBlock.getHeight());
+        return false;
+      }
+      if (!storedBlock.equals(chainHead)) {
+        log.debug("Rewinding block chain from {} to {}", chainHead == null ? "unknown" : chainHead.getHeight(), storedBlock.getHeight());
+        setChainHead(storedBlock);
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+
+  }
+
+}
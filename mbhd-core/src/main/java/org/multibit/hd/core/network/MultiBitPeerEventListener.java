@@ -1,6 +1,7 @@
 package org.multibit.hd.core.network;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
 import org.bitcoinj.core.*;
 import org.multibit.hd.core.dto.BitcoinNetworkSummary;
 import org.multibit.hd.core.dto.WalletSummary;
@@ -13,7 +14,9 @@ import org.slf4j.LoggerFactory;
 import java.text.DateFormat;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MultiBitPeerEventListener implements PeerEventListener {
 
@@ -24,18 +27,86 @@ public class MultiBitPeerEventListener implements PeerEventListener {
 
   private int numberOfConnectedPeers = 0;
 
+  /**
+   * A connection lasting less than this is treated as the peer misbehaving
+   */
+  private static final long EARLY_HANG_UP_MILLIS = 10000;
+
+  private final Optional<PeerAddressBook> peerAddressBook;
+
+  private final SyncMetrics syncMetrics;
+
+  private final long sessionStartMillis = System.currentTimeMillis();
+
+  private final AtomicBoolean firstPeerConnected = new AtomicBoolean(false);
+
+  /**
+   * The time each address was offered to the peer group keyed by peer address
+   */
+  private final Map<String, Long> offeredMillis = Maps.newConcurrentMap();
+
+  /**
+   * The connected peers and their connection time keyed by peer address
+   */
+  private final Map<String, Long> connectedMillis = Maps.newConcurrentMap();
+  private final Map<String, PeerAddress> connectedAddresses = Maps.newConcurrentMap();
+
   public MultiBitPeerEventListener() {
+    this(Optional.<PeerAddressBook>absent());
+  }
+
+  /**
+   * @param peerAddressBook The peer database to record peer behaviour in (absent if not recording, e.g. over Tor)
+   */
+  public MultiBitPeerEventListener(Optional<PeerAddressBook> peerAddressBook) {
+    this(peerAddressBook, new SyncMetrics());
+  }
+
+  /**
+   * @param peerAddressBook The peer database to record peer behaviour in (absent if not recording, e.g. over Tor)
+   * @param syncMetrics     The metrics to record the chain download throughput in
+   */
+  public MultiBitPeerEventListener(Optional<PeerAddressBook> peerAddressBook, SyncMetrics syncMetrics) {
+    this.peerAddressBook = peerAddressBook;
+    this.syncMetrics = syncMetrics;
+  }
+
+  /**
+   * @param peerAddress A known peer address offered to the peer group ahead of discovery
+   */
+  public void onPeerOffered(PeerAddress peerAddress) {
+    String key = PeerAddressBook.key(peerAddress);
+    offeredMillis.put(key, System.currentTimeMillis());
   }
 
   @Override
   public void onPeersDiscovered(Set<PeerAddress> peerAddresses) {
-    // Do nothing - this is a list of potential peers to connect to, not actually connected peers
+    // This is a list of potential peers to connect to, not actually connected peers
+    long now = System.currentTimeMillis();
+    for (PeerAddress peerAddress : peerAddresses) {
+      String key = PeerAddressBook.key(peerAddress);
+      if (!offeredMillis.containsKey(key)) {
+        offeredMillis.put(key, now);
+      }
+    }
+  }
+
+  /**
+   * <p>Restart the download progress for a wallet joining the running peer group</p>
+   */
+  public void resetDownloadProgress() {
+
+    originalBlocksLeft = -1;
+    lastPercent = 0;
+
   }
 
   @Override
   public void onBlocksDownloaded(Peer peer, Block block, int blocksLeft) {
     log.trace("Number of blocks left = {}", blocksLeft);
 
+    syncMetrics.recordBlock(PeerAddressBook.key(peer.getAddress()), blocksLeft);
+
     if (blocksLeft < 0 || originalBlocksLeft <= 0) {
       return;
     }
@@ -61,6 +132,8 @@ public class MultiBitPeerEventListener implements PeerEventListener {
     log.debug("Chain download started with number of blocks left = {}", blocksLeft);
 
     startDownload(blocksLeft);
+    syncMetrics.recordDownloadStarted(blocksLeft);
+
     // Only mark this the first time, because this method can be called more than once during a chain download
     // if we switch peers during it.
     if (originalBlocksLeft == -1) {
@@ -82,6 +155,26 @@ public class MultiBitPeerEventListener implements PeerEventListener {
 
     numberOfConnectedPeers = peerCount;
 
+    long now = System.currentTimeMillis();
+    PeerAddress peerAddress = peer.getAddress();
+    String key = PeerAddressBook.key(peerAddress);
+
+    connectedMillis.put(key, now);
+    connectedAddresses.put(key, peerAddress);
+
+    if (peerAddressBook.isPresent()) {
+      Long offered = offeredMillis.get(key);
+      peerAddressBook.get().recordConnected(peerAddress, now - (offered == null ? sessionStartMillis : offered));
+    }
+
+    if (firstPeerConnected.compareAndSet(false, true)) {
+      long timeToFirstPeerMillis = now - sessionStartMillis;
+      log.info("First peer '{}' connected after {} ms", peerAddress, timeToFirstPeerMillis);
+      CoreEvents.fireBitcoinNetworkChangedEvent(
+              BitcoinNetworkSummary.newFirstPeerConnected(numberOfConnectedPeers, timeToFirstPeerMillis));
+      return;
+    }
+
     CoreEvents.fireBitcoinNetworkChangedEvent(
             BitcoinNetworkSummary.newNetworkPeerCount(numberOfConnectedPeers));
   }
@@ -89,6 +182,9 @@ public class MultiBitPeerEventListener implements PeerEventListener {
   @Override
   public void onPeerDisconnected(Peer peer, int peerCount) {
     log.debug("(disconnect) Number of peers = " + peerCount);
+
+    recordDisconnected(peer.getAddress(), peer.getPingTime(), true);
+
     if (peerCount == numberOfConnectedPeers) {
       // Don't fire an event - not useful
       return;
@@ -99,8 +195,76 @@ public class MultiBitPeerEventListener implements PeerEventListener {
             BitcoinNetworkSummary.newNetworkPeerCount(numberOfConnectedPeers));
   }
 
+  /**
+   * <p>Record the outcome of the session in the peer database (called when the peer group is stopped)</p>
+   * <p>Offered peers that the peer group never attempted are not counted as failures.</p>
+   *
+   * @param connectedPeers The peers still connected
+   */
+  public void close(List<Peer> connectedPeers) {
+
+    if (!peerAddressBook.isPresent()) {
+      return;
+    }
+
+    // Credit the uptime of the peers still connected (not a misbehaviour)
+    for (Peer peer : connectedPeers) {
+      recordDisconnected(peer.getAddress(), peer.getPingTime(), false);
+    }
+    for (PeerAddress peerAddress : connectedAddresses.values()) {
+      recordDisconnected(peerAddress, Long.MAX_VALUE, false);
+    }
+
+  }
+
+  /**
+   * <p>Reduced visibility for testing</p>
+   *
+   * @param peerAddress  The peer address
+   * @param pingMillis   The ping moving average (Long.MAX_VALUE if unknown)
+   * @param isUnexpected True if the peer hung up (or could not be connected) rather than the peer group stopping
+   */
+  void recordDisconnected(PeerAddress peerAddress, long pingMillis, boolean isUnexpected) {
+
+    String key = PeerAddressBook.key(peerAddress);
+    Long connected = connectedMillis.remove(key);
+    connectedAddresses.remove(key);
+
+    if (!peerAddressBook.isPresent()) {
+      return;
+    }
+
+    if (connected == null) {
+      if (isUnexpected) {
+        // The peer group reports a failed connection attempt as a disconnection before the handshake
+        peerAddressBook.get().recordFailure(peerAddress);
+      }
+      return;
+    }
+
+    long uptimeMillis = System.currentTimeMillis() - connected;
+    peerAddressBook.get().recordDisconnected(peerAddress, uptimeMillis);
+    if (pingMillis != Long.MAX_VALUE) {
+      peerAddressBook.get().recordPing(peerAddress, pingMillis);
+    }
+    if (isUnexpected && uptimeMillis < EARLY_HANG_UP_MILLIS) {
+      peerAddressBook.get().recordMisbehaviour(peerAddress);
+    }
+
+  }
+
   @Override
   public Message onPreMessageReceived(Peer peer, Message message) {
+
+    // Header overhead is not included
+    int messageSize = message.getMessageSize();
+    if (messageSize > 0) {
+      syncMetrics.recordBytes(messageSize);
+    }
+    if (message instanceof Transaction) {
+      syncMetrics.recordFilteredTransaction();
+    }
+
     return message;
   }
 
@@ -203,7 +367,7 @@ public class MultiBitPeerEventListener implements PeerEventListener {
    */
   protected void doneDownload() {
 
-    log.debug("Download of block chain complete");
+    log.info("Download of block chain complete: {}", syncMetrics);
 
     // Fire that we have completed the sync
     lastPercent = 100;
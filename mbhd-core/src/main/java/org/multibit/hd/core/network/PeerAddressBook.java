@@ -0,0 +1,421 @@
+package org.multibit.hd.core.network;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import org.bitcoinj.core.PeerAddress;
+import org.multibit.hd.core.files.SecureFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Peer database to provide the following to BitcoinNetworkService:</p>
+ * <ul>
+ * <li>Persistent record of the peers seen on a network</li>
+ * <li>Per-peer connect latency, uptime, ping round trip time and misbehaviour</li>
+ * <li>Ranking of the best known peers to seed a new peer group ahead of DNS discovery</li>
+ * </ul>
+ * <p>Connect latency is measured from the moment an address is offered to the peer group to the completion of
+ * the version handshake since bitcoinj does not report the start of each connection attempt.</p>
+ * <p>Misbehaviour is forgiven over time and cleared by a healthy connection so that a period without a network
+ * connection (when every ping fails) does not exclude good peers for ever.</p>
+ *
+ * @since 0.0.1
+ */
+public class PeerAddressBook {
+
+  private static final Logger log = LoggerFactory.getLogger(PeerAddressBook.class);
+
+  /**
+   * The number of peers retained between sessions
+   */
+  public static final int MAX_PEERS = 500;
+
+  /**
+   * Peers reaching this many misbehaviours are no longer offered
+   */
+  public static final int MAX_MISBEHAVIOUR = 3;
+
+  /**
+   * One misbehaviour is forgiven for each period of this length since the last
+   */
+  static final long MISBEHAVIOUR_DECAY_MILLIS = 24L * 60 * 60 * 1000;
+
+  /**
+   * A connection lasting this long clears any misbehaviour
+   */
+  static final long HEALTHY_UPTIME_MILLIS = 10L * 60 * 1000;
+
+  /**
+   * Peers not connected for this long are no longer offered
+   */
+  private static final long MAX_AGE_MILLIS = 14L * 24 * 60 * 60 * 1000;
+
+  /**
+   * The weight of the latest sample in the latency moving averages
+   */
+  private static final double SMOOTHING = 0.3;
+
+  /**
+   * The assumed latency of a peer that has never reported one
+   */
+  private static final long DEFAULT_LATENCY_MILLIS = 2000;
+
+  private final File peersFile;
+
+  /**
+   * The known peers keyed by "address:port"
+   */
+  private final Map<String, PeerRecord> peers = Maps.newHashMap();
+
+  /**
+   * @param peersFile The file holding the peer database (need not exist)
+   */
+  public PeerAddressBook(File peersFile) {
+
+    Preconditions.checkNotNull(peersFile, "'peersFile' must be present");
+
+    this.peersFile = peersFile;
+
+  }
+
+  /**
+   * <p>Load the peer database, discarding any unreadable entries</p>
+   */
+  public synchronized void load() {
+
+    peers.clear();
+
+    if (!peersFile.exists()) {
+      return;
+    }
+
+    try {
+      for (String line : Files.readLines(peersFile, Charsets.UTF_8)) {
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        try {
+          PeerRecord peerRecord = PeerRecord.parse(line);
+          peers.put(peerRecord.getKey(), peerRecord);
+        } catch (IllegalArgumentException e) {
+          log.warn("Ignoring unreadable peer '{}'", line);
+        }
+      }
+    } catch (IOException e) {
+      log.warn("Could not read peers from '{}'", peersFile.getAbsolutePath(), e);
+    }
+
+    log.debug("Loaded {} known peers", peers.size());
+
+  }
+
+  /**
+   * <p>Save the peer database keeping only the best peers</p>
+   */
+  public synchronized void save() {
+
+    StringBuilder sb = new StringBuilder("# address\tport\tconnects\tfailures\tmisbehaviour\tconnectMillis\tpingMillis\tuptimeMillis\tlastConnectedMillis\tlastMisbehaviourMillis\n");
+    for (PeerRecord peerRecord : rankedPeers(MAX_PEERS, false, System.currentTimeMillis())) {
+      sb.append(peerRecord.format()).append('\n');
+    }
+
+    try {
+      File tempFile = SecureFiles.createTemporaryFilename("peers", ".tmp", peersFile.getParentFile());
+      SecureFiles.writeFile(new ByteArrayInputStream(sb.toString().getBytes(Charsets.UTF_8)), tempFile, peersFile);
+    } catch (IOException e) {
+      log.warn("Could not write peers to '{}'", peersFile.getAbsolutePath(), e);
+    }
+
+  }
+
+  /**
+   * @param maxPeers The maximum number of peers to provide
+   *
+   * @return The best known peers, most promising first
+   */
+  public synchronized List<PeerAddress> getBestPeers(int maxPeers) {
+    return getBestPeers(maxPeers, System.currentTimeMillis());
+  }
+
+  synchronized List<PeerAddress> getBestPeers(int maxPeers, long nowMillis) {
+
+    List<PeerAddress> peerAddresses = Lists.newArrayList();
+    for (PeerRecord peerRecord : rankedPeers(maxPeers, true, nowMillis)) {
+      try {
+        // Literal addresses so no DNS lookup takes place
+        peerAddresses.add(new PeerAddress(InetAddress.getByName(peerRecord.address), peerRecord.port));
+      } catch (IOException e) {
+        log.warn("Ignoring invalid peer address '{}'", peerRecord.address);
+      }
+    }
+
+    return peerAddresses;
+  }
+
+  /**
+   * @param peerAddress   The peer address
+   * @param connectMillis The time from offering the address to the completed handshake
+   */
+  public synchronized void recordConnected(PeerAddress peerAddress, long connectMillis) {
+
+    PeerRecord peerRecord = getOrCreate(peerAddress);
+    peerRecord.connects++;
+    peerRecord.connectMillis = smooth(peerRecord.connectMillis, connectMillis);
+    peerRecord.lastConnectedMillis = System.currentTimeMillis();
+
+  }
+
+  /**
+   * @param peerAddress The peer address of a known peer whose connection attempt failed
+   */
+  public synchronized void recordFailure(PeerAddress peerAddress) {
+
+    PeerRecord peerRecord = peers.get(key(peerAddress));
+    if (peerRecord != null) {
+      peerRecord.failures++;
+    }
+
+  }
+
+  /**
+   * @param peerAddress  The peer address
+   * @param uptimeMillis The duration of the connection that has just ended
+   */
+  public synchronized void recordDisconnected(PeerAddress peerAddress, long uptimeMillis) {
+
+    PeerRecord peerRecord = peers.get(key(peerAddress));
+    if (peerRecord != null) {
+      peerRecord.uptimeMillis += Math.max(0, uptimeMillis);
+      if (uptimeMillis >= HEALTHY_UPTIME_MILLIS) {
+        peerRecord.misbehaviour = 0;
+      }
+    }
+
+  }
+
+  /**
+   * @param peerAddress     The peer address
+   * @param roundTripMillis The ping round trip time
+   */
+  public synchronized void recordPing(PeerAddress peerAddress, long roundTripMillis) {
+
+    PeerRecord peerRecord = peers.get(key(peerAddress));
+    if (peerRecord != null && roundTripMillis >= 0) {
+      peerRecord.pingMillis = smooth(peerRecord.pingMillis, roundTripMillis);
+    }
+
+  }
+
+  /**
+   * @param peerAddress The peer address of a peer that failed to respond correctly (e.g. ping timeout, early hang up)
+   */
+  public synchronized void recordMisbehaviour(PeerAddress peerAddress) {
+    recordMisbehaviour(peerAddress, System.currentTimeMillis());
+  }
+
+  synchronized void recordMisbehaviour(PeerAddress peerAddress, long nowMillis) {
+
+    PeerRecord peerRecord = peers.get(key(peerAddress));
+    if (peerRecord != null) {
+      peerRecord.misbehaviour = peerRecord.getMisbehaviour(nowMillis) + 1;
+      peerRecord.lastMisbehaviourMillis = nowMillis;
+    }
+
+  }
+
+  /**
+   * <p>Reduced visibility for testing</p>
+   *
+   * @param peerAddress The peer address
+   * @param nowMillis   The current time
+   *
+   * @return The misbehaviour not yet forgiven (0 if unknown)
+   */
+  synchronized int getMisbehaviour(PeerAddress peerAddress, long nowMillis) {
+
+    PeerRecord peerRecord = peers.get(key(peerAddress));
+
+    return peerRecord == null ? 0 : peerRecord.getMisbehaviour(nowMillis);
+  }
+
+  /**
+   * <p>Reduced visibility for testing</p>
+   *
+   * @param peerAddress The peer address
+   *
+   * @return The failed connection attempts (0 if unknown)
+   */
+  synchronized int getFailures(PeerAddress peerAddress) {
+
+    PeerRecord peerRecord = peers.get(key(peerAddress));
+
+    return peerRecord == null ? 0 : peerRecord.failures;
+  }
+
+  /**
+   * @param peerAddress The peer address
+   *
+   * @return True if the peer is in the database
+   */
+  public synchronized boolean isKnown(PeerAddress peerAddress) {
+    return peers.containsKey(key(peerAddress));
+  }
+
+  /**
+   * @return The number of known peers
+   */
+  public synchronized int size() {
+    return peers.size();
+  }
+
+  private List<PeerRecord> rankedPeers(int maxPeers, boolean excludeUnsuitable, final long now) {
+
+    List<PeerRecord> candidates = Lists.newArrayList();
+    for (PeerRecord peerRecord : peers.values()) {
+      if (excludeUnsuitable
+        && (peerRecord.getMisbehaviour(now) >= MAX_MISBEHAVIOUR || now - peerRecord.lastConnectedMillis > MAX_AGE_MILLIS)) {
+        continue;
+      }
+      candidates.add(peerRecord);
+    }
+
+    Collections.sort(candidates, new Comparator<PeerRecord>() {
+      @Override
+      public int compare(PeerRecord o1, PeerRecord o2) {
+        return Double.compare(o1.getCost(now), o2.getCost(now));
+      }
+    });
+
+    return candidates.size() > maxPeers ? candidates.subList(0, maxPeers) : candidates;
+  }
+
+  private PeerRecord getOrCreate(PeerAddress peerAddress) {
+
+    String key = key(peerAddress);
+    PeerRecord peerRecord = peers.get(key);
+    if (peerRecord == null) {
+      peerRecord = new PeerRecord(peerAddress.getAddr().getHostAddress(), peerAddress.getPort());
+      peers.put(key, peerRecord);
+    }
+
+    return peerRecord;
+  }
+
+  /**
+   * @param peerAddress The peer address
+   *
+   * @return The key identifying the peer across sessions
+   */
+  static String key(PeerAddress peerAddress) {
+    return peerAddress.getAddr().getHostAddress() + ":" + peerAddress.getPort();
+  }
+
+  private static long smooth(long average, long sample) {
+    return average < 0 ? sample : Math.round(average * (1 - SMOOTHING) + sample * SMOOTHING);
+  }
+
+  /**
+   * <p>The history of a single peer</p>
+   */
+  private static class PeerRecord {
+
+    private final String address;
+    private final int port;
+
+    private int connects = 0;
+    private int failures = 0;
+    private int misbehaviour = 0;
+
+    /**
+     * Moving averages (-1 if never measured)
+     */
+    private long connectMillis = -1;
+    private long pingMillis = -1;
+
+    private long uptimeMillis = 0;
+    private long lastConnectedMillis = 0;
+    private long lastMisbehaviourMillis = 0;
+
+    private PeerRecord(String address, int port) {
+      this.address = address;
+      this.port = port;
+    }
+
+    private String getKey() {
+      return address + ":" + port;
+    }
+
+    /**
+     * @param nowMillis The current time
+     *
+     * @return The misbehaviour less one for each decay period since the last
+     */
+    private int getMisbehaviour(long nowMillis) {
+
+      long forgiven = Math.max(0, nowMillis - lastMisbehaviourMillis) / MISBEHAVIOUR_DECAY_MILLIS;
+
+      return (int) Math.max(0, misbehaviour - forgiven);
+    }
+
+    /**
+     * @param nowMillis The current time
+     *
+     * @return The expected cost of using this peer (lower is better)
+     */
+    private double getCost(long nowMillis) {
+
+      long latency = (pingMillis < 0 ? DEFAULT_LATENCY_MILLIS : pingMillis)
+        + (connectMillis < 0 ? DEFAULT_LATENCY_MILLIS : connectMillis) / 4;
+
+      // Unreliable peers cost proportionally more
+      double reliability = (connects + 1.0) / (connects + failures + 2.0 * getMisbehaviour(nowMillis) + 1.0);
+
+      // Long lived connections earn up to a halving of the cost
+      double uptimeHours = uptimeMillis / 3600000.0;
+      double longevity = 1.0 + Math.min(uptimeHours, 24.0) / 24.0;
+
+      return latency / (reliability * longevity);
+    }
+
+    private String format() {
+      return address + '\t' + port + '\t' + connects + '\t' + failures + '\t' + misbehaviour + '\t'
+        + connectMillis + '\t' + pingMillis + '\t' + uptimeMillis + '\t' + lastConnectedMillis + '\t' + lastMisbehaviourMillis;
+    }
+
+    private static PeerRecord parse(String line) {
+
+      String[] fields = line.split("\t");
+      // Earlier versions did not record when the peer last misbehaved
+      if (fields.length != 9 && fields.length != 10) {
+        throw new IllegalArgumentException("Expected 9 or 10 fields");
+      }
+
+      PeerRecord peerRecord = new PeerRecord(fields[0], Integer.parseInt(fields[1]));
+      peerRecord.connects = Integer.parseInt(fields[2]);
+      peerRecord.failures = Integer.parseInt(fields[3]);
+      peerRecord.misbehaviour = Integer.parseInt(fields[4]);
+      peerRecord.connectMillis = Long.parseLong(fields[5]);
+      peerRecord.pingMillis = Long.parseLong(fields[6]);
+      peerRecord.uptimeMillis = Long.parseLong(fields[7]);
+      peerRecord.lastConnectedMillis = Long.parseLong(fields[8]);
+      if (fields.length == 10) {
+        peerRecord.lastMisbehaviourMillis = Long.parseLong(fields[9]);
+      }
+
+      return peerRecord;
+    }
+  }
+
+}
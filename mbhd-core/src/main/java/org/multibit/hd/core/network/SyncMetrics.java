@@ -0,0 +1,341 @@
+package org.multibit.hd.core.network;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Metrics to provide the following to BitcoinNetworkService:</p>
+ * <ul>
+ * <li>Rolling window block, byte and filtered transaction rates for the chain download</li>
+ * <li>Per-peer download share and a histogram of the intervals between blocks</li>
+ * <li>Stall detection so the download peer can be rotated</li>
+ * </ul>
+ * <p>Samples are recorded on the peer threads so only atomic counters are used. A one second bucket is
+ * cleared by the first sample in that second so a concurrent sample may occasionally be lost, which
+ * is acceptable for monitoring.</p>
+ *
+ * @since 0.0.1
+ */
+public class SyncMetrics implements SyncMetricsMXBean {
+
+  /**
+   * The length of the rolling window
+   */
+  public static final int WINDOW_SECONDS = 30;
+
+  /**
+   * Throughput below this while blocks are outstanding is a stall
+   */
+  public static final double STALL_BLOCKS_PER_SECOND = 1.0;
+
+  /**
+   * The upper bounds of the block interval histogram buckets (the last bucket is unbounded)
+   */
+  private static final long[] INTERVAL_BOUNDS_MILLIS = new long[]{10, 100, 1000, 10000};
+
+  private static final long WINDOW_MILLIS = WINDOW_SECONDS * 1000L;
+
+  private final RollingCounter blocks = new RollingCounter();
+  private final RollingCounter bytes = new RollingCounter();
+  private final RollingCounter filteredTransactions = new RollingCounter();
+
+  private final AtomicLong totalBlocks = new AtomicLong();
+  private final AtomicLong totalBytes = new AtomicLong();
+  private final AtomicLong rotationCount = new AtomicLong();
+
+  private final AtomicInteger blocksLeft = new AtomicInteger();
+
+  private final AtomicLong lastBlockMillis = new AtomicLong();
+  private final AtomicLong downloadStartedMillis = new AtomicLong();
+  private final AtomicLong lastRotationMillis = new AtomicLong();
+
+  private final AtomicLongArray blockIntervalHistogram = new AtomicLongArray(INTERVAL_BOUNDS_MILLIS.length + 1);
+
+  /**
+   * The blocks received keyed by peer address
+   */
+  private final ConcurrentMap<String, AtomicLong> blocksByPeer = Maps.newConcurrentMap();
+
+  /**
+   * @param blocksLeft The number of blocks the download peer has to deliver
+   */
+  public void recordDownloadStarted(int blocksLeft) {
+    recordDownloadStarted(blocksLeft, System.currentTimeMillis());
+  }
+
+  /**
+   * @param peerKey    The peer address key of the peer delivering the block
+   * @param blocksLeft The number of blocks still to be delivered
+   */
+  public void recordBlock(String peerKey, int blocksLeft) {
+    recordBlock(peerKey, blocksLeft, System.currentTimeMillis());
+  }
+
+  /**
+   * @param messageBytes The size of a message received from a peer
+   */
+  public void recordBytes(long messageBytes) {
+    recordBytes(messageBytes, System.currentTimeMillis());
+  }
+
+  /**
+   * <p>Record a transaction matching the bloom filter</p>
+   */
+  public void recordFilteredTransaction() {
+    recordFilteredTransaction(System.currentTimeMillis());
+  }
+
+  /**
+   * <p>Record that the download peer was replaced following a stall</p>
+   */
+  public void recordRotation() {
+    recordRotation(System.currentTimeMillis());
+  }
+
+  /**
+   * <p>Forget the download in progress so the next download starts with a full window of grace</p>
+   * <p>Totals, rates and per-peer shares are kept for monitoring.</p>
+   */
+  public void resetDownload() {
+
+    blocksLeft.set(0);
+    lastBlockMillis.set(0);
+    downloadStartedMillis.set(0);
+    lastRotationMillis.set(0);
+
+  }
+
+  /**
+   * @return True if blocks are outstanding
+   */
+  public boolean isDownloading() {
+    return blocksLeft.get() > 0;
+  }
+
+  /**
+   * @return True if the download has run for a full window (since it started or the last rotation) below the stall throughput
+   */
+  public boolean isStalled() {
+    return isStalled(System.currentTimeMillis());
+  }
+
+  @Override
+  public double getBlocksPerSecond() {
+    return rate(blocks, System.currentTimeMillis());
+  }
+
+  @Override
+  public double getBytesPerSecond() {
+    return rate(bytes, System.currentTimeMillis());
+  }
+
+  @Override
+  public double getFilteredTransactionsPerSecond() {
+    return rate(filteredTransactions, System.currentTimeMillis());
+  }
+
+  @Override
+  public long getStallMillis() {
+    return getStallMillis(System.currentTimeMillis());
+  }
+
+  @Override
+  public int getBlocksLeft() {
+    return blocksLeft.get();
+  }
+
+  @Override
+  public long getTotalBlocks() {
+    return totalBlocks.get();
+  }
+
+  @Override
+  public long getTotalBytes() {
+    return totalBytes.get();
+  }
+
+  @Override
+  public long getRotationCount() {
+    return rotationCount.get();
+  }
+
+  @Override
+  public Map<String, Double> getPeerShares() {
+
+    Map<String, Long> peerBlocks = Maps.newHashMap();
+    long total = 0;
+    for (Map.Entry<String, AtomicLong> entry : blocksByPeer.entrySet()) {
+      long count = entry.getValue().get();
+      peerBlocks.put(entry.getKey(), count);
+      total += count;
+    }
+
+    Map<String, Double> peerShares = Maps.newHashMap();
+    for (Map.Entry<String, Long> entry : peerBlocks.entrySet()) {
+      peerShares.put(entry.getKey(), total == 0 ? 0.0 : entry.getValue() / (double) total);
+    }
+
+    return peerShares;
+  }
+
+  @Override
+  public long[] getBlockIntervalHistogram() {
+
+    long[] histogram = new long[blockIntervalHistogram.length()];
+    for (int i = 0; i < histogram.length; i++) {
+      histogram[i] = blockIntervalHistogram.get(i);
+    }
+
+    return histogram;
+  }
+
+  @Override
+  public String toString() {
+
+    long now = System.currentTimeMillis();
+
+    return String.format(
+      "blocks/sec=%.1f, bytes/sec=%.0f, filteredTx/sec=%.2f, blocksLeft=%d, stallMillis=%d, totalBlocks=%d, rotations=%d, peers=%d",
+      rate(blocks, now),
+      rate(bytes, now),
+      rate(filteredTransactions, now),
+      blocksLeft.get(),
+      getStallMillis(now),
+      totalBlocks.get(),
+      rotationCount.get(),
+      blocksByPeer.size());
+  }
+
+  void recordDownloadStarted(int blocksLeft, long nowMillis) {
+
+    // A peer switch during a download keeps the original start
+    if (this.blocksLeft.getAndSet(blocksLeft) <= 0) {
+      downloadStartedMillis.set(nowMillis);
+    }
+
+  }
+
+  void recordBlock(String peerKey, int blocksLeft, long nowMillis) {
+
+    blocks.add(1, nowMillis);
+    totalBlocks.incrementAndGet();
+    this.blocksLeft.set(blocksLeft);
+
+    // A block arriving after a reset starts the grace window itself
+    downloadStartedMillis.compareAndSet(0, nowMillis);
+
+    AtomicLong peerBlocks = blocksByPeer.get(peerKey);
+    if (peerBlocks == null) {
+      AtomicLong existing = blocksByPeer.putIfAbsent(peerKey, peerBlocks = new AtomicLong());
+      if (existing != null) {
+        peerBlocks = existing;
+      }
+    }
+    peerBlocks.incrementAndGet();
+
+    long previousMillis = lastBlockMillis.getAndSet(nowMillis);
+    if (previousMillis > 0) {
+      long intervalMillis = nowMillis - previousMillis;
+      int bucket = 0;
+      while (bucket < INTERVAL_BOUNDS_MILLIS.length && intervalMillis >= INTERVAL_BOUNDS_MILLIS[bucket]) {
+        bucket++;
+      }
+      blockIntervalHistogram.incrementAndGet(bucket);
+    }
+
+  }
+
+  void recordBytes(long messageBytes, long nowMillis) {
+
+    bytes.add(messageBytes, nowMillis);
+    totalBytes.addAndGet(messageBytes);
+
+  }
+
+  void recordFilteredTransaction(long nowMillis) {
+    filteredTransactions.add(1, nowMillis);
+  }
+
+  void recordRotation(long nowMillis) {
+
+    rotationCount.incrementAndGet();
+    lastRotationMillis.set(nowMillis);
+
+  }
+
+  boolean isStalled(long nowMillis) {
+
+    if (!isDownloading()) {
+      return false;
+    }
+
+    // Allow a full window of samples for the current download peer
+    long sinceMillis = Math.max(downloadStartedMillis.get(), lastRotationMillis.get());
+    if (nowMillis - sinceMillis < WINDOW_MILLIS) {
+      return false;
+    }
+
+    return rate(blocks, nowMillis) < STALL_BLOCKS_PER_SECOND;
+  }
+
+  long getStallMillis(long nowMillis) {
+
+    if (!isDownloading()) {
+      return 0;
+    }
+
+    return Math.max(0, nowMillis - Math.max(lastBlockMillis.get(), downloadStartedMillis.get()));
+  }
+
+  double getBlocksPerSecond(long nowMillis) {
+    return rate(blocks, nowMillis);
+  }
+
+  private static double rate(RollingCounter counter, long nowMillis) {
+    return counter.sum(nowMillis) / (double) WINDOW_SECONDS;
+  }
+
+  /**
+   * <p>A count over the rolling window held in one second buckets</p>
+   */
+  private static class RollingCounter {
+
+    private final AtomicLongArray seconds = new AtomicLongArray(WINDOW_SECONDS);
+    private final AtomicLongArray counts = new AtomicLongArray(WINDOW_SECONDS);
+
+    private void add(long delta, long nowMillis) {
+
+      long second = nowMillis / 1000;
+      int index = (int) (second % WINDOW_SECONDS);
+
+      long bucketSecond = seconds.get(index);
+      if (bucketSecond != second && seconds.compareAndSet(index, bucketSecond, second)) {
+        // First sample in this second so discard the count from a previous window
+        counts.set(index, 0);
+      }
+      counts.addAndGet(index, delta);
+
+    }
+
+    private long sum(long nowMillis) {
+
+      long second = nowMillis / 1000;
+
+      long sum = 0;
+      for (int i = 0; i < WINDOW_SECONDS; i++) {
+        long age = second - seconds.get(i);
+        if (age >= 0 && age < WINDOW_SECONDS) {
+          sum += counts.get(i);
+        }
+      }
+
+      return sum;
+    }
+  }
+
+}
@@ -0,0 +1,66 @@
+package org.multibit.hd.core.network;
+
+import java.util.Map;
+
+/**
+ * <p>JMX interface to provide the following to monitoring tools:</p>
+ * <ul>
+ * <li>Block chain download throughput over a rolling window</li>
+ * <li>Download peer share and stall duration</li>
+ * </ul>
+ *
+ * @since 0.0.1
+ */
+public interface SyncMetricsMXBean {
+
+  /**
+   * @return The blocks received per second over the rolling window
+   */
+  double getBlocksPerSecond();
+
+  /**
+   * @return The bytes received per second over the rolling window
+   */
+  double getBytesPerSecond();
+
+  /**
+   * @return The transactions matching the bloom filter received per second over the rolling window
+   */
+  double getFilteredTransactionsPerSecond();
+
+  /**
+   * @return The time since the last block while blocks are outstanding, zero if not downloading
+   */
+  long getStallMillis();
+
+  /**
+   * @return The number of blocks the download peer reported as outstanding
+   */
+  int getBlocksLeft();
+
+  /**
+   * @return The total number of blocks received
+   */
+  long getTotalBlocks();
+
+  /**
+   * @return The total number of bytes received
+   */
+  long getTotalBytes();
+
+  /**
+   * @return The number of times the download peer was rotated due to a stall
+   */
+  long getRotationCount();
+
+  /**
+   * @return The fraction of all blocks received from each peer keyed by peer address
+   */
+  Map<String, Double> getPeerShares();
+
+  /**
+   * @return The counts of intervals between blocks (under 10ms, 100ms, 1s, 10s and longer)
+   */
+  long[] getBlockIntervalHistogram();
+
+}
@@ -153,14 +153,9 @@ public class BackupService extends AbstractService {
             }
 
             // Local zip backups are done every LOCAL_ZIP_BACKUP_MODULO number of ticks
-            if (backupsAreEnabled && tickCount % LOCAL_ZIP_BACKUP_MODULO == 0) {
-              performLocalZipBackup();
-            }
-
-            // Check if a cloud zip backup is required
             // Cloud backups are done every CLOUD_ZIP_BACKUP_MODULO number of ticks
-            if (backupsAreEnabled && tickCount % CLOUD_ZIP_BACKUP_MODULO == 0) {
-              performCloudZipBackup();
+            if (backupsAreEnabled) {
+              performZipBackups(tickCount % LOCAL_ZIP_BACKUP_MODULO == 0, tickCount % CLOUD_ZIP_BACKUP_MODULO == 0);
             }
 
           } finally {
@@ -200,9 +195,7 @@ public class BackupService extends AbstractService {
 
                 performRollingBackup();
 
-                performLocalZipBackup();
-
-                performCloudZipBackup();
+                performZipBackups(true, true);
 
               }
 
@@ -248,6 +241,48 @@ public class BackupService extends AbstractService {
     }
   }
 
+  /**
+   * Perform the due zip backups, sharing a single zip and encryption pass when both are due for the same wallet
+   *
+   * @param localDue True if a local zip backup is due
+   * @param cloudDue True if a cloud zip backup is due
+   */
+  private void performZipBackups(boolean localDue, boolean cloudDue) {
+
+    boolean sameWallet = rememberedWalletIdForLocalBackup.isPresent()
+      && rememberedPasswordForLocalBackup.isPresent()
+      && rememberedWalletIdForLocalBackup.equals(rememberedWalletIdForCloudBackup)
+      && rememberedPasswordForLocalBackup.equals(rememberedPasswordForCloudBackup);
+
+    if (localDue && cloudDue && sameWallet) {
+      log.debug("Performing a local and cloud zip backup");
+
+      try {
+        BackupManager.INSTANCE.createLocalAndCloudBackup(rememberedWalletIdForLocalBackup.get(), rememberedPasswordForLocalBackup.get());
+
+        // Don't use anything remembered in the past at this point again
+        // (This will miss anything newly remembered whilst the backup is taking place
+        rememberedWalletIdForLocalBackup = Optional.absent();
+        rememberedPasswordForLocalBackup = Optional.absent();
+        rememberedWalletIdForCloudBackup = Optional.absent();
+        rememberedPasswordForCloudBackup = Optional.absent();
+      } catch (IOException ioe) {
+        log.error("Failed to perform local and cloud backup", ioe);
+        CoreServices.logHistory("Failed to perform cloud backup. Message: " + ioe.getMessage());
+        CoreEvents.fireSecurityEvent(SecuritySummary.newBackupFailed());
+      }
+      return;
+    }
+
+    if (localDue) {
+      performLocalZipBackup();
+    }
+
+    if (cloudDue) {
+      performCloudZipBackup();
+    }
+  }
+
   /**
    * Remember a wallet id and credentials.
    * This will be used at the next local zip backup.
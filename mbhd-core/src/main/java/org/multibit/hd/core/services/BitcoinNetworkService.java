@@ -3,7 +3,11 @@ package org.multibit.hd.core.services;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.subgraph.orchid.TorClient;
 import org.bitcoinj.core.*;
@@ -28,23 +32,31 @@ import org.multibit.hd.core.files.SecureFiles;
 import org.multibit.hd.core.managers.BlockStoreManager;
 import org.multibit.hd.core.managers.InstallationManager;
 import org.multibit.hd.core.managers.WalletManager;
+import org.multibit.hd.core.network.MultiBitBlockChain;
 import org.multibit.hd.core.network.MultiBitPeerEventListener;
+import org.multibit.hd.core.network.PeerAddressBook;
+import org.multibit.hd.core.network.SyncMetrics;
 import org.multibit.hd.core.utils.Coins;
 import org.multibit.hd.hardware.core.HardwareWalletService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.swing.*;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <p>Service to provide access to the Bitcoin network, including:</p>
@@ -72,11 +84,51 @@ public class BitcoinNetworkService extends AbstractService {
    */
   private static final int MINING_FEE_BOUNDARY = 1000;
 
+  /**
+   * The overall time allowed for any connected peer to respond to a ping
+   */
+  private static final long PING_DEADLINE_MILLIS = 4000;
+
+  /**
+   * The time after a successful ping during which the network is assumed to be reachable
+   */
+  private static final long LIVENESS_WINDOW_MILLIS = 30000;
+
+  /**
+   * The interval between chain download summaries and stall checks
+   */
+  private static final int SYNC_MONITOR_INTERVAL_SECONDS = 10;
+
+  /**
+   * The JMX name of the chain download metrics
+   */
+  private static final String SYNC_METRICS_OBJECT_NAME = "org.multibit.hd:type=SyncMetrics";
+
   private BlockStore blockStore;
   private PeerGroup peerGroup;  // May need to add listener as in MultiBitPeerGroup
-  private BlockChain blockChain;
+  private MultiBitBlockChain blockChain;
   private MultiBitPeerEventListener peerEventListener;
 
+  /**
+   * Guards the attached wallet and its download which are changed by both the replay and shutdown threads
+   */
+  private final Object attachmentLock = new Object();
+
+  /**
+   * The wallet currently attached to the peer group and block chain
+   */
+  private Optional<Wallet> attachedWallet = Optional.absent();
+
+  /**
+   * The block chain download in progress for the attached wallet
+   */
+  private Optional<ListenableFuture<?>> blockChainDownloadFuture = Optional.absent();
+
+  /**
+   * The peer database for this network (loaded on first use)
+   */
+  private Optional<PeerAddressBook> peerAddressBook = Optional.absent();
+
   private final NetworkParameters networkParameters;
 
   private boolean startedOk = false;
@@ -84,6 +136,21 @@ public class BitcoinNetworkService extends AbstractService {
   private Optional<SendRequestSummary> lastSendRequestSummaryOptional = Optional.absent();
   private Optional<Wallet> lastWalletOptional = Optional.absent();
 
+  /**
+   * The time of the most recent successful ping
+   */
+  private volatile long lastLivenessMillis = 0;
+
+  /**
+   * The most recent ping round trip time keyed by peer address
+   */
+  private final Map<String, Long> peerRoundTripMillis = Maps.newConcurrentMap();
+
+  /**
+   * The chain download throughput across all peer groups of this service
+   */
+  private final SyncMetrics syncMetrics = new SyncMetrics();
+
   /**
    * @param networkParameters The Bitcoin network parameters
    */
@@ -98,6 +165,17 @@ public class BitcoinNetworkService extends AbstractService {
     this.networkParameters = networkParameters;
 
     requireFixedThreadPoolExecutor(5, "bitcoin-network");
+    requireSingleThreadScheduledExecutor("bitcoin-network-monitor");
+
+    registerSyncMetrics(true);
+
+    getScheduledExecutorService().scheduleAtFixedRate(
+      new Runnable() {
+        @Override
+        public void run() {
+          monitorSync();
+        }
+      }, SYNC_MONITOR_INTERVAL_SECONDS, SYNC_MONITOR_INTERVAL_SECONDS, TimeUnit.SECONDS);
 
   }
 
@@ -116,6 +194,20 @@ public class BitcoinNetworkService extends AbstractService {
       log.warn("BitcoinNetworkService should not be closed on EDT - the UI will freeze");
     }
 
+    if (ShutdownEvent.ShutdownType.SWITCH.equals(shutdownType) && isNetworkSessionRunning()) {
+
+      log.info("Bitcoin network service detaching wallet for switch...");
+
+      // Keep the connected peers and verified headers for the next wallet
+      detachWallet();
+
+      WalletManager.INSTANCE.saveWallet();
+      WalletManager.INSTANCE.closeWallet();
+
+      // The network session outlives the wallet
+      return false;
+    }
+
     log.info("Bitcoin network service shutting down...");
 
     // Order is important here
@@ -139,15 +231,18 @@ public class BitcoinNetworkService extends AbstractService {
     // Close the wallet
     WalletManager.INSTANCE.closeWallet();
 
+    registerSyncMetrics(false);
+
     log.debug("Bitcoin network service specific code is shut down");
 
-    // The Bitcoin network service is tied to a wallet so must always be fully shutdown
+    // Without a running network session there is nothing to keep
     return true;
 
   }
 
   /**
-   * Open the blockstore, optionally checkpointing it to a date
+   * Open a lease on the shared blockstore, optionally checkpointing it to a date
+   * Without a date the chain head is moved to the last block seen by the current wallet if the store contains it
    *
    * @param applicationDataDirectory The current application directory
    * @param replayDateOptional       the date from which to replay the blcock store (hence use the next earliest checkpoint)
@@ -155,6 +250,20 @@ public class BitcoinNetworkService extends AbstractService {
    */
   public BlockStore openBlockStore(File applicationDataDirectory, Optional<Date> replayDateOptional) {
 
+    return openBlockStore(applicationDataDirectory, replayDateOptional, false);
+
+  }
+
+  /**
+   * Open a lease on the shared blockstore, optionally replaying it from a date
+   * A replay rolls back the existing chain head where the store reaches back far enough, otherwise it is recreated and checkpointed
+   *
+   * @param applicationDataDirectory The current application directory
+   * @param replayDateOptional       the date from which to replay the block store
+   * @param rebuildBlockStore        True if a replay must always recreate and checkpoint the block store (e.g. a repair)
+   */
+  private BlockStore openBlockStore(File applicationDataDirectory, Optional<Date> replayDateOptional, boolean rebuildBlockStore) {
+
     BlockStore blockStoreToReturn = null;
     try {
       // Check if there is a wallet - if there is no wallet the network will not start (there's nowhere to put the blockchain)
@@ -162,18 +271,43 @@ public class BitcoinNetworkService extends AbstractService {
         log.warn("Not opening blockstore as there is currently no wallet.");
         return null;
       }
-      File walletParentDirectory = WalletManager.INSTANCE.getCurrentWalletFile(applicationDataDirectory).get().getParentFile();
-
-      File blockStoreFile = SecureFiles.verifyOrCreateFile(walletParentDirectory, InstallationManager.MBHD_PREFIX + InstallationManager.SPV_BLOCKCHAIN_SUFFIX);
-      File checkpointsFile = SecureFiles.verifyOrCreateFile(walletParentDirectory, InstallationManager.MBHD_PREFIX + InstallationManager.CHECKPOINTS_SUFFIX);
+      BlockStoreManager blockStoreManager = new BlockStoreManager(networkParameters);
 
       if (replayDateOptional.isPresent()) {
-        // Create a block store and checkpoint it
-        blockStoreToReturn = new BlockStoreManager(networkParameters).createOrOpenBlockStore(blockStoreFile, checkpointsFile, replayDateOptional.get(), true);
+
+        if (!rebuildBlockStore && blockChain == null) {
+          // Prefer a partial rewind over downloading everything again
+          BlockStore sharedBlockStore = blockStoreManager.acquireSharedBlockStore(applicationDataDirectory, null);
+          boolean isRewound = false;
+          try {
+            isRewound = BlockStoreManager.rewindToDate(sharedBlockStore, replayDateOptional.get(), BlockStoreManager.MAX_REWIND_BLOCKS).isPresent();
+          } finally {
+            if (!isRewound) {
+              // Release the lease before the store is recreated
+              sharedBlockStore.close();
+            }
+          }
+          if (isRewound) {
+            blockStoreToReturn = sharedBlockStore;
+          }
+        }
+
+        if (blockStoreToReturn == null) {
+          // Recreate the shared block store and checkpoint it
+          log.debug("Recreating block store from checkpoint");
+          blockStoreToReturn = blockStoreManager.acquireSharedBlockStore(applicationDataDirectory, replayDateOptional.get());
+        }
+
       } else {
-        // Load or create the blockStore - no checkpointing
-        log.debug("Create new block store - no replay date");
-        blockStoreToReturn = new BlockStoreManager(networkParameters).createOrOpenBlockStore(blockStoreFile, checkpointsFile, null, false);
+        // Load or create the shared block store - no checkpointing
+        log.debug("Open shared block store - no replay date");
+        blockStoreToReturn = blockStoreManager.acquireSharedBlockStore(applicationDataDirectory, null);
+
+        // Resume from the current wallet's own position reusing any headers verified for other wallets
+        if (blockChain == null) {
+          BlockStoreManager.rewindToLastBlockSeen(blockStoreToReturn, WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet());
+        }
+
         log.debug(
           "Success. Blockstore is '{}', height is {}",
           blockStoreToReturn,
@@ -217,54 +351,76 @@ public class BitcoinNetworkService extends AbstractService {
    */
   private void downloadBlockChainInBackground() {
 
-    getExecutorService().submit(
-      new Runnable() {
-        @Override
-        public void run() {
-          Preconditions.checkNotNull(peerGroup, "'peerGroup' must be present");
-
-          // Recalculate the bloom filter before every sync
-          log.debug("Recalculating bloom filter ...");
-          recalculateFastCatchupAndFilter();
-
-          log.debug("Downloading block chain...");
-
-          // This method blocks until completed but fires events along the way
-          try {
-            log.debug("Starting blockchain download . . .");
-            peerGroup.downloadBlockChain();
-            log.debug("Blockchain downloaded.");
-            if (WalletManager.INSTANCE.getCurrentWalletSummary().isPresent()) {
-              Wallet currentWallet = WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet();
-              if (currentWallet != null) {
-                log.debug("Wallet has {} transactions and the balance is {}", currentWallet.getTransactions(true).size(), currentWallet.getBalance());
+    // Cancelled by a detach on another thread so published under the lock
+    synchronized (attachmentLock) {
+      blockChainDownloadFuture = Optional.<ListenableFuture<?>>of(getExecutorService().submit(
+        new Runnable() {
+          @Override
+          public void run() {
+            Preconditions.checkNotNull(peerGroup, "'peerGroup' must be present");
+
+            // Recalculate the bloom filter before every sync
+            log.debug("Recalculating bloom filter ...");
+            recalculateFastCatchupAndFilter();
+
+            log.debug("Downloading block chain...");
+
+            // This method blocks until completed but fires events along the way
+            try {
+              log.debug("Starting blockchain download . . .");
+              peerGroup.downloadBlockChain();
+              log.debug("Blockchain downloaded.");
+              if (WalletManager.INSTANCE.getCurrentWalletSummary().isPresent()) {
+                Wallet currentWallet = WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet();
+                if (currentWallet != null) {
+                  log.debug("Wallet has {} transactions and the balance is {}", currentWallet.getTransactions(true).size(), currentWallet.getBalance());
+                } else {
+                  log.debug("There is no current wallet");
+                }
               } else {
-                log.debug("There is no current wallet");
+                log.debug("There is no wallet in the current WalletSummary");
               }
-            } else {
-              log.debug("There is no wallet in the current WalletSummary");
+              CoreEvents.fireBitcoinNetworkChangedEvent(BitcoinNetworkSummary.newChainDownloadCompleted());
+              CoreEvents.fireBitcoinNetworkChangedEvent(BitcoinNetworkSummary.newNetworkPeerCount(peerGroup.numConnectedPeers()));
+            } catch (RuntimeException re) {
+              log.debug("Blockchain download was interrupted. Error was : '" + re.getMessage() + "'");
             }
-            CoreEvents.fireBitcoinNetworkChangedEvent(BitcoinNetworkSummary.newChainDownloadCompleted());
-            CoreEvents.fireBitcoinNetworkChangedEvent(BitcoinNetworkSummary.newNetworkPeerCount(peerGroup.numConnectedPeers()));
-          } catch (RuntimeException re) {
-            log.debug("Blockchain download was interrupted. Error was : '" + re.getMessage() + "'");
           }
-        }
-      });
+        }));
+    }
 
   }
 
   /**
    * Sync the current wallet from the date specified. If Optional.absent() is specified no checkpointing is performed
-   * The blockstore is deleted and created anew, checkpointed and then the blockchain is downloaded.
+   * The blockstore is rolled back to the date (or deleted, created anew and checkpointed if it does not reach back
+   * that far) and then the blockchain is downloaded.
    */
   public void replayWallet(File applicationDataDirectory, Optional<Date> dateToReplayFromOptional) {
 
+    replayWallet(applicationDataDirectory, dateToReplayFromOptional, false);
+
+  }
+
+  /**
+   * Sync the current wallet from the date specified. If Optional.absent() is specified no checkpointing is performed
+   *
+   * @param applicationDataDirectory The current application directory
+   * @param dateToReplayFromOptional The date from which to replay
+   * @param rebuildBlockStore        True if the blockstore must be deleted, created anew and checkpointed rather than rolled back
+   */
+  public void replayWallet(File applicationDataDirectory, Optional<Date> dateToReplayFromOptional, boolean rebuildBlockStore) {
+
     Preconditions.checkNotNull(dateToReplayFromOptional);
     Preconditions.checkState(WalletManager.INSTANCE.getCurrentWalletSummary().isPresent());
     Preconditions.checkState(!SwingUtilities.isEventDispatchThread(), "Replay should not take place on the EDT");
 
     try {
+      if (!rebuildBlockStore && swapWallet(dateToReplayFromOptional)) {
+        log.debug("Blockchain download started for swapped wallet.");
+        return;
+      }
+
       log.debug("Stopping any existing downloads");
 
       // Stop the peer group if it is running
@@ -278,7 +434,7 @@ public class BitcoinNetworkService extends AbstractService {
           + "' from date " + dateToReplayFromOptional);
 
       log.debug("Recreating blockstore with checkpoint date of " + dateToReplayFromOptional + " ...");
-      blockStore = openBlockStore(applicationDataDirectory, dateToReplayFromOptional);
+      blockStore = openBlockStore(applicationDataDirectory, dateToReplayFromOptional, rebuildBlockStore);
       log.debug("Blockstore is '{}'", blockStore);
 
       restartNetwork(blockStore);
@@ -348,14 +504,22 @@ public class BitcoinNetworkService extends AbstractService {
       }
     } else {
       // Regular non Trezor signing
-      // Derive and append the key parameter to unlock the wallet
-      if (!appendKeyParameter(sendRequestSummary, wallet)) {
-        return false;
-      }
+      try {
+        // Derive and append the key parameter to unlock the wallet (the only derivation for this send)
+        if (!appendKeyParameter(sendRequestSummary, wallet)) {
+          return false;
+        }
 
-      // Attempt to sign the transaction directly
-      if (!signDirectly(sendRequestSummary, wallet)) {
-        return false;
+        // Attempt to sign the transaction directly
+        if (!signDirectly(sendRequestSummary, wallet)) {
+          return false;
+        }
+      } finally {
+        // The key is no longer required once signing has been attempted
+        if (sendRequestSummary.getSendRequest().isPresent()) {
+          sendRequestSummary.getSendRequest().get().aesKey = null;
+        }
+        sendRequestSummary.wipeKeyParameter();
       }
 
       performCommitAndBroadcast(sendRequestSummary, wallet);
@@ -415,7 +579,9 @@ public class BitcoinNetworkService extends AbstractService {
       if (wallet.getKeyCrypter() == null) {
         throw new IllegalStateException("No key crypter in wallet when one is expected.");
       }
+      long start = System.currentTimeMillis();
       sendRequestSummary.setKeyParameter(wallet.getKeyCrypter().deriveKey(sendRequestSummary.getPassword()));
+      sendRequestSummary.recordStageLatency(SendStage.DERIVE, System.currentTimeMillis() - start);
 
       return true;
 
@@ -533,10 +699,20 @@ public class BitcoinNetworkService extends AbstractService {
     log.debug("Appending send request based on: {}", sendRequestSummary);
 
     try {
-      final Wallet.SendRequest sendRequest = Wallet.SendRequest.to(
-        sendRequestSummary.getDestinationAddress(),
-        sendRequestSummary.getAmount()
-      );
+      final Wallet.SendRequest sendRequest;
+      if (sendRequestSummary.isBatch()) {
+        // One output per recipient so that fees are solved, signed and broadcast once for the whole batch
+        Transaction batchTransaction = new Transaction(networkParameters);
+        for (BatchRecipient batchRecipient : sendRequestSummary.getRecipients()) {
+          batchTransaction.addOutput(batchRecipient.getAmount(), batchRecipient.getBitcoinAddress());
+        }
+        sendRequest = Wallet.SendRequest.forTx(batchTransaction);
+      } else {
+        sendRequest = Wallet.SendRequest.to(
+          sendRequestSummary.getDestinationAddress(),
+          sendRequestSummary.getAmount()
+        );
+      }
       if (sendRequestSummary.getKeyParameter().isPresent()) {
         sendRequest.aesKey = sendRequestSummary.getKeyParameter().get();
       }
@@ -565,6 +741,8 @@ public class BitcoinNetworkService extends AbstractService {
           log.debug("Not adding client fee as it is smaller than dust : {}", sendRequestSummary.getFeeState().get().getFeeOwed());
           sendRequestSummary.setClientFeeAdded(Optional.<Coin>absent());
         } else {
+          // The client fee output always follows the recipient outputs
+          final int clientFeeOutputIndex = sendRequest.tx.getOutputs().size();
           sendRequest.tx.addOutput(
             sendRequestSummary.getFeeState().get().getFeeOwed(),
             sendRequestSummary.getFeeAddress().get()
@@ -587,26 +765,33 @@ public class BitcoinNetworkService extends AbstractService {
           if (updatedSizeBoundary > initialSizeBoundary) {
             // Adding a client fee output has stepped over a mining fee boundary.
             // There is extra mining fee due - this can either be paid by reducing the amount redeemed (tx output 0)
-            // or reducing the client fee (tx output 1)
+            // or reducing the client fee (the final tx output)
             // If neither of these is possible (due to dust limits) then give up trying to claim the client fee.
+            // Batch recipients are always paid in full so only the client fee is reduced
 
-            if (sendRequest.tx.getOutput(0).getValue().compareTo(Transaction.MIN_NONDUST_OUTPUT.add(Transaction.REFERENCE_DEFAULT_MIN_TX_FEE)) > 0) {
+            if (!sendRequestSummary.isBatch() && sendRequest.tx.getOutput(0).getValue().compareTo(Transaction.MIN_NONDUST_OUTPUT.add(Transaction.REFERENCE_DEFAULT_MIN_TX_FEE)) > 0) {
               // There is enough bitcoin on the redemption output, decrease that
               sendRequest.tx.getOutput(0).setValue(sendRequest.tx.getOutput(0).getValue().subtract(Transaction.REFERENCE_DEFAULT_MIN_TX_FEE));
               log.debug("Adjusting transaction output 0 to {}", sendRequest.tx.getOutput(0).getValue());
             } else {
               // Try decreasing the client fee
-              if (sendRequest.tx.getOutput(1).getValue().compareTo(Transaction.MIN_NONDUST_OUTPUT.add(Transaction.REFERENCE_DEFAULT_MIN_TX_FEE)) > 0) {
+              if (sendRequest.tx.getOutput(clientFeeOutputIndex).getValue().compareTo(Transaction.MIN_NONDUST_OUTPUT.add(Transaction.REFERENCE_DEFAULT_MIN_TX_FEE)) > 0) {
                 // There is enough bitcoin on the client fee output, decrease that
-                Coin adjustedClientFee = sendRequest.tx.getOutput(1).getValue().subtract(Transaction.REFERENCE_DEFAULT_MIN_TX_FEE);
-                sendRequest.tx.getOutput(1).setValue(adjustedClientFee);
+                Coin adjustedClientFee = sendRequest.tx.getOutput(clientFeeOutputIndex).getValue().subtract(Transaction.REFERENCE_DEFAULT_MIN_TX_FEE);
+                sendRequest.tx.getOutput(clientFeeOutputIndex).setValue(adjustedClientFee);
                 sendRequestSummary.setClientFeeAdded(Optional.of(adjustedClientFee));
-                log.debug("Adjusting transaction output 1 to {}", adjustedClientFee);
+                log.debug("Adjusting transaction output {} to {}", clientFeeOutputIndex, adjustedClientFee);
               } else {
                 // We cannot pay the mining fee for the extra client fee output so remove it.
-                // Put back the original amount on the redemption output
+                // Put back the original amounts on the redemption outputs
                 sendRequest.tx.clearOutputs();
-                sendRequest.tx.addOutput(sendRequestSummary.getAmount(), sendRequestSummary.getDestinationAddress());
+                if (sendRequestSummary.isBatch()) {
+                  for (BatchRecipient batchRecipient : sendRequestSummary.getRecipients()) {
+                    sendRequest.tx.addOutput(batchRecipient.getAmount(), batchRecipient.getBitcoinAddress());
+                  }
+                } else {
+                  sendRequest.tx.addOutput(sendRequestSummary.getAmount(), sendRequestSummary.getDestinationAddress());
+                }
                 sendRequestSummary.setClientFeeAdded(Optional.<Coin>absent());
                 log.debug("Removing client fee as cannot be paid due to dust levels");
               }
@@ -932,12 +1117,17 @@ public class BitcoinNetworkService extends AbstractService {
       if (wallet.getKeyCrypter() == null) {
         throw new IllegalStateException("Should not have an unencrypted wallet");
       }
-      sendRequest.aesKey = wallet.getKeyCrypter().deriveKey(sendRequestSummary.getPassword());
+      if (!sendRequestSummary.getKeyParameter().isPresent()) {
+        throw new IllegalStateException("The key parameter must be derived before signing");
+      }
+      sendRequest.aesKey = sendRequestSummary.getKeyParameter().get();
 
       // Sign the transaction
+      long start = System.currentTimeMillis();
       sendRequest.signInputs = true;
       log.debug("sendRequest just before signing " + sendRequest);
       wallet.signTransaction(sendRequest);
+      sendRequestSummary.recordStageLatency(SendStage.SIGN, System.currentTimeMillis() - start);
 
       // Check the signatures are canonical - non-canonical signatures are not relayed
       for (TransactionInput txInput : sendRequest.tx.getInputs()) {
@@ -992,6 +1182,7 @@ public class BitcoinNetworkService extends AbstractService {
 
     Wallet.SendRequest sendRequest = sendRequestSummary.getSendRequest().get();
 
+    long start = System.currentTimeMillis();
     try {
       // Ensure the tx source is set to SELF as this is a self generated tx
       // Note that the getConfidence automatically creates one if it is null
@@ -1004,6 +1195,7 @@ public class BitcoinNetworkService extends AbstractService {
       } else {
         log.debug("Not committing tx with hash '{}' because tx is already present in wallet", sendRequest.tx.getHashAsString());
       }
+      sendRequestSummary.recordStageLatency(SendStage.COMMIT, System.currentTimeMillis() - start);
 
       // Fire a successful transaction creation event (not yet broadcast)
       CoreEvents.fireTransactionCreationEvent(
@@ -1019,7 +1211,8 @@ public class BitcoinNetworkService extends AbstractService {
           null,
           null,
           sendRequestSummary.getNotes(),
-          true
+          true,
+          sendRequestSummary.getStageLatencyMillis()
         ));
     } catch (
       Exception e
@@ -1068,10 +1261,11 @@ public class BitcoinNetworkService extends AbstractService {
 
     Wallet.SendRequest sendRequest = sendRequestSummary.getSendRequest().get();
 
+    long start = System.currentTimeMillis();
     try {
 
-      // Ping the peers to check the Bitcoin network connection
-      if (!pingPeers()) {
+      // Ping the peers to check the Bitcoin network connection (unless one has recently responded)
+      if (!isRecentlyLive() && !pingPeers()) {
 
         // Declare the send a failure
         CoreEvents.fireBitcoinSentEvent(
@@ -1094,6 +1288,8 @@ public class BitcoinNetworkService extends AbstractService {
       peerGroup.broadcastTransaction(sendRequest.tx);
 
       log.debug("Broadcast transaction: '{}'", Utils.HEX.encode(sendRequest.tx.bitcoinSerialize()));
+      sendRequestSummary.recordStageLatency(SendStage.BROADCAST, System.currentTimeMillis() - start);
+      log.debug("Send stage latencies (ms): {}", sendRequestSummary.getStageLatencyMillis());
 
       // Declare the send a success
       CoreEvents.fireBitcoinSentEvent(
@@ -1104,7 +1300,8 @@ public class BitcoinNetworkService extends AbstractService {
           sendRequestSummary.getClientFeeAdded(),
           true,
           CoreMessageKey.BITCOIN_SENT_OK.getKey(),
-          null
+          null,
+          sendRequestSummary.getStageLatencyMillis()
         ));
 
     } catch (VerificationException e) {
@@ -1239,11 +1436,26 @@ public class BitcoinNetworkService extends AbstractService {
       InstallationManager.removeCryptographyRestrictions();
       peerGroup = PeerGroup.newWithTor(networkParameters, blockChain, new TorClient());
 
+      peerEventListener = new MultiBitPeerEventListener(Optional.<PeerAddressBook>absent(), syncMetrics);
+
     } else {
       log.info("Creating new DNS peer group for '{}'", networkParameters);
       peerGroup = new PeerGroup(networkParameters, blockChain);
+
+      // DNS discovery is only used once the known peers have been tried
       peerGroup.addPeerDiscovery(new DnsDiscovery(networkParameters));
 
+      PeerAddressBook addressBook = getOrLoadPeerAddressBook();
+      peerEventListener = new MultiBitPeerEventListener(Optional.of(addressBook), syncMetrics);
+
+      // Seed with the best known peers so they are tried first
+      List<PeerAddress> bestPeers = addressBook.getBestPeers(MAXIMUM_NUMBER_OF_PEERS * 3);
+      for (PeerAddress peerAddress : bestPeers) {
+        peerEventListener.onPeerOffered(peerAddress);
+        peerGroup.addAddress(peerAddress);
+      }
+      log.info("Seeded peer group with {} known peers", bestPeers.size());
+
     }
 
     peerGroup.setUserAgent(
@@ -1253,7 +1465,6 @@ public class BitcoinNetworkService extends AbstractService {
     peerGroup.setMaxConnections(MAXIMUM_NUMBER_OF_PEERS);
     peerGroup.setUseLocalhostPeerWhenPossible(false);
 
-    peerEventListener = new MultiBitPeerEventListener();
     peerGroup.addEventListener(peerEventListener);
 
     addWalletToPeerGroup(wallet);
@@ -1297,31 +1508,283 @@ public class BitcoinNetworkService extends AbstractService {
   }
 
   /**
-   * Ping all connected peers to see if there is an active network connection
+   * <p>Ping all connected peers concurrently to see if there is an active network connection</p>
+   * <p>Returns as soon as any peer responds, or once every peer has failed or the overall deadline has passed.
+   * Round trip times of peers that respond before the method returns are recorded.</p>
    *
    * @return true is one or more peers respond to the ping
    */
   public boolean pingPeers() {
 
-    List<Peer> connectedPeers = peerGroup.getConnectedPeers();
-    boolean atLeastOnePingWorked = false;
-    if (connectedPeers != null) {
-      for (Peer peer : connectedPeers) {
+    List<Peer> connectedPeers = peerGroup == null ? null : peerGroup.getConnectedPeers();
+    if (connectedPeers == null || connectedPeers.isEmpty()) {
+      return false;
+    }
+
+    // Forget peers that are no longer connected
+    List<String> connectedPeerAddresses = Lists.newArrayList();
+    for (Peer peer : connectedPeers) {
+      connectedPeerAddresses.add(peer.getAddress().toString());
+    }
+    peerRoundTripMillis.keySet().retainAll(connectedPeerAddresses);
+
+    final AtomicBoolean atLeastOnePingWorked = new AtomicBoolean(false);
+    final AtomicInteger outstandingPings = new AtomicInteger(connectedPeers.size());
+    final CountDownLatch completed = new CountDownLatch(1);
 
-        log.debug("Ping: {}", peer.getAddress().toString());
+    for (final Peer peer : connectedPeers) {
 
-        try {
-          ListenableFuture<Long> result = peer.ping();
-          result.get(4, TimeUnit.SECONDS);
-          atLeastOnePingWorked = true;
-          break;
-        } catch (ProtocolException | InterruptedException | ExecutionException | TimeoutException e) {
-          log.warn("Peer '" + peer.getAddress().toString() + "' failed ping test. Message was " + e.getMessage());
+      final String peerAddress = peer.getAddress().toString();
+      log.debug("Ping: {}", peerAddress);
+
+      try {
+        Futures.addCallback(peer.ping(), new FutureCallback<Long>() {
+          @Override
+          public void onSuccess(Long roundTripMillis) {
+            if (roundTripMillis != null) {
+              peerRoundTripMillis.put(peerAddress, roundTripMillis);
+              if (peerAddressBook.isPresent()) {
+                peerAddressBook.get().recordPing(peer.getAddress(), roundTripMillis);
+              }
+            }
+            atLeastOnePingWorked.set(true);
+            completed.countDown();
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            log.warn("Peer '{}' failed ping test. Message was {}", peerAddress, t.getMessage());
+            peerRoundTripMillis.remove(peerAddress);
+            if (peerAddressBook.isPresent()) {
+              peerAddressBook.get().recordMisbehaviour(peer.getAddress());
+            }
+            if (outstandingPings.decrementAndGet() == 0) {
+              completed.countDown();
+            }
+          }
+        });
+      } catch (ProtocolException e) {
+        // Peer does not support ping
+        log.warn("Peer '{}' failed ping test. Message was {}", peerAddress, e.getMessage());
+        if (outstandingPings.decrementAndGet() == 0) {
+          completed.countDown();
         }
       }
     }
 
-    return atLeastOnePingWorked;
+    try {
+      completed.await(PING_DEADLINE_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (atLeastOnePingWorked.get()) {
+      lastLivenessMillis = System.currentTimeMillis();
+      CoreEvents.fireBitcoinNetworkChangedEvent(BitcoinNetworkSummary.newNetworkPeerCount(connectedPeers.size(), getPeerRoundTripMillis()));
+    }
+
+    return atLeastOnePingWorked.get();
+  }
+
+  /**
+   * @return True if a peer is still connected and one responded to a ping within the liveness window (avoids pinging
+   * before every broadcast)
+   */
+  public boolean isRecentlyLive() {
+    return peerGroup != null
+      && peerGroup.numConnectedPeers() > 0
+      && System.currentTimeMillis() - lastLivenessMillis < LIVENESS_WINDOW_MILLIS;
+  }
+
+  /**
+   * @return The most recent ping round trip time in milliseconds of each connected peer that has responded
+   */
+  public Map<String, Long> getPeerRoundTripMillis() {
+    return ImmutableMap.copyOf(peerRoundTripMillis);
+  }
+
+  /**
+   * @return The chain download throughput and stall metrics
+   */
+  public SyncMetrics getSyncMetrics() {
+    return syncMetrics;
+  }
+
+  /**
+   * <p>Log a summary of the chain download and replace the download peer if it has stalled</p>
+   */
+  private void monitorSync() {
+
+    if (!syncMetrics.isDownloading()) {
+      return;
+    }
+
+    log.info("Chain download: {}", syncMetrics);
+
+    PeerGroup currentPeerGroup = peerGroup;
+    if (currentPeerGroup == null || !syncMetrics.isStalled()) {
+      return;
+    }
+
+    Peer downloadPeer = currentPeerGroup.getDownloadPeer();
+    if (downloadPeer == null || currentPeerGroup.numConnectedPeers() < 2) {
+      // Nothing to rotate to
+      return;
+    }
+
+    log.warn("Chain download from '{}' has stalled - rotating download peer", downloadPeer.getAddress());
+    syncMetrics.recordRotation();
+
+    // A slow peer is not misbehaving so its standing in the peer address book is unchanged
+
+    // The peer group selects a new download peer and resumes the download from it
+    downloadPeer.close();
+
+  }
+
+  /**
+   * @param register True to register the sync metrics with JMX, false to unregister them
+   */
+  private void registerSyncMetrics(boolean register) {
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      ObjectName objectName = new ObjectName(SYNC_METRICS_OBJECT_NAME);
+      if (server.isRegistered(objectName)) {
+        // Replace any metrics left by a previous instance
+        server.unregisterMBean(objectName);
+      }
+      if (register) {
+        server.registerMBean(syncMetrics, objectName);
+      }
+    } catch (Exception e) {
+      // Monitoring is optional
+      log.warn("Could not register sync metrics", e);
+    }
+
+  }
+
+  /**
+   * @return The peer database for this network, loading it on first use
+   */
+  private PeerAddressBook getOrLoadPeerAddressBook() {
+
+    if (!peerAddressBook.isPresent()) {
+      File networkDirectory = InstallationManager.getOrCreateNetworkDirectory(
+        InstallationManager.getOrCreateApplicationDataDirectory(),
+        networkParameters);
+      PeerAddressBook addressBook = new PeerAddressBook(new File(networkDirectory, InstallationManager.MBHD_PREFIX + InstallationManager.PEERS_SUFFIX));
+      addressBook.load();
+      peerAddressBook = Optional.of(addressBook);
+    }
+
+    return peerAddressBook.get();
+  }
+
+  /**
+   * @return True if a peer group is running against an open block store and block chain
+   */
+  private boolean isNetworkSessionRunning() {
+    return startedOk && peerGroup != null && peerGroup.isRunning() && blockChain != null && blockStore != null;
+  }
+
+  /**
+   * <p>Attach the current wallet to the running network session and download only the blocks it has not seen</p>
+   * <p>The chain head is rewound to the last block seen by the wallet (or the last block before the replay date)
+   * so the peers, headers and block chain built up for earlier wallets are reused. A wallet that has seen beyond
+   * the chain head is attached at the chain head.</p>
+   *
+   * @param dateToReplayFromOptional The date from which to replay
+   *
+   * @return True if the wallet was attached, false if the network must be restarted
+   *
+   * @throws BlockStoreException If the block store fails
+   */
+  private boolean swapWallet(Optional<Date> dateToReplayFromOptional) throws BlockStoreException {
+
+    if (!isNetworkSessionRunning()) {
+      return false;
+    }
+
+    Wallet wallet = WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet();
+
+    synchronized (attachmentLock) {
+
+      // Prefer an incoming wallet's own position since it is exact
+      Optional<StoredBlock> resumeBlock = Optional.absent();
+      if (!attachedWallet.isPresent() || attachedWallet.get() != wallet) {
+        resumeBlock = BlockStoreManager.findLastBlockSeen(blockStore, wallet);
+      }
+      if (!resumeBlock.isPresent()) {
+        if (dateToReplayFromOptional.isPresent()) {
+          resumeBlock = BlockStoreManager.findBlockBefore(blockStore, dateToReplayFromOptional.get(), BlockStoreManager.MAX_REWIND_BLOCKS);
+        } else {
+          resumeBlock = Optional.fromNullable(blockChain.getChainHead());
+        }
+      }
+      if (!resumeBlock.isPresent()) {
+        log.debug("Block store does not reach back far enough to swap wallet - restarting network");
+        return false;
+      }
+
+      // Remove any previous wallet so it does not see the blocks downloaded again
+      detachWallet();
+
+      if (!blockChain.rewind(resumeBlock.get())) {
+        // The wallet has seen further than the chain head (e.g. switched back before the other wallet caught up)
+        // so it has already seen every block up to the chain head and joins the download from there
+        log.debug("Wallet is ahead of the shared chain head - attaching at the chain head");
+        resumeBlock = Optional.fromNullable(blockChain.getChainHead());
+      }
+
+      log.info(
+        "Swapping wallet with id '{}' into running peer group from height {}",
+        WalletManager.INSTANCE.getCurrentWalletSummary().get().getWalletId(),
+        resumeBlock.isPresent() ? resumeBlock.get().getHeight() : "unknown");
+
+      addWalletToBlockChain(wallet);
+      addWalletToPeerGroup(wallet);
+      attachedWallet = Optional.of(wallet);
+
+      peerEventListener.resetDownloadProgress();
+      CoreEvents.fireBitcoinNetworkChangedEvent(BitcoinNetworkSummary.newNetworkPeerCount(peerGroup.numConnectedPeers()));
+
+      // Recalculates the bloom filter for the new wallet before the gap is requested
+      downloadBlockChainInBackground();
+
+    }
+
+    return true;
+  }
+
+  /**
+   * <p>Remove the attached wallet from the peer group and block chain, abandoning its block chain download</p>
+   */
+  private void detachWallet() {
+
+    synchronized (attachmentLock) {
+
+      if (blockChainDownloadFuture.isPresent()) {
+        blockChainDownloadFuture.get().cancel(true);
+        blockChainDownloadFuture = Optional.absent();
+      }
+
+      if (attachedWallet.isPresent()) {
+        log.debug("Detaching wallet from peerGroup and blockChain...");
+        if (peerGroup != null) {
+          peerGroup.removeWallet(attachedWallet.get());
+        }
+        if (blockChain != null) {
+          blockChain.removeWallet(attachedWallet.get());
+        }
+        attachedWallet = Optional.absent();
+      }
+
+      // The next wallet's download gets its own grace window before a stall is declared
+      syncMetrics.resetDownload();
+
+    }
+
   }
 
   /**
@@ -1362,12 +1825,20 @@ public class BitcoinNetworkService extends AbstractService {
       log.debug("Stopping peerGroup service...");
       peerGroup.removeEventListener(peerEventListener);
 
+      // Remember how the peers behaved for the next session
+      peerEventListener.close(peerGroup.getConnectedPeers());
+      if (peerAddressBook.isPresent()) {
+        peerAddressBook.get().save();
+      }
+
       // Remove the wallet from the peer group
+      detachWallet();
       if (WalletManager.INSTANCE.getCurrentWalletSummary().isPresent()) {
         peerGroup.removeWallet(WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet());
       }
 
       peerGroup.stopAsync();
+      syncMetrics.resetDownload();
       log.debug("Service peerGroup stopped");
     } else {
       log.debug("Peer group was not present");
@@ -1394,13 +1865,16 @@ public class BitcoinNetworkService extends AbstractService {
     CoreEvents.fireBitcoinNetworkChangedEvent(BitcoinNetworkSummary.newNetworkNotInitialised());
 
     log.debug("Creating block chain from blockStore {}...", blockStore);
-    blockChain = new BlockChain(networkParameters, blockStore);
+    blockChain = new MultiBitBlockChain(networkParameters, blockStore);
 
     Wallet wallet = null;
     if (WalletManager.INSTANCE.getCurrentWalletSummary().isPresent()) {
       wallet = WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet();
     }
     blockChain.addWallet(wallet);
+    synchronized (attachmentLock) {
+      attachedWallet = Optional.fromNullable(wallet);
+    }
     log.debug("Created block chain '{}' with height '{}'", blockChain, blockChain.getBestChainHeight());
 
     log.debug("Creating peer group ...");
@@ -56,6 +56,19 @@ public interface ContactService {
    */
   List<Contact> filterContactsByContent(String query, boolean excludeNotPayable);
 
+  /**
+   * <p>Perform a wide search restricted to the results of an earlier search</p>
+   * <p>Any contact matching a query also matches every prefix of it so the results of the previous query can be
+   * narrowed as the user types. Contacts added since the earlier search are not considered.</p>
+   *
+   * @param query             The text to match across all fields (name, tags, notes etc)
+   * @param excludeNotPayable True if contacts with no Bitcoin address or xpub should be excluded
+   * @param candidates        The contacts returned by a search for a prefix of the query
+   *
+   * @return Any matching contacts from the candidates
+   */
+  List<Contact> filterContactsByContent(String query, boolean excludeNotPayable, Collection<Contact> candidates);
+
   /**
    * <p>Perform a narrow search across name for a single contact</p>
    *
@@ -116,6 +116,18 @@ public class CoreServices {
    */
   private static Optional<BackupService> backupService = Optional.absent();
 
+  /**
+   * Keeps track of the write-behind persistence for the current wallet
+   * Optional service until wallet is unlocked
+   */
+  private static Optional<PersistenceService> persistenceService = Optional.absent();
+
+  /**
+   * Keeps track of the debounced search queries for the current wallet
+   * Optional service until first search
+   */
+  private static Optional<SearchService> searchService = Optional.absent();
+
   /**
    * Manages CoreService startup and shutdown operations
    */
@@ -219,6 +231,8 @@ public class CoreServices {
   /**
    * <p>Shutdown all application support services (non-optional)</p>
    * <ul>
+   * <li>Search service</li>
+   * <li>Persistence service</li>
    * <li>Contact service</li>
    * <li>History service</li>
    * <li>Bitcoin network service</li>
@@ -231,16 +245,28 @@ public class CoreServices {
   private static void shutdownWalletSupportServices(ShutdownEvent.ShutdownType shutdownType) {
 
     // Allow graceful shutdown of managed services in the correct order
+    // Abandon any outstanding queries against the current wallet
+    shutdownService(searchService, shutdownType);
+
+    // Flush any outstanding writes while the stores and wallet password are still available
+    shutdownService(persistenceService, shutdownType);
     shutdownService(contactService, shutdownType);
     shutdownService(historyService, shutdownType);
 
-    // Close the Bitcoin network service (peer group, save wallet etc)
+    // Close the Bitcoin network service (peer group, save wallet etc) or just detach the wallet on a switch
     shutdownService(bitcoinNetworkService, shutdownType);
     shutdownService(walletService, shutdownType);
     shutdownService(backupService, shutdownType);
 
     // Clear the references
-    bitcoinNetworkService = Optional.absent();
+    searchService = Optional.absent();
+    persistenceService = Optional.absent();
+    if (!ShutdownEvent.ShutdownType.SWITCH.equals(shutdownType)
+      || !bitcoinNetworkService.isPresent()
+      || !bitcoinNetworkService.get().isStartedOk()) {
+      // A switch keeps a running network session for the next wallet
+      bitcoinNetworkService = Optional.absent();
+    }
     contactService = Optional.absent();
     walletService = Optional.absent();
     historyService = Optional.absent();
@@ -559,6 +585,48 @@ public class CoreServices {
     return contactService.get();
   }
 
+  /**
+   * @return The write-behind persistence service for the current wallet
+   */
+  public static PersistenceService getCurrentPersistenceService() {
+
+    log.debug("Get current persistence service");
+
+    Preconditions.checkState(WalletManager.INSTANCE.getCurrentWalletSummary().isPresent(), "'currentWalletSummary' must be present. No wallet is present.");
+
+    return getOrCreatePersistenceService();
+  }
+
+  /**
+   * @return The write-behind persistence service for the current wallet (created and started if necessary)
+   */
+  public static synchronized PersistenceService getOrCreatePersistenceService() {
+
+    // Check if the persistence service has been created for this wallet
+    if (!persistenceService.isPresent()) {
+      long quietPeriodMillis = Configurations.currentConfiguration.getWallet().getPersistenceQuietPeriodMillis();
+      long maxLatencyMillis = Configurations.currentConfiguration.getWallet().getPersistenceMaxLatencyMillis();
+      persistenceService = Optional.of(new PersistenceService(newStoreWriter(), quietPeriodMillis, maxLatencyMillis));
+      persistenceService.get().start();
+    }
+
+    // Return the existing or new persistence service
+    return persistenceService.get();
+  }
+
+  /**
+   * @return The debounced search service for the current wallet (created and started if necessary)
+   */
+  public static synchronized SearchService getOrCreateSearchService() {
+
+    if (!searchService.isPresent()) {
+      searchService = Optional.of(new SearchService());
+      searchService.get().start();
+    }
+
+    return searchService.get();
+  }
+
   /**
    * <p>Convenience method to log a new history event for the current wallet</p>
    *
@@ -569,9 +637,9 @@ public class CoreServices {
     // Get the current history service
     HistoryService historyService = CoreServices.getCurrentHistoryService();
 
-    // Create the history entry and persist it
+    // Create the history entry and persist it in the background
     HistoryEntry historyEntry = historyService.newHistoryEntry(localisedDescription);
-    historyService.writeHistory();
+    getCurrentPersistenceService().markDirty(PersistenceService.Store.HISTORY);
 
     // OK to let everyone else know
     CoreEvents.fireHistoryChangedEvent(historyEntry);
@@ -597,4 +665,39 @@ public class CoreServices {
       throw new CoreException(e);
     }
   }
+
+  /**
+   * @return A store writer that writes to the stores of the current wallet
+   */
+  private static PersistenceService.StoreWriter newStoreWriter() {
+
+    return new PersistenceService.StoreWriter() {
+      @Override
+      public long write(PersistenceService.Store store) {
+
+        switch (store) {
+          case PAYMENTS:
+            if (!walletService.isPresent()) {
+              return 0;
+            }
+            walletService.get().writePayments();
+            return walletService.get().getBackingStoreFile().length();
+          case CONTACTS:
+            if (!contactService.isPresent()) {
+              return 0;
+            }
+            contactService.get().writeContacts();
+            return contactService.get().getBackingStoreFile().length();
+          case HISTORY:
+            if (!historyService.isPresent()) {
+              return 0;
+            }
+            historyService.get().writeHistory();
+            return historyService.get().getBackingStoreFile().length();
+          default:
+            throw new IllegalStateException("Unsupported store: " + store.name());
+        }
+      }
+    };
+  }
 }
@@ -0,0 +1,284 @@
+package org.multibit.hd.core.services;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableScheduledFuture;
+import org.multibit.hd.core.events.ShutdownEvent;
+import org.multibit.hd.core.exceptions.ExceptionHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Service to provide the following to application:</p>
+ * <ul>
+ * <li>Write-behind persistence of the payments, contacts and history stores for the current wallet</li>
+ * <li>Coalescing of bursts of edits into a single write per store after a quiet period</li>
+ * <li>A maximum latency so that a steady stream of edits cannot postpone a write indefinitely</li>
+ * <li>Flush latency and bytes written metrics</li>
+ * </ul>
+ * <p>Callers mark a store as dirty (a cheap operation suitable for the EDT) and the service writes it
+ * on its own thread once no further edits have arrived for the quiet period. Any dirty stores are
+ * written synchronously during shutdown.</p>
+ *
+ * @since 0.0.1
+ */
+public class PersistenceService extends AbstractService {
+
+  private static final Logger log = LoggerFactory.getLogger(PersistenceService.class);
+
+  /**
+   * The stores that can be written behind
+   */
+  public enum Store {
+
+    PAYMENTS,
+    CONTACTS,
+    HISTORY,
+
+    // End of enum
+    ;
+
+  }
+
+  /**
+   * <p>Writes a store to its backing file</p>
+   */
+  public interface StoreWriter {
+
+    /**
+     * @param store The store to write
+     *
+     * @return The number of bytes written
+     */
+    long write(Store store);
+
+  }
+
+  private final StoreWriter storeWriter;
+
+  private final long quietPeriodMillis;
+
+  private final long maxLatencyMillis;
+
+  /**
+   * Guards the dirty stores and pending flush (held only briefly so the EDT never waits on a write)
+   */
+  private final Object stateLock = new Object();
+
+  /**
+   * Serialises flushes so that a store is never written by two threads at once
+   */
+  private final Object flushLock = new Object();
+
+  /**
+   * The stores awaiting a write
+   */
+  private final Set<Store> dirtyStores = EnumSet.noneOf(Store.class);
+
+  /**
+   * The pending flush, rescheduled on each edit
+   */
+  private ListenableScheduledFuture<?> pendingFlush = null;
+
+  /**
+   * The time of the oldest unwritten edit (zero if nothing is dirty)
+   */
+  private long firstDirtyMillis = 0;
+
+  private final AtomicLong flushCount = new AtomicLong();
+
+  private final AtomicLong storeWriteCount = new AtomicLong();
+
+  private final AtomicLong bytesWritten = new AtomicLong();
+
+  private final AtomicLong lastFlushLatencyMillis = new AtomicLong();
+
+  /**
+   * @param storeWriter       The store writer
+   * @param quietPeriodMillis The time without edits before dirty stores are written
+   * @param maxLatencyMillis  The longest time an edit may wait to be written regardless of further edits
+   */
+  public PersistenceService(StoreWriter storeWriter, long quietPeriodMillis, long maxLatencyMillis) {
+
+    super();
+
+    Preconditions.checkNotNull(storeWriter, "'storeWriter' must be present");
+    Preconditions.checkArgument(quietPeriodMillis >= 0, "'quietPeriodMillis' must not be negative");
+    Preconditions.checkArgument(maxLatencyMillis >= quietPeriodMillis, "'maxLatencyMillis' must not be less than 'quietPeriodMillis'");
+
+    this.storeWriter = storeWriter;
+    this.quietPeriodMillis = quietPeriodMillis;
+    this.maxLatencyMillis = maxLatencyMillis;
+
+  }
+
+  @Override
+  protected boolean startInternal() {
+
+    requireSingleThreadScheduledExecutor("persistence");
+
+    return true;
+  }
+
+  @Override
+  protected boolean shutdownNowInternal(ShutdownEvent.ShutdownType shutdownType) {
+
+    // Nothing must be lost so write everything outstanding on this thread
+    cancelPendingFlush();
+    flush();
+
+    // Always treat as a hard shutdown since the service is wallet specific
+    return true;
+  }
+
+  /**
+   * <p>Mark a store as requiring a write and (re)start the quiet period</p>
+   * <p>The quiet period is cut short once the oldest unwritten edit reaches the maximum latency</p>
+   *
+   * @param store The store
+   */
+  public void markDirty(Store store) {
+
+    markDirty(store, System.currentTimeMillis());
+
+  }
+
+  /**
+   * <p>Reduced visibility for testing</p>
+   *
+   * @param store The store
+   * @param now   The time of the edit
+   *
+   * @return The delay in milliseconds before the dirty stores are written
+   */
+  long markDirty(Store store, long now) {
+
+    Preconditions.checkNotNull(store, "'store' must be present");
+
+    synchronized (stateLock) {
+
+      if (dirtyStores.isEmpty()) {
+        firstDirtyMillis = now;
+      }
+      dirtyStores.add(store);
+
+      long delayMillis = Math.max(0, Math.min(quietPeriodMillis, firstDirtyMillis + maxLatencyMillis - now));
+
+      cancelPendingFlush();
+
+      pendingFlush = getScheduledExecutorService().schedule(new Runnable() {
+        @Override
+        public void run() {
+          flush();
+        }
+      }, delayMillis, TimeUnit.MILLISECONDS);
+
+      return delayMillis;
+    }
+
+  }
+
+  /**
+   * <p>Write all dirty stores on the calling thread</p>
+   */
+  public void flush() {
+
+    synchronized (flushLock) {
+
+      final Set<Store> storesToWrite;
+      synchronized (stateLock) {
+        if (dirtyStores.isEmpty()) {
+          return;
+        }
+        storesToWrite = EnumSet.copyOf(dirtyStores);
+        dirtyStores.clear();
+      }
+
+      long start = System.currentTimeMillis();
+      long flushBytes = 0;
+
+      for (Store store : storesToWrite) {
+        try {
+          flushBytes += storeWriter.write(store);
+          storeWriteCount.incrementAndGet();
+        } catch (RuntimeException e) {
+          // Leave the store dirty so that the next edit or shutdown retries the write
+          synchronized (stateLock) {
+            if (dirtyStores.isEmpty()) {
+              // Restart the latency window so the next edit does not retry a failing write immediately
+              firstDirtyMillis = System.currentTimeMillis();
+            }
+            dirtyStores.add(store);
+          }
+          log.error("Could not write {} store", store, e);
+          ExceptionHandler.handleThrowable(e);
+        }
+      }
+
+      long latency = System.currentTimeMillis() - start;
+
+      flushCount.incrementAndGet();
+      bytesWritten.addAndGet(flushBytes);
+      lastFlushLatencyMillis.set(latency);
+
+      log.debug("Flushed {} bytes in {}ms ({} flushes, {} store writes)", flushBytes, latency, flushCount.get(), storeWriteCount.get());
+
+    }
+
+  }
+
+  /**
+   * @param store The store
+   *
+   * @return True if the store has edits that have not been written
+   */
+  public boolean isDirty(Store store) {
+    synchronized (stateLock) {
+      return dirtyStores.contains(store);
+    }
+  }
+
+  /**
+   * @return The number of flushes that found at least one dirty store
+   */
+  public long getFlushCount() {
+    return flushCount.get();
+  }
+
+  /**
+   * @return The number of individual store writes across all flushes
+   */
+  public long getStoreWriteCount() {
+    return storeWriteCount.get();
+  }
+
+  /**
+   * @return The total number of bytes written across all flushes
+   */
+  public long getBytesWritten() {
+    return bytesWritten.get();
+  }
+
+  /**
+   * @return The duration of the most recent flush in milliseconds
+   */
+  public long getLastFlushLatencyMillis() {
+    return lastFlushLatencyMillis.get();
+  }
+
+  private void cancelPendingFlush() {
+
+    synchronized (stateLock) {
+      if (pendingFlush != null) {
+        pendingFlush.cancel(false);
+        pendingFlush = null;
+      }
+    }
+
+  }
+
+}
@@ -1,5 +1,6 @@
 package org.multibit.hd.core.services;
 
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
@@ -8,6 +9,7 @@ import org.bitcoinj.core.Address;
 import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
 import org.multibit.hd.core.dto.Contact;
 import org.multibit.hd.core.dto.WalletId;
+import org.multibit.hd.core.dto.comparators.ContactNameComparator;
 import org.multibit.hd.core.events.ShutdownEvent;
 import org.multibit.hd.core.exceptions.ContactsLoadException;
 import org.multibit.hd.core.exceptions.ContactsSaveException;
@@ -16,6 +18,7 @@ import org.multibit.hd.core.files.SecureFiles;
 import org.multibit.hd.core.managers.InstallationManager;
 import org.multibit.hd.core.managers.WalletManager;
 import org.multibit.hd.core.store.ContactsProtobufSerializer;
+import org.multibit.hd.core.store.SearchIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,6 +26,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
@@ -43,7 +47,39 @@ public class PersistentContactService extends AbstractService implements Contact
   /**
    * The in-memory cache of contacts for the current wallet
    */
-  private final Set<Contact> contacts = Sets.newHashSet();
+  private final Set<Contact> contacts = Sets.newConcurrentHashSet();
+
+  /**
+   * The search index over the contacts (brought up to date on the first query after a change)
+   */
+  private final SearchIndex<UUID, Contact> searchIndex = new SearchIndex<>(
+    new Function<Contact, UUID>() {
+      @Override
+      public UUID apply(Contact contact) {
+        return contact.getId();
+      }
+    },
+    new Function<Contact, SearchIndex.Document>() {
+      @Override
+      public SearchIndex.Document apply(Contact contact) {
+        // Note: Do not include a Bitcoin address or xpub in this search
+        // because vanity addresses can cause an attack vector
+        // Instead use the dedicated methods for those fields
+        SearchIndex.Document document = new SearchIndex.Document()
+          .addText(contact.getName(), 3)
+          .addText(contact.getEmail().orNull(), 2)
+          .addText(contact.getNotes().orNull(), 1);
+        for (String tag : contact.getTags()) {
+          document.addText(tag, 2);
+        }
+        return document;
+      }
+    });
+
+  /**
+   * True if the contacts have changed since the search index was last brought up to date
+   */
+  private volatile boolean searchIndexStale = true;
 
   /**
    * The location of the backing writeContacts for the contacts
@@ -165,59 +201,62 @@ public class PersistentContactService extends AbstractService implements Contact
 
     Preconditions.checkNotNull(query, "'query' must be present. Use * for wildcard.");
 
-    String lowerQuery = query.toLowerCase();
+    syncSearchIndex();
 
-    List<Contact> filteredContacts = Lists.newArrayList();
+    // The wildcard matches everything
+    return excludeNotPayable(searchIndex.search("*".equals(query) ? "" : query), excludeNotPayable);
+  }
 
-    for (Contact contact : contacts) {
+  @Override
+  public List<Contact> filterContactsByContent(String query, boolean excludeNotPayable, Collection<Contact> candidates) {
 
-      // No Bitcoin address and excluding not payable
-      if (excludeNotPayable && !contact.getBitcoinAddress().isPresent() ) {
-        continue;
-      }
+    Preconditions.checkNotNull(query, "'query' must be present. Use * for wildcard.");
+    Preconditions.checkNotNull(candidates, "'candidates' must be present");
 
-      // TODO Add support for xpub in later releases
-      // TODO (GR) Consider regex matching
+    syncSearchIndex();
 
-      // Note: Do not include a Bitcoin address or xpub in this search
-      // because vanity addresses can cause an attack vector
-      // Instead use the dedicated methods for those fields
-      final boolean isNameMatched;
-      final boolean isEmailMatched;
-      final boolean isNoteMatched;
-      if ("*".equals(query)) {
-        // Note: Do not include a Bitcoin address or xpub in this search
-        // because vanity addresses can cause an attack vector
-        // Instead use the dedicated methods for those fields
-        isNameMatched = true;
-        isEmailMatched = true;
-        isNoteMatched = true;
+    Set<UUID> candidateIds = Sets.newHashSetWithExpectedSize(candidates.size());
+    for (Contact candidate : candidates) {
+      candidateIds.add(candidate.getId());
+    }
 
-      } else {
-        // Note: Do not include a Bitcoin address or xpub in this search
-        // because vanity addresses can cause an attack vector
-        // Instead use the dedicated methods for those fields
-        isNameMatched = contact.getName().toLowerCase().contains(lowerQuery);
-        isEmailMatched = contact.getEmail().or("").toLowerCase().contains(lowerQuery);
-        isNoteMatched = contact.getNotes().or("").toLowerCase().contains(lowerQuery);
+    // The wildcard matches everything
+    return excludeNotPayable(searchIndex.search("*".equals(query) ? "" : query, candidateIds), excludeNotPayable);
+  }
 
-      }
+  /**
+   * <p>Reindex any new or edited contacts since the last search</p>
+   */
+  private void syncSearchIndex() {
+
+    if (searchIndexStale) {
+      searchIndexStale = false;
+      // Equally ranked contacts are presented by name
+      List<Contact> sortedContacts = Lists.newArrayList(contacts);
+      Collections.sort(sortedContacts, new ContactNameComparator());
+      searchIndex.sync(sortedContacts);
+    }
 
-      boolean isTagMatched = false;
-      for (String tag : contact.getTags()) {
-        if (tag.toLowerCase().contains(lowerQuery)) {
-          isTagMatched = true;
-          break;
-        }
-      }
+  }
 
-      if (isNameMatched
-        || isEmailMatched
-        || isNoteMatched
-        || isTagMatched
-        ) {
-        filteredContacts.add(contact);
+  /**
+   * @param rankedContacts    The contacts in rank order
+   * @param excludeNotPayable True if contacts with no Bitcoin address should be excluded
+   *
+   * @return The filtered contacts in rank order
+   */
+  private List<Contact> excludeNotPayable(List<Contact> rankedContacts, boolean excludeNotPayable) {
+
+    List<Contact> filteredContacts = Lists.newArrayListWithCapacity(rankedContacts.size());
+
+    for (Contact contact : rankedContacts) {
+
+      // No Bitcoin address and excluding not payable
+      if (excludeNotPayable && !contact.getBitcoinAddress().isPresent()) {
+        continue;
       }
+
+      filteredContacts.add(contact);
     }
 
     return filteredContacts;
@@ -263,6 +302,8 @@ public class PersistentContactService extends AbstractService implements Contact
 
     contacts.addAll(selectedContacts);
 
+    searchIndexStale = true;
+
   }
 
   @Override
@@ -278,6 +319,7 @@ public class PersistentContactService extends AbstractService implements Contact
       Set<Contact> loadedContacts = protobufSerializer.readContacts(decryptedInputStream);
       contacts.clear();
       contacts.addAll(loadedContacts);
+      searchIndexStale = true;
 
     } catch (EncryptedFileReaderWriterException e) {
       throw new ContactsLoadException("Could not loadContacts contacts db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'.");
@@ -290,6 +332,7 @@ public class PersistentContactService extends AbstractService implements Contact
    */
   void clear() {
     contacts.clear();
+    searchIndexStale = true;
   }
 
   @Override
@@ -301,6 +344,8 @@ public class PersistentContactService extends AbstractService implements Contact
 
     contacts.removeAll(selectedContacts);
 
+    searchIndexStale = true;
+
   }
 
   @Override
@@ -320,6 +365,9 @@ public class PersistentContactService extends AbstractService implements Contact
 
     }
 
+    // Edits are made in place so the index must be refreshed regardless
+    searchIndexStale = true;
+
   }
 
   @Override
@@ -338,6 +386,15 @@ public class PersistentContactService extends AbstractService implements Contact
     }
   }
 
+  /**
+   * <p>Reduced visibility for the persistence service metrics</p>
+   *
+   * @return The backing store file
+   */
+  File getBackingStoreFile() {
+    return backingStoreFile;
+  }
+
   @Override
   public void addDemoContacts() {
 
@@ -379,6 +436,8 @@ public class PersistentContactService extends AbstractService implements Contact
     contact6.setEmail("alicia.lower@example.org");
     contacts.add(contact6);
 
+    searchIndexStale = true;
+
   }
 
 }
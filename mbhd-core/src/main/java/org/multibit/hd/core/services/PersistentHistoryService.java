@@ -1,5 +1,6 @@
 package org.multibit.hd.core.services;
 
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -15,6 +16,7 @@ import org.multibit.hd.core.files.SecureFiles;
 import org.multibit.hd.core.managers.InstallationManager;
 import org.multibit.hd.core.managers.WalletManager;
 import org.multibit.hd.core.store.HistoryProtobufSerializer;
+import org.multibit.hd.core.store.SearchIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,7 +44,31 @@ public class PersistentHistoryService extends AbstractService implements History
   /**
    * The in-memory cache of history for the current wallet
    */
-  private final Set<HistoryEntry> history = Sets.newHashSet();
+  private final Set<HistoryEntry> history = Sets.newConcurrentHashSet();
+
+  /**
+   * The search index over the history (brought up to date on the first query after a change)
+   */
+  private final SearchIndex<UUID, HistoryEntry> searchIndex = new SearchIndex<>(
+    new Function<HistoryEntry, UUID>() {
+      @Override
+      public UUID apply(HistoryEntry historyEntry) {
+        return historyEntry.getId();
+      }
+    },
+    new Function<HistoryEntry, SearchIndex.Document>() {
+      @Override
+      public SearchIndex.Document apply(HistoryEntry historyEntry) {
+        return new SearchIndex.Document()
+          .addText(historyEntry.getDescription(), 2)
+          .addText(historyEntry.getNotes().orNull(), 1);
+      }
+    });
+
+  /**
+   * True if the history has changed since the search index was last brought up to date
+   */
+  private volatile boolean searchIndexStale = true;
 
   /**
    * The location of the backing writeHistory for the history
@@ -127,6 +153,7 @@ public class PersistentHistoryService extends AbstractService implements History
     HistoryEntry historyEntry = new HistoryEntry(UUID.randomUUID(), description);
 
     history.add(historyEntry);
+    searchIndexStale = true;
 
     return historyEntry;
 
@@ -142,21 +169,15 @@ public class PersistentHistoryService extends AbstractService implements History
   @Override
   public List<HistoryEntry> filterHistoryByContent(String query) {
 
-    String lowerQuery = query.toLowerCase();
-
-    List<HistoryEntry> filteredHistory = Lists.newArrayList();
-
-    for (HistoryEntry historyEntry : history) {
+    Preconditions.checkNotNull(query, "'query' must be present");
 
-      boolean isDescriptionMatched = historyEntry.getDescription().toLowerCase().contains(lowerQuery);
-      boolean isNoteMatched = historyEntry.getNotes().or("").toLowerCase().contains(lowerQuery);
-
-      if (isDescriptionMatched || isNoteMatched) {
-        filteredHistory.add(historyEntry);
-      }
+    if (searchIndexStale) {
+      // Only new or edited entries are reindexed
+      searchIndexStale = false;
+      searchIndex.sync(Lists.newArrayList(history));
     }
 
-    return filteredHistory;
+    return searchIndex.search(query);
   }
 
   @Override
@@ -164,6 +185,8 @@ public class PersistentHistoryService extends AbstractService implements History
 
     history.addAll(selectedHistory);
 
+    searchIndexStale = true;
+
   }
 
   @Override
@@ -178,6 +201,7 @@ public class PersistentHistoryService extends AbstractService implements History
       Set<HistoryEntry> loadedHistory = protobufSerializer.readHistoryEntries(decryptedInputStream);
       history.clear();
       history.addAll(loadedHistory);
+      searchIndexStale = true;
 
     } catch (EncryptedFileReaderWriterException e) {
       ExceptionHandler.handleThrowable(new HistoryLoadException("Could not loadHistory history db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'."));
@@ -190,6 +214,7 @@ public class PersistentHistoryService extends AbstractService implements History
    */
   void clear() {
     history.clear();
+    searchIndexStale = true;
   }
 
   @Override
@@ -201,6 +226,8 @@ public class PersistentHistoryService extends AbstractService implements History
 
     history.removeAll(selectedHistory);
 
+    searchIndexStale = true;
+
   }
 
   @Override
@@ -220,6 +247,9 @@ public class PersistentHistoryService extends AbstractService implements History
 
     }
 
+    // Edits are made in place so the index must be refreshed regardless
+    searchIndexStale = true;
+
   }
 
   @Override
@@ -244,6 +274,15 @@ public class PersistentHistoryService extends AbstractService implements History
     }
   }
 
+  /**
+   * <p>Reduced visibility for the persistence service metrics</p>
+   *
+   * @return The backing store file
+   */
+  File getBackingStoreFile() {
+    return backingStoreFile;
+  }
+
   /**
    * Provided for test purposes
    */
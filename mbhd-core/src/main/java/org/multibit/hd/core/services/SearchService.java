@@ -0,0 +1,216 @@
+package org.multibit.hd.core.services;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.ListenableScheduledFuture;
+import org.multibit.hd.core.events.ShutdownEvent;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Service to provide the following to application:</p>
+ * <ul>
+ * <li>Execution of search queries away from the EDT</li>
+ * <li>Debounce of bursts of queries (e.g. keystrokes) on the same channel</li>
+ * <li>Cancellation of superseded queries so that only the latest result is delivered</li>
+ * </ul>
+ * <p>Each screen submits its queries on its own channel. The callback is invoked on the search thread
+ * so Swing callers must hand the result over to the EDT themselves.</p>
+ *
+ * @since 0.0.1
+ */
+public class SearchService extends AbstractService {
+
+  /**
+   * The default quiet period after the last query on a channel before it is executed
+   */
+  public static final long DEBOUNCE_MILLIS = 150;
+
+  private final long debounceMillis;
+
+  /**
+   * The latest query for each channel
+   */
+  private final Map<String, PendingQuery> pendingQueries = Maps.newHashMap();
+
+  private final AtomicLong queryCount = new AtomicLong();
+
+  private final AtomicLong supersededCount = new AtomicLong();
+
+  private final AtomicLong lastQueryMillis = new AtomicLong();
+
+  public SearchService() {
+    this(DEBOUNCE_MILLIS);
+  }
+
+  /**
+   * @param debounceMillis The quiet period after the last query on a channel before it is executed
+   */
+  public SearchService(long debounceMillis) {
+
+    super();
+
+    Preconditions.checkArgument(debounceMillis >= 0, "'debounceMillis' must not be negative");
+
+    this.debounceMillis = debounceMillis;
+
+  }
+
+  @Override
+  protected boolean startInternal() {
+
+    requireSingleThreadScheduledExecutor("search");
+
+    return true;
+  }
+
+  @Override
+  protected boolean shutdownNowInternal(ShutdownEvent.ShutdownType shutdownType) {
+
+    // Queries refer to the current wallet so must not complete
+    cancelAll();
+
+    // Always treat as a hard shutdown since the queries are wallet specific
+    return true;
+  }
+
+  /**
+   * <p>Submit a query, superseding any query on the same channel that has not yet completed</p>
+   *
+   * @param channel  The channel (typically the screen name)
+   * @param query    The query to execute on the search thread
+   * @param callback The callback for the result (only invoked if the query is still the latest on its channel)
+   * @param <T>      The result type
+   */
+  public <T> void submit(String channel, Callable<T> query, FutureCallback<T> callback) {
+
+    submit(channel, debounceMillis, query, callback);
+
+  }
+
+  /**
+   * <p>Submit a query with its own quiet period, superseding any query on the same channel that has not yet completed</p>
+   * <p>A zero delay suits cheap incremental queries (e.g. auto-complete) where only the cancellation is wanted.</p>
+   *
+   * @param channel     The channel (typically the screen name)
+   * @param delayMillis The quiet period before the query is executed
+   * @param query       The query to execute on the search thread
+   * @param callback    The callback for the result (only invoked if the query is still the latest on its channel)
+   * @param <T>         The result type
+   */
+  public <T> void submit(final String channel, long delayMillis, final Callable<T> query, final FutureCallback<T> callback) {
+
+    Preconditions.checkArgument(delayMillis >= 0, "'delayMillis' must not be negative");
+    Preconditions.checkNotNull(channel, "'channel' must be present");
+    Preconditions.checkNotNull(query, "'query' must be present");
+    Preconditions.checkNotNull(callback, "'callback' must be present");
+
+    synchronized (pendingQueries) {
+
+      PendingQuery superseded = pendingQueries.get(channel);
+      if (superseded != null) {
+        superseded.future.cancel(true);
+        supersededCount.incrementAndGet();
+      }
+
+      final PendingQuery pendingQuery = new PendingQuery();
+      pendingQuery.future = getScheduledExecutorService().schedule(new Runnable() {
+        @Override
+        public void run() {
+          execute(channel, pendingQuery, query, callback);
+        }
+      }, delayMillis, TimeUnit.MILLISECONDS);
+
+      pendingQueries.put(channel, pendingQuery);
+
+    }
+
+  }
+
+  /**
+   * @return The number of queries executed
+   */
+  public long getQueryCount() {
+    return queryCount.get();
+  }
+
+  /**
+   * @return The number of queries cancelled or discarded because a later query arrived on the same channel
+   */
+  public long getSupersededCount() {
+    return supersededCount.get();
+  }
+
+  /**
+   * @return The duration of the most recent query in milliseconds
+   */
+  public long getLastQueryMillis() {
+    return lastQueryMillis.get();
+  }
+
+  private <T> void execute(String channel, PendingQuery pendingQuery, Callable<T> query, FutureCallback<T> callback) {
+
+    long start = System.currentTimeMillis();
+
+    T result;
+    try {
+      result = query.call();
+    } catch (Exception e) {
+      if (completeIfLatest(channel, pendingQuery)) {
+        callback.onFailure(e);
+      }
+      return;
+    }
+
+    queryCount.incrementAndGet();
+    lastQueryMillis.set(System.currentTimeMillis() - start);
+
+    if (completeIfLatest(channel, pendingQuery)) {
+      callback.onSuccess(result);
+    }
+
+  }
+
+  /**
+   * @param channel      The channel
+   * @param pendingQuery The query
+   *
+   * @return True if the query has not been superseded (it is then removed from the channel)
+   */
+  private boolean completeIfLatest(String channel, PendingQuery pendingQuery) {
+
+    synchronized (pendingQueries) {
+      if (pendingQueries.get(channel) != pendingQuery) {
+        return false;
+      }
+      pendingQueries.remove(channel);
+      return true;
+    }
+
+  }
+
+  private void cancelAll() {
+
+    synchronized (pendingQueries) {
+      for (PendingQuery pendingQuery : pendingQueries.values()) {
+        pendingQuery.future.cancel(true);
+      }
+      pendingQueries.clear();
+    }
+
+  }
+
+  /**
+   * <p>The latest query on a channel</p>
+   */
+  private static class PendingQuery {
+
+    private ListenableScheduledFuture<?> future;
+
+  }
+
+}
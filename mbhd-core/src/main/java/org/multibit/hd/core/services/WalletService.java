@@ -1,9 +1,11 @@
 package org.multibit.hd.core.services;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.eventbus.Subscribe;
@@ -25,7 +27,9 @@ import org.multibit.hd.core.managers.ExportManager;
 import org.multibit.hd.core.managers.InstallationManager;
 import org.multibit.hd.core.managers.WalletManager;
 import org.multibit.hd.core.store.Payments;
+import org.multibit.hd.core.store.PaymentsJournal;
 import org.multibit.hd.core.store.PaymentsProtobufSerializer;
+import org.multibit.hd.core.store.SearchIndex;
 import org.multibit.hd.core.store.TransactionInfo;
 import org.multibit.hd.core.utils.Coins;
 import org.slf4j.Logger;
@@ -66,6 +70,16 @@ public class WalletService extends AbstractService {
    */
   public static final String PREFIX_SEPARATOR = ": ";
 
+  /**
+   * The depth at which the confirmation icon shows a transaction as fully confirmed
+   */
+  static final int FULLY_CONFIRMED_DEPTH = 6;
+
+  /**
+   * The depth at which the confirmation icon shows a coinbase transaction as fully confirmed
+   */
+  static final int FULLY_CONFIRMED_COINBASE_DEPTH = 120;
+
   /**
    * The Bitcoin network parameters
    */
@@ -81,6 +95,31 @@ public class WalletService extends AbstractService {
    */
   private PaymentsProtobufSerializer protobufSerializer;
 
+  /**
+   * The append-only journal of changes since the payments snapshot was written
+   */
+  private PaymentsJournal paymentsJournal;
+
+  /**
+   * The transaction hashes whose transaction info has changed since it was last journaled
+   */
+  private final Set<String> unjournaledTransactionHashes = Sets.newConcurrentHashSet();
+
+  /**
+   * The addresses of payment requests added or changed since they were last journaled
+   */
+  private final Set<Address> unjournaledPaymentRequestAddresses = Sets.newConcurrentHashSet();
+
+  /**
+   * The addresses of payment requests deleted since they were last journaled
+   */
+  private final Set<Address> unjournaledDeletedAddresses = Sets.newConcurrentHashSet();
+
+  /**
+   * Serialises journal appends and compaction
+   */
+  private final Object paymentsWriteLock = new Object();
+
   /**
    * The payment requests in a map, indexed by the bitcoin address
    */
@@ -102,9 +141,109 @@ public class WalletService extends AbstractService {
   private final Stack<PaymentRequestData> undoDeletePaymentRequestStack = new Stack<>();
 
   /**
-   * The last seen payments data
+   * The adapted transaction data, in the form of a map, indexed by the transaction hash
+   */
+  private final Map<String, TransactionData> transactionDataMap = new ConcurrentHashMap<>();
+
+  /**
+   * The hashes of the transactions that have changed since they were last adapted
+   */
+  private final Set<String> changedTransactionHashes = Sets.newConcurrentHashSet();
+
+  /**
+   * True if the transaction data map must be rebuilt from the whole wallet (e.g. after reading the payments)
+   */
+  private volatile boolean rebuildTransactionDataMap = true;
+
+  /**
+   * Guards the transaction data map and the last seen snapshot during an update
+   */
+  private final Object paymentDataLock = new Object();
+
+  /**
+   * The last seen payments data (an immutable snapshot)
+   */
+  private volatile List<PaymentData> lastSeenPaymentDataList = ImmutableList.of();
+
+  /**
+   * True if the last seen payments data no longer reflects the transaction data map and payment requests
+   */
+  private volatile boolean lastSeenPaymentDataListIsStale = true;
+
+  /**
+   * The search index over the payments (only changed payments are reindexed when a new snapshot is searched)
+   */
+  private final SearchIndex<String, PaymentData> paymentSearchIndex = new SearchIndex<>(
+    new Function<PaymentData, String>() {
+      @Override
+      public String apply(PaymentData paymentData) {
+        if (paymentData instanceof TransactionData) {
+          return "tx:" + ((TransactionData) paymentData).getTransactionId();
+        }
+        if (paymentData instanceof PaymentRequestData) {
+          return "pr:" + ((PaymentRequestData) paymentData).getAddress();
+        }
+        return paymentData.getClass().getName() + ":" + paymentData.hashCode();
+      }
+    },
+    new Function<PaymentData, SearchIndex.Document>() {
+      @Override
+      public SearchIndex.Document apply(PaymentData paymentData) {
+
+        SearchIndex.Document document = new SearchIndex.Document()
+          .addText(paymentData.getDescription(), 3)
+          .addText(paymentData.getNote(), 2);
+
+        if (paymentData instanceof PaymentRequestData) {
+          PaymentRequestData paymentRequestData = (PaymentRequestData) paymentData;
+          document.addText(paymentRequestData.getLabel(), 2);
+          // Exact match only
+          document.addExact(paymentRequestData.getAddress().toString(), 3);
+        } else if (paymentData instanceof TransactionData) {
+          TransactionData transactionData = (TransactionData) paymentData;
+          document.addText(Joiner.on(" ").join(transactionData.getOutputAddresses()), 1);
+          document.addText(Joiner.on(" ").join(transactionData.getInputAddresses()), 1);
+          // The raw transaction is never serialized for the index so the hash is matched directly
+          document.addText(transactionData.getTransactionId(), 1);
+        }
+
+        return document;
+      }
+    },
+    new Function<PaymentData, Object>() {
+      @Override
+      public Object apply(PaymentData paymentData) {
+
+        // The identity, description and note determine the document
+        // Depth and confidence are included so a status change also refreshes the indexed payment
+        if (paymentData instanceof TransactionData) {
+          TransactionData transactionData = (TransactionData) paymentData;
+          return Arrays.asList(
+            transactionData.getTransactionId(),
+            transactionData.getStatus().getDepth(),
+            transactionData.getConfidenceType(),
+            transactionData.getDescription(),
+            transactionData.getNote()
+          );
+        }
+        if (paymentData instanceof PaymentRequestData) {
+          PaymentRequestData paymentRequestData = (PaymentRequestData) paymentData;
+          return Arrays.asList(
+            paymentRequestData.getAddress(),
+            paymentRequestData.getLabel(),
+            paymentRequestData.getDescription(),
+            paymentRequestData.getNote()
+          );
+        }
+        // Unknown payment types are always rebuilt
+        return null;
+      }
+    });
+
+  /**
+   * The snapshot the payment search index was last brought up to date with
    */
-  private List<PaymentData> lastSeenPaymentDataList = Lists.newArrayList();
+  private List<PaymentData> indexedPaymentDataList = null;
 
   /**
    * Handles wallet operations
@@ -169,15 +308,17 @@ public class WalletService extends AbstractService {
     this.backingStoreFile = new File(paymentsDirectory.getAbsolutePath() + File.separator + PAYMENTS_DATABASE_NAME);
 
     protobufSerializer = new PaymentsProtobufSerializer();
+    paymentsJournal = new PaymentsJournal(backingStoreFile, protobufSerializer);
 
-    if (backingStoreFile.exists()) {
+    if (backingStoreFile.exists() || paymentsJournal.getJournalFile().exists()) {
       readPayments();
     }
   }
 
   /**
    * <p>Get all the payments (payments and payment requests) in the current wallet.</p>
-   * <h3>WARNING: This is moderately expensive so don't call it indiscriminately</h3>
+   * <p>Only the transactions that have changed since the last call are adapted again so this is
+   * cheap during synchronisation. The returned list is an immutable snapshot.</p>
    */
   public List<PaymentData> getPaymentDataList() {
 
@@ -197,31 +338,167 @@ public class WalletService extends AbstractService {
     // There should be a wallet
     Preconditions.checkNotNull(wallet, "There is no wallet to process");
 
+    synchronized (paymentDataLock) {
+
+      // Bring the transaction data up to date with the wallet
+      if (rebuildTransactionDataMap) {
+        rebuildTransactionDataMap(wallet);
+      } else {
+        updateChangedTransactionData(wallet);
+      }
+
+      if (!lastSeenPaymentDataListIsStale) {
+        // Nothing has changed since the last snapshot
+        return lastSeenPaymentDataList;
+      }
+      lastSeenPaymentDataListIsStale = false;
+
+      // Determine which paymentRequests have not been fully funded (these will appear as independent entities in the UI)
+      Set<PaymentRequestData> paymentRequestsNotFullyFunded = Sets.newHashSet();
+      for (PaymentRequestData basePaymentRequestData : getPaymentRequests()) {
+        if (basePaymentRequestData.getPaidAmountCoin().compareTo(basePaymentRequestData.getAmountCoin()) < 0) {
+          paymentRequestsNotFullyFunded.add(basePaymentRequestData);
+        }
+      }
+
+      // Union the transactionData set and paymentData set
+      lastSeenPaymentDataList = ImmutableList.<PaymentData>builder()
+        .addAll(transactionDataMap.values())
+        .addAll(paymentRequestsNotFullyFunded)
+        .build();
+
+    }
+
+    //log.debug("lastSeenPaymentDataList:\n" + lastSeenPaymentDataList.toString());
+    return lastSeenPaymentDataList;
+  }
+
+  /**
+   * <p>Note that a wallet transaction has been added or its confidence has changed</p>
+   * <p>The transaction is adapted again on the next call to <code>getPaymentDataList()</code> only if
+   * its displayed status differs from the indexed transaction data. Depths beyond the fully confirmed icon are
+   * not displayed so a new block only adapts the transactions that have not yet reached it.</p>
+   *
+   * @param transaction The transaction from the wallet event listener
+   */
+  public void onWalletTransactionChanged(Transaction transaction) {
+
+    if (rebuildTransactionDataMap) {
+      // Everything will be adapted anyway
+      return;
+    }
+
+    String transactionHashAsString = transaction.getHashAsString();
+    TransactionData transactionData = transactionDataMap.get(transactionHashAsString);
+
+    if (transactionData == null || isStatusChanged(transactionData, transaction)) {
+      changedTransactionHashes.add(transactionHashAsString);
+    }
+  }
+
+  /**
+   * <p>Force all the wallet transactions to be adapted again on the next call to <code>getPaymentDataList()</code></p>
+   * <p>Use this when a change could affect many transactions at once (e.g. a reorganisation or a new payment request)</p>
+   */
+  public void invalidatePaymentDataList() {
+
+    rebuildTransactionDataMap = true;
+    lastSeenPaymentDataListIsStale = true;
+
+  }
+
+  /**
+   * <p>Adapt every transaction in the wallet, replacing the current transaction data map</p>
+   *
+   * @param wallet The current wallet
+   */
+  private void rebuildTransactionDataMap(Wallet wallet) {
+
+    // Clear the flags first so that concurrent changes are not lost
+    rebuildTransactionDataMap = false;
+    changedTransactionHashes.clear();
+    transactionDataMap.clear();
+
     // Get all the transactions in the wallet
     Set<Transaction> transactions = wallet.getTransactions(true);
 
-    // Adapted transaction data to return
-    Set<TransactionData> transactionDataSet = Sets.newHashSet();
-
     if (transactions != null) {
       for (Transaction transaction : transactions) {
         TransactionData transactionData = adaptTransaction(wallet, transaction);
-        transactionDataSet.add(transactionData);
+        transactionDataMap.put(transactionData.getTransactionId(), transactionData);
       }
     }
 
-    // Determine which paymentRequests have not been fully funded (these will appear as independent entities in the UI)
-    Set<PaymentRequestData> paymentRequestsNotFullyFunded = Sets.newHashSet();
-    for (PaymentRequestData basePaymentRequestData : paymentRequestMap.values()) {
-      if (basePaymentRequestData.getPaidAmountCoin().compareTo(basePaymentRequestData.getAmountCoin()) < 0) {
-        paymentRequestsNotFullyFunded.add(basePaymentRequestData);
+    lastSeenPaymentDataListIsStale = true;
+
+    log.debug("Rebuilt transaction data for {} transactions", transactionDataMap.size());
+
+  }
+
+  /**
+   * <p>Adapt only the transactions that have changed since the last update</p>
+   *
+   * @param wallet The current wallet
+   */
+  private void updateChangedTransactionData(Wallet wallet) {
+
+    Iterator<String> iterator = changedTransactionHashes.iterator();
+    while (iterator.hasNext()) {
+
+      String transactionHashAsString = iterator.next();
+      iterator.remove();
+
+      Transaction transaction = wallet.getTransaction(new Sha256Hash(transactionHashAsString));
+      if (transaction == null) {
+        // No longer in the wallet
+        transactionDataMap.remove(transactionHashAsString);
+      } else {
+        transactionDataMap.put(transactionHashAsString, adaptTransaction(wallet, transaction));
       }
+
+      lastSeenPaymentDataListIsStale = true;
     }
-    // Union the transactionData set and paymentData set
-    lastSeenPaymentDataList = Lists.newArrayList(Sets.union(transactionDataSet, paymentRequestsNotFullyFunded));
 
-    //log.debug("lastSeenPaymentDataList:\n" + lastSeenPaymentDataList.toString());
-    return lastSeenPaymentDataList;
+  }
+
+  /**
+   * @param transactionData The indexed transaction data
+   * @param transaction     The transaction from the wallet
+   *
+   * @return True if the payment status shown for the transaction would be different
+   */
+  private boolean isStatusChanged(TransactionData transactionData, Transaction transaction) {
+
+    TransactionConfidence transactionConfidence = transaction.getConfidence();
+    if (transactionConfidence == null) {
+      return true;
+    }
+
+    TransactionConfidence.ConfidenceType confidenceType = transactionConfidence.getConfidenceType();
+    if (confidenceType != transactionData.getConfidenceType()) {
+      return true;
+    }
+
+    int depth = 0;
+    if (TransactionConfidence.ConfidenceType.BUILDING.equals(confidenceType)) {
+      depth = transactionConfidence.getDepthInBlocks();
+    }
+
+    PaymentStatus paymentStatus = calculateStatus(confidenceType, depth, transactionConfidence.numBroadcastPeers());
+    PaymentStatus indexedPaymentStatus = transactionData.getStatus();
+
+    if (isStatusChanged(paymentStatus, indexedPaymentStatus, transaction.isCoinBase())) {
+      return true;
+    }
+
+    if (paymentStatus.getDepth() != indexedPaymentStatus.getDepth()) {
+      // Only the depth of a fully confirmed transaction has moved on so refresh it without adapting again
+      indexedPaymentStatus.setDepth(paymentStatus.getDepth());
+      indexedPaymentStatus.setStatusData(paymentStatus.getStatusData());
+    }
+
+    return false;
+
   }
 
   /**
@@ -271,53 +548,26 @@ public class WalletService extends AbstractService {
   /**
    * @param query The text fragment to match (case-insensitive, anywhere in the name)
    *
-   * @return A filtered set of Payments for the given query
+   * @return A filtered set of Payments for the given query ranked by relevance then in the usual order
    */
   public List<PaymentData> filterPaymentsByContent(String query) {
 
-    String lowerQuery = query.toLowerCase();
-
-    List<PaymentData> filteredPayments = Lists.newArrayList();
-
-    for (PaymentData paymentData : lastSeenPaymentDataList) {
+    Preconditions.checkNotNull(query, "'query' must be present");
 
-      boolean isDescriptionMatched = paymentData.getDescription().toLowerCase().contains(lowerQuery);
-      boolean isNoteMatched = paymentData.getNote().toLowerCase().contains(lowerQuery);
+    synchronized (paymentSearchIndex) {
 
-      boolean isQrCodeLabelMatched = false;
-      boolean isPaymentAddressMatched = false;
-      boolean isOutputAddressMatched = false;
-      boolean isRawTransactionMatched = false;
-
-      if (paymentData instanceof PaymentRequestData) {
-
-        PaymentRequestData paymentRequestData = (PaymentRequestData) paymentData;
-        isQrCodeLabelMatched = paymentRequestData.getLabel().toLowerCase().contains(lowerQuery);
-
-        // Exact match only
-        isPaymentAddressMatched = paymentRequestData.getAddress().toString().equals(query);
-
-      } else if (paymentData instanceof TransactionData) {
-
-        TransactionData transactionData = (TransactionData) paymentData;
-        isOutputAddressMatched = Joiner.on(" ").join(transactionData.getOutputAddresses()).toLowerCase().contains(lowerQuery);
-        isRawTransactionMatched = transactionData.getRawTransaction().toLowerCase().contains(lowerQuery);
-
-      }
-      if (isDescriptionMatched
-        || isNoteMatched
-        || isQrCodeLabelMatched
-        || isPaymentAddressMatched
-        || isOutputAddressMatched
-        || isRawTransactionMatched
-        ) {
-        filteredPayments.add(paymentData);
+      List<PaymentData> snapshot = lastSeenPaymentDataList;
+      if (snapshot != indexedPaymentDataList) {
+        // Equally ranked payments are presented in the usual order
+        List<PaymentData> sortedPaymentDataList = Lists.newArrayList(snapshot);
+        Collections.sort(sortedPaymentDataList, new PaymentComparator());
+        paymentSearchIndex.sync(sortedPaymentDataList);
+        indexedPaymentDataList = snapshot;
       }
-    }
 
-    Collections.sort(filteredPayments, new PaymentComparator());
+    }
 
-    return filteredPayments;
+    return paymentSearchIndex.search(query);
   }
 
   /**
@@ -376,17 +626,7 @@ public class WalletService extends AbstractService {
     String description = calculateDescriptionAndUpdatePaymentRequests(wallet, transaction, transactionHashAsString, paymentType, amountBTC);
     // Also works out outputAddresses
 
-    // Include the raw serialized form of the transaction for lowest level viewing
-    String rawTransaction = transaction.toString() + "\n" + Utils.HEX.encode(transaction.bitcoinSerialize()) + "\n";
-
-    int size = -1;
-    ByteArrayOutputStream byteOutputStream = new ByteArrayOutputStream();
-    try {
-      transaction.bitcoinSerialize(byteOutputStream);
-      size = byteOutputStream.size();
-    } catch (IOException e) {
-      log.error("Failed to serialize transaction", e);
-    }
+    // The raw serialized form of the transaction for lowest level viewing is built on demand
 
     List<Address> outputAddresses = calculateOutputAddresses(transaction);
 
@@ -404,8 +644,7 @@ public class WalletService extends AbstractService {
       description,
       transaction.isCoinBase(),
       outputAddresses,
-      rawTransaction,
-      size,
+      transaction,
       false
     );
 
@@ -416,6 +655,34 @@ public class WalletService extends AbstractService {
     return transactionData;
   }
 
+  /**
+   * <p>Compare payment statuses ignoring depths beyond those shown by the confirmation icon</p>
+   * <p>A new block then only counts as a change for the transactions that have not yet reached the fully
+   * confirmed icon so the remaining transactions are not adapted again on every block.</p>
+   *
+   * @param paymentStatus        The current payment status
+   * @param indexedPaymentStatus The payment status when the transaction was last adapted
+   * @param isCoinbase           True if the transaction is a coinbase (these take longer to mature)
+   *
+   * @return True if the status, its icon or (below the fully confirmed depth) its text differ
+   */
+  static boolean isStatusChanged(PaymentStatus paymentStatus, PaymentStatus indexedPaymentStatus, boolean isCoinbase) {
+
+    if (paymentStatus.getStatus() != indexedPaymentStatus.getStatus()
+      || paymentStatus.getStatusKey() != indexedPaymentStatus.getStatusKey()) {
+      return true;
+    }
+
+    int fullyConfirmedDepth = isCoinbase ? FULLY_CONFIRMED_COINBASE_DEPTH : FULLY_CONFIRMED_DEPTH;
+    if (paymentStatus.getDepth() >= fullyConfirmedDepth && indexedPaymentStatus.getDepth() >= fullyConfirmedDepth) {
+      // Same icon and the status data only carries the depth
+      return false;
+    }
+
+    return paymentStatus.getDepth() != indexedPaymentStatus.getDepth()
+      || !Arrays.equals(paymentStatus.getStatusData(), indexedPaymentStatus.getStatusData());
+  }
+
   /**
    * <p>Calculate the PaymentStatus of the transaction:</p>
    * <ul>
@@ -520,6 +787,9 @@ public class WalletService extends AbstractService {
                 // We have not yet added this tx to the total paid amount
                 paymentRequestData.getPayingTransactionHashes().add(transactionHashAsString);
                 paymentRequestData.setPaidAmountCoin(paymentRequestData.getPaidAmountCoin().add(amountBTC));
+
+                // The funding is part of the payment request so must be journaled with it
+                unjournaledPaymentRequestAddresses.add(receivingAddress);
               }
 
               if (paymentRequestData.getLabel() != null && paymentRequestData.getLabel().length() > 0) {
@@ -612,7 +882,9 @@ public class WalletService extends AbstractService {
     // Double check we are not overwriting an extant transactionInfo
     if (transactionInfoMap.get(transactionHashAsString) == null) {
       // Expected
-      transactionInfoMap.putIfAbsent(transactionHashAsString, newTransactionInfo);
+      if (transactionInfoMap.putIfAbsent(transactionHashAsString, newTransactionInfo) == null) {
+        unjournaledTransactionHashes.add(transactionHashAsString);
+      }
     }
 
     return amountFiat;
@@ -676,40 +948,56 @@ public class WalletService extends AbstractService {
   }
 
   /**
-   * <p>Populate the internal cache of Payments from the backing store</p>
+   * <p>Populate the internal cache of Payments from the backing store snapshot and journal</p>
    */
   public void readPayments() throws PaymentsLoadException {
 
     Preconditions.checkNotNull(backingStoreFile, "There is no backingStoreFile. Please initialise WalletService.");
 
+    CharSequence password = WalletManager.INSTANCE.getCurrentWalletSummary().get().getWalletPassword().getPassword();
+
     try {
 
-      log.debug("Reading payments from '{}'", backingStoreFile.getAbsolutePath());
-
-      ByteArrayInputStream decryptedInputStream = EncryptedFileReaderWriter.readAndDecrypt(
-        backingStoreFile,
-        WalletManager.INSTANCE.getCurrentWalletSummary().get().getWalletPassword().getPassword(),
-        WalletManager.scryptSalt(),
-        WalletManager.aesInitialisationVector());
-      Payments payments = protobufSerializer.readPayments(decryptedInputStream);
-
-      // For quick access payment requests and transaction infos are stored in maps
-      Collection<PaymentRequestData> paymentRequestDatas = payments.getPaymentRequestDatas();
-      if (paymentRequestDatas != null) {
-        paymentRequestMap.clear();
-        for (PaymentRequestData paymentRequestData : paymentRequestDatas) {
-          paymentRequestMap.put(paymentRequestData.getAddress(), paymentRequestData);
+      if (backingStoreFile.exists()) {
+
+        log.debug("Reading payments from '{}'", backingStoreFile.getAbsolutePath());
+
+        ByteArrayInputStream decryptedInputStream = EncryptedFileReaderWriter.readAndDecrypt(
+          backingStoreFile,
+          password,
+          WalletManager.scryptSalt(),
+          WalletManager.aesInitialisationVector());
+        Payments payments = protobufSerializer.readPayments(decryptedInputStream);
+
+        // For quick access payment requests and transaction infos are stored in maps
+        Collection<PaymentRequestData> paymentRequestDatas = payments.getPaymentRequestDatas();
+        if (paymentRequestDatas != null) {
+          paymentRequestMap.clear();
+          for (PaymentRequestData paymentRequestData : paymentRequestDatas) {
+            paymentRequestMap.put(paymentRequestData.getAddress(), paymentRequestData);
+          }
         }
-      }
 
-      Collection<TransactionInfo> transactionInfos = payments.getTransactionInfos();
-      if (transactionInfos != null) {
-        transactionInfoMap.clear();
-        for (TransactionInfo transactionInfo : transactionInfos) {
-          transactionInfoMap.put(transactionInfo.getHash(), transactionInfo);
+        Collection<TransactionInfo> transactionInfos = payments.getTransactionInfos();
+        if (transactionInfos != null) {
+          transactionInfoMap.clear();
+          for (TransactionInfo transactionInfo : transactionInfos) {
+            transactionInfoMap.put(transactionInfo.getHash(), transactionInfo);
+          }
         }
       }
 
+      // Apply the changes made since the snapshot
+      paymentsJournal.replay(transactionInfoMap, paymentRequestMap, password);
+
+      // Everything in memory is now on disk
+      unjournaledTransactionHashes.clear();
+      unjournaledPaymentRequestAddresses.clear();
+      unjournaledDeletedAddresses.clear();
+
+      // Notes, fees and payment request descriptions may all have changed
+      invalidatePaymentDataList();
+
     } catch (EncryptedFileReaderWriterException e) {
       ExceptionHandler.handleThrowable(new PaymentsLoadException("Could not load payments db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'."));
     }
@@ -718,48 +1006,188 @@ public class WalletService extends AbstractService {
   /**
    * 16qsu9SkSzaNi8ytH1tUECZpkhAGRmbj5n
    * <p>Save the payments data to the backing store</p>
+   * <p>Only the changes since the last save are appended to the journal. The journal is compacted into a new
+   * snapshot once it grows beyond <code>PaymentsJournal.COMPACTION_RATIO</code> of the snapshot size.</p>
    */
   public void writePayments() throws PaymentsSaveException {
 
     Preconditions.checkNotNull(backingStoreFile, "'backingStoreFile' must be present. Initialise WalletService.");
     Preconditions.checkState(WalletManager.INSTANCE.getCurrentWalletSummary().isPresent(), "Current wallet summary must be present");
 
+    CharSequence password = WalletManager.INSTANCE.getCurrentWalletSummary().get().getWalletPassword().getPassword();
+
+    synchronized (paymentsWriteLock) {
+
+      try {
+
+        if (backingStoreFile.exists()) {
+
+          // Journal first so that the journal is complete if compaction is interrupted
+          appendPaymentsJournal(password);
+
+          if (!paymentsJournal.isCompactionRequired(backingStoreFile)) {
+            return;
+          }
+
+          log.debug("Compacting payments journal of {} bytes", paymentsJournal.getJournalFile().length());
+        }
+
+        writePaymentsSnapshot(password);
+
+      } catch (Exception e) {
+        log.error("Could not write to payments db '{}'. backingStoreFile.getAbsolutePath()", e);
+        throw new PaymentsSaveException("Could not write payments db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'.", e);
+      }
+    }
+  }
+
+  /**
+   * <p>Save all the payments data to a new snapshot and discard the journal</p>
+   * <p>Use this when the journal cannot be appended (e.g. the wallet password has changed)</p>
+   */
+  public void compactPayments() throws PaymentsSaveException {
+
+    Preconditions.checkNotNull(backingStoreFile, "'backingStoreFile' must be present. Initialise WalletService.");
+    Preconditions.checkState(WalletManager.INSTANCE.getCurrentWalletSummary().isPresent(), "Current wallet summary must be present");
+
+    synchronized (paymentsWriteLock) {
+      try {
+        writePaymentsSnapshot(WalletManager.INSTANCE.getCurrentWalletSummary().get().getWalletPassword().getPassword());
+      } catch (Exception e) {
+        log.error("Could not write to payments db '{}'. backingStoreFile.getAbsolutePath()", e);
+        throw new PaymentsSaveException("Could not write payments db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'.", e);
+      }
+    }
+  }
+
+  /**
+   * <p>Append the current state of every changed transaction info and payment request to the journal</p>
+   */
+  private void appendPaymentsJournal(CharSequence password) throws IOException {
+
+    List<String> transactionHashes = drain(unjournaledTransactionHashes);
+    List<Address> paymentRequestAddresses = drain(unjournaledPaymentRequestAddresses);
+    List<Address> deletedAddresses = drain(unjournaledDeletedAddresses);
+
+    List<TransactionInfo> transactionInfos = Lists.newArrayList();
+    for (String transactionHash : transactionHashes) {
+      TransactionInfo transactionInfo = transactionInfoMap.get(transactionHash);
+      if (transactionInfo != null) {
+        transactionInfos.add(transactionInfo);
+      }
+    }
+
+    List<PaymentRequestData> paymentRequestDatas = Lists.newArrayList();
+    for (Address address : paymentRequestAddresses) {
+      PaymentRequestData paymentRequestData = paymentRequestMap.get(address);
+      if (paymentRequestData != null) {
+        paymentRequestDatas.add(paymentRequestData);
+      }
+    }
+
     try {
+      int bytesAppended = 0;
+      if (!transactionInfos.isEmpty() || !paymentRequestDatas.isEmpty()) {
+        bytesAppended += paymentsJournal.appendUpserts(transactionInfos, paymentRequestDatas, password);
+      }
+      if (!deletedAddresses.isEmpty()) {
+        bytesAppended += paymentsJournal.appendDeletes(deletedAddresses, password);
+      }
+      log.debug("Appended {} bytes to payments journal", bytesAppended);
+    } catch (IOException | RuntimeException e) {
+      // Keep the changes for the next attempt
+      unjournaledTransactionHashes.addAll(transactionHashes);
+      unjournaledPaymentRequestAddresses.addAll(paymentRequestAddresses);
+      unjournaledDeletedAddresses.addAll(deletedAddresses);
+      throw e;
+    }
+  }
+
+  /**
+   * <p>Write every transaction info and payment request to the snapshot and remove the journal</p>
+   */
+  private void writePaymentsSnapshot(CharSequence password) throws IOException {
 
-      log.debug("Writing payments to '{}'", backingStoreFile.getAbsolutePath());
-      log.trace("Writing TransactionInfoMap: {}", transactionInfoMap);
+    log.debug("Writing payments to '{}'", backingStoreFile.getAbsolutePath());
+    log.trace("Writing TransactionInfoMap: {}", transactionInfoMap);
 
+    // The snapshot will include everything changed up to this point (changes made during the write stay unjournaled)
+    List<String> transactionHashes = drain(unjournaledTransactionHashes);
+    List<Address> paymentRequestAddresses = drain(unjournaledPaymentRequestAddresses);
+    List<Address> deletedAddresses = drain(unjournaledDeletedAddresses);
+
+    try {
       ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(1024);
       Payments payments = new Payments();
       payments.setTransactionInfos(transactionInfoMap.values());
-      payments.setPaymentRequestDatas(paymentRequestMap.values());
+      // Iterating a synchronized map requires its lock
+      synchronized (paymentRequestMap) {
+        payments.setPaymentRequestDatas(Lists.newArrayList(paymentRequestMap.values()));
+      }
       protobufSerializer.writePayments(payments, byteArrayOutputStream);
       EncryptedFileReaderWriter.encryptAndWrite(
         byteArrayOutputStream.toByteArray(),
-        WalletManager.INSTANCE.getCurrentWalletSummary().get().getWalletPassword().getPassword(),
+        password,
         backingStoreFile
       );
+    } catch (IOException | RuntimeException e) {
+      // Neither journaled nor in a snapshot so keep the changes for the next attempt
+      unjournaledTransactionHashes.addAll(transactionHashes);
+      unjournaledPaymentRequestAddresses.addAll(paymentRequestAddresses);
+      unjournaledDeletedAddresses.addAll(deletedAddresses);
+      throw e;
+    }
 
-      log.debug("Writing payments completed");
+    // Only once the snapshot is safely written
+    paymentsJournal.delete();
 
-    } catch (Exception e) {
-      log.error("Could not write to payments db '{}'. backingStoreFile.getAbsolutePath()", e);
-      throw new PaymentsSaveException("Could not write payments db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'.", e);
+    log.debug("Writing payments completed");
+  }
+
+  /**
+   * @return The removed contents of the concurrent set
+   */
+  private static <T> List<T> drain(Set<T> set) {
+
+    List<T> drained = Lists.newArrayList();
+    for (Iterator<T> iterator = set.iterator(); iterator.hasNext(); ) {
+      drained.add(iterator.next());
+      iterator.remove();
     }
+
+    return drained;
   }
 
   public WalletId getWalletId() {
     return walletId;
   }
 
+  /**
+   * <p>Reduced visibility for the persistence service metrics</p>
+   *
+   * @return The backing store file
+   */
+  File getBackingStoreFile() {
+    return backingStoreFile;
+  }
+
   public void addPaymentRequest(PaymentRequestData paymentRequestData) {
 
     paymentRequestMap.put(paymentRequestData.getAddress(), paymentRequestData);
+    unjournaledDeletedAddresses.remove(paymentRequestData.getAddress());
+    unjournaledPaymentRequestAddresses.add(paymentRequestData.getAddress());
+
+    // Existing transactions may fund the payment request
+    invalidatePaymentDataList();
 
   }
 
   public void addTransactionInfo(TransactionInfo transactionInfo) {
     transactionInfoMap.put(transactionInfo.getHash(), transactionInfo);
+    unjournaledTransactionHashes.add(transactionInfo.getHash());
+
+    // The note and fees may have changed
+    changedTransactionHashes.add(transactionInfo.getHash());
   }
 
   public TransactionInfo getTransactionInfoByHash(String transactionHashAsString) {
@@ -768,7 +1196,9 @@ public class WalletService extends AbstractService {
 
 
   List<PaymentRequestData> getPaymentRequests() {
-    return Lists.newArrayList(paymentRequestMap.values());
+    synchronized (paymentRequestMap) {
+      return Lists.newArrayList(paymentRequestMap.values());
+    }
   }
 
   /**
@@ -832,6 +1262,9 @@ public class WalletService extends AbstractService {
 
     undoDeletePaymentRequestStack.push(paymentRequestData);
     paymentRequestMap.remove(paymentRequestData.getAddress());
+    unjournaledPaymentRequestAddresses.remove(paymentRequestData.getAddress());
+    unjournaledDeletedAddresses.add(paymentRequestData.getAddress());
+    invalidatePaymentDataList();
     writePayments();
   }
 
@@ -864,8 +1297,8 @@ public class WalletService extends AbstractService {
     CSVEntryConverter<TransactionData> transactionHeaderConverter,
     CSVEntryConverter<TransactionData> transactionConverter
   ) {
-    // Refresh all payments
-    List<PaymentData> paymentDataList = getPaymentDataList();
+    // Refresh all payments (the export sorts in place so work on a copy of the snapshot)
+    List<PaymentData> paymentDataList = Lists.newArrayList(getPaymentDataList());
     ExportManager.export(
       paymentDataList,
       getPaymentRequests(),
@@ -976,7 +1409,7 @@ public class WalletService extends AbstractService {
         // Save all the Contacts, history and payment information using the new wallet credentials
         contactService.writeContacts();
         historyService.writeHistory();
-        walletService.writePayments();
+        walletService.compactPayments();
 
         wallet.encrypt(newPassword);
 
@@ -1038,6 +1471,7 @@ public class WalletService extends AbstractService {
 
       // Use the atomic putIfAbsent to ensure we don't overwrite
       if (transactionInfoMap.putIfAbsent(transactionSeenEvent.getTransactionId(), transactionInfo) == null) {
+        unjournaledTransactionHashes.add(transactionSeenEvent.getTransactionId());
         log.debug("Created TransactionInfo: {}", transactionInfo);
       } else {
         log.debug("Not adding transactionInfo - another process has already added transactionInfo: {}", transactionInfo);
@@ -0,0 +1,212 @@
+package org.multibit.hd.core.store;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import org.bitcoinj.core.Address;
+import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
+import org.multibit.hd.core.dto.PaymentRequestData;
+import org.multibit.hd.core.exceptions.PaymentsLoadException;
+import org.multibit.hd.core.protobuf.MBHDPaymentsProtos;
+import org.multibit.hd.core.utils.Addresses;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Journal to provide the following to WalletService:</p>
+ * <ul>
+ * <li>Append-only storage of changes to the payments database between snapshots</li>
+ * <li>Replay of those changes over the most recent snapshot</li>
+ * <li>Compaction threshold based on the relative size of the journal and snapshot</li>
+ * </ul>
+ * <p>Each record is individually encrypted (see <code>EncryptedFileReaderWriter.appendEncryptedRecord</code>) and
+ * holds a record type byte followed by a <code>Payments</code> protobuf. An upsert record carries the complete
+ * replacement transaction infos and payment requests. A delete record carries payment requests with only their
+ * address populated.</p>
+ *
+ * @since 0.0.1
+ */
+public class PaymentsJournal {
+
+  private static final Logger log = LoggerFactory.getLogger(PaymentsJournal.class);
+
+  /**
+   * The suffix added to the snapshot file name to locate its journal (e.g. "payments.aes.journal")
+   */
+  public static final String JOURNAL_SUFFIX = ".journal";
+
+  /**
+   * The journal is compacted into the snapshot once it exceeds this proportion of the snapshot size
+   */
+  public static final double COMPACTION_RATIO = 0.5;
+
+  /**
+   * Journals smaller than this are never compacted (avoids rewriting small snapshots on every change)
+   */
+  public static final long MINIMUM_COMPACTION_LENGTH = 16 * 1024;
+
+  private static final byte UPSERT_RECORD = 1;
+
+  private static final byte DELETE_RECORD = 2;
+
+  private final File journalFile;
+
+  private final PaymentsProtobufSerializer protobufSerializer;
+
+  /**
+   * @param snapshotFile       The snapshot file that this journal follows
+   * @param protobufSerializer The payments serializer
+   */
+  public PaymentsJournal(File snapshotFile, PaymentsProtobufSerializer protobufSerializer) {
+
+    Preconditions.checkNotNull(snapshotFile, "'snapshotFile' must be present");
+    Preconditions.checkNotNull(protobufSerializer, "'protobufSerializer' must be present");
+
+    this.journalFile = new File(snapshotFile.getAbsolutePath() + JOURNAL_SUFFIX);
+    this.protobufSerializer = protobufSerializer;
+
+  }
+
+  /**
+   * @return The journal file (which may not exist)
+   */
+  public File getJournalFile() {
+    return journalFile;
+  }
+
+  /**
+   * <p>Append the current state of changed transaction infos and payment requests</p>
+   *
+   * @param transactionInfos    The changed transaction infos
+   * @param paymentRequestDatas The changed (or added) payment requests
+   * @param password            The wallet password
+   *
+   * @return The number of bytes appended
+   *
+   * @throws IOException If the record could not be serialized
+   */
+  public int appendUpserts(Collection<TransactionInfo> transactionInfos, Collection<PaymentRequestData> paymentRequestDatas, CharSequence password) throws IOException {
+
+    Payments payments = new Payments();
+    payments.setTransactionInfos(transactionInfos);
+    payments.setPaymentRequestDatas(paymentRequestDatas);
+
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(1024);
+    byteArrayOutputStream.write(UPSERT_RECORD);
+    protobufSerializer.writePayments(payments, byteArrayOutputStream);
+
+    return EncryptedFileReaderWriter.appendEncryptedRecord(byteArrayOutputStream.toByteArray(), password, journalFile);
+  }
+
+  /**
+   * <p>Append the removal of payment requests</p>
+   *
+   * @param addresses The addresses of the deleted payment requests
+   * @param password  The wallet password
+   *
+   * @return The number of bytes appended
+   *
+   * @throws IOException If the record could not be serialized
+   */
+  public int appendDeletes(Collection<Address> addresses, CharSequence password) throws IOException {
+
+    MBHDPaymentsProtos.Payments.Builder paymentsBuilder = MBHDPaymentsProtos.Payments.newBuilder();
+    for (Address address : addresses) {
+      paymentsBuilder.addPaymentRequest(MBHDPaymentsProtos.PaymentRequest.newBuilder().setAddress(address.toString()));
+    }
+
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(64 * addresses.size() + 1);
+    byteArrayOutputStream.write(DELETE_RECORD);
+    paymentsBuilder.build().writeTo(byteArrayOutputStream);
+
+    return EncryptedFileReaderWriter.appendEncryptedRecord(byteArrayOutputStream.toByteArray(), password, journalFile);
+  }
+
+  /**
+   * <p>Apply all journal records, in order, to the maps populated from the snapshot</p>
+   *
+   * @param transactionInfoMap The transaction infos indexed by transaction hash
+   * @param paymentRequestMap  The payment requests indexed by address
+   * @param password           The wallet password
+   *
+   * @return The number of records replayed
+   *
+   * @throws PaymentsLoadException If a record could not be parsed
+   */
+  public int replay(Map<String, TransactionInfo> transactionInfoMap, Map<Address, PaymentRequestData> paymentRequestMap, CharSequence password) throws PaymentsLoadException {
+
+    List<byte[]> records = EncryptedFileReaderWriter.readEncryptedRecords(journalFile, password);
+
+    for (byte[] record : records) {
+
+      if (record.length == 0) {
+        throw new PaymentsLoadException("Empty payments journal record");
+      }
+
+      ByteArrayInputStream recordInputStream = new ByteArrayInputStream(record, 1, record.length - 1);
+
+      switch (record[0]) {
+        case UPSERT_RECORD:
+          Payments payments = protobufSerializer.readPayments(recordInputStream);
+          for (TransactionInfo transactionInfo : payments.getTransactionInfos()) {
+            transactionInfoMap.put(transactionInfo.getHash(), transactionInfo);
+          }
+          for (PaymentRequestData paymentRequestData : payments.getPaymentRequestDatas()) {
+            paymentRequestMap.put(paymentRequestData.getAddress(), paymentRequestData);
+          }
+          break;
+        case DELETE_RECORD:
+          try {
+            MBHDPaymentsProtos.Payments paymentsProto = MBHDPaymentsProtos.Payments.parseFrom(recordInputStream);
+            for (MBHDPaymentsProtos.PaymentRequest paymentRequestProto : paymentsProto.getPaymentRequestList()) {
+              Optional<Address> address = Addresses.parse(paymentRequestProto.getAddress());
+              if (address.isPresent()) {
+                paymentRequestMap.remove(address.get());
+              }
+            }
+          } catch (IOException e) {
+            throw new PaymentsLoadException("Could not parse payments journal delete record", e);
+          }
+          break;
+        default:
+          throw new PaymentsLoadException("Unknown payments journal record type: " + record[0]);
+      }
+    }
+
+    log.debug("Replayed {} payments journal record(s)", records.size());
+
+    return records.size();
+  }
+
+  /**
+   * @param snapshotFile The snapshot file
+   *
+   * @return True if the journal has grown large enough relative to the snapshot to be compacted
+   */
+  public boolean isCompactionRequired(File snapshotFile) {
+
+    long journalLength = journalFile.length();
+
+    return journalLength > MINIMUM_COMPACTION_LENGTH
+      && journalLength > COMPACTION_RATIO * snapshotFile.length();
+  }
+
+  /**
+   * <p>Remove the journal after its contents have been written to a new snapshot</p>
+   */
+  public void delete() {
+
+    if (journalFile.exists() && !journalFile.delete()) {
+      log.warn("Could not delete payments journal '{}'", journalFile.getAbsolutePath());
+    }
+
+  }
+
+}
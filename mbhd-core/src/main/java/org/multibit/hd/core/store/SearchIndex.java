@@ -0,0 +1,535 @@
+package org.multibit.hd.core.store;
+
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * <p>Index to provide the following to contact, history and wallet services:</p>
+ * <ul>
+ * <li>Trigram index over free text fields (case insensitive substring match)</li>
+ * <li>Token index over identifiers such as transaction hashes (case insensitive prefix match)</li>
+ * <li>Exact term index for fields that must not be partially matched (e.g. addresses)</li>
+ * <li>Incremental maintenance so that only new or changed values are reindexed</li>
+ * <li>Optional value versions so that documents are only built for new or changed values</li>
+ * <li>Ranked results</li>
+ * </ul>
+ * <p>Results are ranked by the sum of the weights of the matching fields (with a bonus for a prefix or whole
+ * field match) and then by the order of the values in the most recent <code>sync</code>.</p>
+ *
+ * @param <K> The key type identifying a value across syncs
+ * @param <T> The value type
+ *
+ * @since 0.0.1
+ */
+public class SearchIndex<K, T> {
+
+  private static final int GRAM_LENGTH = 3;
+
+  private final Function<T, K> keyFunction;
+
+  private final Function<T, Document> documentFunction;
+
+  private final Optional<Function<T, ?>> versionFunction;
+
+  /**
+   * The indexed entries by key
+   */
+  private final Map<K, Entry<T>> entries = Maps.newHashMap();
+
+  /**
+   * Trigram to the keys of entries with a text field containing it
+   */
+  private final Map<String, Set<K>> grams = Maps.newHashMap();
+
+  /**
+   * Token to the keys of entries containing it (navigable for prefix lookups)
+   */
+  private final NavigableMap<String, Set<K>> tokens = new TreeMap<>();
+
+  /**
+   * Exact (case sensitive) term to the keys of entries containing it
+   */
+  private final Map<String, Set<K>> exactTerms = Maps.newHashMap();
+
+  private long reindexCount = 0;
+
+  private long documentCount = 0;
+
+  /**
+   * @param keyFunction      Provides the stable key of a value
+   * @param documentFunction Provides the searchable fields of a value
+   */
+  public SearchIndex(Function<T, K> keyFunction, Function<T, Document> documentFunction) {
+
+    this(keyFunction, documentFunction, Optional.<Function<T, ?>>absent());
+
+  }
+
+  /**
+   * @param keyFunction      Provides the stable key of a value
+   * @param documentFunction Provides the searchable fields of a value
+   * @param versionFunction  Provides a cheap version of a value where equal versions guarantee equal documents (null to always build)
+   */
+  public SearchIndex(Function<T, K> keyFunction, Function<T, Document> documentFunction, Function<T, ?> versionFunction) {
+
+    this(keyFunction, documentFunction, Optional.<Function<T, ?>>of(Preconditions.checkNotNull(versionFunction, "'versionFunction' must be present")));
+
+  }
+
+  private SearchIndex(Function<T, K> keyFunction, Function<T, Document> documentFunction, Optional<Function<T, ?>> versionFunction) {
+
+    Preconditions.checkNotNull(keyFunction, "'keyFunction' must be present");
+    Preconditions.checkNotNull(documentFunction, "'documentFunction' must be present");
+
+    this.keyFunction = keyFunction;
+    this.documentFunction = documentFunction;
+    this.versionFunction = versionFunction;
+
+  }
+
+  /**
+   * <p>Bring the index up to date with the given values</p>
+   * <p>Values whose searchable fields are unchanged keep their postings, removed values are dropped
+   * and the presentation order is taken from the collection. Where a version function is present the
+   * document of a value is only built if its version has changed.</p>
+   *
+   * @param values The current values in their default presentation order
+   */
+  public synchronized void sync(Collection<T> values) {
+
+    Preconditions.checkNotNull(values, "'values' must be present");
+
+    Set<K> seen = Sets.newHashSetWithExpectedSize(values.size());
+
+    int position = 0;
+    for (T value : values) {
+
+      K key = keyFunction.apply(value);
+      if (!seen.add(key)) {
+        // Keep the first occurrence only
+        continue;
+      }
+
+      Entry<T> entry = entries.get(key);
+      Object version = versionFunction.isPresent() ? versionFunction.get().apply(value) : null;
+
+      if (entry == null || version == null || !version.equals(entry.version)) {
+
+        Document document = documentFunction.apply(value);
+        documentCount++;
+
+        if (entry == null || !entry.document.equals(document)) {
+          if (entry != null) {
+            removePostings(key, entry.document);
+          }
+          addPostings(key, document);
+          entry = new Entry<>(value, document);
+          entries.put(key, entry);
+          reindexCount++;
+        }
+        entry.version = version;
+      }
+
+      entry.value = value;
+      entry.position = position++;
+
+    }
+
+    Iterator<Map.Entry<K, Entry<T>>> iterator = entries.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<K, Entry<T>> mapEntry = iterator.next();
+      if (!seen.contains(mapEntry.getKey())) {
+        removePostings(mapEntry.getKey(), mapEntry.getValue().document);
+        iterator.remove();
+      }
+    }
+
+  }
+
+  /**
+   * @param query The query (an empty query matches everything)
+   *
+   * @return The matching values in rank order
+   */
+  public synchronized List<T> search(String query) {
+
+    return search(query, entries.keySet());
+  }
+
+  /**
+   * <p>Search within the results of an earlier query</p>
+   * <p>Text and token matches are monotonic so the results for a query are always among the results for any
+   * prefix of it. A caller extending a query can therefore pass the keys of the previous results. Exact terms
+   * do not narrow in this way and are only found among the candidates.</p>
+   *
+   * @param query         The query (an empty query matches all the candidates)
+   * @param candidateKeys The keys of the values to consider (unknown keys are ignored)
+   *
+   * @return The matching values in rank order
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized List<T> search(String query, Collection<K> candidateKeys) {
+
+    Preconditions.checkNotNull(query, "'query' must be present");
+    Preconditions.checkNotNull(candidateKeys, "'candidateKeys' must be present");
+
+    Set<K> scope = candidateKeys instanceof Set ? (Set<K>) candidateKeys : Sets.newHashSet(candidateKeys);
+
+    final Map<K, Integer> scores = Maps.newHashMap();
+
+    if (query.isEmpty()) {
+      for (K key : scope) {
+        if (entries.containsKey(key)) {
+          scores.put(key, 0);
+        }
+      }
+    } else {
+      scoreText(query.toLowerCase(), scope, scores);
+      scoreTokens(query.toLowerCase(), scope, scores);
+      scoreExactTerms(query, scope, scores);
+    }
+
+    List<K> keys = Lists.newArrayList(scores.keySet());
+    Collections.sort(keys, new Comparator<K>() {
+      @Override
+      public int compare(K o1, K o2) {
+        int scoreComparison = Integer.compare(scores.get(o2), scores.get(o1));
+        if (scoreComparison != 0) {
+          return scoreComparison;
+        }
+        return Integer.compare(entries.get(o1).position, entries.get(o2).position);
+      }
+    });
+
+    List<T> results = Lists.newArrayListWithCapacity(keys.size());
+    for (K key : keys) {
+      results.add(entries.get(key).value);
+    }
+
+    return results;
+  }
+
+  /**
+   * @return The number of indexed values
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * @return The number of times a value has been (re)indexed since creation
+   */
+  public synchronized long getReindexCount() {
+    return reindexCount;
+  }
+
+  /**
+   * @return The number of documents built since creation
+   */
+  public synchronized long getDocumentCount() {
+    return documentCount;
+  }
+
+  private void scoreText(String lowerQuery, Set<K> scope, Map<K, Integer> scores) {
+
+    // Narrow the candidates through the trigram postings where the query is long enough
+    Collection<K> candidates;
+    if (lowerQuery.length() < GRAM_LENGTH) {
+      candidates = scope;
+    } else {
+      Set<K> smallest = null;
+      for (String gram : grams(lowerQuery)) {
+        Set<K> posting = grams.get(gram);
+        if (posting == null) {
+          return;
+        }
+        if (smallest == null || posting.size() < smallest.size()) {
+          smallest = posting;
+        }
+      }
+      candidates = smallest == null ? Collections.<K>emptySet() : smallest;
+      if (scope.size() < candidates.size()) {
+        // An earlier query has already narrowed further
+        candidates = scope;
+      }
+    }
+
+    // Verify each candidate since trigrams alone do not guarantee a substring
+    for (K key : candidates) {
+      Entry<T> entry = entries.get(key);
+      if (entry == null || !scope.contains(key)) {
+        continue;
+      }
+      int score = 0;
+      for (Field field : entry.document.textFields) {
+        if (field.text.contains(lowerQuery)) {
+          score += field.weight;
+          if (field.text.startsWith(lowerQuery)) {
+            score += field.weight;
+          }
+          if (field.text.length() == lowerQuery.length()) {
+            score += field.weight;
+          }
+        }
+      }
+      addScore(scores, key, score);
+    }
+
+  }
+
+  private void scoreTokens(String lowerQuery, Set<K> scope, Map<K, Integer> scores) {
+
+    // A value scores once however many of its tokens match
+    Set<K> matched = Sets.newHashSet();
+    for (Set<K> posting : tokens.subMap(lowerQuery, true, lowerQuery + Character.MAX_VALUE, true).values()) {
+      matched.addAll(posting);
+    }
+    matched.retainAll(scope);
+    for (K key : matched) {
+      addScore(scores, key, entries.get(key).document.tokenWeight);
+    }
+
+  }
+
+  private void scoreExactTerms(String query, Set<K> scope, Map<K, Integer> scores) {
+
+    Set<K> posting = exactTerms.get(query);
+    if (posting == null) {
+      return;
+    }
+    for (K key : posting) {
+      if (scope.contains(key)) {
+        addScore(scores, key, entries.get(key).document.exactWeight);
+      }
+    }
+
+  }
+
+  private void addScore(Map<K, Integer> scores, K key, int score) {
+
+    if (score <= 0) {
+      return;
+    }
+
+    Integer current = scores.get(key);
+    scores.put(key, current == null ? score : current + score);
+
+  }
+
+  private void addPostings(K key, Document document) {
+
+    for (Field field : document.textFields) {
+      for (String gram : grams(field.text)) {
+        post(grams, gram, key);
+      }
+    }
+    for (String token : document.tokens) {
+      post(tokens, token, key);
+    }
+    for (String term : document.exactTerms) {
+      post(exactTerms, term, key);
+    }
+
+  }
+
+  private void removePostings(K key, Document document) {
+
+    for (Field field : document.textFields) {
+      for (String gram : grams(field.text)) {
+        unpost(grams, gram, key);
+      }
+    }
+    for (String token : document.tokens) {
+      unpost(tokens, token, key);
+    }
+    for (String term : document.exactTerms) {
+      unpost(exactTerms, term, key);
+    }
+
+  }
+
+  private void post(Map<String, Set<K>> postings, String term, K key) {
+
+    Set<K> posting = postings.get(term);
+    if (posting == null) {
+      posting = Sets.newHashSet();
+      postings.put(term, posting);
+    }
+    posting.add(key);
+
+  }
+
+  private void unpost(Map<String, Set<K>> postings, String term, K key) {
+
+    Set<K> posting = postings.get(term);
+    if (posting != null) {
+      posting.remove(key);
+      if (posting.isEmpty()) {
+        postings.remove(term);
+      }
+    }
+
+  }
+
+  /**
+   * @param text The lower case text
+   *
+   * @return The distinct trigrams in the text
+   */
+  private static Set<String> grams(String text) {
+
+    Set<String> result = Sets.newHashSet();
+    for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+      result.add(text.substring(i, i + GRAM_LENGTH));
+    }
+
+    return result;
+  }
+
+  /**
+   * <p>The searchable fields of a single value</p>
+   */
+  public static class Document {
+
+    private final List<Field> textFields = Lists.newArrayList();
+
+    private final Set<String> tokens = Sets.newHashSet();
+
+    private final Set<String> exactTerms = Sets.newHashSet();
+
+    private int tokenWeight = 1;
+
+    private int exactWeight = 1;
+
+    /**
+     * @param text   Free text matched as a case insensitive substring (may be null)
+     * @param weight The rank weight of a match
+     *
+     * @return The document
+     */
+    public Document addText(String text, int weight) {
+
+      if (text != null && !text.isEmpty()) {
+        textFields.add(new Field(text.toLowerCase(), weight));
+      }
+
+      return this;
+    }
+
+    /**
+     * @param text   Bulky text split into alphanumeric tokens matched as a case insensitive prefix (may be null)
+     * @param weight The rank weight of a match
+     *
+     * @return The document
+     */
+    public Document addTokens(String text, int weight) {
+
+      if (text != null) {
+        for (String token : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+          if (!token.isEmpty()) {
+            tokens.add(token);
+          }
+        }
+        tokenWeight = weight;
+      }
+
+      return this;
+    }
+
+    /**
+     * @param term   A term that only matches the entire (case sensitive) query (may be null)
+     * @param weight The rank weight of a match
+     *
+     * @return The document
+     */
+    public Document addExact(String term, int weight) {
+
+      if (term != null && !term.isEmpty()) {
+        exactTerms.add(term);
+        exactWeight = weight;
+      }
+
+      return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      Document that = (Document) o;
+
+      return tokenWeight == that.tokenWeight
+        && exactWeight == that.exactWeight
+        && textFields.equals(that.textFields)
+        && tokens.equals(that.tokens)
+        && exactTerms.equals(that.exactTerms);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(textFields, tokens, exactTerms, tokenWeight, exactWeight);
+    }
+  }
+
+  /**
+   * <p>A lower case text field and its rank weight</p>
+   */
+  private static class Field {
+
+    private final String text;
+    private final int weight;
+
+    private Field(String text, int weight) {
+      this.text = text;
+      this.weight = weight;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      Field that = (Field) o;
+
+      return weight == that.weight && text.equals(that.text);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * text.hashCode() + weight;
+    }
+  }
+
+  /**
+   * <p>An indexed value</p>
+   */
+  private static class Entry<T> {
+
+    private T value;
+    private final Document document;
+    private Object version;
+    private int position;
+
+    private Entry(T value, Document document) {
+      this.value = value;
+      this.document = document;
+    }
+  }
+
+}
@@ -0,0 +1,119 @@
+package org.multibit.hd.core.utils;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Transaction;
+import org.multibit.hd.core.dto.BatchRecipient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Utility to provide the following to batch sends:</p>
+ * <ul>
+ * <li>Parsing of recipients from CSV</li>
+ * </ul>
+ * <p>Each line has the form <code>address,amount</code> where the amount is in bitcoin (e.g. "0.015").
+ * Blank lines, lines starting with '#' and a leading header line starting with "address" are ignored.
+ * Each address may appear only once and every amount must be above the dust limit.</p>
+ *
+ * @since 0.0.1
+ */
+public class BatchRecipients {
+
+  private static final Splitter CSV_SPLITTER = Splitter.on(',').trimResults();
+
+  /**
+   * Utilities have private constructors
+   */
+  private BatchRecipients() {
+  }
+
+  /**
+   * @param reader The CSV source (not closed)
+   *
+   * @return The recipients in file order
+   *
+   * @throws IOException              If the CSV could not be read
+   * @throws IllegalArgumentException If a line contains an invalid, duplicate or dust output (the message includes the line number)
+   */
+  public static List<BatchRecipient> parseCsv(Reader reader) throws IOException {
+
+    List<BatchRecipient> recipients = Lists.newArrayList();
+    Map<Address, Integer> addressLineNumbers = Maps.newHashMap();
+
+    BufferedReader bufferedReader = new BufferedReader(reader);
+    int lineNumber = 0;
+    String line;
+    while ((line = bufferedReader.readLine()) != null) {
+
+      lineNumber++;
+      line = line.trim();
+
+      if (Strings.isNullOrEmpty(line) || line.startsWith("#")) {
+        continue;
+      }
+      if (recipients.isEmpty() && line.toLowerCase().startsWith("address")) {
+        // Header
+        continue;
+      }
+
+      List<String> fields = Lists.newArrayList(CSV_SPLITTER.split(line));
+      if (fields.size() < 2) {
+        throw new IllegalArgumentException("Line " + lineNumber + ": expected 'address,amount'");
+      }
+
+      Optional<Address> address = Addresses.parse(fields.get(0));
+      if (!address.isPresent()) {
+        throw new IllegalArgumentException("Line " + lineNumber + ": invalid address '" + fields.get(0) + "'");
+      }
+
+      final Coin amount;
+      try {
+        amount = Coin.parseCoin(fields.get(1));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Line " + lineNumber + ": invalid amount '" + fields.get(1) + "'", e);
+      }
+      if (amount.signum() <= 0) {
+        throw new IllegalArgumentException("Line " + lineNumber + ": amount must be positive");
+      }
+      if (amount.compareTo(Transaction.MIN_NONDUST_OUTPUT) < 0) {
+        throw new IllegalArgumentException("Line " + lineNumber + ": amount is below the minimum of " + Transaction.MIN_NONDUST_OUTPUT.toPlainString());
+      }
+
+      // Reject rather than merge since a repeated address is more likely to be a mistake than intended
+      Integer previousLineNumber = addressLineNumbers.put(address.get(), lineNumber);
+      if (previousLineNumber != null) {
+        throw new IllegalArgumentException("Line " + lineNumber + ": address '" + fields.get(0) + "' is already paid on line " + previousLineNumber);
+      }
+
+      recipients.add(new BatchRecipient(address.get(), amount));
+    }
+
+    return recipients;
+  }
+
+  /**
+   * @param recipients The recipients
+   *
+   * @return The total amount paid to all recipients
+   */
+  public static Coin totalAmount(List<BatchRecipient> recipients) {
+
+    Coin total = Coin.ZERO;
+    for (BatchRecipient recipient : recipients) {
+      total = total.add(recipient.getAmount());
+    }
+
+    return total;
+  }
+
+}
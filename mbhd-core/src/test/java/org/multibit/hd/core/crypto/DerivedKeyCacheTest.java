@@ -0,0 +1,78 @@
+package org.multibit.hd.core.crypto;
+
+import org.bitcoinj.crypto.KeyCrypterScrypt;
+import org.bitcoinj.wallet.Protos;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.managers.WalletManager;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class DerivedKeyCacheTest {
+
+  private static final String PASSWORD = "orinocoFlow";
+
+  private static final String OTHER_PASSWORD = "sailAway";
+
+  private Protos.ScryptParameters scryptParameters;
+
+  private DerivedKeyCache testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    scryptParameters = EncryptedFileReaderWriter.makeScryptParameters(WalletManager.scryptSalt());
+
+    testObject = new DerivedKeyCache();
+  }
+
+  @Test
+  public void testDeriveKey_Cached() throws Exception {
+
+    KeyParameter expectedKey = new KeyCrypterScrypt(scryptParameters).deriveKey(PASSWORD);
+
+    KeyParameter firstKey = testObject.deriveKey(PASSWORD, scryptParameters);
+    KeyParameter secondKey = testObject.deriveKey(new StringBuilder(PASSWORD), scryptParameters);
+
+    assertThat(firstKey.getKey()).isEqualTo(expectedKey.getKey());
+    assertThat(secondKey.getKey()).isEqualTo(expectedKey.getKey());
+
+    assertThat(testObject.getMisses()).isEqualTo(1);
+    assertThat(testObject.getHits()).isEqualTo(1);
+    assertThat(testObject.getHitRate()).isEqualTo(0.5);
+
+    // Wiping a returned key must not affect the cache
+    java.util.Arrays.fill(secondKey.getKey(), (byte) 0);
+    assertThat(testObject.deriveKey(PASSWORD, scryptParameters).getKey()).isEqualTo(expectedKey.getKey());
+
+  }
+
+  @Test
+  public void testDeriveKey_DifferentPassword() throws Exception {
+
+    KeyParameter firstKey = testObject.deriveKey(PASSWORD, scryptParameters);
+    KeyParameter otherKey = testObject.deriveKey(OTHER_PASSWORD, scryptParameters);
+
+    assertThat(otherKey.getKey()).isNotEqualTo(firstKey.getKey());
+    assertThat(testObject.getMisses()).isEqualTo(2);
+    assertThat(testObject.size()).isEqualTo(2);
+
+  }
+
+  @Test
+  public void testClose() throws Exception {
+
+    testObject.deriveKey(PASSWORD, scryptParameters);
+    assertThat(testObject.size()).isEqualTo(1);
+
+    testObject.close();
+    assertThat(testObject.size()).isEqualTo(0);
+
+    // Still derives correctly but no longer caches
+    testObject.deriveKey(PASSWORD, scryptParameters);
+    assertThat(testObject.size()).isEqualTo(0);
+    assertThat(testObject.getMisses()).isEqualTo(2);
+
+  }
+}
@@ -17,6 +17,7 @@ package org.multibit.hd.core.crypto;
  */
 
 import org.bitcoinj.core.Utils;
+import org.bitcoinj.core.Wallet;
 import org.bitcoinj.utils.BriefLogFormatter;
 import org.junit.Before;
 import org.junit.Test;
@@ -24,6 +25,7 @@ import org.multibit.hd.brit.crypto.AESUtils;
 import org.multibit.hd.core.config.Configurations;
 import org.multibit.hd.core.files.SecureFiles;
 import org.multibit.hd.core.managers.WalletManager;
+import org.multibit.hd.core.utils.BitcoinNetwork;
 import org.spongycastle.crypto.params.KeyParameter;
 
 import java.io.ByteArrayOutputStream;
@@ -94,4 +96,27 @@ public class EncryptedFileReaderWriterTest {
 
     decryptedInputstream.close();
   }
+
+  @Test
+  public void testEncryptAndWriteWallet() throws Exception {
+    // Create a random temporary directory
+    File temporaryDirectory = SecureFiles.createTemporaryDirectory();
+
+    File walletFile = new File(temporaryDirectory + File.separator + WalletManager.MBHD_WALLET_NAME + WalletManager.MBHD_AES_SUFFIX);
+
+    Wallet wallet = new Wallet(BitcoinNetwork.current().get());
+    wallet.freshReceiveKey();
+
+    File encryptedFile = EncryptedFileReaderWriter.encryptAndWriteWallet(wallet, walletFile, PASSWORD1);
+
+    assertThat(encryptedFile).isEqualTo(walletFile);
+    assertThat(encryptedFile.exists()).isTrue();
+
+    // No plaintext or temporary files are left behind
+    assertThat(temporaryDirectory.listFiles().length).isEqualTo(1);
+
+    // The streamed output is readable by the standard wallet load
+    Wallet rebornWallet = WalletManager.INSTANCE.loadWalletFromFile(encryptedFile, PASSWORD1);
+    assertThat(rebornWallet.currentReceiveAddress()).isEqualTo(wallet.currentReceiveAddress());
+  }
 }
@@ -0,0 +1,167 @@
+package org.multibit.hd.core.events;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CoreEventDispatcherTest {
+
+  private final List<Runnable> submittedDrains = Lists.newArrayList();
+
+  private final List<Object> receivedEvents = Lists.newArrayList();
+
+  private CoreEventDispatcher testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    EventBus eventBus = new EventBus();
+    eventBus.register(this);
+
+    // Hold drains until the test runs them to allow events to queue up
+    Executor executor = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        submittedDrains.add(command);
+      }
+    };
+
+    testObject = new CoreEventDispatcher(eventBus, executor, 100);
+    testObject.coalesce(Progress.class, new Function<Progress, Object>() {
+      @Override
+      public Object apply(Progress progress) {
+        return progress.stage;
+      }
+    });
+
+  }
+
+  @Subscribe
+  public void onEvent(Object event) {
+    receivedEvents.add(event);
+  }
+
+  @Test
+  public void testDispatch_InOrder() throws Exception {
+
+    for (int i = 0; i < CoreEventDispatcher.BATCH_SIZE + 5; i++) {
+      testObject.dispatch(i);
+    }
+
+    // A single drain is submitted per event type
+    assertThat(submittedDrains).hasSize(1);
+    assertThat(receivedEvents).isEmpty();
+
+    runDrains();
+
+    assertThat(receivedEvents).hasSize(CoreEventDispatcher.BATCH_SIZE + 5);
+    for (int i = 0; i < receivedEvents.size(); i++) {
+      assertThat(receivedEvents.get(i)).isEqualTo(i);
+    }
+
+    CoreEventDispatcher.EventTypeMetrics metrics = testObject.getMetrics().get(Integer.class);
+    assertThat(metrics.getDispatchedCount()).isEqualTo(CoreEventDispatcher.BATCH_SIZE + 5);
+    assertThat(metrics.getMaxQueueDepth()).isEqualTo(CoreEventDispatcher.BATCH_SIZE + 5);
+    assertThat(metrics.getQueueDepth()).isEqualTo(0);
+
+  }
+
+  @Test
+  public void testDispatch_Coalesces() throws Exception {
+
+    Progress started = new Progress("download", 0);
+    Progress halfway = new Progress("download", 50);
+    Progress failed = new Progress("failed", -1);
+    Progress restarted = new Progress("download", 10);
+    Progress completed = new Progress("download", 100);
+
+    testObject.dispatch(started);
+    testObject.dispatch(halfway);
+    testObject.dispatch(failed);
+    testObject.dispatch(restarted);
+    testObject.dispatch(completed);
+
+    runDrains();
+
+    // Only consecutive events with the same key are superseded
+    assertThat(receivedEvents).isEqualTo(Lists.<Object>newArrayList(halfway, failed, completed));
+
+    CoreEventDispatcher.EventTypeMetrics metrics = testObject.getMetrics().get(Progress.class);
+    assertThat(metrics.getCoalescedCount()).isEqualTo(2);
+    assertThat(metrics.getDispatchedCount()).isEqualTo(3);
+
+  }
+
+  @Test
+  public void testDispatch_FullQueueNeverBlocks() throws Exception {
+
+    // Fill the queue with alternating keys so nothing coalesces on arrival
+    for (int i = 0; i < 100; i++) {
+      testObject.dispatch(new Progress(i % 2 == 0 ? "download" : "verify", i));
+      testObject.dispatch(i);
+    }
+
+    // Returns immediately with the queues full
+    Progress latest = new Progress("download", 100);
+    testObject.dispatch(latest);
+    testObject.dispatch(100);
+
+    // The latest undelivered event with the same key is superseded
+    CoreEventDispatcher.EventTypeMetrics progressMetrics = testObject.getMetrics().get(Progress.class);
+    assertThat(progressMetrics.getCoalescedCount()).isEqualTo(1);
+    assertThat(progressMetrics.getDroppedCount()).isEqualTo(0);
+    assertThat(progressMetrics.getQueueDepth()).isEqualTo(100);
+
+    // A coalescing event without an undelivered match is dropped and counted
+    testObject.dispatch(new Progress("failed", -1));
+    progressMetrics = testObject.getMetrics().get(Progress.class);
+    assertThat(progressMetrics.getDroppedCount()).isEqualTo(1);
+    assertThat(progressMetrics.getQueueDepth()).isEqualTo(100);
+
+    // Other event types happen once so are never dropped
+    CoreEventDispatcher.EventTypeMetrics integerMetrics = testObject.getMetrics().get(Integer.class);
+    assertThat(integerMetrics.getDroppedCount()).isEqualTo(0);
+    assertThat(integerMetrics.getQueueDepth()).isEqualTo(101);
+
+    runDrains();
+
+    // The superseding and one-shot events are all delivered
+    assertThat(receivedEvents).hasSize(201);
+    assertThat(receivedEvents.contains(latest)).isTrue();
+    assertThat(receivedEvents.contains(100)).isTrue();
+
+  }
+
+  private void runDrains() {
+
+    while (!submittedDrains.isEmpty()) {
+      submittedDrains.remove(0).run();
+    }
+
+  }
+
+  private static class Progress {
+
+    private final String stage;
+    private final int percent;
+
+    private Progress(String stage, int percent) {
+      this.stage = stage;
+      this.percent = percent;
+    }
+
+    @Override
+    public String toString() {
+      return stage + " " + percent;
+    }
+  }
+
+}
@@ -1,13 +1,78 @@
 package org.multibit.hd.core.files;
 
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
 
 public class SecureFilesTest {
 
-  // TODO (GR) Verify operation
-  public void testSecureDelete() {
+  @After
+  public void tearDown() throws Exception {
+
+    // Restore the default policy
+    SecureFiles.setOverwritePasses(SecureFiles.OverwritePass.RANDOM);
+
+  }
+
+  @Test
+  public void testSecureDelete() throws Exception {
+
+    // Larger than a single overwrite chunk and not a multiple of it
+    File file = createTemporaryFile(200 * 1024 + 17);
+
+    long deleteCount = SecureFiles.getSecureDeleteCount();
+    long deleteBytes = SecureFiles.getSecureDeleteBytes();
+
+    SecureFiles.setOverwritePasses(SecureFiles.OverwritePass.ZEROS, SecureFiles.OverwritePass.ONES, SecureFiles.OverwritePass.RANDOM);
+    SecureFiles.secureDelete(file);
+
+    assertThat(file.exists()).isFalse();
+    assertThat(SecureFiles.getSecureDeleteCount()).isGreaterThan(deleteCount);
+    assertThat(SecureFiles.getSecureDeleteBytes() - deleteBytes).isGreaterThanOrEqualTo(3 * (200 * 1024 + 17));
+    assertThat(SecureFiles.getSecureDeleteThroughput()).isGreaterThan(0.0);
+
+  }
+
+  @Test
+  public void testSecureDeleteAsync() throws Exception {
+
+    File file = createTemporaryFile(100 * 1024);
+
+    // Every pass is counted
+    SecureFiles.setOverwritePasses(SecureFiles.OverwritePass.ZEROS, SecureFiles.OverwritePass.RANDOM);
+    long bytesOverwritten = SecureFiles.secureDeleteAsync(file).get(10, TimeUnit.SECONDS);
+
+    assertThat(bytesOverwritten).isEqualTo(2 * 100 * 1024);
+    assertThat(file.exists()).isFalse();
+
+  }
+
+  @Test
+  public void testSecureDelete_Missing() throws Exception {
+
+    File file = new File(Files.createTempDir(), "missing.txt");
+
+    SecureFiles.secureDelete(file);
+
+    assertThat(file.exists()).isFalse();
+
+  }
+
+  private File createTemporaryFile(int length) throws Exception {
 
+    byte[] content = new byte[length];
+    new Random(42).nextBytes(content);
 
+    File file = new File(Files.createTempDir(), "secure-delete.bin");
+    Files.write(content, file);
 
+    return file;
   }
 
 }
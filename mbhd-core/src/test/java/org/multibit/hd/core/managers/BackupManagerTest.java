@@ -16,6 +16,7 @@
 package org.multibit.hd.core.managers;
 
 import com.google.common.base.Optional;
+import com.google.common.io.Files;
 import com.google.common.util.concurrent.Uninterruptibles;
 import org.bitcoinj.core.Wallet;
 import org.junit.After;
@@ -116,8 +117,12 @@ public class BackupManagerTest {
 
     // Backup the wallet.
     // This zips the wallet root directory and adds a timestamp, then saves the file in both the local and cloud backup directories
-    File localBackupFile = BackupManager.INSTANCE.createLocalBackup(walletSummary.getWalletId(), password);
-    BackupManager.INSTANCE.createCloudBackup(walletSummary.getWalletId(), password);
+    List<File> backupFiles = BackupManager.INSTANCE.createLocalAndCloudBackup(walletSummary.getWalletId(), password);
+    assertThat(backupFiles.size()).isEqualTo(2);
+    File localBackupFile = backupFiles.get(0);
+
+    // Both destinations receive the same ciphertext
+    assertThat(Files.equal(localBackupFile, backupFiles.get(1))).isTrue();
 
 
     // Check that a backup copy has been saved in the local backup directory
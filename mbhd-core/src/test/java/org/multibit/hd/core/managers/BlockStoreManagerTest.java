@@ -0,0 +1,170 @@
+package org.multibit.hd.core.managers;
+
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.files.SecureFiles;
+
+import java.io.File;
+import java.util.Date;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class BlockStoreManagerTest {
+
+  private static final NetworkParameters networkParameters = NetworkParameters.fromID(NetworkParameters.ID_MAINNET);
+
+  private File applicationDataDirectory;
+
+  private BlockStoreManager testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    applicationDataDirectory = SecureFiles.createTemporaryDirectory();
+
+    testObject = new BlockStoreManager(networkParameters);
+
+  }
+
+  @Test
+  public void testAcquireSharedBlockStore_ReferenceCounted() throws Exception {
+
+    BlockStore first = testObject.acquireSharedBlockStore(applicationDataDirectory, null);
+    BlockStore second = testObject.acquireSharedBlockStore(applicationDataDirectory, null);
+
+    // Both leases see the same headers
+    StoredBlock chainHead = first.getChainHead();
+    assertThat(chainHead).isNotNull();
+    assertThat(second.getChainHead()).isEqualTo(chainHead);
+
+    // The shared store lives in the application data directory rather than a wallet directory
+    File spvDirectory = new File(applicationDataDirectory, InstallationManager.SPV_DIRECTORY);
+    assertThat(spvDirectory.isDirectory()).isTrue();
+
+    // Releasing one lease (even twice) leaves the other usable
+    first.close();
+    first.close();
+    assertThat(second.getChainHead()).isEqualTo(chainHead);
+
+    second.close();
+
+    // Reopening after the last lease is released finds the same headers
+    BlockStore third = testObject.acquireSharedBlockStore(applicationDataDirectory, null);
+    assertThat(third.getChainHead()).isEqualTo(chainHead);
+    third.close();
+
+  }
+
+  @Test
+  public void testAcquireSharedBlockStore_MigratesWalletBlockStores() throws Exception {
+
+    // The newest wallet block store was checkpointed well before today
+    File newestWalletDirectory = SecureFiles.verifyOrCreateDirectory(applicationDataDirectory, "mbhd-11111111-22222222-33333333-44444444-55555555");
+    File newestBlockStoreFile = new File(newestWalletDirectory, InstallationManager.MBHD_PREFIX + InstallationManager.SPV_BLOCKCHAIN_SUFFIX);
+    File newestCheckpointsFile = new File(newestWalletDirectory, InstallationManager.MBHD_PREFIX + InstallationManager.CHECKPOINTS_SUFFIX);
+    InstallationManager.copyCheckpointsTo(newestCheckpointsFile);
+    BlockStore walletBlockStore = testObject.createOrOpenBlockStore(newestBlockStoreFile, newestCheckpointsFile, new Date(1400000000000L), true);
+    StoredBlock walletChainHead = walletBlockStore.getChainHead();
+    walletBlockStore.close();
+
+    // An older wallet block store is discarded
+    File olderWalletDirectory = SecureFiles.verifyOrCreateDirectory(applicationDataDirectory, "mbhd-66666666-77777777-88888888-99999999-aaaaaaaa");
+    File olderBlockStoreFile = new File(olderWalletDirectory, InstallationManager.MBHD_PREFIX + InstallationManager.SPV_BLOCKCHAIN_SUFFIX);
+    Files.write(new byte[]{1, 2, 3}, olderBlockStoreFile);
+    assertThat(olderBlockStoreFile.setLastModified(newestBlockStoreFile.lastModified() - 60000)).isTrue();
+
+    BlockStore blockStore = testObject.acquireSharedBlockStore(applicationDataDirectory, null);
+    assertThat(blockStore.getChainHead()).isEqualTo(walletChainHead);
+    blockStore.close();
+
+    assertThat(newestBlockStoreFile.exists()).isFalse();
+    assertThat(newestCheckpointsFile.exists()).isFalse();
+    assertThat(olderBlockStoreFile.exists()).isFalse();
+
+  }
+
+  @Test(expected = BlockStoreException.class)
+  public void testAcquireSharedBlockStore_Released() throws Exception {
+
+    BlockStore blockStore = testObject.acquireSharedBlockStore(applicationDataDirectory, null);
+    blockStore.close();
+
+    blockStore.getChainHead();
+
+  }
+
+  @Test
+  public void testRewindToLastBlockSeen() throws Exception {
+
+    BlockStore blockStore = testObject.acquireSharedBlockStore(applicationDataDirectory, null);
+    StoredBlock chainHead = blockStore.getChainHead();
+
+    Wallet wallet = new Wallet(networkParameters);
+
+    // Never synchronized
+    assertThat(BlockStoreManager.rewindToLastBlockSeen(blockStore, wallet)).isFalse();
+
+    // Unknown to the store
+    wallet.setLastBlockSeenHash(Sha256Hash.ZERO_HASH);
+    assertThat(BlockStoreManager.rewindToLastBlockSeen(blockStore, wallet)).isFalse();
+
+    // Known to the store
+    wallet.setLastBlockSeenHash(chainHead.getHeader().getHash());
+    assertThat(BlockStoreManager.rewindToLastBlockSeen(blockStore, wallet)).isTrue();
+    assertThat(blockStore.getChainHead()).isEqualTo(chainHead);
+
+    blockStore.close();
+
+  }
+
+  @Test
+  public void testFindLastBlockSeen() throws Exception {
+
+    BlockStore blockStore = testObject.acquireSharedBlockStore(applicationDataDirectory, null);
+    StoredBlock chainHead = blockStore.getChainHead();
+
+    Wallet wallet = new Wallet(networkParameters);
+    assertThat(BlockStoreManager.findLastBlockSeen(blockStore, wallet).isPresent()).isFalse();
+
+    wallet.setLastBlockSeenHash(Sha256Hash.ZERO_HASH);
+    assertThat(BlockStoreManager.findLastBlockSeen(blockStore, wallet).isPresent()).isFalse();
+
+    // Found without moving the chain head
+    wallet.setLastBlockSeenHash(chainHead.getHeader().getHash());
+    assertThat(BlockStoreManager.findLastBlockSeen(blockStore, wallet).get()).isEqualTo(chainHead);
+    assertThat(BlockStoreManager.findBlockBefore(blockStore, new Date(), BlockStoreManager.MAX_REWIND_BLOCKS).get()).isEqualTo(chainHead);
+
+    blockStore.close();
+
+  }
+
+  @Test
+  public void testRewindToDate() throws Exception {
+
+    BlockStore blockStore = testObject.acquireSharedBlockStore(applicationDataDirectory, null);
+    StoredBlock chainHead = blockStore.getChainHead();
+    long chainHeadMillis = chainHead.getHeader().getTimeSeconds() * 1000;
+
+    // Already before the date so nothing to roll back
+    Optional<StoredBlock> rewound = BlockStoreManager.rewindToDate(blockStore, new Date(chainHeadMillis + 86400000L), BlockStoreManager.MAX_REWIND_BLOCKS);
+    assertThat(rewound.isPresent()).isTrue();
+    assertThat(rewound.get()).isEqualTo(chainHead);
+
+    // A freshly checkpointed store holds nothing earlier so must be recreated
+    rewound = BlockStoreManager.rewindToDate(blockStore, new Date(chainHeadMillis - 86400000L), BlockStoreManager.MAX_REWIND_BLOCKS);
+    assertThat(rewound.isPresent()).isFalse();
+    assertThat(blockStore.getChainHead()).isEqualTo(chainHead);
+
+    blockStore.close();
+
+  }
+
+}
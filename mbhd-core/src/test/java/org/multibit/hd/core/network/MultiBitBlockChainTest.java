@@ -0,0 +1,74 @@
+package org.multibit.hd.core.network;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class MultiBitBlockChainTest {
+
+  private static final NetworkParameters networkParameters = NetworkParameters.fromID(NetworkParameters.ID_MAINNET);
+
+  private BlockStore blockStore;
+
+  private MultiBitBlockChain testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    blockStore = new MemoryBlockStore(networkParameters);
+    blockStore.setChainHead(newStoredBlock(1000));
+
+    testObject = new MultiBitBlockChain(networkParameters, blockStore);
+
+  }
+
+  @Test
+  public void testRewind_SwapAndSwapBack() throws Exception {
+
+    // Wallet A has seen the chain head
+    StoredBlock walletABlock = testObject.getChainHead();
+
+    // Swapping in wallet B rewinds to its last seen block
+    assertThat(testObject.rewind(newStoredBlock(500))).isTrue();
+    assertThat(testObject.getChainHead().getHeight()).isEqualTo(500);
+    assertThat(blockStore.getChainHead().getHeight()).isEqualTo(500);
+
+    // A rewind never moves the chain head forward
+    assertThat(testObject.rewind(newStoredBlock(700))).isFalse();
+    assertThat(testObject.getChainHead().getHeight()).isEqualTo(500);
+
+    // Wallet B catches up part of the way
+    blockStore.setChainHead(newStoredBlock(700));
+    testObject = new MultiBitBlockChain(networkParameters, blockStore);
+
+    // Swapping back to wallet A before B reaches it cannot move the chain head forward
+    assertThat(testObject.rewind(walletABlock)).isFalse();
+    assertThat(testObject.getChainHead().getHeight()).isEqualTo(700);
+
+    // The chain head itself is always reachable
+    assertThat(testObject.rewind(testObject.getChainHead())).isTrue();
+    assertThat(testObject.getChainHead().getHeight()).isEqualTo(700);
+
+  }
+
+  /**
+   * @param height The height of the block
+   *
+   * @return A stored block at the given height (only the height matters to a rewind)
+   */
+  private StoredBlock newStoredBlock(int height) {
+
+    Block header = networkParameters.getGenesisBlock().cloneAsHeader();
+
+    return new StoredBlock(header, BigInteger.valueOf(height), height);
+  }
+
+}
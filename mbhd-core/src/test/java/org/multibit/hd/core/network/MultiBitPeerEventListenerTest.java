@@ -1,11 +1,19 @@
 package org.multibit.hd.core.network;
 
+import com.google.common.base.Optional;
 import com.google.common.eventbus.Subscribe;
+import org.bitcoinj.core.Peer;
+import org.bitcoinj.core.PeerAddress;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.multibit.hd.core.events.BitcoinNetworkChangedEvent;
 import org.multibit.hd.core.events.CoreEvents;
+import org.multibit.hd.core.files.SecureFiles;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.util.Collections;
 
 import static org.fest.assertions.Assertions.assertThat;
 
@@ -42,6 +50,28 @@ public class MultiBitPeerEventListenerTest {
 
   }
 
+  @Test
+  public void testClose_OnlyFailedAttemptsAreFailures() throws Exception {
+
+    PeerAddressBook peerAddressBook = new PeerAddressBook(new File(SecureFiles.createTemporaryDirectory(), "mbhd.peers"));
+    PeerAddress attempted = new PeerAddress(InetAddress.getByName("10.0.0.1"), 9333);
+    PeerAddress neverAttempted = new PeerAddress(InetAddress.getByName("10.0.0.2"), 9333);
+    peerAddressBook.recordConnected(attempted, 100);
+    peerAddressBook.recordConnected(neverAttempted, 100);
+
+    MultiBitPeerEventListener testObject = new MultiBitPeerEventListener(Optional.of(peerAddressBook));
+    testObject.onPeerOffered(attempted);
+    testObject.onPeerOffered(neverAttempted);
+
+    // The peer group reports the failed connection attempt as a disconnection
+    testObject.recordDisconnected(attempted, Long.MAX_VALUE, true);
+    testObject.close(Collections.<Peer>emptyList());
+
+    assertThat(peerAddressBook.getFailures(attempted)).isEqualTo(1);
+    assertThat(peerAddressBook.getFailures(neverAttempted)).isEqualTo(0);
+
+  }
+
   @Subscribe
   public void onBitcoinNetworkChangeEvent(BitcoinNetworkChangedEvent event) {
 
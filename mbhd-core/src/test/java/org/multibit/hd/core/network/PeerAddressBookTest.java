@@ -0,0 +1,125 @@
+package org.multibit.hd.core.network;
+
+import org.bitcoinj.core.PeerAddress;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.files.SecureFiles;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PeerAddressBookTest {
+
+  private File peersFile;
+
+  private PeerAddressBook testObject;
+
+  private PeerAddress fast;
+  private PeerAddress slow;
+  private PeerAddress flaky;
+
+  @Before
+  public void setUp() throws Exception {
+
+    peersFile = new File(SecureFiles.createTemporaryDirectory(), "mbhd.peers");
+
+    testObject = new PeerAddressBook(peersFile);
+
+    fast = new PeerAddress(InetAddress.getByName("10.0.0.1"), 9333);
+    slow = new PeerAddress(InetAddress.getByName("10.0.0.2"), 9333);
+    flaky = new PeerAddress(InetAddress.getByName("10.0.0.3"), 9333);
+
+    testObject.recordConnected(fast, 100);
+    testObject.recordPing(fast, 50);
+
+    testObject.recordConnected(slow, 800);
+    testObject.recordPing(slow, 600);
+
+    testObject.recordConnected(flaky, 50);
+    testObject.recordPing(flaky, 20);
+
+  }
+
+  @Test
+  public void testGetBestPeers_RankedByLatencyAndReliability() throws Exception {
+
+    assertThat(testObject.getBestPeers(10)).isEqualTo(Arrays.asList(flaky, fast, slow));
+
+    // Failures outweigh the lower latency
+    testObject.recordFailure(flaky);
+    testObject.recordFailure(flaky);
+    testObject.recordFailure(flaky);
+    testObject.recordFailure(flaky);
+
+    assertThat(testObject.getBestPeers(10)).isEqualTo(Arrays.asList(fast, flaky, slow));
+    assertThat(testObject.getBestPeers(1)).isEqualTo(Arrays.asList(fast));
+
+  }
+
+  @Test
+  public void testGetBestPeers_ExcludesMisbehaving() throws Exception {
+
+    for (int i = 0; i < PeerAddressBook.MAX_MISBEHAVIOUR; i++) {
+      testObject.recordMisbehaviour(flaky);
+    }
+
+    assertThat(testObject.getBestPeers(10)).isEqualTo(Arrays.asList(fast, slow));
+    assertThat(testObject.isKnown(flaky)).isTrue();
+
+  }
+
+  @Test
+  public void testRecordMisbehaviour_DecaysAndClears() throws Exception {
+
+    long now = System.currentTimeMillis();
+
+    // Every ping fails while the network is unavailable
+    for (int i = 0; i < PeerAddressBook.MAX_MISBEHAVIOUR; i++) {
+      testObject.recordMisbehaviour(flaky, now);
+      testObject.recordMisbehaviour(fast, now);
+    }
+    assertThat(testObject.getBestPeers(10, now)).isEqualTo(Arrays.asList(slow));
+
+    // One misbehaviour is forgiven per decay period
+    long nextDay = now + PeerAddressBook.MISBEHAVIOUR_DECAY_MILLIS;
+    assertThat(testObject.getMisbehaviour(flaky, nextDay)).isEqualTo(PeerAddressBook.MAX_MISBEHAVIOUR - 1);
+    assertThat(testObject.getBestPeers(10, nextDay)).isEqualTo(Arrays.asList(flaky, fast, slow));
+
+    // A healthy connection clears it at once
+    testObject.recordDisconnected(fast, PeerAddressBook.HEALTHY_UPTIME_MILLIS);
+    assertThat(testObject.getMisbehaviour(fast, now)).isEqualTo(0);
+    assertThat(testObject.getBestPeers(10, now)).isEqualTo(Arrays.asList(fast, slow));
+
+    // A further misbehaviour counts from what remains
+    testObject.recordMisbehaviour(flaky, nextDay);
+    assertThat(testObject.getMisbehaviour(flaky, nextDay)).isEqualTo(PeerAddressBook.MAX_MISBEHAVIOUR);
+
+  }
+
+  @Test
+  public void testSaveAndLoad() throws Exception {
+
+    testObject.recordMisbehaviour(flaky);
+    testObject.recordDisconnected(slow, 3600000);
+    testObject.save();
+
+    PeerAddressBook loaded = new PeerAddressBook(peersFile);
+    loaded.load();
+
+    assertThat(loaded.size()).isEqualTo(3);
+
+    List<PeerAddress> expected = testObject.getBestPeers(10);
+    assertThat(loaded.getBestPeers(10)).isEqualTo(expected);
+
+    // Unknown peers are not recorded by anything other than a connection
+    PeerAddress unknown = new PeerAddress(InetAddress.getByName("10.0.0.4"), 9333);
+    loaded.recordMisbehaviour(unknown);
+    assertThat(loaded.isKnown(unknown)).isFalse();
+
+  }
+
+}
@@ -0,0 +1,100 @@
+package org.multibit.hd.core.network;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SyncMetricsTest {
+
+  private static final long START_MILLIS = 1000000000L;
+
+  private SyncMetrics testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    testObject = new SyncMetrics();
+
+  }
+
+  @Test
+  public void testRecordBlock_RollingWindow() throws Exception {
+
+    testObject.recordDownloadStarted(100, START_MILLIS);
+
+    // Two blocks a second for ten seconds from two peers
+    for (int i = 0; i < 20; i++) {
+      testObject.recordBlock(i < 15 ? "a" : "b", 100 - i, START_MILLIS + i * 500);
+    }
+
+    assertThat(testObject.getBlocksPerSecond(START_MILLIS + 10000)).isEqualTo(20.0 / SyncMetrics.WINDOW_SECONDS);
+    assertThat(testObject.getTotalBlocks()).isEqualTo(20);
+    assertThat(testObject.getBlocksLeft()).isEqualTo(81);
+
+    Map<String, Double> peerShares = testObject.getPeerShares();
+    assertThat(peerShares.get("a")).isEqualTo(0.75);
+    assertThat(peerShares.get("b")).isEqualTo(0.25);
+
+    // Every interval was 500ms
+    long[] histogram = testObject.getBlockIntervalHistogram();
+    assertThat(histogram[2]).isEqualTo(19);
+
+    // Samples age out of the window
+    assertThat(testObject.getBlocksPerSecond(START_MILLIS + 10000 + SyncMetrics.WINDOW_SECONDS * 1000L)).isEqualTo(0.0);
+
+  }
+
+  @Test
+  public void testIsStalled() throws Exception {
+
+    testObject.recordDownloadStarted(100, START_MILLIS);
+    testObject.recordBlock("a", 99, START_MILLIS + 1000);
+
+    // Not judged until a full window has passed
+    assertThat(testObject.isStalled(START_MILLIS + 5000)).isFalse();
+    assertThat(testObject.getStallMillis(START_MILLIS + 5000)).isEqualTo(4000);
+
+    long windowEndMillis = START_MILLIS + SyncMetrics.WINDOW_SECONDS * 1000L;
+    assertThat(testObject.isStalled(windowEndMillis)).isTrue();
+
+    // A rotation allows the new download peer a full window
+    testObject.recordRotation(windowEndMillis);
+    assertThat(testObject.isStalled(windowEndMillis + 1000)).isFalse();
+    assertThat(testObject.getRotationCount()).isEqualTo(1);
+
+    // Never stalled once the download is complete
+    testObject.recordBlock("b", 0, windowEndMillis + 2000);
+    assertThat(testObject.isStalled(windowEndMillis + 100000)).isFalse();
+    assertThat(testObject.getStallMillis(windowEndMillis + 100000)).isEqualTo(0);
+
+  }
+
+  @Test
+  public void testResetDownload_GraceWindow() throws Exception {
+
+    // A download abandoned part way through by a wallet switch
+    testObject.recordDownloadStarted(100, START_MILLIS);
+    testObject.recordBlock("a", 99, START_MILLIS + 1000);
+    testObject.resetDownload();
+
+    assertThat(testObject.isDownloading()).isFalse();
+    assertThat(testObject.getTotalBlocks()).isEqualTo(1);
+
+    // The next download is not judged on the stale start
+    long restartMillis = START_MILLIS + 100000;
+    testObject.recordDownloadStarted(50, restartMillis);
+    assertThat(testObject.isStalled(restartMillis + 1000)).isFalse();
+    assertThat(testObject.isStalled(restartMillis + SyncMetrics.WINDOW_SECONDS * 1000L)).isTrue();
+
+    // A late block from the previous download also starts a fresh window
+    testObject.resetDownload();
+    testObject.recordBlock("a", 98, restartMillis + 200000);
+    testObject.recordDownloadStarted(50, restartMillis + 200001);
+    assertThat(testObject.isStalled(restartMillis + 201000)).isFalse();
+
+  }
+
+}
@@ -0,0 +1,101 @@
+package org.multibit.hd.core.services;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.events.ShutdownEvent;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PersistenceServiceTest {
+
+  private static final long QUIET_PERIOD_MILLIS = 200;
+
+  private static final long MAX_LATENCY_MILLIS = 600;
+
+  private final Map<PersistenceService.Store, Integer> writeCounts = new EnumMap<>(PersistenceService.Store.class);
+
+  private PersistenceService testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    testObject = new PersistenceService(new PersistenceService.StoreWriter() {
+      @Override
+      public long write(PersistenceService.Store store) {
+        synchronized (writeCounts) {
+          Integer count = writeCounts.get(store);
+          writeCounts.put(store, count == null ? 1 : count + 1);
+        }
+        return 100;
+      }
+    }, QUIET_PERIOD_MILLIS, MAX_LATENCY_MILLIS);
+    testObject.start();
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    testObject.shutdownNow(ShutdownEvent.ShutdownType.SOFT);
+
+  }
+
+  @Test
+  public void testMarkDirty_Coalesces() throws Exception {
+
+    // A burst of edits
+    for (int i = 0; i < 10; i++) {
+      testObject.markDirty(PersistenceService.Store.PAYMENTS);
+    }
+    testObject.markDirty(PersistenceService.Store.CONTACTS);
+
+    // Nothing is written during the quiet period
+    assertThat(testObject.getFlushCount()).isEqualTo(0);
+    assertThat(testObject.isDirty(PersistenceService.Store.PAYMENTS)).isTrue();
+
+    Uninterruptibles.sleepUninterruptibly(QUIET_PERIOD_MILLIS * 5, TimeUnit.MILLISECONDS);
+
+    assertThat(testObject.getFlushCount()).isEqualTo(1);
+    assertThat(testObject.getStoreWriteCount()).isEqualTo(2);
+    assertThat(testObject.getBytesWritten()).isEqualTo(200);
+    assertThat(writeCounts.get(PersistenceService.Store.PAYMENTS)).isEqualTo(1);
+    assertThat(writeCounts.get(PersistenceService.Store.CONTACTS)).isEqualTo(1);
+    assertThat(writeCounts.containsKey(PersistenceService.Store.HISTORY)).isFalse();
+    assertThat(testObject.isDirty(PersistenceService.Store.PAYMENTS)).isFalse();
+
+  }
+
+  @Test
+  public void testMarkDirty_MaxLatency() throws Exception {
+
+    // A steady stream of edits never allows a quiet period
+    long firstEdit = 1000;
+    assertThat(testObject.markDirty(PersistenceService.Store.PAYMENTS, firstEdit)).isEqualTo(QUIET_PERIOD_MILLIS);
+    assertThat(testObject.markDirty(PersistenceService.Store.PAYMENTS, firstEdit + 100)).isEqualTo(QUIET_PERIOD_MILLIS);
+    assertThat(testObject.markDirty(PersistenceService.Store.PAYMENTS, firstEdit + 300)).isEqualTo(QUIET_PERIOD_MILLIS);
+
+    // The quiet period is cut short so the oldest edit is written at the maximum latency
+    assertThat(testObject.markDirty(PersistenceService.Store.PAYMENTS, firstEdit + 500)).isEqualTo(MAX_LATENCY_MILLIS - 500);
+    assertThat(testObject.markDirty(PersistenceService.Store.CONTACTS, firstEdit + MAX_LATENCY_MILLIS)).isEqualTo(0);
+
+  }
+
+  @Test
+  public void testShutdownNow_Flushes() throws Exception {
+
+    testObject.markDirty(PersistenceService.Store.HISTORY);
+
+    testObject.shutdownNow(ShutdownEvent.ShutdownType.SWITCH);
+
+    assertThat(writeCounts.get(PersistenceService.Store.HISTORY)).isEqualTo(1);
+    assertThat(testObject.isDirty(PersistenceService.Store.HISTORY)).isFalse();
+
+  }
+
+}
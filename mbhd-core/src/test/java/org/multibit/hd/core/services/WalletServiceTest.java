@@ -2,6 +2,7 @@ package org.multibit.hd.core.services;
 
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.TransactionConfidence;
 import org.bitcoinj.core.Wallet;
 import org.bitcoinj.crypto.MnemonicCode;
 import org.bitcoinj.wallet.DeterministicSeed;
@@ -19,6 +20,7 @@ import org.multibit.hd.core.files.SecureFiles;
 import org.multibit.hd.core.managers.BackupManager;
 import org.multibit.hd.core.managers.InstallationManager;
 import org.multibit.hd.core.managers.WalletManager;
+import org.multibit.hd.core.store.PaymentsJournal;
 import org.multibit.hd.core.utils.Addresses;
 import org.multibit.hd.core.utils.BitcoinNetwork;
 import org.multibit.hd.core.utils.Dates;
@@ -126,6 +128,112 @@ public class WalletServiceTest {
     checkPaymentRequest(paymentRequestData1, newPaymentRequestDatas.iterator().next());
   }
 
+  @Test
+  public void testPaymentsJournal() throws Exception {
+
+    PaymentRequestData paymentRequestData1 = new PaymentRequestData();
+    paymentRequestData1.setAddress(Addresses.parse("LUvKN4hTw29NS4wNVZ13RBCCQYurRaoLz9").get());
+    paymentRequestData1.setAmountCoin(Coin.valueOf(245));
+    paymentRequestData1.setDate(new DateTime());
+    paymentRequestData1.setLabel("label1");
+    paymentRequestData1.setNote("note1");
+
+    PaymentRequestData paymentRequestData2 = new PaymentRequestData();
+    paymentRequestData2.setAddress(Addresses.parse("LKjE3ADxBRFiWBBNbY1qrhgvTQZBxaPDJ3").get());
+    paymentRequestData2.setAmountCoin(Coin.valueOf(246));
+    paymentRequestData2.setDate(new DateTime());
+    paymentRequestData2.setLabel("label2");
+    paymentRequestData2.setNote("note2");
+
+    // The first write creates the snapshot
+    walletService.addPaymentRequest(paymentRequestData1);
+    walletService.writePayments();
+
+    File snapshotFile = walletService.getBackingStoreFile();
+    File journalFile = new File(snapshotFile.getAbsolutePath() + PaymentsJournal.JOURNAL_SUFFIX);
+    long snapshotLength = snapshotFile.length();
+
+    assertThat(journalFile.exists()).isFalse();
+
+    // Later writes only append to the journal
+    walletService.addPaymentRequest(paymentRequestData2);
+    walletService.writePayments();
+    walletService.deletePaymentRequest(paymentRequestData1);
+
+    assertThat(journalFile.exists()).isTrue();
+    assertThat(snapshotFile.length()).isEqualTo(snapshotLength);
+
+    // Reading replays the journal over the snapshot
+    walletService.readPayments();
+
+    Collection<PaymentRequestData> paymentRequestDatas = walletService.getPaymentRequests();
+    assertThat(paymentRequestDatas.size()).isEqualTo(1);
+
+    PaymentRequestData replayedPaymentRequestData = paymentRequestDatas.iterator().next();
+    assertThat(replayedPaymentRequestData.getAddress()).isEqualTo(paymentRequestData2.getAddress());
+    assertThat(replayedPaymentRequestData.getNote()).isEqualTo(paymentRequestData2.getNote());
+
+    // Compaction folds the journal into the snapshot
+    walletService.compactPayments();
+
+    assertThat(journalFile.exists()).isFalse();
+    walletService.readPayments();
+    assertThat(walletService.getPaymentRequests().size()).isEqualTo(1);
+
+  }
+
+  @Test
+  public void testPaymentDataListSnapshot() throws Exception {
+
+    // With nothing changed the same snapshot is served
+    List<PaymentData> paymentDataList1 = walletService.getPaymentDataList();
+    assertThat(walletService.getPaymentDataList()).isSameAs(paymentDataList1);
+
+    // Create a new payment request
+    PaymentRequestData paymentRequestData1 = new PaymentRequestData();
+    paymentRequestData1.setAddress(Addresses.parse("LUvKN4hTw29NS4wNVZ13RBCCQYurRaoLz9").get());
+    paymentRequestData1.setAmountCoin(Coin.valueOf(245));
+    paymentRequestData1.setDate(new DateTime());
+    paymentRequestData1.setLabel("label1");
+    paymentRequestData1.setNote("note1");
+
+    walletService.addPaymentRequest(paymentRequestData1);
+
+    // The unfunded payment request appears in a new snapshot
+    List<PaymentData> paymentDataList2 = walletService.getPaymentDataList();
+    assertThat(paymentDataList2).isNotSameAs(paymentDataList1);
+    assertThat(paymentDataList2.size()).isEqualTo(paymentDataList1.size() + 1);
+    assertThat(paymentDataList2.contains(paymentRequestData1)).isTrue();
+
+    // Deleting it produces another snapshot without it
+    walletService.deletePaymentRequest(paymentRequestData1);
+    assertThat(walletService.getPaymentDataList().contains(paymentRequestData1)).isFalse();
+  }
+
+  @Test
+  public void testIsStatusChanged_FullyConfirmedDepth() throws Exception {
+
+    TransactionConfidence.ConfidenceType building = TransactionConfidence.ConfidenceType.BUILDING;
+
+    // The status keeps the real depth for display
+    PaymentStatus deeper = WalletService.calculateStatus(building, 700, 0);
+    assertThat(deeper.getDepth()).isEqualTo(700);
+    assertThat(deeper.getStatusData()[0]).isEqualTo(700);
+
+    // Below the fully confirmed icon every block is a change
+    assertThat(WalletService.isStatusChanged(WalletService.calculateStatus(building, 4, 0), WalletService.calculateStatus(building, 3, 0), false)).isTrue();
+
+    // Beyond the fully confirmed icon further blocks do not change the status
+    assertThat(WalletService.isStatusChanged(deeper, WalletService.calculateStatus(building, 7, 0), false)).isFalse();
+
+    // Reaching the fully confirmed icon is a change
+    assertThat(WalletService.isStatusChanged(WalletService.calculateStatus(building, WalletService.FULLY_CONFIRMED_DEPTH, 0), WalletService.calculateStatus(building, 5, 0), false)).isTrue();
+
+    // Coinbase transactions mature later
+    assertThat(WalletService.isStatusChanged(WalletService.calculateStatus(building, 51, 0), WalletService.calculateStatus(building, 50, 0), true)).isTrue();
+
+  }
+
   private void checkPaymentRequest(PaymentRequestData paymentRequestData, PaymentRequestData other) {
     assertThat(other.getAddress()).isEqualTo(paymentRequestData.getAddress());
     assertThat(other.getLabel()).isEqualTo(paymentRequestData.getLabel());
@@ -0,0 +1,175 @@
+package org.multibit.hd.core.store;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SearchIndexTest {
+
+  private SearchIndex<String, String[]> testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    // Values are {key, name, notes, raw, address}
+    testObject = new SearchIndex<>(
+      new Function<String[], String>() {
+        @Override
+        public String apply(String[] value) {
+          return value[0];
+        }
+      },
+      new Function<String[], SearchIndex.Document>() {
+        @Override
+        public SearchIndex.Document apply(String[] value) {
+          return new SearchIndex.Document()
+            .addText(value[1], 3)
+            .addText(value[2], 1)
+            .addTokens(value[3], 1)
+            .addExact(value[4], 3);
+        }
+      });
+
+    testObject.sync(Arrays.asList(
+      new String[]{"1", "Alice Capital", "Met at the bank", "tx 3f2a9c00 in", "LAlice"},
+      new String[]{"2", "Bob", "Introduced by alice", "tx 77aa01 out", "LBob"},
+      new String[]{"3", "Charles", "Nothing to see", "tx 3f2ab111 in", "LCharles"}
+    ));
+
+  }
+
+  @Test
+  public void testSearch_EmptyQueryMatchesAllInOrder() throws Exception {
+
+    assertThat(keys(testObject.search(""))).isEqualTo(Arrays.asList("1", "2", "3"));
+
+  }
+
+  @Test
+  public void testSearch_RankedSubstring() throws Exception {
+
+    // Name prefix outranks a note match
+    assertThat(keys(testObject.search("ALICE"))).isEqualTo(Arrays.asList("1", "2"));
+
+    // Short queries still match anywhere
+    assertThat(keys(testObject.search("ob"))).isEqualTo(Arrays.asList("2"));
+
+    // Trigrams present but not contiguous
+    assertThat(testObject.search("alice bank")).isEmpty();
+
+  }
+
+  @Test
+  public void testSearch_TokenPrefixAndExact() throws Exception {
+
+    assertThat(keys(testObject.search("3F2A"))).isEqualTo(Arrays.asList("1", "3"));
+    assertThat(keys(testObject.search("LBob"))).isEqualTo(Arrays.asList("2"));
+
+    // Exact terms are case sensitive and never partially matched
+    assertThat(testObject.search("lbob")).isEmpty();
+    assertThat(testObject.search("LBo")).isEmpty();
+
+  }
+
+  @Test
+  public void testSearch_WithinCandidates() throws Exception {
+
+    // Narrowing the results of a shorter query gives the same ranking
+    List<String> candidateKeys = keys(testObject.search("al"));
+    assertThat(candidateKeys).isEqualTo(Arrays.asList("1", "2"));
+    assertThat(keys(testObject.search("alice", candidateKeys))).isEqualTo(Arrays.asList("1", "2"));
+
+    // Values outside the candidates are never matched
+    assertThat(keys(testObject.search("", Arrays.asList("3", "99")))).isEqualTo(Arrays.asList("3"));
+    assertThat(testObject.search("3f2ab", Arrays.asList("1"))).isEmpty();
+
+  }
+
+  @Test
+  public void testSync_Incremental() throws Exception {
+
+    long reindexCount = testObject.getReindexCount();
+
+    testObject.sync(Arrays.asList(
+      new String[]{"1", "Alice Capital", "Met at the bank", "tx 3f2a9c00 in", "LAlice"},
+      new String[]{"3", "Charlie", "Nothing to see", "tx 3f2ab111 in", "LCharles"},
+      new String[]{"4", "Derek", "", "tx 99 in", "LDerek"}
+    ));
+
+    // Only the edited and new values are reindexed
+    assertThat(testObject.getReindexCount() - reindexCount).isEqualTo(2);
+    assertThat(testObject.size()).isEqualTo(3);
+
+    assertThat(testObject.search("bob")).isEmpty();
+    assertThat(testObject.search("charles")).isEmpty();
+    assertThat(keys(testObject.search("charlie"))).isEqualTo(Arrays.asList("3"));
+    assertThat(keys(testObject.search("derek"))).isEqualTo(Arrays.asList("4"));
+
+  }
+
+  @Test
+  public void testSync_VersionedBuildsOnlyChangedDocuments() throws Exception {
+
+    // Values are {key, version, name}
+    SearchIndex<String, String[]> versionedIndex = new SearchIndex<>(
+      new Function<String[], String>() {
+        @Override
+        public String apply(String[] value) {
+          return value[0];
+        }
+      },
+      new Function<String[], SearchIndex.Document>() {
+        @Override
+        public SearchIndex.Document apply(String[] value) {
+          return new SearchIndex.Document().addText(value[2], 1);
+        }
+      },
+      new Function<String[], Object>() {
+        @Override
+        public Object apply(String[] value) {
+          return value[1];
+        }
+      });
+
+    versionedIndex.sync(Arrays.asList(
+      new String[]{"1", "a", "Alice"},
+      new String[]{"2", "a", "Bob"}
+    ));
+    assertThat(versionedIndex.getDocumentCount()).isEqualTo(2);
+
+    // An unchanged version is trusted even though the name differs
+    versionedIndex.sync(Arrays.asList(
+      new String[]{"1", "a", "Alicia"},
+      new String[]{"2", "b", "Robert"},
+      new String[]{"3", null, "Charles"}
+    ));
+    assertThat(versionedIndex.getDocumentCount()).isEqualTo(4);
+    assertThat(keys(versionedIndex.search("alice"))).isEqualTo(Arrays.asList("1"));
+    assertThat(keys(versionedIndex.search("robert"))).isEqualTo(Arrays.asList("2"));
+
+    // A value without a version is always rebuilt
+    versionedIndex.sync(Arrays.<String[]>asList(
+      new String[]{"3", null, "Charles"}
+    ));
+    assertThat(versionedIndex.getDocumentCount()).isEqualTo(5);
+    assertThat(versionedIndex.size()).isEqualTo(1);
+
+  }
+
+  private List<String> keys(List<String[]> values) {
+
+    List<String> keys = Lists.newArrayList();
+    for (String[] value : values) {
+      keys.add(value[0]);
+    }
+
+    return keys;
+  }
+
+}
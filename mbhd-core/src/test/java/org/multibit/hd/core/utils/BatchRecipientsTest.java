@@ -0,0 +1,105 @@
+package org.multibit.hd.core.utils;
+
+import org.bitcoinj.core.Coin;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.dto.BatchRecipient;
+
+import java.io.StringReader;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class BatchRecipientsTest {
+
+  private static final String ADDRESS_1 = "LUvKN4hTw29NS4wNVZ13RBCCQYurRaoLz9";
+  private static final String ADDRESS_2 = "LKjE3ADxBRFiWBBNbY1qrhgvTQZBxaPDJ3";
+
+  @Before
+  public void setUp() throws Exception {
+
+    Configurations.currentConfiguration = Configurations.newDefaultConfiguration();
+
+  }
+
+  @Test
+  public void testParseCsv() throws Exception {
+
+    String csv = "address,amount\n" +
+      "# Monthly payouts\n" +
+      ADDRESS_1 + ",0.015\n" +
+      "\n" +
+      " " + ADDRESS_2 + " , 1.2 ,ignored\n";
+
+    List<BatchRecipient> recipients = BatchRecipients.parseCsv(new StringReader(csv));
+
+    assertThat(recipients.size()).isEqualTo(2);
+    assertThat(recipients.get(0).getBitcoinAddress().toString()).isEqualTo(ADDRESS_1);
+    assertThat(recipients.get(0).getAmount()).isEqualTo(Coin.parseCoin("0.015"));
+    assertThat(recipients.get(1).getBitcoinAddress().toString()).isEqualTo(ADDRESS_2);
+    assertThat(BatchRecipients.totalAmount(recipients)).isEqualTo(Coin.parseCoin("1.215"));
+
+  }
+
+  @Test
+  public void testParseCsv_InvalidAmount() throws Exception {
+
+    String csv = ADDRESS_1 + ",0.015\n" +
+      ADDRESS_2 + ",lots\n";
+
+    try {
+      BatchRecipients.parseCsv(new StringReader(csv));
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage()).startsWith("Line 2");
+      return;
+    }
+
+    throw new AssertionError("Expected the invalid amount to be rejected");
+
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testParseCsv_InvalidAddress() throws Exception {
+
+    BatchRecipients.parseCsv(new StringReader("notAnAddress,0.015\n"));
+
+  }
+
+  @Test
+  public void testParseCsv_Dust() throws Exception {
+
+    String csv = ADDRESS_1 + ",0.015\n" +
+      ADDRESS_2 + ",0.00000001\n";
+
+    try {
+      BatchRecipients.parseCsv(new StringReader(csv));
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage()).startsWith("Line 2");
+      return;
+    }
+
+    throw new AssertionError("Expected the dust amount to be rejected");
+
+  }
+
+  @Test
+  public void testParseCsv_DuplicateAddress() throws Exception {
+
+    String csv = ADDRESS_1 + ",0.015\n" +
+      ADDRESS_2 + ",0.02\n" +
+      ADDRESS_1 + ",0.03\n";
+
+    try {
+      BatchRecipients.parseCsv(new StringReader(csv));
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage()).startsWith("Line 3");
+      assertThat(e.getMessage()).endsWith("line 1");
+      return;
+    }
+
+    throw new AssertionError("Expected the duplicate address to be rejected");
+
+  }
+
+}
@@ -0,0 +1,282 @@
+package org.multibit.hd.ui.gravatar;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.io.BaseEncoding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Cache to provide the following to Gravatars:</p>
+ * <ul>
+ * <li>Persistent storage of decorated avatar images under a keyed hash of the email address</li>
+ * <li>Expiry of entries after a time to live</li>
+ * <li>Negative caching of failed lookups so that an unavailable network is not retried on every request</li>
+ * <li>A bound on the number of entries (oldest removed first)</li>
+ * </ul>
+ * <p>Images are stored as PNG to preserve the transparency of the rounded corners. A failed lookup is
+ * recorded as an empty marker file whose modification time is the time of the failure.</p>
+ * <p>Entries are named with an HMAC of the email address (see <code>newEntryName</code>) rather than the MD5 hash
+ * sent to Gravatar, so the cache directory does not reveal the contacts to anyone without the wallet. Entries with
+ * any other name (e.g. from an earlier version) are removed when the cache is opened.</p>
+ *
+ * @since 0.0.1
+ */
+public class GravatarDiskCache {
+
+  private static final Logger log = LoggerFactory.getLogger(GravatarDiskCache.class);
+
+  private static final String IMAGE_SUFFIX = ".png";
+
+  private static final String NEGATIVE_SUFFIX = ".miss";
+
+  private static final String ENTRY_NAME_ALGORITHM = "HmacSHA256";
+
+  private static final Pattern ENTRY_FILE_NAME = Pattern.compile("[0-9a-f]{64}(\\" + IMAGE_SUFFIX + "|\\" + NEGATIVE_SUFFIX + ")");
+
+  /**
+   * Check the entry bound after this many writes (avoids listing the directory on every write)
+   */
+  private static final int PRUNE_INTERVAL = 50;
+
+  private final File cacheDirectory;
+
+  private final int maxEntries;
+
+  private final long positiveTtlMillis;
+
+  private final long negativeTtlMillis;
+
+  private final AtomicInteger writesSincePrune = new AtomicInteger(PRUNE_INTERVAL);
+
+  /**
+   * @param cacheDirectory    The directory holding the cache entries (created if necessary)
+   * @param maxEntries        The maximum number of entries to retain
+   * @param positiveTtlMillis The time an image remains valid
+   * @param negativeTtlMillis The time a failed lookup is remembered
+   */
+  public GravatarDiskCache(File cacheDirectory, int maxEntries, long positiveTtlMillis, long negativeTtlMillis) {
+
+    Preconditions.checkNotNull(cacheDirectory, "'cacheDirectory' must be present");
+    Preconditions.checkArgument(maxEntries > 0, "'maxEntries' must be positive");
+
+    this.cacheDirectory = cacheDirectory;
+    this.maxEntries = maxEntries;
+    this.positiveTtlMillis = positiveTtlMillis;
+    this.negativeTtlMillis = negativeTtlMillis;
+
+    if (!cacheDirectory.exists() && !cacheDirectory.mkdirs()) {
+      log.warn("Could not create gravatar cache directory '{}'", cacheDirectory.getAbsolutePath());
+    }
+
+    removeUnrecognisedEntries();
+
+  }
+
+  /**
+   * @param secret            The key material that must be known to link an entry to an email address
+   * @param cleanEmailAddress The cleaned email address
+   *
+   * @return The entry name for the email address
+   */
+  public static String newEntryName(byte[] secret, String cleanEmailAddress) {
+
+    Preconditions.checkNotNull(secret, "'secret' must be present");
+    Preconditions.checkNotNull(cleanEmailAddress, "'cleanEmailAddress' must be present");
+
+    try {
+      Mac mac = Mac.getInstance(ENTRY_NAME_ALGORITHM);
+      mac.init(new SecretKeySpec(secret, ENTRY_NAME_ALGORITHM));
+      return BaseEncoding.base16().lowerCase().encode(mac.doFinal(cleanEmailAddress.getBytes(Charsets.UTF_8)));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Could not create gravatar cache entry name", e);
+    }
+
+  }
+
+  /**
+   * @param entryName The entry name from <code>newEntryName</code>
+   *
+   * @return The cached image if present and within its time to live
+   */
+  public Optional<BufferedImage> readImage(String entryName) {
+
+    File imageFile = new File(cacheDirectory, entryName + IMAGE_SUFFIX);
+    if (!isFresh(imageFile, positiveTtlMillis)) {
+      return Optional.absent();
+    }
+
+    try {
+      return Optional.fromNullable(ImageIO.read(imageFile));
+    } catch (IOException e) {
+      log.warn("Discarding unreadable gravatar cache entry '{}'", imageFile.getName());
+      delete(imageFile);
+      return Optional.absent();
+    }
+
+  }
+
+  /**
+   * @param entryName The entry name from <code>newEntryName</code>
+   *
+   * @return True if a lookup for this entry recently failed
+   */
+  public boolean isNegative(String entryName) {
+    return isFresh(new File(cacheDirectory, entryName + NEGATIVE_SUFFIX), negativeTtlMillis);
+  }
+
+  /**
+   * @param entryName The entry name from <code>newEntryName</code>
+   * @param image     The decorated image to store
+   */
+  public void writeImage(String entryName, BufferedImage image) {
+
+    File imageFile = new File(cacheDirectory, entryName + IMAGE_SUFFIX);
+    File tempFile = new File(cacheDirectory, entryName + IMAGE_SUFFIX + ".tmp");
+
+    try {
+      // Write then rename so that a reader never sees a partial image
+      if (ImageIO.write(image, "png", tempFile)) {
+        delete(imageFile);
+        if (!tempFile.renameTo(imageFile)) {
+          log.warn("Could not rename gravatar cache entry '{}'", tempFile.getName());
+          delete(tempFile);
+        }
+      }
+    } catch (IOException e) {
+      log.warn("Could not write gravatar cache entry: {}", e.getMessage());
+      delete(tempFile);
+    }
+
+    // A successful lookup supersedes an earlier failure
+    delete(new File(cacheDirectory, entryName + NEGATIVE_SUFFIX));
+
+    pruneIfRequired();
+
+  }
+
+  /**
+   * @param entryName The entry name from <code>newEntryName</code>
+   */
+  public void writeNegative(String entryName) {
+
+    File negativeFile = new File(cacheDirectory, entryName + NEGATIVE_SUFFIX);
+
+    try {
+      if (!negativeFile.createNewFile() && !negativeFile.setLastModified(System.currentTimeMillis())) {
+        log.debug("Could not refresh gravatar negative entry '{}'", negativeFile.getName());
+      }
+    } catch (IOException e) {
+      log.warn("Could not write gravatar negative entry: {}", e.getMessage());
+    }
+
+    pruneIfRequired();
+
+  }
+
+  /**
+   * <p>Remove expired entries and then the oldest entries beyond the bound</p>
+   *
+   * @return The number of entries removed
+   */
+  public int prune() {
+
+    writesSincePrune.set(0);
+
+    File[] entries = cacheDirectory.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return file.isFile();
+      }
+    });
+    if (entries == null) {
+      return 0;
+    }
+
+    // Newest first
+    Arrays.sort(entries, new Comparator<File>() {
+      @Override
+      public int compare(File f1, File f2) {
+        return Long.compare(f2.lastModified(), f1.lastModified());
+      }
+    });
+
+    int removed = 0;
+    int retained = 0;
+    for (File entry : entries) {
+      long ttlMillis = entry.getName().endsWith(NEGATIVE_SUFFIX) ? negativeTtlMillis : positiveTtlMillis;
+      if (retained < maxEntries && isFresh(entry, ttlMillis)) {
+        retained++;
+      } else {
+        delete(entry);
+        removed++;
+      }
+    }
+
+    if (removed > 0) {
+      log.debug("Pruned {} gravatar cache entries ({} retained)", removed, retained);
+    }
+
+    return removed;
+  }
+
+  /**
+   * <p>Remove entries not named by <code>newEntryName</code> (e.g. email hashes or interrupted writes)</p>
+   */
+  private void removeUnrecognisedEntries() {
+
+    File[] entries = cacheDirectory.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return file.isFile() && !ENTRY_FILE_NAME.matcher(file.getName()).matches();
+      }
+    });
+    if (entries == null) {
+      return;
+    }
+
+    for (File entry : entries) {
+      delete(entry);
+    }
+
+  }
+
+  private void pruneIfRequired() {
+
+    if (writesSincePrune.incrementAndGet() >= PRUNE_INTERVAL) {
+      prune();
+    }
+
+  }
+
+  private boolean isFresh(File file, long ttlMillis) {
+
+    // lastModified() is 0 for a missing file
+    long lastModified = file.lastModified();
+    return lastModified > 0 && System.currentTimeMillis() - lastModified < ttlMillis;
+
+  }
+
+  private void delete(File file) {
+
+    if (file.exists() && !file.delete()) {
+      log.debug("Could not delete gravatar cache entry '{}'", file.getName());
+    }
+
+  }
+
+}
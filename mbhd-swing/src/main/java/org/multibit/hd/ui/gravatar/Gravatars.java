@@ -7,33 +7,42 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.hash.Hashing;
+import com.google.common.primitives.Bytes;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import org.bitcoinj.crypto.DeterministicKey;
 import org.joda.time.DateTime;
 import org.multibit.hd.core.concurrent.SafeExecutors;
 import org.multibit.hd.core.dto.RAGStatus;
+import org.multibit.hd.core.dto.WalletSummary;
+import org.multibit.hd.core.managers.InstallationManager;
+import org.multibit.hd.core.managers.WalletManager;
 import org.multibit.hd.core.utils.Dates;
 import org.multibit.hd.ui.MultiBitUI;
 import org.multibit.hd.ui.events.controller.ControllerEvents;
 import org.multibit.hd.ui.languages.Languages;
 import org.multibit.hd.ui.languages.MessageKey;
 import org.multibit.hd.ui.models.Models;
+import org.multibit.hd.ui.views.components.ImageDecorator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * <p>Utility to provide the following to application:</p>
  * <ul>
  * <li>Retrieving images from the Gravatar web service</li>
+ * <li>Persistent caching of the decorated images across restarts</li>
  * </ul>
  *
  * @since 0.0.1
@@ -52,16 +61,37 @@ public class Gravatars {
   private final static String GRAVATAR_URL = "http://www.gravatar.com/avatar/";
   private final static String PARAMETERS = "?s=" + SIZE + "&r=" + RATING + "&d=" + DEFAULT_IMAGE;
 
+  /**
+   * The cache directory within the application data directory
+   */
+  private final static String CACHE_DIRECTORY = "gravatar-cache";
+
   // Maintain a multi-threaded shared reference to a failure mode
   private static AtomicReference<Optional<DateTime>> lastFailedDownload = new AtomicReference<>(Optional.<DateTime>absent());
 
   // Keep an image thread pool
   private static final ListeningExecutorService gravatarExecutorService = SafeExecutors.newFixedThreadPool(10, "gravatar");
 
-  // Maintain an image cache
+  /**
+   * Decorated images are valid for a week
+   */
+  private static final long POSITIVE_TTL_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+  /**
+   * Failed lookups are not retried for a few minutes
+   */
+  private static final long NEGATIVE_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  private static final int MAX_ENTRIES = 1000;
+
+  // Maintain a persistent cache of decorated images (created lazily since it requires the application directory)
+  private static volatile GravatarDiskCache diskCache;
+
+  // Maintain an in-memory image cache in front of the disk cache (only successful lookups are held)
   private static LoadingCache<String, Optional<BufferedImage>> cache = CacheBuilder
     .newBuilder()
-    .maximumSize(1000)
+    .maximumSize(MAX_ENTRIES)
+    .expireAfterWrite(POSITIVE_TTL_MILLIS, TimeUnit.MILLISECONDS)
     .build(new CacheLoader<String, Optional<BufferedImage>>() {
       @Override
       public Optional<BufferedImage> load(String cleanEmailAddress) throws Exception {
@@ -83,7 +113,8 @@ public class Gravatars {
    *
    * @param emailAddress The email address
    *
-   * @return A listenable future containing the corresponding image (default if the email address is unknown) or absent if an error occurs
+   * @return A listenable future containing the corresponding image (default if the email address is unknown) or absent if an error occurs.
+   * The image is already scaled to the standard size with rounded corners applied.
    */
   public static ListenableFuture<Optional<BufferedImage>> retrieveGravatar(final String emailAddress) {
 
@@ -95,7 +126,13 @@ public class Gravatars {
 
       @Override
       public Optional<BufferedImage> call() throws Exception {
-        return cache.get(cleanEmailAddress);
+
+        Optional<BufferedImage> image = cache.get(cleanEmailAddress);
+        if (!image.isPresent()) {
+          // Leave failures to the disk cache so that they expire
+          cache.invalidate(cleanEmailAddress);
+        }
+        return image;
       }
     });
 
@@ -104,18 +141,102 @@ public class Gravatars {
   /**
    * @param emailAddress The cleaned email address to use as an MD5 lookup
    *
-   * @return The buffered image if present
+   * @return The decorated image if present
    */
   private static Optional<BufferedImage> loadBufferedImage(String emailAddress) {
 
-    log.debug("Loading image from external resource");
-
     // Require a hex MD5 hash of email address (lowercase) no whitespace
     final String emailHash = Hashing
       .md5()
       .hashString(emailAddress, Charsets.UTF_8)
       .toString();
 
+    Optional<byte[]> diskCacheSecret = getDiskCacheSecret();
+    if (!diskCacheSecret.isPresent()) {
+      // Without wallet key material the entry names could reveal the contacts so only cache in memory
+      Optional<BufferedImage> downloadedImage = downloadBufferedImage(emailHash);
+      return downloadedImage.isPresent() ? Optional.of(decorate(downloadedImage.get())) : Optional.<BufferedImage>absent();
+    }
+
+    GravatarDiskCache gravatarDiskCache = getDiskCache();
+    String entryName = GravatarDiskCache.newEntryName(diskCacheSecret.get(), emailAddress);
+
+    Optional<BufferedImage> cachedImage = gravatarDiskCache.readImage(entryName);
+    if (cachedImage.isPresent()) {
+      return cachedImage;
+    }
+    if (gravatarDiskCache.isNegative(entryName)) {
+      // Failed recently so avoid another network round trip
+      return Optional.absent();
+    }
+
+    Optional<BufferedImage> downloadedImage = downloadBufferedImage(emailHash);
+    if (!downloadedImage.isPresent()) {
+      gravatarDiskCache.writeNegative(entryName);
+      return Optional.absent();
+    }
+
+    // Scale and round once here rather than on every paint
+    BufferedImage decoratedImage = decorate(downloadedImage.get());
+    gravatarDiskCache.writeImage(entryName, decoratedImage);
+
+    return Optional.of(decoratedImage);
+  }
+
+  /**
+   * @param image The downloaded image
+   *
+   * @return The image scaled to the standard size with rounded corners
+   */
+  private static BufferedImage decorate(BufferedImage image) {
+
+    BufferedImage scaledImage = image.getWidth() == SIZE ? image : ImageDecorator.resizeSharp(image, SIZE);
+
+    return ImageDecorator.applyRoundedCorners(scaledImage, MultiBitUI.IMAGE_CORNER_RADIUS);
+  }
+
+  /**
+   * @return The key material of the current wallet used to name disk cache entries (absent if no wallet is open)
+   */
+  private static Optional<byte[]> getDiskCacheSecret() {
+
+    Optional<WalletSummary> currentWalletSummary = WalletManager.INSTANCE.getCurrentWalletSummary();
+    if (!currentWalletSummary.isPresent() || currentWalletSummary.get().getWallet() == null) {
+      return Optional.absent();
+    }
+
+    try {
+      // The chain code is only stored in the encrypted wallet
+      DeterministicKey watchingKey = currentWalletSummary.get().getWallet().getWatchingKey();
+      return Optional.of(Bytes.concat(watchingKey.getChainCode(), watchingKey.getPubKey()));
+    } catch (IllegalStateException e) {
+      log.debug("No watching key available for the gravatar cache: {}", e.getMessage());
+      return Optional.absent();
+    }
+
+  }
+
+  private static GravatarDiskCache getDiskCache() {
+
+    if (diskCache == null) {
+      synchronized (Gravatars.class) {
+        if (diskCache == null) {
+          File cacheDirectory = new File(InstallationManager.getOrCreateApplicationDataDirectory(), CACHE_DIRECTORY);
+          diskCache = new GravatarDiskCache(cacheDirectory, MAX_ENTRIES, POSITIVE_TTL_MILLIS, NEGATIVE_TTL_MILLIS);
+        }
+      }
+    }
+    return diskCache;
+  }
+
+  /**
+   * @param emailHash The hex MD5 hash of the email address
+   *
+   * @return The buffered image if present
+   */
+  private static Optional<BufferedImage> downloadBufferedImage(String emailHash) {
+
+    log.debug("Loading image from external resource");
     // Create the URL
     final URL url;
     try {
@@ -128,7 +249,8 @@ public class Gravatars {
     }
 
     try (InputStream stream = url.openStream()) {
-      return Optional.of(ImageIO.read(stream));
+      // ImageIO returns null for an unrecognised format
+      return Optional.fromNullable(ImageIO.read(stream));
     } catch (IOException e) {
       // This may happen if no network is available
       log.warn("Gravatar download failed" + e.getMessage());
@@ -768,6 +768,13 @@ public enum MessageKey {
   EXPORT("export"),
   EXPORT_TOOLTIP("export_tooltip"),
 
+  IMPORT_CSV("import_csv"),
+  IMPORT_CSV_TOOLTIP("import_csv_tooltip"),
+  IMPORT_CSV_FAILED("import_csv_failed"),
+  IMPORT_CSV_SUCCESS("import_csv_success"),
+  IMPORT_CSV_EMPTY("import_csv_empty"),
+  BATCH_RECIPIENT_SUMMARY("batch_recipient_summary"),
+
   DELETE_PAYMENT_REQUEST("delete_payment_request"),
   DELETE_PAYMENT_REQUEST_TOOLTIP("delete_payment_request_tooltip"),
 
@@ -179,6 +179,21 @@ public class Buttons {
 
   }
 
+  /**
+   * @param action The click action
+   *
+   * @return A new "Import CSV" button with icon
+   */
+  public static JButton newImportCsvButton(Action action) {
+
+    JButton button = newButton(action, MessageKey.IMPORT_CSV, MessageKey.IMPORT_CSV_TOOLTIP);
+
+    AwesomeDecorator.applyIcon(AwesomeIcon.FOLDER_OPEN, button, false, MultiBitUI.NORMAL_ICON_SIZE);
+
+    return button;
+
+  }
+
   /**
    * @param action The click action
    *
@@ -122,12 +122,7 @@ public class Images {
   public static ImageIcon newConfirmationIcon(int confirmationCount, boolean isCoinbase, int iconSize) {
 
     // The arc angle is the extent in degrees (e.g. 90 is a quarter of a circle)
-    final int arcAngle;
-    if (isCoinbase) {
-      arcAngle = confirmationCount * 3 >= 360 ? 360 : confirmationCount * 3;
-    } else {
-      arcAngle = confirmationCount * 60 >= 360 ? 360 : confirmationCount * 60;
-    }
+    final int arcAngle = confirmationArcAngle(confirmationCount, isCoinbase);
 
     // Check for non-circular icon
     if (arcAngle >= 360) {
@@ -136,15 +131,6 @@ public class Images {
         Themes.currentTheme.statusGreen(),
         iconSize));
     }
-    if (arcAngle < 0) {
-      // Depth of -1 indicates a payment request has been paid
-      // Note that he underlying transaction(s) may not have confirmed
-      // but these are shown separately
-      return ImageDecorator.toImageIcon(AwesomeDecorator.createIcon(
-        AwesomeIcon.CHECK,
-        Themes.currentTheme.statusGreen(),
-        iconSize));
-    }
 
     // Have an icon size 20% bigger for the pie pieces for better visual effect
     iconSize = (int) (iconSize * 1.2);
@@ -186,4 +172,29 @@ public class Images {
 
   }
 
+  /**
+   * <p>Many confirmation counts share the same icon so this identifies the icon for a count</p>
+   *
+   * @param confirmationCount The confirmation count
+   * @param isCoinbase        True if this transaction requires the coinbase rules (120 confirmations)
+   *
+   * @return The extent in degrees of the confirmation pie (0 to 360 where 360 is a check mark)
+   */
+  public static int confirmationArcAngle(int confirmationCount, boolean isCoinbase) {
+
+    if (confirmationCount < 0) {
+      // Depth of -1 indicates a payment request has been paid
+      // Note that he underlying transaction(s) may not have confirmed
+      // but these are shown separately
+      return 360;
+    }
+
+    if (isCoinbase) {
+      return confirmationCount >= 120 ? 360 : confirmationCount * 3;
+    } else {
+      return confirmationCount >= 6 ? 360 : confirmationCount * 60;
+    }
+
+  }
+
 }
\ No newline at end of file
@@ -13,7 +13,6 @@ import org.multibit.hd.ui.languages.MessageKey;
 import org.multibit.hd.ui.utils.HtmlUtils;
 import org.multibit.hd.ui.views.fonts.AwesomeDecorator;
 import org.multibit.hd.ui.views.fonts.AwesomeIcon;
-import org.multibit.hd.ui.views.themes.Themes;
 
 import javax.swing.*;
 import java.awt.*;
@@ -113,25 +112,12 @@ public class LabelDecorator {
    */
   public static void applyPaymentStatusIconAndColor(PaymentStatus paymentStatus, JLabel label, boolean isCoinbase, int iconSize) {
 
-    applyPaymentStatusIcon(paymentStatus, label, isCoinbase, iconSize);
+    // The shared icon is pre-rendered in the status color
+    label.setIcon(PaymentStatusIcons.getIcon(paymentStatus, isCoinbase, iconSize));
+    label.setDisabledIcon(null);
+    label.setHorizontalTextPosition(SwingConstants.TRAILING);
 
-    switch (paymentStatus.getStatus()) {
-      case RED:
-        label.setForeground(Themes.currentTheme.statusRed());
-        break;
-      case AMBER:
-        label.setForeground(Themes.currentTheme.text());
-        break;
-      case GREEN:
-        label.setForeground(Themes.currentTheme.statusGreen());
-        break;
-      case PINK:
-        label.setForeground(Themes.currentTheme.pendingAlertBackground().darker());
-        break;
-      default:
-        // Unknown status
-        throw new IllegalStateException("Unknown status " + paymentStatus.getStatus());
-    }
+    label.setForeground(PaymentStatusIcons.getColor(paymentStatus.getStatus()));
 
   }
 
@@ -153,8 +139,7 @@ public class LabelDecorator {
         AwesomeDecorator.bindIcon(AwesomeIcon.EXCHANGE, label, true, iconSize);
         break;
       case GREEN:
-        int depth = paymentStatus.getDepth();
-        label.setIcon(Images.newConfirmationIcon(depth, isCoinbase, iconSize));
+        label.setIcon(PaymentStatusIcons.getIcon(paymentStatus, isCoinbase, iconSize));
         break;
       case PINK:
         AwesomeDecorator.bindIcon(AwesomeIcon.FILE_TEXT, label, true, iconSize);
@@ -0,0 +1,155 @@
+package org.multibit.hd.ui.views.components;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import org.multibit.hd.core.dto.PaymentStatus;
+import org.multibit.hd.core.dto.RAGStatus;
+import org.multibit.hd.ui.views.fonts.AwesomeDecorator;
+import org.multibit.hd.ui.views.fonts.AwesomeIcon;
+import org.multibit.hd.ui.views.themes.Theme;
+import org.multibit.hd.ui.views.themes.Themes;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * <p>Utility to provide the following to renderers and labels:</p>
+ * <ul>
+ * <li>Shared atlas of pre-rendered payment status and confirmation icons</li>
+ * <li>Theme-aware status colors</li>
+ * </ul>
+ * <p>Each combination of status, confirmation bucket and size is rendered once for the current theme so
+ * that painting a table cell allocates nothing. The atlas is discarded on a theme switch.</p>
+ *
+ * @since 0.0.1
+ */
+public class PaymentStatusIcons {
+
+  /**
+   * The atlas for each icon size
+   */
+  private static final Map<Integer, SizedAtlas> atlases = Maps.newHashMap();
+
+  /**
+   * The theme the atlas was rendered with
+   */
+  private static Theme atlasTheme = null;
+
+  /**
+   * Utilities have no public constructor
+   */
+  private PaymentStatusIcons() {
+  }
+
+  /**
+   * @param paymentStatus The payment status
+   * @param isCoinbase    True if the transaction is a coinbase
+   * @param iconSize      The size of the icon, typically MultiBitUI.SMALL_ICON_SIZE
+   *
+   * @return The shared status icon (must not be modified)
+   */
+  public static synchronized ImageIcon getIcon(PaymentStatus paymentStatus, boolean isCoinbase, int iconSize) {
+
+    Preconditions.checkNotNull(paymentStatus, "'paymentStatus' must be present");
+
+    if (atlasTheme != Themes.currentTheme) {
+      // Guard against a theme assigned without a switch
+      atlases.clear();
+      atlasTheme = Themes.currentTheme;
+    }
+
+    SizedAtlas atlas = atlases.get(iconSize);
+    if (atlas == null) {
+      atlas = new SizedAtlas();
+      atlases.put(iconSize, atlas);
+    }
+
+    RAGStatus status = paymentStatus.getStatus();
+    if (status == RAGStatus.GREEN) {
+      int arcAngle = Images.confirmationArcAngle(paymentStatus.getDepth(), isCoinbase);
+      if (atlas.confirmationIcons[arcAngle] == null) {
+        atlas.confirmationIcons[arcAngle] = Images.newConfirmationIcon(paymentStatus.getDepth(), isCoinbase, iconSize);
+      }
+      return atlas.confirmationIcons[arcAngle];
+    }
+
+    ImageIcon icon = atlas.statusIcons.get(status);
+    if (icon == null) {
+      icon = ImageDecorator.toImageIcon(AwesomeDecorator.createIcon(getAwesomeIcon(status), getColor(status), iconSize));
+      atlas.statusIcons.put(status, icon);
+    }
+
+    return icon;
+  }
+
+  /**
+   * @param status The RAG status of a payment
+   *
+   * @return The theme color for the status
+   */
+  public static Color getColor(RAGStatus status) {
+
+    switch (status) {
+      case RED:
+        return Themes.currentTheme.statusRed();
+      case AMBER:
+        return Themes.currentTheme.text();
+      case GREEN:
+        return Themes.currentTheme.statusGreen();
+      case PINK:
+        return Themes.currentTheme.pendingAlertBackground().darker();
+      default:
+        // Unknown status
+        throw new IllegalStateException("Unknown status " + status);
+    }
+
+  }
+
+  /**
+   * <p>Discard all rendered icons after a theme switch</p>
+   */
+  public static synchronized void resetIcons() {
+
+    atlases.clear();
+    atlasTheme = null;
+
+  }
+
+  /**
+   * @param status The RAG status of a payment (other than GREEN)
+   *
+   * @return The Font Awesome icon
+   */
+  private static AwesomeIcon getAwesomeIcon(RAGStatus status) {
+
+    switch (status) {
+      case RED:
+        return AwesomeIcon.TIMES;
+      case AMBER:
+        return AwesomeIcon.EXCHANGE;
+      case PINK:
+        return AwesomeIcon.FILE_TEXT;
+      default:
+        // Unknown status
+        throw new IllegalStateException("Unknown status " + status);
+    }
+
+  }
+
+  /**
+   * <p>The icons rendered at a single size</p>
+   */
+  private static class SizedAtlas {
+
+    /**
+     * Indexed by confirmation arc angle (0 to 360)
+     */
+    private final ImageIcon[] confirmationIcons = new ImageIcon[361];
+
+    private final Map<RAGStatus, ImageIcon> statusIcons = new EnumMap<>(RAGStatus.class);
+
+  }
+
+}
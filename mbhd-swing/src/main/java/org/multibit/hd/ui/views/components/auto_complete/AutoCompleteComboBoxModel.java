@@ -0,0 +1,147 @@
+package org.multibit.hd.ui.views.components.auto_complete;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+import javax.swing.*;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>ComboBox model to provide the following to auto-complete combo boxes:</p>
+ * <ul>
+ * <li>In place replacement of the popup items</li>
+ * </ul>
+ * <p>Only the range between the unchanged leading and trailing items is reported to the popup list so
+ * narrowing a long candidate list does not cause it to be rebuilt on every keystroke.</p>
+ *
+ * @since 0.0.1
+ */
+public class AutoCompleteComboBoxModel<T> extends AbstractListModel<T> implements MutableComboBoxModel<T> {
+
+  private final List<T> items = Lists.newArrayList();
+
+  private Object selectedItem;
+
+  /**
+   * @param model The model providing the initial items and selection
+   */
+  public AutoCompleteComboBoxModel(ComboBoxModel<T> model) {
+
+    Preconditions.checkNotNull(model, "'model' must be present");
+
+    for (int i = 0; i < model.getSize(); i++) {
+      items.add(model.getElementAt(i));
+    }
+    selectedItem = model.getSelectedItem();
+
+  }
+
+  /**
+   * <p>Replace the items, firing events for the changed range only (must be called on the EDT)</p>
+   *
+   * @param newItems The new items
+   */
+  public void setItems(T[] newItems) {
+
+    Preconditions.checkNotNull(newItems, "'newItems' must be present");
+
+    int oldSize = items.size();
+    int newSize = newItems.length;
+
+    // Find the unchanged leading and trailing items
+    int prefix = 0;
+    while (prefix < oldSize && prefix < newSize && Objects.equal(items.get(prefix), newItems[prefix])) {
+      prefix++;
+    }
+    int suffix = 0;
+    while (suffix < oldSize - prefix
+      && suffix < newSize - prefix
+      && Objects.equal(items.get(oldSize - 1 - suffix), newItems[newSize - 1 - suffix])) {
+      suffix++;
+    }
+
+    int oldMiddle = oldSize - prefix - suffix;
+    int newMiddle = newSize - prefix - suffix;
+
+    if (oldMiddle == 0 && newMiddle == 0) {
+      // Nothing to do
+      return;
+    }
+
+    items.subList(prefix, oldSize - suffix).clear();
+    items.addAll(prefix, Arrays.asList(newItems).subList(prefix, newSize - suffix));
+
+    int common = Math.min(oldMiddle, newMiddle);
+    if (common > 0) {
+      fireContentsChanged(this, prefix, prefix + common - 1);
+    }
+    if (newMiddle > oldMiddle) {
+      fireIntervalAdded(this, prefix + common, prefix + newMiddle - 1);
+    } else if (oldMiddle > newMiddle) {
+      fireIntervalRemoved(this, prefix + common, prefix + oldMiddle - 1);
+    }
+
+  }
+
+  @Override
+  public void setSelectedItem(Object anItem) {
+
+    if (!Objects.equal(selectedItem, anItem)) {
+      selectedItem = anItem;
+      fireContentsChanged(this, -1, -1);
+    }
+
+  }
+
+  @Override
+  public Object getSelectedItem() {
+    return selectedItem;
+  }
+
+  @Override
+  public int getSize() {
+    return items.size();
+  }
+
+  @Override
+  public T getElementAt(int index) {
+    return index >= 0 && index < items.size() ? items.get(index) : null;
+  }
+
+  @Override
+  public void addElement(T item) {
+
+    items.add(item);
+    fireIntervalAdded(this, items.size() - 1, items.size() - 1);
+
+  }
+
+  @Override
+  public void removeElement(Object obj) {
+
+    int index = items.indexOf(obj);
+    if (index != -1) {
+      removeElementAt(index);
+    }
+
+  }
+
+  @Override
+  public void insertElementAt(T item, int index) {
+
+    items.add(index, item);
+    fireIntervalAdded(this, index, index);
+
+  }
+
+  @Override
+  public void removeElementAt(int index) {
+
+    items.remove(index);
+    fireIntervalRemoved(this, index, index);
+
+  }
+
+}
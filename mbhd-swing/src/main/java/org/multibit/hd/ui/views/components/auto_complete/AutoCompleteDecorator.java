@@ -1,6 +1,8 @@
 package org.multibit.hd.ui.views.components.auto_complete;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import org.multibit.hd.core.services.CoreServices;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -11,6 +13,7 @@ import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.util.concurrent.Callable;
 
 /**
  * <p>Decorator to provide the following to combo boxes:</p>
@@ -33,6 +36,8 @@ public class AutoCompleteDecorator {
 
   /**
    * <p>Create an auto-complete combo box</p>
+   * <p>The filter is queried on the search thread so it must be safe to call away from the EDT. Calls are
+   * made one at a time in keystroke order and a result is discarded if the text has moved on.</p>
    *
    * @param comboBox The combo box to decorate
    */
@@ -42,9 +47,13 @@ public class AutoCompleteDecorator {
 
     comboBox.setEditable(true);
 
+    // Allow the popup items to be replaced in place
+    final AutoCompleteComboBoxModel<T> model = new AutoCompleteComboBoxModel<>(comboBox.getModel());
+    comboBox.setModel(model);
+
     // Configure the auto complete
     final JTextField textField = (JTextField) comboBox.getEditor().getEditorComponent();
-    textField.addKeyListener(getAutoCompleteKeyListener(comboBox, filter, textField));
+    textField.addKeyListener(getAutoCompleteKeyListener(comboBox, model, filter, textField));
 
     // Prevent mouse or key events showing an empty popup (users get confused)
     applyPreventPopupOnEmpty(comboBox);
@@ -53,13 +62,22 @@ public class AutoCompleteDecorator {
 
   /**
    * @param comboBox  The combo box
+   * @param model     The combo box model
    * @param filter    The autocomplete filter
    * @param textField The editor text field
    * @param <T>       The generic type
    *
    * @return The key adapter
    */
-  private static <T> KeyAdapter getAutoCompleteKeyListener(final JComboBox<T> comboBox, final AutoCompleteFilter<T> filter, final JTextField textField) {
+  private static <T> KeyAdapter getAutoCompleteKeyListener(
+    final JComboBox<T> comboBox,
+    final AutoCompleteComboBoxModel<T> model,
+    final AutoCompleteFilter<T> filter,
+    final JTextField textField
+  ) {
+
+    // Each combo box supersedes only its own queries
+    final String channel = "auto-complete-" + System.identityHashCode(comboBox);
 
     return new KeyAdapter() {
 
@@ -71,33 +89,57 @@ public class AutoCompleteDecorator {
         }
 
         // Must be user key press to be here
-        // Invoke a new EDT operation to avoid slowing the keyboard down
-        SwingUtilities.invokeLater(new Runnable() {
-          @Override
-          public void run() {
-            String enteredText = textField.getText();
+        final String enteredText = textField.getText();
+
+        // Filter away from the EDT to avoid slowing the keyboard down
+        CoreServices.getOrCreateSearchService().submit(
+          channel,
+          0,
+          new Callable<T[]>() {
+            @Override
+            public T[] call() throws Exception {
+              return filter.update(enteredText);
+            }
+          },
+          new FutureCallback<T[]>() {
+            @Override
+            public void onSuccess(final T[] popupItems) {
+
+              SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
 
-            // Use the entered text to update the available popup items
-            T[] popupItems = filter.update(enteredText);
+                  if (!enteredText.equals(textField.getText())) {
+                    // A later keystroke will provide the items
+                    return;
+                  }
 
-            if (popupItems.length == 0) {
-              // Nothing to show
-              comboBox.hidePopup();
-            } else {
-              // Popup contains items
+                  if (popupItems.length == 0) {
+                    // Nothing to show
+                    comboBox.hidePopup();
+                  } else {
+                    // Popup contains items
 
-              // Update the model to reflect the new items (fires setItem() in editor)
-              comboBox.setModel(new DefaultComboBoxModel<>(popupItems));
+                    // Update the model in place to reflect the new items
+                    model.setItems(popupItems);
 
-              // Update the selected item with the text to allow edits
-              comboBox.setSelectedItem(enteredText);
+                    // Update the selected item with the text to allow edits
+                    comboBox.setSelectedItem(enteredText);
 
-              // Ensure that the popup is showing
-              comboBox.showPopup();
+                    // Ensure that the popup is showing
+                    comboBox.showPopup();
+
+                  }
+                }
+              });
+
+            }
 
+            @Override
+            public void onFailure(Throwable t) {
+              log.error("Auto-complete failed", t);
             }
-          }
-        });
+          });
       }
     };
 
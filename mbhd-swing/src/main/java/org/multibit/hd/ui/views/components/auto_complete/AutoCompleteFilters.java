@@ -1,12 +1,17 @@
 package org.multibit.hd.ui.views.components.auto_complete;
 
 import org.bitcoinj.core.Address;
+import com.google.common.base.Optional;
 import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.multibit.hd.core.dto.Contact;
 import org.multibit.hd.core.dto.Recipient;
 import org.multibit.hd.core.services.ContactService;
 
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 /**
  * <p>Factory to provide the following to views:</p>
@@ -26,6 +31,9 @@ public class AutoCompleteFilters {
   }
 
   /**
+   * <p>The filter narrows the previous results while the entered text extends the previous fragment and
+   * reuses the recipients already shown so that the popup only changes where the results do.</p>
+   *
    * @param contactService    The contact service to use for queries
    * @return An auto-complete filter linked to the Contact API
    */
@@ -33,8 +41,22 @@ public class AutoCompleteFilters {
 
     return new AutoCompleteFilter<Recipient>() {
 
+      /**
+       * The fragment and results of the previous update (absent after create)
+       */
+      private Optional<String> previousFragment = Optional.absent();
+      private List<Contact> previousContacts = Lists.newArrayList();
+
+      /**
+       * The recipients most recently provided by contact ID
+       */
+      private Map<UUID, Recipient> recipients = Maps.newHashMap();
+
       @Override
-      public Recipient[] create() {
+      public synchronized Recipient[] create() {
+
+        // Start afresh since contacts may have changed
+        previousFragment = Optional.absent();
 
         // Only require recipients that can be paid
         List<Contact> contacts = contactService.filterContactsByContent("*", true);
@@ -44,14 +66,24 @@ public class AutoCompleteFilters {
       }
 
       @Override
-      public Recipient[] update(String fragment) {
+      public synchronized Recipient[] update(String fragment) {
 
         if (Strings.isNullOrEmpty(fragment)) {
+          previousFragment = Optional.absent();
           return new Recipient[]{};
         }
 
         // Only require recipients that can be paid
-        List<Contact> contacts = contactService.filterContactsByContent(fragment, true);
+        List<Contact> contacts;
+        if (previousFragment.isPresent() && fragment.toLowerCase().startsWith(previousFragment.get().toLowerCase())) {
+          // Any match for the longer fragment was a match for the shorter one
+          contacts = contactService.filterContactsByContent(fragment, true, previousContacts);
+        } else {
+          contacts = contactService.filterContactsByContent(fragment, true);
+        }
+
+        previousFragment = Optional.of(fragment);
+        previousContacts = contacts;
 
         return populateRecipients(contacts);
       }
@@ -63,18 +95,30 @@ public class AutoCompleteFilters {
        */
       private Recipient[] populateRecipients(List<Contact> contacts) {
 
-        Recipient[] recipients = new Recipient[contacts.size()];
+        Recipient[] populatedRecipients = new Recipient[contacts.size()];
+        Map<UUID, Recipient> populatedRecipientMap = Maps.newHashMapWithExpectedSize(contacts.size());
 
         int i = 0;
         for (Contact contact : contacts) {
           Address bitcoinAddress = contact.getBitcoinAddress().get();
-          Recipient recipient = new Recipient(bitcoinAddress);
-          recipient.setContact(contact);
-          recipients[i] = recipient;
+
+          // Reuse an unchanged recipient so the popup sees an equal item
+          Recipient recipient = recipients.get(contact.getId());
+          if (recipient == null
+            || recipient.getContact().orNull() != contact
+            || !recipient.getBitcoinAddress().equals(bitcoinAddress)) {
+            recipient = new Recipient(bitcoinAddress);
+            recipient.setContact(contact);
+          }
+
+          populatedRecipients[i] = recipient;
+          populatedRecipientMap.put(contact.getId(), recipient);
           i++;
         }
 
-        return recipients;
+        recipients = populatedRecipientMap;
+
+        return populatedRecipients;
       }
 
     };
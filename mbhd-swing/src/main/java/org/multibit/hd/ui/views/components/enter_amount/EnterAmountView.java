@@ -169,6 +169,19 @@ public class EnterAmountView extends AbstractComponentView<EnterAmountModel> {
     bitcoinAmountText.requestFocusInWindow();
   }
 
+  @Override
+  public void updateViewFromModel() {
+
+    if (bitcoinAmountText == null) {
+      return;
+    }
+
+    BigDecimal symbolicAmount = Coins.toSymbolicAmount(getModel().get().getCoinAmount(), BitcoinSymbol.current());
+    bitcoinAmountText.setText(symbolicAmount.toPlainString());
+    updateLocalAmount();
+
+  }
+
   @Override
   public void updateModelFromView() {
     // Do nothing - the model is updated during key press
@@ -118,6 +118,15 @@ public class EnterRecipientView extends AbstractComponentView<EnterRecipientMode
 
   }
 
+  @Override
+  public void updateViewFromModel() {
+
+    if (recipientComboBox != null && getModel().get().getRecipient().isPresent()) {
+      recipientComboBox.getEditor().setItem(getModel().get().getRecipient().get());
+    }
+
+  }
+
   @Override
   public void updateModelFromView() {
 
@@ -189,12 +198,8 @@ public class EnterRecipientView extends AbstractComponentView<EnterRecipientMode
               new Runnable() {
                 @Override
                 public void run() {
-                  // Apply the rounded corners
-                  ImageIcon imageIcon = new ImageIcon(
-                    ImageDecorator.applyRoundedCorners(
-                      image.get(),
-                      MultiBitUI.IMAGE_CORNER_RADIUS)
-                  );
+                  // Rounded corners are applied by the gravatar cache
+                  ImageIcon imageIcon = new ImageIcon(image.get());
 
                   imageLabel.setIcon(imageIcon);
                   imageLabel.setVisible(true);
@@ -0,0 +1,253 @@
+package org.multibit.hd.ui.views.components.tables;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Abstract base class to provide the following to table models:</p>
+ * <ul>
+ * <li>Rows keyed by a stable identifier (e.g. transaction hash, contact ID)</li>
+ * <li>Lazy cell values read directly from the backing DTO</li>
+ * <li>Refresh by diff against the previous snapshot with precise insert/update/delete events</li>
+ * </ul>
+ * <p>Firing fine-grained events rather than <code>fireTableDataChanged</code> preserves the table selection and
+ * limits re-layout and repaints to the rows that actually changed. A change of order between the retained rows
+ * falls back to a full data changed event.</p>
+ * <p>Changes are detected through a fingerprint of the displayed cell values taken when a row is set, so DTOs
+ * that are edited in place are still recognised as updated.</p>
+ *
+ * @param <K> The row key type
+ * @param <T> The row DTO type
+ *
+ * @since 0.0.1
+ */
+public abstract class AbstractKeyedTableModel<K, T> extends AbstractTableModel {
+
+  /**
+   * The current rows in model order
+   */
+  private List<Row<K, T>> rows = Lists.newArrayList();
+
+  /**
+   * The model row index for each key
+   */
+  private Map<K, Integer> rowIndexes = Maps.newHashMap();
+
+  /**
+   * @param value The row DTO
+   *
+   * @return The stable key identifying the row across refreshes
+   */
+  protected abstract K getKey(T value);
+
+  /**
+   * @param value The row DTO
+   * @param col   The column index
+   *
+   * @return The cell value derived from the DTO (per-row UI state such as checkboxes is handled by the subclass)
+   */
+  protected abstract Object getCellValue(T value, int col);
+
+  /**
+   * <p>Subclasses may override this when a cell value type lacks a value-based <code>hashCode</code></p>
+   *
+   * @param value The row DTO
+   *
+   * @return A fingerprint of the displayed cell values
+   */
+  protected int getFingerprint(T value) {
+
+    int result = 1;
+    for (int col = 0; col < getColumnCount(); col++) {
+      Object cell = getCellValue(value, col);
+      result = 31 * result + (cell == null ? 0 : cell.hashCode());
+    }
+
+    return result;
+  }
+
+  @Override
+  public int getRowCount() {
+    return rows.size();
+  }
+
+  @Override
+  public Object getValueAt(int row, int col) {
+    return getCellValue(rows.get(row).value, col);
+  }
+
+  /**
+   * @param row The model row index
+   *
+   * @return The row DTO
+   */
+  public T getRowValue(int row) {
+    return rows.get(row).value;
+  }
+
+  /**
+   * @param row The model row index
+   *
+   * @return The row key
+   */
+  public K getRowKey(int row) {
+    return rows.get(row).key;
+  }
+
+  /**
+   * @param key The row key
+   *
+   * @return The model row index or -1 if the key is not present
+   */
+  public int getRowIndex(K key) {
+    Integer index = rowIndexes.get(key);
+    return index == null ? -1 : index;
+  }
+
+  /**
+   * @return The keys of the current rows
+   */
+  protected Set<K> getRowKeys() {
+    return Collections.unmodifiableSet(rowIndexes.keySet());
+  }
+
+  /**
+   * @return The current row DTOs in model order
+   */
+  protected List<T> getRowValues() {
+
+    List<T> values = Lists.newArrayListWithCapacity(rows.size());
+    for (Row<K, T> row : rows) {
+      values.add(row.value);
+    }
+
+    return values;
+  }
+
+  /**
+   * <p>Replace the rows, firing the minimal set of table model events if required</p>
+   *
+   * @param values     The new row DTOs in the order they should be presented
+   * @param fireEvents True if table model events should be fired (must then be called on the EDT)
+   */
+  protected void setRows(Collection<T> values, boolean fireEvents) {
+
+    Preconditions.checkNotNull(values, "'values' must be present");
+
+    List<Row<K, T>> newRows = Lists.newArrayListWithCapacity(values.size());
+    Map<K, Integer> newRowIndexes = Maps.newHashMapWithExpectedSize(values.size());
+
+    boolean duplicateKeys = false;
+    for (T value : values) {
+      K key = getKey(value);
+      if (newRowIndexes.put(key, newRows.size()) != null) {
+        duplicateKeys = true;
+      }
+      newRows.add(new Row<>(key, value, getFingerprint(value)));
+    }
+
+    if (!fireEvents || duplicateKeys) {
+      // No sensible diff is possible so start again
+      rows = newRows;
+      rowIndexes = newRowIndexes;
+      if (fireEvents) {
+        fireTableDataChanged();
+      }
+      return;
+    }
+
+    // Deletions run last to first so that earlier indexes remain valid
+    int end = -1;
+    for (int i = rows.size() - 1; i >= 0; i--) {
+      boolean removed = !newRowIndexes.containsKey(rows.get(i).key);
+      if (removed && end == -1) {
+        end = i;
+      }
+      if (end != -1 && (!removed || i == 0)) {
+        int start = removed ? i : i + 1;
+        rows.subList(start, end + 1).clear();
+        fireTableRowsDeleted(start, end);
+        end = -1;
+      }
+    }
+
+    // The retained rows must keep their relative order for inserts to be meaningful
+    int previousIndex = -1;
+    for (Row<K, T> row : rows) {
+      int newIndex = newRowIndexes.get(row.key);
+      if (newIndex < previousIndex) {
+        rows = newRows;
+        rowIndexes = newRowIndexes;
+        fireTableDataChanged();
+        return;
+      }
+      previousIndex = newIndex;
+    }
+
+    // Insertions run first to last so that each range lands at its final index
+    Set<K> retainedKeys = Sets.newHashSetWithExpectedSize(rows.size());
+    for (Row<K, T> row : rows) {
+      retainedKeys.add(row.key);
+    }
+    int i = 0;
+    while (i < newRows.size()) {
+      if (i < rows.size() && rows.get(i).key.equals(newRows.get(i).key)) {
+        i++;
+        continue;
+      }
+      int start = i;
+      while (i < newRows.size() && !retainedKeys.contains(newRows.get(i).key)) {
+        i++;
+      }
+      rows.addAll(start, newRows.subList(start, i));
+      fireTableRowsInserted(start, i - 1);
+    }
+
+    // Updates are limited to rows with changed content
+    int first = -1;
+    for (i = 0; i < newRows.size(); i++) {
+      boolean changed = rows.get(i).fingerprint != newRows.get(i).fingerprint;
+      // Always adopt the latest DTO
+      rows.set(i, newRows.get(i));
+      if (changed && first == -1) {
+        first = i;
+      }
+      if (!changed && first != -1) {
+        fireTableRowsUpdated(first, i - 1);
+        first = -1;
+      }
+    }
+    if (first != -1) {
+      fireTableRowsUpdated(first, newRows.size() - 1);
+    }
+
+    rowIndexes = newRowIndexes;
+
+  }
+
+  /**
+   * <p>A keyed row holding its DTO and the fingerprint of its displayed values</p>
+   */
+  private static class Row<K, T> {
+
+    private final K key;
+    private final T value;
+    private final int fingerprint;
+
+    private Row(K key, T value, int fingerprint) {
+      this.key = key;
+      this.value = value;
+      this.fingerprint = fingerprint;
+    }
+  }
+
+}
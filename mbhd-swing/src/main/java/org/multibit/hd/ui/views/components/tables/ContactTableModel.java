@@ -4,11 +4,12 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import org.multibit.hd.core.dto.Contact;
-import org.multibit.hd.ui.MultiBitUI;
 import org.multibit.hd.ui.gravatar.Gravatars;
 import org.multibit.hd.ui.languages.Languages;
 import org.multibit.hd.ui.languages.MessageKey;
@@ -18,21 +19,26 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.swing.*;
-import javax.swing.table.AbstractTableModel;
 import java.awt.image.BufferedImage;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.UUID;
 
 /**
  * <p>TableModel to provide the following to contact JTable:</p>
  * <ul>
  * <li>Adapts a list of contacts into a table model</li>
+ * <li>Rows keyed by contact ID</li>
  * </ul>
  *
  * @since 0.0.1
  *
  */
-public class ContactTableModel extends AbstractTableModel {
+public class ContactTableModel extends AbstractKeyedTableModel<UUID, Contact> {
 
   private static final Logger log = LoggerFactory.getLogger(ContactTableModel.class);
 
@@ -56,8 +62,25 @@ public class ContactTableModel extends AbstractTableModel {
     Languages.safeText(MessageKey.TAGS),
   };
 
-  private Object[][] data;
-  private List<Contact> contacts = Lists.newArrayList();
+  /**
+   * The IDs of contacts with a selected checkbox
+   */
+  private final Set<UUID> selectedIds = Sets.newHashSet();
+
+  /**
+   * The gravatar (or placeholder) for each contact ID (EDT only)
+   */
+  private final Map<UUID, ImageIcon> gravatars = Maps.newHashMap();
+
+  /**
+   * The email address each gravatar was requested for so that late or stale completions can be ignored (EDT only)
+   */
+  private final Map<UUID, String> gravatarEmails = Maps.newHashMap();
+
+  /**
+   * Contacts with completed images awaiting a repaint (EDT only)
+   */
+  private final Set<UUID> updatedIds = Sets.newHashSet();
 
   public ContactTableModel(List<Contact> contacts) {
 
@@ -72,16 +95,43 @@ public class ContactTableModel extends AbstractTableModel {
     return columnNames.length;
   }
 
-  public int getRowCount() {
-    return data.length;
-  }
-
   public String getColumnName(int col) {
     return columnNames[col];
   }
 
+  @Override
   public Object getValueAt(int row, int col) {
-    return data[row][col];
+
+    switch (col) {
+      case CHECKBOX_COLUMN_INDEX:
+        return selectedIds.contains(getRowKey(row));
+      case GRAVATAR_COLUMN_INDEX:
+        return gravatars.get(getRowKey(row));
+      default:
+        return super.getValueAt(row, col);
+    }
+  }
+
+  @Override
+  protected UUID getKey(Contact contact) {
+    return contact.getId();
+  }
+
+  @Override
+  protected Object getCellValue(Contact contact, int col) {
+    switch (col) {
+      case NAME_COLUMN_INDEX:
+        return contact.getName();
+      case EMAIL_COLUMN_INDEX:
+        return contact.getEmail().or("");
+      case ADDRESS_COLUMN_INDEX:
+        return contact.getBitcoinAddress().isPresent() ? contact.getBitcoinAddress().get().toString() : "";
+      case TAG_COLUMN_INDEX:
+        return Joiner.on(" ").join(contact.getTags());
+      default:
+        // Checkbox and gravatar are UI state rather than part of the contact
+        return null;
+    }
   }
 
   /**
@@ -107,7 +157,16 @@ public class ContactTableModel extends AbstractTableModel {
    */
   public void setValueAt(Object value, int row, int col) {
 
-    data[row][col] = value;
+    if (col != CHECKBOX_COLUMN_INDEX) {
+      // Only the checkbox is editable
+      return;
+    }
+
+    if (Boolean.TRUE.equals(value)) {
+      selectedIds.add(getRowKey(row));
+    } else {
+      selectedIds.remove(getRowKey(row));
+    }
 
     // Keep repaints to a minimum
     fireTableCellUpdated(row, col);
@@ -170,7 +229,7 @@ public class ContactTableModel extends AbstractTableModel {
 
       if (getValueAt(row, CHECKBOX_COLUMN_INDEX).equals(selected)) {
 
-        results.add(contacts.get(row));
+        results.add(getRowValue(row));
 
       }
 
@@ -184,6 +243,7 @@ public class ContactTableModel extends AbstractTableModel {
    */
   public void removeContacts(List<Contact> list) {
 
+    List<Contact> contacts = getRowValues();
     contacts.removeAll(list);
 
     setContacts(contacts, true);
@@ -194,85 +254,143 @@ public class ContactTableModel extends AbstractTableModel {
    * <p>Populate the table data from the current contacts</p>
    *
    * @param contacts             The contacts that will form the basis of the table model in the same order as presented
-   * @param fireTableDataChanged True if the table data changed Swing event should be fired
+   * @param fireTableDataChanged True if the differences from the current contacts should be fired (EDT only)
    */
   public void setContacts(Collection<Contact> contacts, boolean fireTableDataChanged) {
 
     log.debug("Set contacts, fireTableDataChanged='{}'", fireTableDataChanged);
 
-    this.contacts = Lists.newArrayList(contacts);
+    // Only the differences from the current contacts are fired
+    setRows(contacts, fireTableDataChanged);
 
-    if (data == null || contacts.size() != data.length) {
-      // Reset the model
-      data = new Object[contacts.size()][COLUMN_COUNT];
-    }
+    // Per-contact state is dropped once the contact is no longer shown
+    Set<UUID> contactIds = getRowKeys();
+    selectedIds.retainAll(contactIds);
+    gravatars.keySet().retainAll(contactIds);
+    gravatarEmails.keySet().retainAll(contactIds);
 
-    int row = 0;
+    // Only new contacts or changed email addresses require an image
     for (Contact contact : contacts) {
 
-      // Build row manually to allow for flexible column index reporting
-      final Object[] rowData = new Object[COLUMN_COUNT];
-      // Attempt to preserve the earlier checkboxes
-      rowData[CHECKBOX_COLUMN_INDEX] = data[row][CHECKBOX_COLUMN_INDEX] == null ? false: data[row][CHECKBOX_COLUMN_INDEX];
-      rowData[NAME_COLUMN_INDEX] = contact.getName();
-      rowData[EMAIL_COLUMN_INDEX] = contact.getEmail().or("");
-      rowData[ADDRESS_COLUMN_INDEX] = contact.getBitcoinAddress().isPresent() ? contact.getBitcoinAddress().get().toString() : "";
-      rowData[TAG_COLUMN_INDEX] = Joiner.on(" ").join(contact.getTags());
-
-      // Ensure we download the contact image asynchronously
-      final ListenableFuture<Optional<BufferedImage>> imageFuture = Gravatars.retrieveGravatar(contact.getEmail().or("nobody@example.org"));
-      Futures.addCallback(imageFuture, new FutureCallback<Optional<BufferedImage>>() {
-
-        public void onSuccess(final Optional<BufferedImage> image) {
-
-          SwingUtilities.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-              if (image.isPresent()) {
-
-                final ImageIcon gravatar = ImageDecorator.toImageIcon(
-                  ImageDecorator.applyRoundedCorners(image.get(), MultiBitUI.IMAGE_CORNER_RADIUS)
-                );
-                rowData[GRAVATAR_COLUMN_INDEX] = gravatar;
-              } else {
-                // Update the UI to use the "no network" icon
-                rowData[GRAVATAR_COLUMN_INDEX] = Images.newNoNetworkContactImageIcon();
-              }
-
-              // Ensure all listeners update to the new situation
-              fireTableDataChanged();
-            }
-          });
-        }
+      String email = contact.getEmail().or("nobody@example.org");
+      if (!email.equals(gravatarEmails.get(contact.getId()))) {
+        gravatarEmails.put(contact.getId(), email);
+        retrieveGravatar(contact.getId(), email);
+      }
 
-        public void onFailure(Throwable thrown) {
+    }
 
-          SwingUtilities.invokeLater(new Runnable() {
-            @Override
-            public void run() {
+  }
 
-              // Update the UI to use the "no network" icon
-              rowData[GRAVATAR_COLUMN_INDEX] = Images.newNoNetworkContactImageIcon();
+  /**
+   * <p>Download the contact image asynchronously</p>
+   *
+   * @param contactId The contact ID
+   * @param email     The email address
+   */
+  private void retrieveGravatar(final UUID contactId, final String email) {
+
+    final ListenableFuture<Optional<BufferedImage>> imageFuture = Gravatars.retrieveGravatar(email);
+    Futures.addCallback(imageFuture, new FutureCallback<Optional<BufferedImage>>() {
+
+      public void onSuccess(final Optional<BufferedImage> image) {
 
-              // Ensure all listeners update to the new situation
-              fireTableDataChanged();
+        // Rounded corners are applied by the gravatar cache
+        final ImageIcon gravatar = image.isPresent() ? ImageDecorator.toImageIcon(image.get()) : null;
+
+        SwingUtilities.invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            if (gravatar != null) {
+              gravatarUpdated(contactId, email, gravatar);
+            } else {
+              // Update the UI to use the "no network" icon
+              gravatarUpdated(contactId, email, Images.newNoNetworkContactImageIcon());
             }
-          });
-        }
-      });
+          }
+        });
+      }
+
+      public void onFailure(Throwable thrown) {
 
-      data[row] = rowData;
+        SwingUtilities.invokeLater(new Runnable() {
+          @Override
+          public void run() {
 
-      row++;
+            // Update the UI to use the "no network" icon
+            gravatarUpdated(contactId, email, Images.newNoNetworkContactImageIcon());
 
+          }
+        });
+      }
+    });
+
+  }
+
+  /**
+   * <p>Coalesce image completions into a single deferred repaint of the affected rows (EDT only)</p>
+   *
+   * @param contactId The contact ID
+   * @param email     The email address the image was requested for
+   * @param gravatar  The image
+   */
+  private void gravatarUpdated(UUID contactId, String email, ImageIcon gravatar) {
+
+    if (!email.equals(gravatarEmails.get(contactId))) {
+      // The contact has gone or its email address has changed since
+      return;
     }
 
-    // Update the table data now
-    if (fireTableDataChanged) {
-      fireTableDataChanged();
+    gravatars.put(contactId, gravatar);
+
+    boolean flushScheduled = !updatedIds.isEmpty();
+    updatedIds.add(contactId);
+
+    if (!flushScheduled) {
+      // Completions arriving before this runs join the same batch
+      SwingUtilities.invokeLater(new Runnable() {
+        @Override
+        public void run() {
+          fireUpdatedRows();
+        }
+      });
     }
 
+  }
+
+  /**
+   * <p>Fire one rows updated event per contiguous range of updated rows</p>
+   */
+  private void fireUpdatedRows() {
+
+    // Rows may have moved since the images completed
+    SortedSet<Integer> updatedRows = new TreeSet<>();
+    for (UUID contactId : updatedIds) {
+      int row = getRowIndex(contactId);
+      if (row != -1) {
+        updatedRows.add(row);
+      }
+    }
+    updatedIds.clear();
+
+    Integer first = null;
+    Integer last = null;
+
+    for (Integer row : updatedRows) {
+      if (last != null && row == last + 1) {
+        last = row;
+        continue;
+      }
+      if (first != null) {
+        fireTableRowsUpdated(first, last);
+      }
+      first = row;
+      last = row;
+    }
+    if (first != null) {
+      fireTableRowsUpdated(first, last);
+    }
 
   }
 
-}
\ No newline at end of file
+}
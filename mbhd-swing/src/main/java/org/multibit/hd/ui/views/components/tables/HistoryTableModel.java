@@ -2,25 +2,28 @@ package org.multibit.hd.ui.views.components.tables;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import org.joda.time.DateTime;
 import org.multibit.hd.core.dto.HistoryEntry;
 import org.multibit.hd.ui.languages.Languages;
 import org.multibit.hd.ui.languages.MessageKey;
 
 import javax.swing.*;
-import javax.swing.table.AbstractTableModel;
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
 
 /**
  * <p>TableModel to provide the following to contact JTable:</p>
  * <ul>
  * <li>Adapts a list of history entries into a table model</li>
+ * <li>Rows keyed by history entry ID</li>
  * </ul>
  *
  * @since 0.0.1
  */
-public class HistoryTableModel extends AbstractTableModel {
+public class HistoryTableModel extends AbstractKeyedTableModel<UUID, HistoryEntry> {
 
   public static final int CHECKBOX_COLUMN_INDEX = 0;
   public static final int CREATED_COLUMN_INDEX = 1;
@@ -38,12 +41,14 @@ public class HistoryTableModel extends AbstractTableModel {
     Languages.safeText(MessageKey.NOTES),
   };
 
-  private Object[][] data;
-  private List<HistoryEntry> historyEntries = Lists.newArrayList();
+  /**
+   * The IDs of history entries with a selected checkbox
+   */
+  private final Set<UUID> selectedIds = Sets.newHashSet();
 
   public HistoryTableModel(List<HistoryEntry> historyEntries) {
 
-    Preconditions.checkNotNull(historyEntries, "'contacts' must be present");
+    Preconditions.checkNotNull(historyEntries, "'historyEntries' must be present");
 
     setHistoryEntries(historyEntries, false);
 
@@ -53,16 +58,38 @@ public class HistoryTableModel extends AbstractTableModel {
     return columnNames.length;
   }
 
-  public int getRowCount() {
-    return data.length;
-  }
-
   public String getColumnName(int col) {
     return columnNames[col];
   }
 
+  @Override
   public Object getValueAt(int row, int col) {
-    return data[row][col];
+
+    if (col == CHECKBOX_COLUMN_INDEX) {
+      return selectedIds.contains(getRowKey(row));
+    }
+
+    return super.getValueAt(row, col);
+  }
+
+  @Override
+  protected UUID getKey(HistoryEntry historyEntry) {
+    return historyEntry.getId();
+  }
+
+  @Override
+  protected Object getCellValue(HistoryEntry historyEntry, int col) {
+    switch (col) {
+      case CREATED_COLUMN_INDEX:
+        return historyEntry.getCreated();
+      case DESCRIPTION_COLUMN_INDEX:
+        return historyEntry.getDescription();
+      case NOTES_COLUMN_INDEX:
+        return historyEntry.getNotes().or("");
+      default:
+        // The checkbox is UI state rather than part of the entry
+        return null;
+    }
   }
 
   /**
@@ -87,7 +114,16 @@ public class HistoryTableModel extends AbstractTableModel {
    */
   public void setValueAt(Object value, int row, int col) {
 
-    data[row][col] = value;
+    if (col != CHECKBOX_COLUMN_INDEX) {
+      // Only the checkbox is editable
+      return;
+    }
+
+    if (Boolean.TRUE.equals(value)) {
+      selectedIds.add(getRowKey(row));
+    } else {
+      selectedIds.remove(getRowKey(row));
+    }
 
     // Keep repaints to a minimum
     fireTableCellUpdated(row, col);
@@ -147,7 +183,7 @@ public class HistoryTableModel extends AbstractTableModel {
 
       if (getValueAt(row, CHECKBOX_COLUMN_INDEX).equals(selected)) {
 
-        results.add(historyEntries.get(row));
+        results.add(getRowValue(row));
 
       }
 
@@ -160,45 +196,38 @@ public class HistoryTableModel extends AbstractTableModel {
    * <p>Populate the table data from the current history entries</p>
    *
    * @param entries              The history entries that will form the basis of the table model in the same order as presented
-   * @param fireTableDataChanged True if the table data changed event should be fired
+   * @param fireTableDataChanged True if the differences from the current entries should be fired
    */
   public void setHistoryEntries(Collection<HistoryEntry> entries, boolean fireTableDataChanged) {
 
-    this.historyEntries = Lists.newArrayList(entries);
+    final List<HistoryEntry> snapshot = Lists.newArrayList(entries);
 
-    if (data == null || entries.size() != data.length) {
-      // Reset the model
-      data = new Object[entries.size()][COLUMN_COUNT];
+    if (!fireTableDataChanged || SwingUtilities.isEventDispatchThread()) {
+      applyHistoryEntries(snapshot, fireTableDataChanged);
+      return;
     }
 
-    int row = 0;
-    for (HistoryEntry historyEntry : entries) {
-
-      // Build row manually to allow for flexible column index reporting
-      final Object[] rowData = new Object[COLUMN_COUNT];
-      // Attempt to preserve the earlier checkboxes
-      rowData[CHECKBOX_COLUMN_INDEX] = data[row][CHECKBOX_COLUMN_INDEX] == null ? false : data[row][CHECKBOX_COLUMN_INDEX];
-      rowData[CREATED_COLUMN_INDEX] = historyEntry.getCreated();
-      rowData[DESCRIPTION_COLUMN_INDEX] = historyEntry.getDescription();
-      rowData[NOTES_COLUMN_INDEX] = historyEntry.getNotes().or("");
-
-      data[row] = rowData;
-
-      row++;
+    // The diff and its events must be applied together on the EDT
+    SwingUtilities.invokeLater(
+      new Runnable() {
+        @Override
+        public void run() {
+          applyHistoryEntries(snapshot, true);
+        }
+      });
 
-    }
+  }
 
-    if (fireTableDataChanged) {
+  /**
+   * @param entries    The history entries in presentation order
+   * @param fireEvents True if the differences should be fired
+   */
+  private void applyHistoryEntries(List<HistoryEntry> entries, boolean fireEvents) {
 
-      SwingUtilities.invokeLater(
-        new Runnable() {
-          @Override
-          public void run() {
-            fireTableDataChanged();
-          }
-        });
+    setRows(entries, fireEvents);
 
-    }
+    // Checkboxes follow their entry but are dropped once it is no longer shown
+    selectedIds.retainAll(getRowKeys());
 
   }
 
@@ -1,28 +1,31 @@
 package org.multibit.hd.ui.views.components.tables;
 
+import com.google.common.base.Objects;
 import org.joda.time.DateTime;
 import org.multibit.hd.core.config.Configurations;
 import org.multibit.hd.core.dto.FiatPayment;
 import org.multibit.hd.core.dto.PaymentData;
+import org.multibit.hd.core.dto.PaymentRequestData;
+import org.multibit.hd.core.dto.PaymentStatus;
 import org.multibit.hd.core.dto.RAGStatus;
+import org.multibit.hd.core.dto.TransactionData;
 import org.multibit.hd.ui.languages.Languages;
 import org.multibit.hd.ui.languages.MessageKey;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import javax.swing.table.AbstractTableModel;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * <p>TableModel to provide the following to contact JTable:</p>
  * <ul>
  * <li>Adapts a list of payments into a table model</li>
+ * <li>Rows keyed by transaction hash or payment request address</li>
  * </ul>
  *
  * @since 0.0.1
  *
  */
-public class PaymentTableModel extends AbstractTableModel {
+public class PaymentTableModel extends AbstractKeyedTableModel<String, PaymentData> {
 
   public static final int DATE_COLUMN_INDEX = 0;
   public static final int STATUS_COLUMN_INDEX = 1;
@@ -31,8 +34,6 @@ public class PaymentTableModel extends AbstractTableModel {
   public static final int AMOUNT_BTC_COLUMN_INDEX = 4;
   public static final int AMOUNT_FIAT_COLUMN_INDEX = 5;
 
-  private static final Logger log = LoggerFactory.getLogger(PaymentTableModel.class);
-
   private String[] columnNames = {
           Languages.safeText(MessageKey.DATE),
           Languages.safeText(MessageKey.STATUS),
@@ -42,10 +43,6 @@ public class PaymentTableModel extends AbstractTableModel {
           Languages.safeText(MessageKey.LOCAL_AMOUNT) + " " + Configurations.currentConfiguration.getBitcoin().getLocalCurrencySymbol()
   };
 
-  private Object[][] data;
-
-  private List<PaymentData> paymentData;
-
   public PaymentTableModel(List<PaymentData> paymentData) {
     setPaymentData(paymentData, false);
   }
@@ -53,57 +50,73 @@ public class PaymentTableModel extends AbstractTableModel {
   /**
    * Set the payment data into the table
    *
-   * @param paymentData The paymentData to show in the table
+   * @param paymentData          The paymentData to show in the table
+   * @param fireTableDataChanged True if the differences from the current payments should be fired (EDT only)
    */
   public void setPaymentData(List<PaymentData> paymentData, boolean fireTableDataChanged) {
 
-    this.paymentData = paymentData;
+    setRows(paymentData, fireTableDataChanged);
 
-    data = new Object[paymentData.size()][];
+  }
 
-    int row = 0;
-    for (PaymentData payment : paymentData) {
+  public int getColumnCount() {
+    return columnNames.length;
+  }
 
-      Object[] rowData = new Object[]{
-              payment.getDate(),
-              payment.getStatus(),
-              payment.getType(),
-              payment.getDescription(),
-              payment.getAmountCoin(),
-              payment.getAmountFiat()
-      };
+  public String getColumnName(int col) {
+    return columnNames[col];
+  }
 
-      data[row] = rowData;
+  @Override
+  protected String getKey(PaymentData payment) {
 
-      row++;
+    // Transactions and payment requests are held in separate namespaces
+    if (payment instanceof TransactionData) {
+      return "tx:" + ((TransactionData) payment).getTransactionId();
     }
-    if (fireTableDataChanged) {
-      fireTableDataChanged();
+    if (payment instanceof PaymentRequestData) {
+      return "pr:" + ((PaymentRequestData) payment).getAddress();
     }
-  }
 
-  public int getColumnCount() {
-    return columnNames.length;
+    return payment.getClass().getName() + ":" + payment.hashCode();
   }
 
-  public int getRowCount() {
-    return data.length;
+  @Override
+  protected Object getCellValue(PaymentData payment, int col) {
+    switch (col) {
+      case DATE_COLUMN_INDEX : return payment.getDate();
+      case STATUS_COLUMN_INDEX : return payment.getStatus();
+      case TYPE_COLUMN_INDEX : return payment.getType();
+      case DESCRIPTION_COLUMN_INDEX : return payment.getDescription();
+      case AMOUNT_BTC_COLUMN_INDEX : return payment.getAmountCoin();
+      case AMOUNT_FIAT_COLUMN_INDEX : return payment.getAmountFiat();
+      default: return "";
+    }
   }
 
-  public String getColumnName(int col) {
-    return columnNames[col];
-  }
+  /**
+   * <p>The payment status has no value-based hash code so its displayed parts are used instead</p>
+   */
+  @Override
+  protected int getFingerprint(PaymentData payment) {
 
-  public Object getValueAt(int row, int col) {
-    if (data.length == 0) {
-      return "";
-    }
-    try {
-      return data[row][col];
-    } catch (NullPointerException npe) {
-      log.error("NullPointerException reading row = " + row + ", column = " + col);
-      return "";
+    PaymentStatus status = payment.getStatus();
+    if (status == null) {
+      return super.getFingerprint(payment);
     }
+
+    return Objects.hashCode(
+      payment.getDate(),
+      status.getStatus(),
+      status.getStatusKey(),
+      status.getDepth(),
+      Arrays.hashCode(status.getStatusData()),
+      payment.isCoinBase(),
+      payment.getType(),
+      payment.getDescription(),
+      payment.getAmountCoin(),
+      payment.getAmountFiat()
+    );
   }
 
   /**
@@ -131,8 +144,11 @@ public class PaymentTableModel extends AbstractTableModel {
     // No table updates allowed
   }
 
+  /**
+   * @return A copy of the payment data in model order (use <code>getRowValue</code> for a single row)
+   */
   public List<PaymentData> getPaymentData() {
-    return paymentData;
+    return getRowValues();
   }
 
 }
@@ -3,6 +3,8 @@ package org.multibit.hd.ui.views.screens.contacts;
 import com.google.common.base.Preconditions;
 import org.multibit.hd.core.dto.Contact;
 import org.multibit.hd.core.services.ContactService;
+import org.multibit.hd.core.services.CoreServices;
+import org.multibit.hd.core.services.PersistenceService;
 import org.multibit.hd.ui.views.screens.AbstractScreenModel;
 import org.multibit.hd.ui.views.screens.Screen;
 
@@ -64,7 +66,7 @@ public class ContactsScreenModel extends AbstractScreenModel {
 
     contactService.removeAll(selectedContacts);
 
-    contactService.writeContacts();
+    CoreServices.getCurrentPersistenceService().markDirty(PersistenceService.Store.CONTACTS);
 
   }
 
@@ -77,7 +79,7 @@ public class ContactsScreenModel extends AbstractScreenModel {
       Collection<Contact> contacts = undoStack.pop();
 
       contactService.addAll(contacts);
-      contactService.writeContacts();
+      CoreServices.getCurrentPersistenceService().markDirty(PersistenceService.Store.CONTACTS);
 
     }
 
@@ -2,9 +2,12 @@ package org.multibit.hd.ui.views.screens.contacts;
 
 import com.google.common.collect.Lists;
 import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.FutureCallback;
 import net.miginfocom.swing.MigLayout;
 import org.multibit.hd.core.dto.Contact;
 import org.multibit.hd.core.dto.comparators.ContactNameComparator;
+import org.multibit.hd.core.services.CoreServices;
+import org.multibit.hd.core.services.PersistenceService;
 import org.multibit.hd.ui.events.view.ComponentChangedEvent;
 import org.multibit.hd.ui.events.view.WizardHideEvent;
 import org.multibit.hd.ui.languages.Languages;
@@ -27,6 +30,7 @@ import java.awt.event.*;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * <p>View to provide the following to application:</p>
@@ -133,11 +137,36 @@ public class ContactsScreenView extends AbstractScreenView<ContactsScreenModel>
     // Check if this event applies to us
     if (event.getPanelName().equals(getScreen().name())) {
 
-      // Check the search MaV model for a query and apply it
-      List<Contact> contacts = getScreenModel().filterContactsByContent(enterSearchMaV.getModel().getValue());
+      // Check the search MaV model for a query and apply it off the EDT
+      final String query = enterSearchMaV.getModel().getValue();
 
-      // Repopulate the table accordingly
-      contactsTableModel.setContacts(contacts, true);
+      CoreServices.getOrCreateSearchService().submit(
+        getScreen().name(),
+        new Callable<List<Contact>>() {
+          @Override
+          public List<Contact> call() throws Exception {
+            return getScreenModel().filterContactsByContent(query);
+          }
+        },
+        new FutureCallback<List<Contact>>() {
+          @Override
+          public void onSuccess(final List<Contact> contacts) {
+
+            SwingUtilities.invokeLater(new Runnable() {
+              @Override
+              public void run() {
+                // Repopulate the table accordingly
+                contactsTableModel.setContacts(contacts, true);
+              }
+            });
+
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            log.error("Contacts search failed", t);
+          }
+        });
 
     }
   }
@@ -165,7 +194,7 @@ public class ContactsScreenView extends AbstractScreenView<ContactsScreenModel>
     List<Contact> contacts = ((EditContactWizardModel) event.getWizardModel()).getContacts();
 
     getScreenModel().getContactService().updateContacts(contacts);
-    getScreenModel().getContactService().writeContacts();
+    CoreServices.getCurrentPersistenceService().markDirty(PersistenceService.Store.CONTACTS);
 
     // Repopulate the table accordingly
     contactsTableModel.setContacts(getScreenModel().getContacts(), true);
@@ -1,11 +1,14 @@
 package org.multibit.hd.ui.views.screens.history;
 
 import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import net.miginfocom.swing.MigLayout;
 import org.multibit.hd.core.concurrent.SafeExecutors;
 import org.multibit.hd.core.dto.HistoryEntry;
 import org.multibit.hd.core.events.HistoryChangedEvent;
+import org.multibit.hd.core.services.CoreServices;
+import org.multibit.hd.core.services.PersistenceService;
 import org.multibit.hd.ui.events.view.ComponentChangedEvent;
 import org.multibit.hd.ui.events.view.WizardHideEvent;
 import org.multibit.hd.ui.languages.MessageKey;
@@ -20,10 +23,13 @@ import org.multibit.hd.ui.views.wizards.Wizards;
 import org.multibit.hd.ui.views.wizards.edit_history.EditHistoryState;
 import org.multibit.hd.ui.views.wizards.edit_history.EditHistoryWizardModel;
 import org.multibit.hd.ui.views.wizards.edit_history.EnterHistoryDetailsMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.swing.*;
 import java.awt.event.*;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * <p>View to provide the following to application:</p>
@@ -36,6 +42,8 @@ import java.util.List;
  */
 public class HistoryScreenView extends AbstractScreenView<HistoryScreenModel> implements ActionListener {
 
+  private static final Logger log = LoggerFactory.getLogger(HistoryScreenView.class);
+
   // View components
   private ModelAndView<EnterSearchModel, EnterSearchView> enterSearchMaV;
   private JComboBox<String> checkSelectorComboBox;
@@ -121,11 +129,29 @@ public class HistoryScreenView extends AbstractScreenView<HistoryScreenModel> im
     // Check if this event applies to us
     if (event.getPanelName().equals(getScreen().name())) {
 
-      // Check the search MaV model for a query and apply it
-      List<HistoryEntry> historyEntries = getScreenModel().filterHistoryByContent(enterSearchMaV.getModel().getValue());
+      // Check the search MaV model for a query and apply it off the EDT
+      final String query = enterSearchMaV.getModel().getValue();
 
-      // Repopulate the table accordingly
-      historyTableModel.setHistoryEntries(historyEntries, true);
+      CoreServices.getOrCreateSearchService().submit(
+        getScreen().name(),
+        new Callable<List<HistoryEntry>>() {
+          @Override
+          public List<HistoryEntry> call() throws Exception {
+            return getScreenModel().filterHistoryByContent(query);
+          }
+        },
+        new FutureCallback<List<HistoryEntry>>() {
+          @Override
+          public void onSuccess(List<HistoryEntry> historyEntries) {
+            // Repopulate the table accordingly (the model applies the differences on the EDT)
+            historyTableModel.setHistoryEntries(historyEntries, true);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            log.error("History search failed", t);
+          }
+        });
 
     }
   }
@@ -153,7 +179,7 @@ public class HistoryScreenView extends AbstractScreenView<HistoryScreenModel> im
     List<HistoryEntry> historyEntries = ((EditHistoryWizardModel) event.getWizardModel()).getHistoryEntries();
 
     getScreenModel().getHistoryService().updateHistory(historyEntries);
-    getScreenModel().getHistoryService().writeHistory();
+    CoreServices.getCurrentPersistenceService().markDirty(PersistenceService.Store.HISTORY);
 
     update();
 
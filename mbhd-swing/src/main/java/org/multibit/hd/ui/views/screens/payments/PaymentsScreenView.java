@@ -1,6 +1,7 @@
 package org.multibit.hd.ui.views.screens.payments;
 
 import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.FutureCallback;
 import net.miginfocom.swing.MigLayout;
 import org.multibit.hd.core.dto.PaymentData;
 import org.multibit.hd.core.dto.PaymentRequestData;
@@ -40,6 +41,8 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.io.File;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * <p>View to provide the following to application:</p>
@@ -54,6 +57,11 @@ public class PaymentsScreenView extends AbstractScreenView<PaymentsScreenModel>
 
   private static final Logger log = LoggerFactory.getLogger(PaymentsScreenView.class);
 
+  /**
+   * True if the next search must first refresh the wallet payment list
+   */
+  private final AtomicBoolean refreshPending = new AtomicBoolean(false);
+
   private JTable paymentsTable;
 
   private JButton detailsButton;
@@ -179,34 +187,52 @@ public class PaymentsScreenView extends AbstractScreenView<PaymentsScreenModel>
 
     if (paymentsTable != null) {
 
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
+      if (refreshData) {
+        // A later search must not lose the refresh
+        refreshPending.set(true);
+      }
 
-          try {
-            // Remember the selected row
-            int selectedTableRow = paymentsTable.getSelectedRow();
+      // Check the search MaV model for a query and apply it off the EDT
+      final String query = enterSearchMaV.getModel().getValue();
+
+      CoreServices.getOrCreateSearchService().submit(
+        getScreen().name(),
+        new Callable<List<PaymentData>>() {
+          @Override
+          public List<PaymentData> call() throws Exception {
 
             WalletService walletService = CoreServices.getCurrentWalletService().get();
 
             // Refresh the wallet payment list if asked
-            if (refreshData) {
+            if (refreshPending.getAndSet(false)) {
               walletService.getPaymentDataList();
             }
-            // Check the search MaV model for a query and apply it
-            List<PaymentData> filteredPaymentDataList = walletService.filterPaymentsByContent(enterSearchMaV.getModel().getValue());
 
-            ((PaymentTableModel) paymentsTable.getModel()).setPaymentData(filteredPaymentDataList, true);
+            return walletService.filterPaymentsByContent(query);
+          }
+        },
+        new FutureCallback<List<PaymentData>>() {
+          @Override
+          public void onSuccess(final List<PaymentData> filteredPaymentDataList) {
+
+            SwingUtilities.invokeLater(new Runnable() {
+              @Override
+              public void run() {
+                // Only the differences are fired so the selection follows its payment
+                ((PaymentTableModel) paymentsTable.getModel()).setPaymentData(filteredPaymentDataList, true);
+              }
+            });
+
+          }
 
-            // Reselect the selected row if possible
-            if (selectedTableRow != -1 && selectedTableRow < paymentsTable.getModel().getRowCount()) {
-              paymentsTable.changeSelection(selectedTableRow, 0, false, false);
+          @Override
+          public void onFailure(Throwable t) {
+            if (!(t instanceof IllegalStateException)) {
+              log.error("Payments search failed", t);
             }
-          } catch (IllegalStateException ise) {
             // No wallet is open - nothing to do
           }
-        }
-      });
+        });
     }
 
   }
@@ -229,7 +255,7 @@ public class PaymentsScreenView extends AbstractScreenView<PaymentsScreenModel>
           return;
         }
         int selectedModelRow = paymentsTable.convertRowIndexToModel(selectedTableRow);
-        PaymentData paymentData = ((PaymentTableModel) paymentsTable.getModel()).getPaymentData().get(selectedModelRow);
+        PaymentData paymentData = ((PaymentTableModel) paymentsTable.getModel()).getRowValue(selectedModelRow);
         log.debug("getDetailsAction : selectedTableRow = " + selectedTableRow + ", selectedModelRow = " + selectedModelRow + ", paymentData = " + paymentData.toString());
 
         PaymentsWizard wizard = Wizards.newPaymentsWizard(paymentData);
@@ -293,7 +319,7 @@ public class PaymentsScreenView extends AbstractScreenView<PaymentsScreenModel>
         int selectedModelRow = paymentsTable.convertRowIndexToModel(selectedTableRow);
         log.debug("getExportAction : selectedTableRow = " + selectedTableRow + ", selectedModelRow = " + selectedModelRow);
 
-        PaymentData paymentData = ((PaymentTableModel) paymentsTable.getModel()).getPaymentData().get(selectedModelRow);
+        PaymentData paymentData = ((PaymentTableModel) paymentsTable.getModel()).getRowValue(selectedModelRow);
 
         if (paymentData instanceof PaymentRequestData) {
           // We can delete this
@@ -3,6 +3,7 @@ package org.multibit.hd.ui.views.themes;
 import com.google.common.base.Preconditions;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.multibit.hd.ui.languages.LanguageKey;
+import org.multibit.hd.ui.views.components.PaymentStatusIcons;
 
 import javax.swing.*;
 import javax.swing.plaf.ColorUIResource;
@@ -69,6 +70,7 @@ public class Themes {
 
     // Ensure the language icons match the colour scheme
     LanguageKey.resetIcons();
+    PaymentStatusIcons.resetIcons();
 
     // Adjust the font size
     initializeFontSize();
@@ -13,7 +13,6 @@ import com.google.common.util.concurrent.ListenableFuture;
 import net.miginfocom.swing.MigLayout;
 import org.multibit.hd.core.dto.Contact;
 import org.multibit.hd.core.utils.Addresses;
-import org.multibit.hd.ui.MultiBitUI;
 import org.multibit.hd.ui.events.view.ViewEvents;
 import org.multibit.hd.ui.gravatar.Gravatars;
 import org.multibit.hd.ui.languages.MessageKey;
@@ -386,8 +385,8 @@ public class EditContactEnterDetailsPanelView extends AbstractWizardPanelView<Ed
       public void onSuccess(Optional<BufferedImage> image) {
         if (image.isPresent()) {
 
-          // Apply the rounded corners
-          final ImageIcon imageIcon = new ImageIcon(ImageDecorator.applyRoundedCorners(image.get(), MultiBitUI.IMAGE_CORNER_RADIUS));
+          // Rounded corners are applied by the gravatar cache
+          final ImageIcon imageIcon = new ImageIcon(image.get());
 
           // Update the UI
           SwingUtilities.invokeLater(new Runnable() {
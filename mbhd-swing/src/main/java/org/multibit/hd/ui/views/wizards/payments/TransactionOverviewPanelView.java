@@ -271,8 +271,8 @@ public class TransactionOverviewPanelView extends AbstractWizardPanelView<Paymen
         public void onSuccess(Optional<BufferedImage> image) {
           if (image.isPresent()) {
 
-            // Apply the rounded corners
-            ImageIcon imageIcon = new ImageIcon(ImageDecorator.applyRoundedCorners(image.get(), MultiBitUI.IMAGE_CORNER_RADIUS));
+            // Rounded corners are applied by the gravatar cache
+            ImageIcon imageIcon = new ImageIcon(image.get());
 
             recipientImageLabel.setIcon(imageIcon);
           } else {
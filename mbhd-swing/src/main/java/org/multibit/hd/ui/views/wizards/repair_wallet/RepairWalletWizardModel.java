@@ -154,7 +154,8 @@ public class RepairWalletWizardModel extends AbstractWizardModel<RepairWalletSta
         @Override
         public Boolean call() throws Exception {
 
-          CoreServices.getOrCreateBitcoinNetworkService().replayWallet(InstallationManager.getOrCreateApplicationDataDirectory(), Optional.of(replayDate.toDate()));
+          // A repair always rebuilds the block store in case it is the cause of the problem
+          CoreServices.getOrCreateBitcoinNetworkService().replayWallet(InstallationManager.getOrCreateApplicationDataDirectory(), Optional.of(replayDate.toDate()), true);
           return true;
 
         }
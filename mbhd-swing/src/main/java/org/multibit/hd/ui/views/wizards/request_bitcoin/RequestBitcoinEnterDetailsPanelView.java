@@ -10,14 +10,13 @@ import org.multibit.hd.core.dto.FiatPayment;
 import org.multibit.hd.core.dto.PaymentRequestData;
 import org.multibit.hd.core.dto.WalletSummary;
 import org.multibit.hd.core.events.ExchangeRateChangedEvent;
-import org.multibit.hd.core.exceptions.ExceptionHandler;
-import org.multibit.hd.core.exceptions.PaymentsSaveException;
 import org.multibit.hd.core.exchanges.ExchangeKey;
 import org.multibit.hd.core.managers.InstallationManager;
 import org.multibit.hd.core.managers.WalletManager;
 import org.multibit.hd.core.services.BitcoinNetworkService;
 import org.multibit.hd.core.services.ContactService;
 import org.multibit.hd.core.services.CoreServices;
+import org.multibit.hd.core.services.PersistenceService;
 import org.multibit.hd.core.services.WalletService;
 import org.multibit.hd.core.utils.Addresses;
 import org.multibit.hd.ui.MultiBitUI;
@@ -223,12 +222,8 @@ public class RequestBitcoinEnterDetailsPanelView extends AbstractWizardPanelView
     paymentRequestData.setAmountFiat(fiatPayment);
 
     walletService.addPaymentRequest(paymentRequestData);
-    try {
-      log.debug("Saving payment information");
-      walletService.writePayments();
-    } catch (PaymentsSaveException pse) {
-      ExceptionHandler.handleThrowable(pse);
-    }
+    log.debug("Saving payment information");
+    CoreServices.getCurrentPersistenceService().markDirty(PersistenceService.Store.PAYMENTS);
 
 
     // Ensure the views that display payments update through a "wallet detail changed" event
@@ -10,11 +10,15 @@ import org.multibit.hd.brit.dto.FeeState;
 import org.multibit.hd.brit.services.FeeService;
 import org.multibit.hd.core.config.Configuration;
 import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.dto.BatchRecipient;
+import org.multibit.hd.core.dto.SendRequestSummary;
 import org.multibit.hd.core.dto.WalletType;
 import org.multibit.hd.core.managers.WalletManager;
 import org.multibit.hd.ui.events.view.ViewEvents;
+import org.multibit.hd.ui.languages.Formats;
 import org.multibit.hd.ui.languages.Languages;
 import org.multibit.hd.ui.languages.MessageKey;
+import org.multibit.hd.ui.utils.HtmlUtils;
 import org.multibit.hd.ui.views.components.*;
 import org.multibit.hd.ui.views.components.display_amount.DisplayAmountModel;
 import org.multibit.hd.ui.views.components.display_amount.DisplayAmountStyle;
@@ -28,6 +32,7 @@ import org.multibit.hd.ui.views.wizards.AbstractWizardPanelView;
 import org.multibit.hd.ui.views.wizards.WizardButton;
 
 import javax.swing.*;
+import java.util.List;
 
 /**
  * <p>View to provide the following to UI:</p>
@@ -276,12 +281,28 @@ public class SendBitcoinConfirmPanelView extends AbstractWizardPanelView<SendBit
 
     clientFeeInfoLabel.setText(feeText);
 
-    // Update the model and view for the recipient
-    recipientSummaryLabel.setText(
-      getWizardModel()
-        .getRecipient()
-        .getSummary()
-    );
+    // Update the model and view for the recipient (a batch shows the count and lists every recipient)
+    SendRequestSummary sendRequestSummary = getWizardModel().getSendRequestSummary();
+    if (sendRequestSummary.isBatch()) {
+      List<BatchRecipient> batchRecipients = sendRequestSummary.getRecipients();
+      String[] recipientLines = new String[batchRecipients.size()];
+      for (int i = 0; i < recipientLines.length; i++) {
+        recipientLines[i] = batchRecipients.get(i).getBitcoinAddress().toString() + " " + Formats.formatCoinAsSymbolicText(
+          batchRecipients.get(i).getAmount(),
+          configuration.getLanguage(),
+          configuration.getBitcoin()
+        );
+      }
+      recipientSummaryLabel.setText(Languages.safeText(MessageKey.BATCH_RECIPIENT_SUMMARY, batchRecipients.size()));
+      recipientSummaryLabel.setToolTipText(HtmlUtils.localiseWithLineBreaks(recipientLines));
+    } else {
+      recipientSummaryLabel.setText(
+        getWizardModel()
+          .getRecipient()
+          .getSummary()
+      );
+      recipientSummaryLabel.setToolTipText(null);
+    }
 
     return true;
   }
@@ -1,11 +1,21 @@
 package org.multibit.hd.ui.views.wizards.send_bitcoin;
 
 import org.bitcoinj.core.Coin;
+import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import net.miginfocom.swing.MigLayout;
+import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.dto.BatchRecipient;
+import org.multibit.hd.core.dto.RAGStatus;
 import org.multibit.hd.core.dto.Recipient;
+import org.multibit.hd.core.utils.BatchRecipients;
+import org.multibit.hd.ui.events.controller.ControllerEvents;
 import org.multibit.hd.ui.events.view.ViewEvents;
+import org.multibit.hd.ui.languages.Formats;
+import org.multibit.hd.ui.languages.Languages;
 import org.multibit.hd.ui.languages.MessageKey;
+import org.multibit.hd.ui.models.Models;
+import org.multibit.hd.ui.views.components.Buttons;
 import org.multibit.hd.ui.views.components.Components;
 import org.multibit.hd.ui.views.components.ModelAndView;
 import org.multibit.hd.ui.views.components.Panels;
@@ -19,7 +29,17 @@ import org.multibit.hd.ui.views.wizards.AbstractWizard;
 import org.multibit.hd.ui.views.wizards.AbstractWizardPanelView;
 import org.multibit.hd.ui.views.wizards.WizardButton;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.List;
 
 /**
  * <p>View to provide the following to UI:</p>
@@ -33,6 +53,8 @@ import javax.swing.*;
 
 public class SendBitcoinEnterAmountPanelView extends AbstractWizardPanelView<SendBitcoinWizardModel, SendBitcoinEnterAmountPanelModel> {
 
+  private static final Logger log = LoggerFactory.getLogger(SendBitcoinEnterAmountPanelView.class);
+
   // Panel specific components
   private ModelAndView<EnterRecipientModel, EnterRecipientView> enterRecipientMaV;
   private ModelAndView<EnterAmountModel, EnterAmountView> enterAmountMaV;
@@ -75,7 +97,7 @@ public class SendBitcoinEnterAmountPanelView extends AbstractWizardPanelView<Sen
     contentPanel.setLayout(new MigLayout(
       Panels.migXYLayout(),
       "[]", // Column constraints
-      "[]10[]" // Row constraints
+      "[]10[]10[]" // Row constraints
     ));
 
     // Apply any Bitcoin URI parameters
@@ -93,6 +115,7 @@ public class SendBitcoinEnterAmountPanelView extends AbstractWizardPanelView<Sen
 
     contentPanel.add(enterRecipientMaV.getView().newComponentPanel(), "wrap");
     contentPanel.add(enterAmountMaV.getView().newComponentPanel(), "wrap");
+    contentPanel.add(Buttons.newImportCsvButton(getImportCsvAction()), "wrap");
 
   }
 
@@ -156,5 +179,79 @@ public class SendBitcoinEnterAmountPanelView extends AbstractWizardPanelView<Sen
 
     return bitcoinAmountOK && recipientOK;
   }
-}
 
+  /**
+   * @return An action to import several recipients from a CSV file so they can be paid from a single transaction
+   */
+  private Action getImportCsvAction() {
+
+    return new AbstractAction() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
+
+        if (fileChooser.showOpenDialog(getWizardScreenPanel(false)) != JFileChooser.APPROVE_OPTION) {
+          return;
+        }
+
+        importCsv(fileChooser.getSelectedFile());
+
+      }
+    };
+  }
+
+  /**
+   * @param csvFile The file containing "address,amount" lines
+   */
+  private void importCsv(File csvFile) {
+
+    final List<BatchRecipient> batchRecipients;
+    try (Reader reader = new InputStreamReader(new FileInputStream(csvFile), Charsets.UTF_8)) {
+      batchRecipients = BatchRecipients.parseCsv(reader);
+    } catch (IOException | IllegalArgumentException e) {
+      log.warn("Could not import recipients from '{}'", csvFile.getAbsolutePath(), e);
+      ControllerEvents.fireAddAlertEvent(
+        Models.newAlertModel(
+          Languages.safeText(MessageKey.IMPORT_CSV_FAILED, e.getMessage()),
+          RAGStatus.RED)
+      );
+      return;
+    }
+
+    if (batchRecipients.isEmpty()) {
+      ControllerEvents.fireAddAlertEvent(
+        Models.newAlertModel(
+          Languages.safeText(MessageKey.IMPORT_CSV_FAILED, Languages.safeText(MessageKey.IMPORT_CSV_EMPTY)),
+          RAGStatus.AMBER)
+      );
+      return;
+    }
+
+    Coin total = BatchRecipients.totalAmount(batchRecipients);
+    getWizardModel().setBatchRecipients(Optional.of(batchRecipients));
+
+    // Present the first recipient and the batch total (editing either reverts to a single recipient send)
+    enterRecipientMaV.getModel().setValue(new Recipient(batchRecipients.get(0).getBitcoinAddress()));
+    enterAmountMaV.getModel().setCoinAmount(total);
+    enterRecipientMaV.getView().updateViewFromModel();
+    enterAmountMaV.getView().updateViewFromModel();
+
+    updateFromComponentModels(Optional.absent());
+
+    ControllerEvents.fireAddAlertEvent(
+      Models.newAlertModel(
+        Languages.safeText(
+          MessageKey.IMPORT_CSV_SUCCESS,
+          batchRecipients.size(),
+          Formats.formatCoinAsSymbolicText(
+            total,
+            Configurations.currentConfiguration.getLanguage(),
+            Configurations.currentConfiguration.getBitcoin()
+          )),
+        RAGStatus.GREEN)
+    );
+
+  }
+}
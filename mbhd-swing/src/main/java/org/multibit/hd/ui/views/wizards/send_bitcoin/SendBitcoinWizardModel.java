@@ -16,6 +16,7 @@ import org.multibit.hd.core.exchanges.ExchangeKey;
 import org.multibit.hd.core.managers.WalletManager;
 import org.multibit.hd.core.services.BitcoinNetworkService;
 import org.multibit.hd.core.services.CoreServices;
+import org.multibit.hd.core.utils.BatchRecipients;
 import org.multibit.hd.core.utils.BitcoinSymbol;
 import org.multibit.hd.hardware.core.events.HardwareWalletEvent;
 import org.multibit.hd.hardware.core.messages.ButtonRequest;
@@ -64,6 +65,11 @@ public class SendBitcoinWizardModel extends AbstractHardwareWalletWizardModel<Se
 
   private final Optional<BitcoinURI> bitcoinURI;
 
+  /**
+   * The recipients imported from a CSV file (paid from a single transaction)
+   */
+  private Optional<List<BatchRecipient>> batchRecipients = Optional.absent();
+
   /**
    * The SendRequestSummary that initially contains all the tx details, and then is signed prior to sending
    */
@@ -230,6 +236,20 @@ public class SendBitcoinWizardModel extends AbstractHardwareWalletWizardModel<Se
     return bitcoinURI;
   }
 
+  /**
+   * @return The recipients imported from a CSV file, if any
+   */
+  public Optional<List<BatchRecipient>> getBatchRecipients() {
+    return batchRecipients;
+  }
+
+  /**
+   * @param batchRecipients The recipients imported from a CSV file
+   */
+  public void setBatchRecipients(Optional<List<BatchRecipient>> batchRecipients) {
+    this.batchRecipients = batchRecipients;
+  }
+
   /**
    * @return the SendRequestSummary that includes all the tx details
    */
@@ -278,20 +298,47 @@ public class SendBitcoinWizardModel extends AbstractHardwareWalletWizardModel<Se
     }
 
     // Prepare the transaction i.e work out the fee sizes (not empty wallet)
-    sendRequestSummary = new SendRequestSummary(
-      bitcoinAddress,
-      coin,
-      fiatPayment,
-      changeAddress,
-      BitcoinNetworkService.DEFAULT_FEE_PER_KB,
-      null,
-      feeState,
-      false);
+    if (isBatchUnchanged(bitcoinAddress, coin)) {
+      // Pay every imported recipient from a single transaction
+      sendRequestSummary = new SendRequestSummary(
+        batchRecipients.get(),
+        fiatPayment,
+        changeAddress,
+        BitcoinNetworkService.DEFAULT_FEE_PER_KB,
+        null,
+        feeState);
+    } else {
+      sendRequestSummary = new SendRequestSummary(
+        bitcoinAddress,
+        coin,
+        fiatPayment,
+        changeAddress,
+        BitcoinNetworkService.DEFAULT_FEE_PER_KB,
+        null,
+        feeState,
+        false);
+    }
 
     log.debug("Just about to prepare transaction for sendRequestSummary: {}", sendRequestSummary);
     return bitcoinNetworkService.prepareTransaction(sendRequestSummary);
   }
 
+  /**
+   * @param bitcoinAddress The recipient address shown on the "enter amount" panel
+   * @param coin           The amount shown on the "enter amount" panel
+   *
+   * @return True if imported recipients are present and the user has not since edited the recipient or amount
+   */
+  private boolean isBatchUnchanged(Address bitcoinAddress, Coin coin) {
+
+    if (!batchRecipients.isPresent() || batchRecipients.get().isEmpty()) {
+      return false;
+    }
+
+    return batchRecipients.get().get(0).getBitcoinAddress().equals(bitcoinAddress)
+      && BatchRecipients.totalAmount(batchRecipients.get()).equals(coin);
+  }
+
   private void sendBitcoin() {
 
     // Actually send the bitcoin by signing using the credentials, committing to the wallet and broadcasting to the Bitcoin network
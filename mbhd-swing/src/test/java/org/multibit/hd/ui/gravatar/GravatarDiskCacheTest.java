@@ -0,0 +1,107 @@
+package org.multibit.hd.ui.gravatar;
+
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class GravatarDiskCacheTest {
+
+  private static final long POSITIVE_TTL_MILLIS = TimeUnit.DAYS.toMillis(1);
+  private static final long NEGATIVE_TTL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  private File cacheDirectory;
+
+  private GravatarDiskCache testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    cacheDirectory = Files.createTempDir();
+    testObject = new GravatarDiskCache(cacheDirectory, 3, POSITIVE_TTL_MILLIS, NEGATIVE_TTL_MILLIS);
+
+  }
+
+  @Test
+  public void testWriteAndReadImage() throws Exception {
+
+    testObject.writeImage("abc", new BufferedImage(40, 40, BufferedImage.TYPE_INT_ARGB));
+
+    Optional<BufferedImage> image = testObject.readImage("abc");
+    assertThat(image.isPresent()).isTrue();
+    assertThat(image.get().getWidth()).isEqualTo(40);
+    assertThat(image.get().getColorModel().hasAlpha()).isTrue();
+
+    assertThat(testObject.readImage("def").isPresent()).isFalse();
+
+  }
+
+  @Test
+  public void testNewEntryName_Keyed() throws Exception {
+
+    String entryName = GravatarDiskCache.newEntryName(new byte[]{1, 2, 3}, "alice@example.org");
+
+    assertThat(entryName.length()).isEqualTo(64);
+    assertThat(GravatarDiskCache.newEntryName(new byte[]{1, 2, 3}, "alice@example.org")).isEqualTo(entryName);
+
+    // Without the wallet key material the name cannot be linked to the email address
+    assertThat(GravatarDiskCache.newEntryName(new byte[]{4, 5, 6}, "alice@example.org").equals(entryName)).isFalse();
+
+  }
+
+  @Test
+  public void testOpen_RemovesUnkeyedEntries() throws Exception {
+
+    String entryName = GravatarDiskCache.newEntryName(new byte[]{1, 2, 3}, "alice@example.org");
+    testObject.writeImage(entryName, new BufferedImage(8, 8, BufferedImage.TYPE_INT_ARGB));
+
+    // An entry named by the MD5 email hash sent to Gravatar
+    File md5Entry = new File(cacheDirectory, "0bc83cb571cd1c50ba6f3e8a78ef1346.png");
+    Files.write(new byte[]{1}, md5Entry);
+
+    testObject = new GravatarDiskCache(cacheDirectory, 3, POSITIVE_TTL_MILLIS, NEGATIVE_TTL_MILLIS);
+
+    assertThat(md5Entry.exists()).isFalse();
+    assertThat(testObject.readImage(entryName).isPresent()).isTrue();
+
+  }
+
+  @Test
+  public void testNegativeEntry_Expires() throws Exception {
+
+    testObject.writeNegative("abc");
+    assertThat(testObject.isNegative("abc")).isTrue();
+
+    // Age the marker beyond its time to live
+    File marker = new File(cacheDirectory, "abc.miss");
+    assertThat(marker.setLastModified(System.currentTimeMillis() - 2 * NEGATIVE_TTL_MILLIS)).isTrue();
+
+    assertThat(testObject.isNegative("abc")).isFalse();
+
+  }
+
+  @Test
+  public void testPrune_OldestRemovedBeyondBound() throws Exception {
+
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < 5; i++) {
+      testObject.writeImage("hash" + i, new BufferedImage(8, 8, BufferedImage.TYPE_INT_ARGB));
+      // Make the write order visible regardless of file system timestamp resolution
+      assertThat(new File(cacheDirectory, "hash" + i + ".png").setLastModified(now - (5 - i) * 1000L)).isTrue();
+    }
+
+    assertThat(testObject.prune()).isEqualTo(2);
+
+    assertThat(testObject.readImage("hash0").isPresent()).isFalse();
+    assertThat(testObject.readImage("hash1").isPresent()).isFalse();
+    assertThat(testObject.readImage("hash4").isPresent()).isTrue();
+
+  }
+
+}
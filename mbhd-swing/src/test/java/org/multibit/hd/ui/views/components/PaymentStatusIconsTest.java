@@ -0,0 +1,93 @@
+package org.multibit.hd.ui.views.components;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.dto.CoreMessageKey;
+import org.multibit.hd.core.dto.PaymentStatus;
+import org.multibit.hd.core.dto.RAGStatus;
+import org.multibit.hd.ui.MultiBitUI;
+import org.multibit.hd.ui.views.themes.DarkTheme;
+import org.multibit.hd.ui.views.themes.LightTheme;
+import org.multibit.hd.ui.views.themes.Theme;
+import org.multibit.hd.ui.views.themes.Themes;
+
+import javax.swing.*;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PaymentStatusIconsTest {
+
+  private Theme originalTheme;
+
+  @Before
+  public void setUp() throws Exception {
+
+    originalTheme = Themes.currentTheme;
+    Themes.switchTheme(new LightTheme());
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    Themes.switchTheme(originalTheme);
+
+  }
+
+  @Test
+  public void testGetIcon_ConfirmationBuckets() throws Exception {
+
+    int size = MultiBitUI.SMALL_ICON_SIZE;
+
+    // Each confirmation up to 6 has its own arc
+    ImageIcon oneConfirmation = PaymentStatusIcons.getIcon(newConfirmed(1), false, size);
+    assertThat(PaymentStatusIcons.getIcon(newConfirmed(1), false, size)).isSameAs(oneConfirmation);
+    assertThat(PaymentStatusIcons.getIcon(newConfirmed(2), false, size)).isNotSameAs(oneConfirmation);
+
+    // Beyond the threshold every depth (and a paid payment request) shares the check mark
+    ImageIcon checkMark = PaymentStatusIcons.getIcon(newConfirmed(6), false, size);
+    assertThat(PaymentStatusIcons.getIcon(newConfirmed(1000), false, size)).isSameAs(checkMark);
+    assertThat(PaymentStatusIcons.getIcon(newConfirmed(-1), false, size)).isSameAs(checkMark);
+
+    // Coinbase confirmations use a finer bucket (20 blocks give the same arc as 1 ordinary confirmation)
+    assertThat(PaymentStatusIcons.getIcon(newConfirmed(20), true, size)).isSameAs(oneConfirmation);
+    assertThat(PaymentStatusIcons.getIcon(newConfirmed(6), true, size)).isNotSameAs(checkMark);
+    assertThat(PaymentStatusIcons.getIcon(newConfirmed(120), true, size)).isSameAs(checkMark);
+
+    // Other statuses are held per status and every size has its own atlas
+    ImageIcon unconfirmed = PaymentStatusIcons.getIcon(new PaymentStatus(RAGStatus.AMBER, CoreMessageKey.BROADCAST), false, size);
+    assertThat(PaymentStatusIcons.getIcon(new PaymentStatus(RAGStatus.AMBER, CoreMessageKey.BROADCAST), false, size)).isSameAs(unconfirmed);
+    assertThat(PaymentStatusIcons.getIcon(newConfirmed(1), false, MultiBitUI.NORMAL_ICON_SIZE)).isNotSameAs(oneConfirmation);
+
+  }
+
+  @Test
+  public void testGetIcon_ResetOnThemeSwitch() throws Exception {
+
+    int size = MultiBitUI.SMALL_ICON_SIZE;
+
+    ImageIcon lightIcon = PaymentStatusIcons.getIcon(newConfirmed(1), false, size);
+
+    Themes.switchTheme(new DarkTheme());
+
+    ImageIcon darkIcon = PaymentStatusIcons.getIcon(newConfirmed(1), false, size);
+    assertThat(darkIcon).isNotSameAs(lightIcon);
+    assertThat(PaymentStatusIcons.getIcon(newConfirmed(1), false, size)).isSameAs(darkIcon);
+
+    // A theme assigned without a switch is also detected
+    Themes.currentTheme = new LightTheme();
+
+    assertThat(PaymentStatusIcons.getIcon(newConfirmed(1), false, size)).isNotSameAs(darkIcon);
+
+  }
+
+  private PaymentStatus newConfirmed(int depth) {
+
+    PaymentStatus paymentStatus = new PaymentStatus(RAGStatus.GREEN, CoreMessageKey.CONFIRMED_BY_SEVERAL_BLOCKS);
+    paymentStatus.setDepth(depth);
+
+    return paymentStatus;
+  }
+
+}
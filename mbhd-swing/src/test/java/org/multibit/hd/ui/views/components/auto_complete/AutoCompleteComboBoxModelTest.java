@@ -0,0 +1,96 @@
+package org.multibit.hd.ui.views.components.auto_complete;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.swing.*;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class AutoCompleteComboBoxModelTest {
+
+  private final List<String> events = Lists.newArrayList();
+
+  private AutoCompleteComboBoxModel<String> testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    testObject = new AutoCompleteComboBoxModel<>(new DefaultComboBoxModel<>(new String[]{"a", "b", "c", "d"}));
+
+    testObject.addListDataListener(new ListDataListener() {
+      @Override
+      public void intervalAdded(ListDataEvent e) {
+        events.add("added " + e.getIndex0() + "-" + e.getIndex1());
+      }
+
+      @Override
+      public void intervalRemoved(ListDataEvent e) {
+        events.add("removed " + e.getIndex0() + "-" + e.getIndex1());
+      }
+
+      @Override
+      public void contentsChanged(ListDataEvent e) {
+        events.add("changed " + e.getIndex0() + "-" + e.getIndex1());
+      }
+    });
+
+  }
+
+  @Test
+  public void testSetItems_Unchanged() throws Exception {
+
+    testObject.setItems(new String[]{"a", "b", "c", "d"});
+
+    assertThat(events).isEmpty();
+    assertThat(testObject.getSize()).isEqualTo(4);
+
+  }
+
+  @Test
+  public void testSetItems_Grow() throws Exception {
+
+    testObject.setItems(new String[]{"a", "b", "c", "d", "e", "f"});
+
+    assertThat(events).isEqualTo(Arrays.asList("added 4-5"));
+    assertThat(testObject.getSize()).isEqualTo(6);
+    assertThat(testObject.getElementAt(5)).isEqualTo("f");
+
+  }
+
+  @Test
+  public void testSetItems_Shrink() throws Exception {
+
+    testObject.setItems(new String[]{"a", "d"});
+
+    assertThat(events).isEqualTo(Arrays.asList("removed 1-2"));
+    assertThat(testObject.getSize()).isEqualTo(2);
+    assertThat(testObject.getElementAt(1)).isEqualTo("d");
+
+  }
+
+  @Test
+  public void testSetItems_ReplaceMiddle() throws Exception {
+
+    testObject.setItems(new String[]{"a", "x", "y", "d"});
+
+    assertThat(events).isEqualTo(Arrays.asList("changed 1-2"));
+    assertThat(testObject.getElementAt(1)).isEqualTo("x");
+    assertThat(testObject.getElementAt(2)).isEqualTo("y");
+
+    // Replacing fewer items than were there also removes the remainder
+    events.clear();
+    testObject.setItems(new String[]{"a", "z", "d"});
+
+    assertThat(events).isEqualTo(Arrays.asList("changed 1-1", "removed 2-2"));
+    assertThat(testObject.getSize()).isEqualTo(3);
+    assertThat(testObject.getElementAt(1)).isEqualTo("z");
+
+  }
+
+}
@@ -0,0 +1,103 @@
+package org.multibit.hd.ui.views.components.tables;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class AbstractKeyedTableModelTest {
+
+  private final List<String> events = Lists.newArrayList();
+
+  private KeyedStringTableModel testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    testObject = new KeyedStringTableModel();
+    testObject.setRows(Arrays.asList("a:1", "b:1", "c:1", "d:1"), false);
+
+    testObject.addTableModelListener(new TableModelListener() {
+      @Override
+      public void tableChanged(TableModelEvent e) {
+        if (e.getFirstRow() == TableModelEvent.HEADER_ROW || e.getLastRow() == Integer.MAX_VALUE) {
+          events.add("changed");
+        } else {
+          String type = e.getType() == TableModelEvent.INSERT ? "insert" : e.getType() == TableModelEvent.DELETE ? "delete" : "update";
+          events.add(type + " " + e.getFirstRow() + "-" + e.getLastRow());
+        }
+      }
+    });
+
+  }
+
+  @Test
+  public void testSetRows_Unchanged() throws Exception {
+
+    testObject.setRows(Arrays.asList("a:1", "b:1", "c:1", "d:1"), true);
+
+    assertThat(events).isEmpty();
+
+  }
+
+  @Test
+  public void testSetRows_Update() throws Exception {
+
+    testObject.setRows(Arrays.asList("a:1", "b:2", "c:2", "d:1"), true);
+
+    assertThat(events).isEqualTo(Arrays.asList("update 1-2"));
+    assertThat(testObject.getValueAt(2, 1)).isEqualTo("2");
+
+  }
+
+  @Test
+  public void testSetRows_InsertAndDelete() throws Exception {
+
+    testObject.setRows(Arrays.asList("x:1", "a:1", "c:1", "y:1", "z:1"), true);
+
+    assertThat(events).isEqualTo(Arrays.asList("delete 3-3", "delete 1-1", "insert 0-0", "insert 3-4"));
+    assertThat(testObject.getRowCount()).isEqualTo(5);
+    assertThat(testObject.getRowKey(3)).isEqualTo("y");
+    assertThat(testObject.getRowIndex("c")).isEqualTo(2);
+    assertThat(testObject.getRowIndex("b")).isEqualTo(-1);
+
+  }
+
+  @Test
+  public void testSetRows_Reordered() throws Exception {
+
+    testObject.setRows(Arrays.asList("d:1", "c:1", "b:1", "a:1"), true);
+
+    assertThat(events).isEqualTo(Arrays.asList("changed"));
+    assertThat(testObject.getRowKey(0)).isEqualTo("d");
+
+  }
+
+  /**
+   * <p>Rows of the form "key:value"</p>
+   */
+  private static class KeyedStringTableModel extends AbstractKeyedTableModel<String, String> {
+
+    @Override
+    protected String getKey(String value) {
+      return value.split(":")[0];
+    }
+
+    @Override
+    protected Object getCellValue(String value, int col) {
+      return value.split(":")[col];
+    }
+
+    @Override
+    public int getColumnCount() {
+      return 2;
+    }
+  }
+
+}